@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+/**
+ * Common setup of the API benchmarks.
+ * 
+ * <p>
+ * Every benchmark invocation encodes (or decodes) all documents of one
+ * corpus in <code>data/</code> (W3C, XSLT, general) using the given coding
+ * mode. Documents an API explicitly does not support (see
+ * {@link #isSupported(byte[])}) are skipped during setup, any other coding
+ * failure aborts the setup instead of silently shrinking the corpus.
+ * </p>
+ * 
+ * <p>
+ * Run with <code>mvn -Pbenchmark test-compile exec:exec</code>. JMH options
+ * can be passed via <code>-Djmh.args="..."</code>, e.g.
+ * <code>-Djmh.args="SAX -prof gc"</code> for allocation rates.
+ * </p>
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class AbstractAPIBenchmark {
+
+	public static final String DATA_DIRECTORY = "data";
+
+	@Param({ "W3C", "XSLT", "general" })
+	public String corpus;
+
+	@Param({ "BIT_PACKED", "BYTE_PACKED", "PRE_COMPRESSION", "COMPRESSION" })
+	public CodingMode codingMode;
+
+	protected EXIFactory exiFactory;
+
+	/* documents and their EXI representation */
+	protected byte[][] xml;
+	protected byte[][] exi;
+
+	protected final ByteArrayOutputStream os = new ByteArrayOutputStream(
+			64 * 1024);
+
+	@Setup
+	public void setup() throws Exception {
+		exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setCodingMode(codingMode);
+
+		init();
+
+		List<byte[]> xmls = new ArrayList<byte[]>();
+		List<byte[]> exis = new ArrayList<byte[]>();
+		for (File f : getCorpusFiles(corpus)) {
+			byte[] doc = Files.readAllBytes(f.toPath());
+			if (!isSupported(doc)) {
+				continue;
+			}
+			try {
+				os.reset();
+				encodeDocument(doc, os);
+				byte[] enc = os.toByteArray();
+				decodeDocument(enc);
+				xmls.add(doc);
+				exis.add(enc);
+			} catch (Exception e) {
+				throw new IllegalStateException("Coding " + f + " failed ("
+						+ getClass().getSimpleName() + ", " + codingMode
+						+ ")", e);
+			}
+		}
+		if (xmls.isEmpty()) {
+			throw new IllegalStateException("No usable documents in corpus "
+					+ corpus);
+		}
+		xml = xmls.toArray(new byte[xmls.size()][]);
+		exi = exis.toArray(new byte[exis.size()][]);
+	}
+
+	public static List<File> getCorpusFiles(String corpus) throws IOException {
+		File dir = new File(DATA_DIRECTORY, corpus);
+		if (!dir.isDirectory()) {
+			throw new IOException("Corpus directory " + dir.getAbsolutePath()
+					+ " not found, run from project root");
+		}
+		List<File> files = new ArrayList<File>();
+		collect(dir, files);
+		return files;
+	}
+
+	private static void collect(File dir, List<File> files) {
+		File[] children = dir.listFiles();
+		// stable order for repeatable results
+		Arrays.sort(children);
+		for (File f : children) {
+			if (f.isDirectory()) {
+				collect(f, files);
+			} else {
+				String n = f.getName();
+				// external parsed entities (*-er.xml) are no documents
+				if ((n.endsWith(".xml") && !n.endsWith("-er.xml"))
+						|| n.endsWith(".xsl")) {
+					files.add(f);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public int encode() throws Exception {
+		int size = 0;
+		for (int i = 0; i < xml.length; i++) {
+			os.reset();
+			encodeDocument(xml[i], os);
+			size += os.size();
+		}
+		return size;
+	}
+
+	@Benchmark
+	public int decode() throws Exception {
+		int sink = 0;
+		for (int i = 0; i < exi.length; i++) {
+			sink += decodeDocument(exi[i]);
+		}
+		return sink;
+	}
+
+	protected static InputStream toInputStream(byte[] bytes) {
+		return new ByteArrayInputStream(bytes);
+	}
+
+	/**
+	 * Whether the API supports the document, all documents by default
+	 * 
+	 * @param xml
+	 *            XML document
+	 * @return false if the document is to be skipped
+	 */
+	protected boolean isSupported(byte[] xml) {
+		return true;
+	}
+
+	/**
+	 * Checks whether the document type declaration refers to an external DTD
+	 * subset or external entities
+	 * 
+	 * @param xml
+	 *            XML document
+	 * @return true for external declarations
+	 */
+	protected static boolean hasExternalDeclarations(byte[] xml) {
+		String s = new String(xml, StandardCharsets.ISO_8859_1);
+		int start = s.indexOf("<!DOCTYPE");
+		if (start < 0) {
+			return false;
+		}
+		int end = s.indexOf('>', start);
+		int internalSubset = s.indexOf('[', start);
+		if (internalSubset >= 0 && internalSubset < end) {
+			end = s.indexOf("]>", internalSubset);
+		}
+		String decl = s.substring(start, end < 0 ? s.length() : end);
+		return decl.contains("SYSTEM") || decl.contains("PUBLIC");
+	}
+
+	/**
+	 * Creates per-trial objects once the EXI factory is set up
+	 * 
+	 * @throws Exception
+	 *             setup failure
+	 */
+	protected void init() throws Exception {
+	}
+
+	/**
+	 * Encodes one XML document to EXI
+	 * 
+	 * @param xml
+	 *            XML document
+	 * @param os
+	 *            EXI output
+	 * @throws Exception
+	 *             encoding failure
+	 */
+	protected abstract void encodeDocument(byte[] xml, OutputStream os)
+			throws Exception;
+
+	/**
+	 * Decodes one EXI stream
+	 * 
+	 * @param exi
+	 *            EXI stream
+	 * @return value derived from the decoded content (prevents dead code
+	 *         elimination)
+	 * @throws Exception
+	 *             decoding failure
+	 */
+	protected abstract int decodeDocument(byte[] exi) throws Exception;
+
+}
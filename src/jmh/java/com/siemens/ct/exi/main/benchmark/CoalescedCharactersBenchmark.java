@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.SAXException;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.main.api.sax.SAXEncoder;
+
+/**
+ * <code>SAXEncoder</code> throughput with and without coalescing of
+ * fragmented SAX <code>characters()</code> callbacks. Without coalescing
+ * every callback is reported as CH event of its own with a value of its own
+ * (the behavior before characters were coalesced). The number of CH events
+ * per corpus pass is printed at the end of each trial.
+ */
+
+public class CoalescedCharactersBenchmark extends SAXBenchmark {
+
+	static class CountingSAXEncoder extends SAXEncoder {
+		final boolean coalesce;
+		int charactersEvents;
+
+		public CountingSAXEncoder(EXIFactory factory, boolean coalesce)
+				throws EXIException {
+			super(factory);
+			this.coalesce = coalesce;
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length)
+				throws SAXException {
+			if (coalesce) {
+				super.characters(ch, start, length);
+			} else {
+				// the encoder keeps values until the next structural event,
+				// each fragment needs a value of its own
+				try {
+					encoder.encodeCharacters(new StringValue(new String(ch,
+							start, length)));
+				} catch (Exception e) {
+					throw new SAXException("characters="
+							+ new String(ch, start, length), e);
+				}
+				charactersEvents++;
+			}
+		}
+
+		@Override
+		protected void checkPendingChars() throws SAXException {
+			if (pendingCharsLength > 0) {
+				charactersEvents++;
+			}
+			super.checkPendingChars();
+		}
+	}
+
+	@Param({ "true", "false" })
+	public boolean coalesce;
+
+	protected CountingSAXEncoder countingWriter;
+
+	@Override
+	protected void init() throws Exception {
+		super.init();
+		countingWriter = new CountingSAXEncoder(exiFactory, coalesce);
+		exiWriter = countingWriter;
+		xmlReader.setContentHandler(exiWriter);
+	}
+
+	@TearDown
+	public void printCharactersEvents() throws Exception {
+		countingWriter.charactersEvents = 0;
+		for (int i = 0; i < xml.length; i++) {
+			os.reset();
+			encodeDocument(xml[i], os);
+		}
+		System.out.println("CH events per corpus pass (" + corpus + ", "
+				+ codingMode + ", coalesce=" + coalesce + "): "
+				+ countingWriter.charactersEvents);
+	}
+
+}
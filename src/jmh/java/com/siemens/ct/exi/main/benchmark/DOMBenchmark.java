@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.benchmark;
+
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+
+import com.siemens.ct.exi.main.api.dom.DOMBuilder;
+import com.siemens.ct.exi.main.api.dom.DOMWriter;
+import com.siemens.ct.exi.main.util.NoEntityResolver;
+
+/**
+ * <code>DOMWriter</code> and <code>DOMBuilder</code> throughput. Documents
+ * are parsed to DOM once during setup, encoding measures the tree walk only.
+ */
+
+public class DOMBenchmark extends AbstractAPIBenchmark {
+
+	protected DocumentBuilder documentBuilder;
+	protected final Map<byte[], Document> documents = new IdentityHashMap<byte[], Document>(
+			64);
+	protected DOMWriter exiWriter;
+	protected DOMBuilder exiReader;
+
+	@Override
+	protected void init() throws Exception {
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		documentBuilder = dbf.newDocumentBuilder();
+		documentBuilder.setEntityResolver(new NoEntityResolver());
+
+		exiWriter = new DOMWriter(exiFactory);
+		exiReader = new DOMBuilder(exiFactory);
+	}
+
+	@Override
+	protected void encodeDocument(byte[] xml, OutputStream os)
+			throws Exception {
+		Document doc = documents.get(xml);
+		if (doc == null) {
+			// first call happens in setup
+			doc = documentBuilder.parse(toInputStream(xml));
+			documents.put(xml, doc);
+		}
+		exiWriter.setOutput(os);
+		exiWriter.encode(doc);
+	}
+
+	@Override
+	protected int decodeDocument(byte[] exi) throws Exception {
+		Document doc = exiReader.parse(toInputStream(exi));
+		return doc.getDocumentElement().getChildNodes().getLength();
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.benchmark;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.w3c.dom.Document;
+
+import com.siemens.ct.exi.main.util.NoEntityResolver;
+
+/**
+ * <code>DOMWriter</code> tree walk on the documents used by
+ * <code>TestDOMEncoder</code> (namespace-aware, entities not resolved), for
+ * deferred and fully expanded Xerces DOMs, plus one deeply nested document.
+ * 
+ * <p>
+ * E.g., <code>-Djmh.args="DOMWriterBenchmark.encode -prof gc"</code>
+ * </p>
+ */
+
+public class DOMWriterBenchmark extends DOMBenchmark {
+
+	public static final String DEFER_NODE_EXPANSION = "http://apache.org/xml/features/dom/defer-node-expansion";
+
+	public static final int DEEP_DOCUMENT_DEPTH = 5000;
+
+	@Param({ "true", "false" })
+	public boolean deferNodeExpansion;
+
+	protected Document deepDocument;
+
+	@Override
+	protected void init() throws Exception {
+		super.init();
+
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		dbf.setFeature(DEFER_NODE_EXPANSION, deferNodeExpansion);
+		documentBuilder = dbf.newDocumentBuilder();
+		documentBuilder.setEntityResolver(new NoEntityResolver());
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < DEEP_DOCUMENT_DEPTH; i++) {
+			sb.append("<e d=\"" + i + "\">text");
+		}
+		for (int i = 0; i < DEEP_DOCUMENT_DEPTH; i++) {
+			sb.append("</e>");
+		}
+		deepDocument = documentBuilder.parse(toInputStream(sb.toString()
+				.getBytes("UTF-8")));
+	}
+
+	@Benchmark
+	public int encodeDeep() throws Exception {
+		os.reset();
+		exiWriter.setOutput(os);
+		exiWriter.encode(deepDocument);
+		return os.size();
+	}
+
+}
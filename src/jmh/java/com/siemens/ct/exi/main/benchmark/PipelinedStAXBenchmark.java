@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * <code>StAXDecoder</code> throughput with pipelined decoding (decoding and
+ * event consumption on different threads), e.g.
+ * <code>-Djmh.args="PipelinedStAXBenchmark.decode -p codingMode=COMPRESSION"</code>.
+ * Ring size 0 is the single-threaded baseline.
+ */
+
+public class PipelinedStAXBenchmark extends StAXBenchmark {
+
+	@Param({ "0", "256", "4096" })
+	public int ringSize;
+
+	@Override
+	protected void init() throws Exception {
+		super.init();
+		exiReader.setPipelineRingSize(ringSize);
+	}
+
+}
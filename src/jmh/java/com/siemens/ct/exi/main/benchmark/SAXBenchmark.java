@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.benchmark;
+
+import java.io.OutputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.siemens.ct.exi.main.api.sax.SAXDecoder;
+import com.siemens.ct.exi.main.api.sax.SAXEncoder;
+import com.siemens.ct.exi.main.api.sax.SAXFactory;
+import com.siemens.ct.exi.main.util.NoEntityResolver;
+
+/**
+ * <code>SAXEncoder</code> and <code>SAXDecoder</code> throughput. Encoding
+ * includes XML parsing.
+ */
+
+public class SAXBenchmark extends AbstractAPIBenchmark {
+
+	static class CharactersCounter extends DefaultHandler {
+		int length;
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			this.length += length;
+		}
+	}
+
+	protected XMLReader xmlReader;
+	protected SAXEncoder exiWriter;
+	protected SAXDecoder exiReader;
+	protected CharactersCounter counter;
+
+	@Override
+	protected void init() throws Exception {
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setEntityResolver(new NoEntityResolver());
+
+		SAXFactory saxFactory = new SAXFactory(exiFactory);
+		exiWriter = saxFactory.createEXIWriter();
+		exiReader = (SAXDecoder) saxFactory.createEXIReader();
+		counter = new CharactersCounter();
+		xmlReader.setContentHandler(exiWriter);
+		exiReader.setContentHandler(counter);
+	}
+
+	@Override
+	protected void encodeDocument(byte[] xml, OutputStream os)
+			throws Exception {
+		exiWriter.setOutputStream(os);
+		xmlReader.parse(new InputSource(toInputStream(xml)));
+	}
+
+	@Override
+	protected int decodeDocument(byte[] exi) throws Exception {
+		counter.length = 0;
+		exiReader.parse(new InputSource(toInputStream(exi)));
+		return counter.length;
+	}
+
+}
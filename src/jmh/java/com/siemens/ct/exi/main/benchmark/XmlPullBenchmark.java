@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.benchmark;
+
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import com.siemens.ct.exi.main.api.xmlpull.EXIPullParser;
+import com.siemens.ct.exi.main.api.xmlpull.EXISerializer;
+
+/**
+ * <code>EXISerializer</code> and <code>EXIPullParser</code> throughput.
+ * Encoding includes XML parsing (StAX).
+ */
+
+public class XmlPullBenchmark extends AbstractAPIBenchmark {
+
+	protected XMLInputFactory xmlFactory;
+	protected EXISerializer exiWriter;
+	protected EXIPullParser exiReader;
+
+	@Override
+	protected void init() throws Exception {
+		xmlFactory = XMLInputFactory.newInstance();
+		// do not resolve DTDs
+		xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+
+		exiWriter = new EXISerializer(exiFactory);
+		exiReader = new EXIPullParser(exiFactory);
+	}
+
+	@Override
+	protected boolean isSupported(byte[] xml) {
+		// external DTDs and entities are not loaded, see init()
+		return !hasExternalDeclarations(xml);
+	}
+
+	@Override
+	protected void encodeDocument(byte[] xml, OutputStream os)
+			throws Exception {
+		XMLStreamReader xmlReader = xmlFactory
+				.createXMLStreamReader(toInputStream(xml));
+		exiWriter.setOutput(os, null);
+		exiWriter.startDocument(null, null);
+		while (xmlReader.hasNext()) {
+			switch (xmlReader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				for (int i = 0; i < xmlReader.getNamespaceCount(); i++) {
+					String pfx = xmlReader.getNamespacePrefix(i);
+					exiWriter.setPrefix(pfx == null ? "" : pfx,
+							xmlReader.getNamespaceURI(i));
+				}
+				exiWriter.startTag(xmlReader.getNamespaceURI(),
+						xmlReader.getLocalName());
+				for (int i = 0; i < xmlReader.getAttributeCount(); i++) {
+					exiWriter.attribute(xmlReader.getAttributeNamespace(i),
+							xmlReader.getAttributeLocalName(i),
+							xmlReader.getAttributeValue(i));
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				exiWriter.endTag(xmlReader.getNamespaceURI(),
+						xmlReader.getLocalName());
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				exiWriter.text(xmlReader.getTextCharacters(),
+						xmlReader.getTextStart(), xmlReader.getTextLength());
+				break;
+			}
+		}
+		exiWriter.endDocument();
+		xmlReader.close();
+	}
+
+	@Override
+	protected int decodeDocument(byte[] exi) throws Exception {
+		int sink = 0;
+		exiReader.setInput(toInputStream(exi), null);
+		int eventType;
+		while ((eventType = exiReader.next()) != XmlPullParser.END_DOCUMENT) {
+			switch (eventType) {
+			case XmlPullParser.START_TAG:
+				sink += exiReader.getName().length()
+						+ exiReader.getAttributeCount();
+				break;
+			case XmlPullParser.TEXT:
+				sink += exiReader.getText().length();
+				break;
+			}
+		}
+		return sink;
+	}
+
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import com.siemens.ct.exi.main.api.sax.SAXCoderPool;
+import com.siemens.ct.exi.main.api.sax.SAXDecoder;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+
+/**
+ * Reads an EXI archive written by {@link EXIArchiveWriter}.
+ * 
+ * <p>
+ * The archive is memory-mapped and the offset index is loaded when opened,
+ * any document can be decoded directly without touching the documents
+ * before it. Archives up to 2 GB are mapped at once, larger archives are
+ * mapped document by document.
+ * </p>
+ * 
+ * <code>
+ * EXIArchiveReader archive = new EXIArchiveReader(file);
+ * saxDecoder.setContentHandler(...);
+ * saxDecoder.parse(archive.getDocument(n));
+ * </code>
+ * 
+ * <p>
+ * Note: Document buffers stay valid after the reader has been closed (the
+ * mapping is released once the buffers are garbage collected).
+ * </p>
+ */
+
+public class EXIArchiveReader implements Closeable {
+
+	protected final FileChannel channel;
+	protected final long size;
+
+	/* whole archive, null if larger than a single mapping */
+	protected final MappedByteBuffer mapped;
+
+	/* document start offsets, the index position ends the last document */
+	protected final long[] offsets;
+	protected final long indexPosition;
+
+	/**
+	 * Opens the given archive and loads its offset index.
+	 * 
+	 * @param file
+	 *            EXI archive
+	 * @throws IOException
+	 *             file cannot be read or is no EXI archive
+	 */
+	public EXIArchiveReader(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			this.size = channel.size();
+			if (size < EXIArchiveWriter.FOOTER_SIZE) {
+				throw new IOException("No EXI archive, size " + size);
+			}
+			ByteBuffer footer = readFully(size
+					- EXIArchiveWriter.FOOTER_SIZE,
+					EXIArchiveWriter.FOOTER_SIZE);
+			this.indexPosition = footer.getLong();
+			int documents = footer.getInt();
+			if (footer.getInt() != EXIArchiveWriter.ARCHIVE_MAGIC) {
+				throw new IOException("No EXI archive, magic mismatch");
+			}
+			if (documents < 0
+					|| indexPosition < 0
+					|| indexPosition + 8L * documents
+							+ EXIArchiveWriter.FOOTER_SIZE != size) {
+				throw new IOException("Corrupt EXI archive index");
+			}
+
+			this.offsets = new long[documents];
+			readFully(indexPosition, 8 * documents).asLongBuffer().get(
+					offsets);
+			long last = 0;
+			for (int i = 0; i < documents; i++) {
+				if (offsets[i] < last || offsets[i] > indexPosition) {
+					throw new IOException("Corrupt EXI archive index, document "
+							+ i);
+				}
+				last = offsets[i];
+			}
+
+			this.mapped = indexPosition <= Integer.MAX_VALUE ? channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, indexPosition) : null;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	protected ByteBuffer readFully(long position, int length)
+			throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate(length);
+		while (bb.hasRemaining()) {
+			if (channel.read(bb, position + bb.position()) < 0) {
+				throw new IOException("Unexpected end of EXI archive");
+			}
+		}
+		bb.flip();
+		return bb;
+	}
+
+	/**
+	 * @return number of documents in the archive
+	 */
+	public int getNumberOfDocuments() {
+		return offsets.length;
+	}
+
+	/**
+	 * @param n
+	 *            document index
+	 * @return archive offset of the given document
+	 */
+	public long getDocumentOffset(int n) {
+		return offsets[n];
+	}
+
+	/**
+	 * @param n
+	 *            document index
+	 * @return size of the given document in bytes
+	 */
+	public long getDocumentLength(int n) {
+		long end = n + 1 < offsets.length ? offsets[n + 1] : indexPosition;
+		return end - offsets[n];
+	}
+
+	/**
+	 * Returns the given document as read-only buffer. Each call returns a
+	 * new buffer, documents can be read concurrently.
+	 * 
+	 * @param n
+	 *            document index
+	 * @return EXI document (position 0, limit its length)
+	 * @throws IOException
+	 *             document cannot be mapped
+	 */
+	public ByteBuffer getDocument(int n) throws IOException {
+		long offset = offsets[n];
+		long length = getDocumentLength(n);
+		if (mapped != null) {
+			ByteBuffer bb = mapped.asReadOnlyBuffer();
+			bb.position((int) offset);
+			bb.limit((int) (offset + length));
+			return bb.slice();
+		} else if (length > Integer.MAX_VALUE) {
+			throw new IOException("EXI archive document " + n
+					+ " exceeds 2 GB");
+		} else {
+			return channel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+					.asReadOnlyBuffer();
+		}
+	}
+
+	/**
+	 * @param n
+	 *            document index
+	 * @return EXI document as stream
+	 * @throws IOException
+	 *             document cannot be mapped
+	 */
+	public InputStream getDocumentInputStream(int n) throws IOException {
+		return new ByteBufferInputStream(getDocument(n));
+	}
+
+	/**
+	 * Decodes the given document with the given decoder. The content
+	 * handler (and other handlers) must be set beforehand.
+	 * 
+	 * @param n
+	 *            document index
+	 * @param decoder
+	 *            SAX decoder
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding failure
+	 */
+	public void parse(int n, SAXDecoder decoder) throws IOException,
+			SAXException {
+		decoder.parse(getDocument(n));
+	}
+
+	/**
+	 * Supplies a content handler per decoded document. Calls for different
+	 * documents may happen concurrently.
+	 */
+	public interface ContentHandlerFactory {
+
+		ContentHandler createContentHandler(int document) throws SAXException;
+
+	}
+
+	/**
+	 * Decodes all documents in parallel, see
+	 * {@link #parse(SAXCoderPool, int, int, ContentHandlerFactory, Executor, int)}
+	 * . The common fork-join pool runs one task per available processor.
+	 * 
+	 * @param pool
+	 *            coder pool providing decoders for the archive configuration
+	 * @param handlers
+	 *            content handler per document
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding failure
+	 */
+	public void parse(SAXCoderPool pool, ContentHandlerFactory handlers)
+			throws IOException, SAXException {
+		parse(pool, 0, offsets.length, handlers, ForkJoinPool.commonPool(),
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Decodes the given range of documents in parallel and waits until all
+	 * of them are decoded.
+	 * 
+	 * <p>
+	 * Each task borrows one decoder from the pool and takes the next
+	 * undecoded document until the range is exhausted, so that documents of
+	 * different sizes are spread evenly. Once a document fails no further
+	 * documents are started and the first failure is thrown.
+	 * </p>
+	 * 
+	 * @param pool
+	 *            coder pool providing decoders for the archive configuration
+	 * @param from
+	 *            first document index (inclusive)
+	 * @param to
+	 *            last document index (exclusive)
+	 * @param handlers
+	 *            content handler per document
+	 * @param executor
+	 *            executor running the tasks
+	 * @param parallelism
+	 *            number of tasks
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding failure
+	 */
+	public void parse(final SAXCoderPool pool, int from, final int to,
+			final ContentHandlerFactory handlers, Executor executor,
+			int parallelism) throws IOException, SAXException {
+		if (from < 0 || to > offsets.length || from > to) {
+			throw new IndexOutOfBoundsException("Documents " + from + " to "
+					+ to + ", archive size " + offsets.length);
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(
+					"Parallelism must be positive: " + parallelism);
+		}
+		int tasks = Math.min(parallelism, to - from);
+		if (tasks == 0) {
+			return;
+		}
+
+		final AtomicInteger next = new AtomicInteger(from);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final CountDownLatch done = new CountDownLatch(tasks);
+
+		for (int t = 0; t < tasks; t++) {
+			Runnable task = new Runnable() {
+				public void run() {
+					try {
+						SAXDecoder decoder = pool.borrowEXIReader();
+						try {
+							int n;
+							while (failure.get() == null
+									&& (n = next.getAndIncrement()) < to) {
+								decoder.setContentHandler(handlers
+										.createContentHandler(n));
+								parse(n, decoder);
+							}
+						} finally {
+							pool.returnEXIReader(decoder);
+						}
+					} catch (Exception e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			try {
+				executor.execute(task);
+			} catch (RuntimeException e) {
+				// e.g., rejected, tasks not started are done
+				failure.compareAndSet(null, e);
+				for (; t < tasks; t++) {
+					done.countDown();
+				}
+			}
+		}
+
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+		}
+
+		Exception e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e instanceof SAXException) {
+			throw (SAXException) e;
+		} else if (e != null) {
+			throw new SAXException(e);
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.siemens.ct.exi.main.util.ChannelOutputStream;
+
+/**
+ * Writes an EXI archive, a sequence of EXI documents followed by an offset
+ * index for random access (see {@link EXIArchiveReader}).
+ * 
+ * <p>
+ * Documents are stored back to back, the archive body can still be decoded
+ * sequentially. The trailing index holds the start offset of each document
+ * (8 bytes each), followed by a footer with the index position (8 bytes),
+ * the number of documents (4 bytes) and the archive magic (4 bytes). All
+ * numbers are big-endian.
+ * </p>
+ * 
+ * <p>
+ * The writer is the output stream of the encoders. Each document is started
+ * with {@link #nextDocument()} and encoded afterwards, e.g., by a
+ * <code>SAXEncoder</code> or <code>StAXEncoder</code>. Closing the writer
+ * appends the index.
+ * </p>
+ * 
+ * <code>
+ * EXIArchiveWriter archive = new EXIArchiveWriter(file);
+ * for (...) {
+ *   archive.nextDocument();
+ *   saxEncoder.setOutputStream(archive);
+ *   xmlReader.parse(...);
+ * }
+ * archive.close();
+ * </code>
+ */
+
+public class EXIArchiveWriter extends ChannelOutputStream {
+
+	/* "EXIA" */
+	public static final int ARCHIVE_MAGIC = 0x45584941;
+
+	/* index position, number of documents, magic */
+	public static final int FOOTER_SIZE = 8 + 4 + 4;
+
+	protected static final int INITIAL_INDEX_CAPACITY = 1024;
+
+	/* bytes handed to the channel */
+	protected long written;
+
+	protected long[] offsets;
+	protected int documents;
+
+	protected boolean closed;
+
+	public EXIArchiveWriter(Path file) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+				DEFAULT_BUFFER_SIZE, true);
+	}
+
+	/**
+	 * Writes the archive to the given (blocking) channel, starting at offset
+	 * 0. The channel is closed when the archive is closed.
+	 * 
+	 * @param channel
+	 *            target channel
+	 * @param bufferSize
+	 *            size of the buffer (at least the footer size)
+	 * @param direct
+	 *            whether a direct buffer is used
+	 */
+	public EXIArchiveWriter(WritableByteChannel channel, int bufferSize,
+			boolean direct) {
+		super(channel, Math.max(bufferSize, FOOTER_SIZE), direct);
+		this.offsets = new long[INITIAL_INDEX_CAPACITY];
+	}
+
+	/**
+	 * Starts a new document at the current position. All bytes written
+	 * until the next call belong to this document.
+	 * 
+	 * @throws IOException
+	 *             archive is closed
+	 */
+	public void nextDocument() throws IOException {
+		checkOpen();
+		if (documents == offsets.length) {
+			long[] newOffsets = new long[offsets.length << 1];
+			System.arraycopy(offsets, 0, newOffsets, 0, documents);
+			offsets = newOffsets;
+		}
+		offsets[documents++] = position();
+	}
+
+	/**
+	 * Appends an already encoded EXI document.
+	 * 
+	 * @param exi
+	 *            EXI document
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void appendDocument(byte[] exi) throws IOException {
+		nextDocument();
+		write(exi, 0, exi.length);
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer as EXI document. The
+	 * buffer position is advanced to its limit.
+	 * 
+	 * @param exi
+	 *            EXI document
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void appendDocument(ByteBuffer exi) throws IOException {
+		nextDocument();
+		if (exi.remaining() >= buffer.capacity()) {
+			flushBuffer();
+			writeFully(exi);
+		} else {
+			if (exi.remaining() > buffer.remaining()) {
+				flushBuffer();
+			}
+			buffer.put(exi);
+		}
+	}
+
+	/**
+	 * @return number of documents started so far
+	 */
+	public int getNumberOfDocuments() {
+		return documents;
+	}
+
+	/**
+	 * @return number of archive bytes written so far (buffered bytes
+	 *         included)
+	 */
+	public long position() {
+		return written + buffer.position();
+	}
+
+	protected void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("EXI archive is closed");
+		}
+	}
+
+	protected void checkDocument() throws IOException {
+		if (documents == 0) {
+			checkOpen();
+			throw new IOException("No EXI archive document started");
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkDocument();
+		super.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkDocument();
+		super.write(b, off, len);
+	}
+
+	@Override
+	protected void writeFully(ByteBuffer bb) throws IOException {
+		written += bb.remaining();
+		super.writeFully(bb);
+	}
+
+	/**
+	 * Appends the offset index and closes the underlying channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			try {
+				long indexPosition = position();
+				for (int i = 0; i < documents; i++) {
+					if (buffer.remaining() < 8) {
+						flushBuffer();
+					}
+					buffer.putLong(offsets[i]);
+				}
+				if (buffer.remaining() < FOOTER_SIZE) {
+					flushBuffer();
+				}
+				buffer.putLong(indexPosition);
+				buffer.putInt(documents);
+				buffer.putInt(ARCHIVE_MAGIC);
+			} finally {
+				super.close();
+			}
+		}
+	}
+
+}
@@ -23,7 +23,12 @@
 
 package com.siemens.ct.exi.main.api.dom;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -38,7 +43,11 @@ import org.xml.sax.XMLReader;
 import com.siemens.ct.exi.core.Constants;
 import com.siemens.ct.exi.core.EXIFactory;
 import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.main.api.sax.SAXDecoder;
 import com.siemens.ct.exi.main.api.sax.SAXFactory;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+import com.siemens.ct.exi.main.util.ChannelInputStream;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
 
 /**
  * Builds a <code>Document</code> for a given EXI stream.
@@ -53,6 +62,10 @@ public class DOMBuilder {
 
 	protected DOMImplementation domImplementation;
 
+	/* pipelined decoding, disabled for ring size 0 */
+	protected int pipelineRingSize = 0;
+	protected Executor pipelineExecutor;
+
 	public DOMBuilder(EXIFactory factory) throws ParserConfigurationException {
 		this.factory = factory;
 
@@ -63,6 +76,47 @@ public class DOMBuilder {
 		domImplementation = builder.getDOMImplementation();
 	}
 
+	/**
+	 * Enables pipelined decoding. The EXI stream is decoded (including
+	 * inflating compressed blocks) on a separate thread while the calling
+	 * thread builds the DOM tree.
+	 * 
+	 * @param ringSize
+	 *            number of events that can be decoded ahead, 0 disables
+	 *            pipelining (default)
+	 * @see SAXDecoder#setPipelineRingSize(int)
+	 */
+	public void setPipelineRingSize(int ringSize) {
+		if (ringSize < 0) {
+			throw new IllegalArgumentException("Negative ring size "
+					+ ringSize);
+		}
+		this.pipelineRingSize = ringSize;
+	}
+
+	public int getPipelineRingSize() {
+		return pipelineRingSize;
+	}
+
+	/**
+	 * Sets the executor running the decoding stage of the pipeline.
+	 * 
+	 * @param executor
+	 *            executor or <code>null</code>
+	 * @see SAXDecoder#setPipelineExecutor(Executor)
+	 */
+	public void setPipelineExecutor(Executor executor) {
+		this.pipelineExecutor = executor;
+	}
+
+	protected XMLReader createEXIReader() throws EXIException {
+		SAXDecoder reader = (SAXDecoder) new SAXFactory(factory)
+				.createEXIReader();
+		reader.setPipelineRingSize(pipelineRingSize);
+		reader.setPipelineExecutor(pipelineExecutor);
+		return reader;
+	}
+
 	public DocumentFragment parseFragment(InputStream is) throws EXIException {
 		try {
 			// // create empty document fragment
@@ -74,7 +128,7 @@ public class DOMBuilder {
 			SaxToDomHandler s2dHandler = new SaxToDomHandler(domImplementation,
 					true);
 
-			XMLReader reader = new SAXFactory(factory).createEXIReader();
+			XMLReader reader = createEXIReader();
 			reader.setFeature("http://xml.org/sax/features/namespace-prefixes",
 					true);
 			reader.setContentHandler(s2dHandler);
@@ -91,6 +145,55 @@ public class DOMBuilder {
 		return parse(is, false);
 	}
 
+	/**
+	 * Builds a document for the given EXI file, which is read through
+	 * memory-mapped windows.
+	 * 
+	 * @param exiFile
+	 *            EXI file
+	 * @return document
+	 * @throws EXIException
+	 *             decoding failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public Document parse(Path exiFile) throws EXIException, IOException {
+		InputStream is = new MappedFileInputStream(exiFile);
+		try {
+			return parse(is, false);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Builds a document for the remaining bytes of the given (heap or
+	 * direct) buffer. The position is advanced by the number of bytes read.
+	 * 
+	 * @param buffer
+	 *            EXI input
+	 * @return document
+	 * @throws EXIException
+	 *             decoding failure
+	 */
+	public Document parse(ByteBuffer buffer) throws EXIException {
+		return parse(new ByteBufferInputStream(buffer), false);
+	}
+
+	/**
+	 * Builds a document for the given (blocking) channel. The channel is not
+	 * closed.
+	 * 
+	 * @param channel
+	 *            EXI input
+	 * @return document
+	 * @throws EXIException
+	 *             decoding failure
+	 */
+	public Document parse(ReadableByteChannel channel) throws EXIException {
+		return parse(new ChannelInputStream(channel), false);
+	}
+
 	public Document parse(InputStream is, boolean exiBodyOnly)
 			throws EXIException {
 		try {
@@ -98,7 +201,7 @@ public class DOMBuilder {
 			SaxToDomHandler s2dHandler = new SaxToDomHandler(domImplementation,
 					false);
 
-			XMLReader reader = new SAXFactory(factory).createEXIReader();
+			XMLReader reader = createEXIReader();
 			// EXI Features
 			reader.setFeature(Constants.W3C_EXI_FEATURE_BODY_ONLY, exiBodyOnly);
 			// SAX Features
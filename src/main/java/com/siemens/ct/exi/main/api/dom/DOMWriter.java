@@ -24,7 +24,14 @@
 package com.siemens.ct.exi.main.api.dom;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,8 +40,8 @@ import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.DocumentType;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.w3c.dom.ProcessingInstruction;
+import org.xml.sax.SAXException;
 
 import com.siemens.ct.exi.core.Constants;
 import com.siemens.ct.exi.core.EXIBodyEncoder;
@@ -45,10 +52,20 @@ import com.siemens.ct.exi.core.attributes.AttributeFactory;
 import com.siemens.ct.exi.core.attributes.AttributeList;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.main.util.ByteBufferOutputStream;
+import com.siemens.ct.exi.main.util.ChannelOutputStream;
+import com.siemens.ct.exi.main.util.FileChannelOutputStream;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
 
 /**
  * Serializes an Document/DocumentFragment to an EXI stream.
  * 
+ * <p>
+ * The tree is walked iteratively (first child, next sibling and a stack of
+ * open elements), deep documents do not exhaust the call stack and
+ * <code>NodeList.item(i)</code> is never used for child access.
+ * </p>
+ * 
  * @author Daniel.Peintner.EXT@siemens.com
  * @author Richard.Kuntschke@siemens.com
  * 
@@ -70,6 +87,13 @@ public class DOMWriter {
 	protected boolean preserveComments;
 	protected boolean preservePIs;
 
+	// open elements of the iterative tree walk
+	protected Node[] openElements;
+	protected int depth;
+
+	// comment characters
+	protected char[] cbuffer;
+
 	public DOMWriter(EXIFactory factory) throws EXIException {
 		this.factory = factory;
 
@@ -84,12 +108,100 @@ public class DOMWriter {
 				FidelityOptions.FEATURE_COMMENT);
 		preservePIs = factory.getFidelityOptions().isFidelityEnabled(
 				FidelityOptions.FEATURE_PI);
+
+		cbuffer = new char[256];
+		openElements = new Node[32];
 	}
 
 	public void setOutput(OutputStream os) throws EXIException, IOException {
 		exiBody = exiStream.encodeHeader(os);
 	}
 
+	/**
+	 * Encodes into the given (heap or direct) buffer, starting at its
+	 * position. The position is advanced by the number of bytes written.
+	 * 
+	 * @param buffer
+	 *            target buffer, an <code>IOException</code> is raised if its
+	 *            capacity is exceeded
+	 * @throws EXIException
+	 *             EXI header failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void setOutput(ByteBuffer buffer) throws EXIException,
+			IOException {
+		setOutput(new ByteBufferOutputStream(buffer));
+	}
+
+	/**
+	 * Encodes to the given (blocking) channel. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            target channel
+	 * @throws EXIException
+	 *             EXI header failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void setOutput(WritableByteChannel channel) throws EXIException,
+			IOException {
+		setOutput(new ChannelOutputStream(channel));
+	}
+
+	/**
+	 * Resets the writer to its initial state so that the instance can be
+	 * re-used for another EXI stream. A new output stream needs to be set
+	 * before encoding.
+	 */
+	public void reset() {
+		exiBody = null;
+		exiAttributes.clear();
+		while (depth > 0) {
+			openElements[--depth] = null;
+		}
+	}
+
+	/**
+	 * Encodes the given XML file to the given EXI file. The XML file is read
+	 * through memory-mapped windows and the EXI file is written through a
+	 * file channel.
+	 * 
+	 * @param xmlFile
+	 *            XML input
+	 * @param exiFile
+	 *            EXI output, created or truncated
+	 * @throws EXIException
+	 *             parsing or encoding failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void encode(Path xmlFile, Path exiFile) throws EXIException,
+			IOException {
+		Document doc;
+		InputStream is = new MappedFileInputStream(xmlFile);
+		try {
+			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+			dbf.setNamespaceAware(true);
+			doc = dbf.newDocumentBuilder().parse(is,
+					xmlFile.toUri().toString());
+		} catch (ParserConfigurationException e) {
+			throw new EXIException(e);
+		} catch (SAXException e) {
+			throw new EXIException(e);
+		} finally {
+			is.close();
+		}
+
+		OutputStream os = new FileChannelOutputStream(exiFile);
+		try {
+			setOutput(os);
+			encode(doc);
+		} finally {
+			os.close();
+		}
+	}
+
 	public void encode(Document doc) throws EXIException, IOException {
 		if (exiBody == null) {
 			throw new EXIException("Please specify output stream");
@@ -99,7 +211,7 @@ public class DOMWriter {
 
 		// encode all child-nodes to retain root external
 		// nodes such as as comments and insignificant whitespaces
-		encodeChildNodes(doc.getChildNodes());
+		encodeChildNodes(doc);
 
 		exiBody.encodeEndDocument();
 		exiBody.flush();
@@ -112,7 +224,7 @@ public class DOMWriter {
 		}
 
 		exiBody.encodeStartDocument();
-		encodeChildNodes(docFragment.getChildNodes());
+		encodeChildNodes(docFragment);
 		exiBody.encodeEndDocument();
 		exiBody.flush();
 	}
@@ -133,28 +245,49 @@ public class DOMWriter {
 	protected void encodeNode(Node root) throws EXIException, IOException {
 		assert (root.getNodeType() == Node.ELEMENT_NODE);
 
-		// start element
-		String namespaceURI = root.getNamespaceURI() == null ? Constants.XML_NULL_NS_URI
-				: root.getNamespaceURI();
-		String localName = root.getLocalName();
+		if (encodeStartElement(root)) {
+			encodeChildNodes(root);
+			exiBody.encodeEndElement();
+		}
+	}
+
+	/**
+	 * Encodes start element and attributes.
+	 * 
+	 * @param element
+	 *            element
+	 * @return whether the children and the end element still need to be
+	 *         encoded, <code>false</code> if the element was encoded as a
+	 *         whole
+	 * @throws EXIException
+	 *             EXI failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	protected boolean encodeStartElement(Node element) throws EXIException,
+			IOException {
+		String namespaceURI = element.getNamespaceURI() == null ? Constants.XML_NULL_NS_URI
+				: element.getNamespaceURI();
+		String localName = element.getLocalName();
 		if (localName == null) {
 			// namespace-awareness ??
-			localName = root.getNodeName();
+			localName = element.getNodeName();
 			// throw new
 			// EXIException("EXI requires namespace-aware DOM (nodes) "
-			// + root.getNodeName());
+			// + element.getNodeName());
 		}
 
-		String prefix = root.getPrefix();
+		String prefix = element.getPrefix();
 		if (prefix == null) {
 			prefix = Constants.XML_DEFAULT_NS_PREFIX;
 		}
 		exiBody.encodeStartElement(namespaceURI, localName, prefix);
 
 		// attributes
-		NamedNodeMap attributes = root.getAttributes();
+		NamedNodeMap attributes = element.getAttributes();
+		int length = attributes.getLength();
 
-		for (int i = 0; i < attributes.getLength(); i++) {
+		for (int i = 0; i < length; i++) {
 			Node at = attributes.item(i);
 
 			// NS
@@ -177,67 +310,128 @@ public class DOMWriter {
 		exiBody.encodeAttributeList(exiAttributes);
 		exiAttributes.clear();
 
-		// children
-		NodeList children = root.getChildNodes();
-		encodeChildNodes(children);
-
-		// end element
-		exiBody.encodeEndElement();
+		return true;
 	}
 
-	protected void encodeChildNodes(NodeList children) throws EXIException,
+	/**
+	 * Encodes the children of the given node and their subtrees in document
+	 * order, without recursion.
+	 * 
+	 * @param parent
+	 *            document, document fragment or element
+	 * @throws EXIException
+	 *             EXI failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	protected void encodeChildNodes(Node parent) throws EXIException,
 			IOException {
-		for (int i = 0; i < children.getLength(); i++) {
-			Node n = children.item(i);
-			switch (n.getNodeType()) {
-			case Node.ELEMENT_NODE:
-				encodeNode(n);
-				break;
-			case Node.ATTRIBUTE_NODE:
-				break;
-			case Node.TEXT_NODE:
-				exiBody.encodeCharacters(new StringValue(n.getNodeValue()));
-				break;
-			case Node.COMMENT_NODE:
-				if (preserveComments) {
-					String c = n.getNodeValue();
-					exiBody.encodeComment(c.toCharArray(), 0, c.length());
-				}
-				break;
-			case Node.DOCUMENT_TYPE_NODE:
-				DocumentType dt = (DocumentType) n;
-				String publicID = dt.getPublicId() == null ? "" : dt
-						.getPublicId();
-				String systemID = dt.getSystemId() == null ? "" : dt
-						.getSystemId();
-				String text = dt.getInternalSubset() == null ? "" : dt
-						.getInternalSubset();
-				exiBody.encodeDocType(dt.getName(), publicID, systemID, text);
-				break;
-			case Node.ENTITY_REFERENCE_NODE:
-				// checkPendingChars();
-				// TODO ER
-				break;
-			case Node.CDATA_SECTION_NODE:
-				// String cdata = n.getNodeValue();
-				// exiBody.encodeCharacters(new
-				// StringValue(Constants.CDATA_START
-				// + cdata + Constants.CDATA_END));
-				exiBody.encodeCharacters(new StringValue(n.getNodeValue()));
-				break;
-			case Node.PROCESSING_INSTRUCTION_NODE:
-				if (preservePIs) {
-					ProcessingInstruction pi = (ProcessingInstruction) n;
-					exiBody.encodeProcessingInstruction(pi.getTarget(),
-							pi.getData());
+		final int base = depth;
+		Node n = parent.getFirstChild();
+
+		while (n != null) {
+			if (n.getNodeType() == Node.ELEMENT_NODE) {
+				if (encodeStartElement(n)) {
+					Node child = n.getFirstChild();
+					if (child != null) {
+						// descend
+						pushElement(n);
+						n = child;
+						continue;
+					}
+					exiBody.encodeEndElement();
 				}
-				break;
-			default:
-				LOGGER.error("[WARNING] Unhandled DOM NodeType: "
-						+ n.getNodeType());
-				// throw new EXIException("Unknown NodeType? " +
-				// n.getNodeType());
+			} else {
+				encodeLeafNode(n);
+			}
+
+			// next sibling, close completed elements
+			Node next = n.getNextSibling();
+			while (next == null && depth > base) {
+				n = openElements[--depth];
+				openElements[depth] = null;
+				exiBody.encodeEndElement();
+				next = n.getNextSibling();
+			}
+			n = next;
+		}
+	}
+
+	protected void pushElement(Node element) {
+		if (depth == openElements.length) {
+			Node[] newOpenElements = new Node[depth << 1];
+			System.arraycopy(openElements, 0, newOpenElements, 0, depth);
+			openElements = newOpenElements;
+		}
+		openElements[depth++] = element;
+	}
+
+	/* all non-element children */
+	protected void encodeLeafNode(Node n) throws EXIException, IOException {
+		switch (n.getNodeType()) {
+		case Node.ATTRIBUTE_NODE:
+			break;
+		case Node.TEXT_NODE:
+			encodeCharacters(n.getNodeValue());
+			break;
+		case Node.COMMENT_NODE:
+			if (preserveComments) {
+				String c = n.getNodeValue();
+				int len = c.length();
+				ensureBufferCapacity(len);
+				c.getChars(0, len, cbuffer, 0);
+				exiBody.encodeComment(cbuffer, 0, len);
+			}
+			break;
+		case Node.DOCUMENT_TYPE_NODE:
+			DocumentType dt = (DocumentType) n;
+			String publicID = dt.getPublicId() == null ? "" : dt
+					.getPublicId();
+			String systemID = dt.getSystemId() == null ? "" : dt
+					.getSystemId();
+			String text = dt.getInternalSubset() == null ? "" : dt
+					.getInternalSubset();
+			exiBody.encodeDocType(dt.getName(), publicID, systemID, text);
+			break;
+		case Node.ENTITY_REFERENCE_NODE:
+			// checkPendingChars();
+			// TODO ER
+			break;
+		case Node.CDATA_SECTION_NODE:
+			// String cdata = n.getNodeValue();
+			// exiBody.encodeCharacters(new
+			// StringValue(Constants.CDATA_START
+			// + cdata + Constants.CDATA_END));
+			encodeCharacters(n.getNodeValue());
+			break;
+		case Node.PROCESSING_INSTRUCTION_NODE:
+			if (preservePIs) {
+				ProcessingInstruction pi = (ProcessingInstruction) n;
+				exiBody.encodeProcessingInstruction(pi.getTarget(),
+						pi.getData());
 			}
+			break;
+		default:
+			LOGGER.error("[WARNING] Unhandled DOM NodeType: "
+					+ n.getNodeType());
+			// throw new EXIException("Unknown NodeType? " +
+			// n.getNodeType());
+		}
+	}
+
+	protected void encodeCharacters(String chars) throws EXIException,
+			IOException {
+		// DOM text is a String already, wrapping it is cheaper than copying
+		exiBody.encodeCharacters(new StringValue(chars));
+	}
+
+	protected void ensureBufferCapacity(int reqSize) {
+		if (reqSize > cbuffer.length) {
+			int newSize = cbuffer.length;
+			do {
+				newSize = newSize << 1;
+			} while (newSize < reqSize);
+			cbuffer = new char[newSize];
 		}
 	}
 }
@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.dom;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.siemens.ct.exi.core.Constants;
+import com.siemens.ct.exi.core.EXIBodyDecoder;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.EXIStreamDecoder;
+import com.siemens.ct.exi.core.container.DocType;
+import com.siemens.ct.exi.core.container.NamespaceDeclaration;
+import com.siemens.ct.exi.core.container.ProcessingInstruction;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.event.EventType;
+import com.siemens.ct.exi.core.values.ListValue;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.core.values.ValueType;
+import com.siemens.ct.exi.main.api.tree.EXITreeBuilder;
+import com.siemens.ct.exi.main.helpers.DefaultSchemaIdResolver;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
+
+/**
+ * Builds a <code>Document</code> directly from the events of an
+ * <code>EXIBodyDecoder</code>.
+ * 
+ * <p>
+ * Compared to {@link DOMBuilder} no SAX events are created in between (no
+ * SAX attributes, prefix mappings and textual qnames per event).
+ * Qualified element and attribute names are created once per distinct
+ * qname (and prefix) and handed to the DOM as they are.
+ * </p>
+ * 
+ * <p>
+ * With deferred node expansion (see {@link #setDeferNodeExpansion(boolean)})
+ * the stream is decoded into a compact node index and DOM nodes are only
+ * created when they are accessed. Self-contained elements can be built on
+ * their own without decoding the stream around them (see
+ * {@link #parseSelfContained(Path, long)}).
+ * </p>
+ * 
+ * <p>
+ * Note: Pipelined decoding (see {@link #setPipelineRingSize(int)}) uses the
+ * SAX based building of <code>DOMBuilder</code>.
+ * </p>
+ */
+
+public class EXIDOMBuilder extends DOMBuilder {
+
+	protected static final int DEFAULT_CHAR_BUFFER_SIZE = 4096;
+
+	protected EXIStreamDecoder exiStream;
+	protected EXIStreamDecoder scStream;
+
+	/* deferred node expansion */
+	protected boolean deferNodeExpansion;
+	protected EXITreeBuilder treeBuilder;
+
+	/* qualified names per qname context, {prefix, qualified name} */
+	protected final Map<QNameContext, String[]> qualifiedNames;
+
+	/* state of the tree being built */
+	protected Document document;
+	protected Node currentNode;
+	protected QNameContext deferredStartElement;
+
+	/* attributes of the deferred element */
+	protected QNameContext[] atQNames;
+	protected String[] atPrefixes;
+	protected String[] atValues;
+	protected int atCount;
+
+	protected char[] cbuffer;
+	protected StringBuilder sbHelper;
+
+	public EXIDOMBuilder(EXIFactory factory)
+			throws ParserConfigurationException {
+		super(factory);
+		qualifiedNames = new IdentityHashMap<QNameContext, String[]>();
+		atQNames = new QNameContext[8];
+		atPrefixes = new String[8];
+		atValues = new String[8];
+		cbuffer = new char[DEFAULT_CHAR_BUFFER_SIZE];
+	}
+
+	/**
+	 * Enables deferred node expansion. Documents are decoded into a compact
+	 * node index (see <code>EXITree</code>) and element, attribute and text
+	 * nodes are created on first access. Deferred documents are read-only.
+	 * 
+	 * @param deferNodeExpansion
+	 *            whether to defer node creation (default false)
+	 */
+	public void setDeferNodeExpansion(boolean deferNodeExpansion) {
+		this.deferNodeExpansion = deferNodeExpansion;
+	}
+
+	public boolean getDeferNodeExpansion() {
+		return deferNodeExpansion;
+	}
+
+	protected EXIBodyDecoder createDecoder(InputStream is, boolean exiBodyOnly)
+			throws EXIException, IOException {
+		if (exiStream == null) {
+			if (factory.getSchemaIdResolver() == null) {
+				// set default schemaId resolver
+				factory.setSchemaIdResolver(new DefaultSchemaIdResolver());
+			}
+			exiStream = factory.createEXIStreamDecoder();
+		}
+		return exiBodyOnly ? exiStream.getBodyOnlyDecoder(is) : exiStream
+				.decodeHeader(is);
+	}
+
+	@Override
+	public DocumentFragment parseFragment(InputStream is) throws EXIException {
+		if (pipelineRingSize > 0) {
+			return super.parseFragment(is);
+		}
+		try {
+			document = domImplementation.createDocument(null, null, null);
+			DocumentFragment docFragment = document.createDocumentFragment();
+			currentNode = docFragment;
+			build(createDecoder(is, false));
+			return docFragment;
+		} catch (IOException e) {
+			throw new EXIException(e);
+		} finally {
+			clear();
+		}
+	}
+
+	@Override
+	public Document parse(InputStream is, boolean exiBodyOnly)
+			throws EXIException {
+		try {
+			if (deferNodeExpansion) {
+				return parseDeferred(createDecoder(is, exiBodyOnly));
+			}
+			if (pipelineRingSize > 0) {
+				return super.parse(is, exiBodyOnly);
+			}
+			build(createDecoder(is, exiBodyOnly));
+			checkDocument(null);
+			return document;
+		} catch (IOException e) {
+			throw new EXIException(e);
+		} finally {
+			clear();
+		}
+	}
+
+	protected Document parseDeferred(EXIBodyDecoder decoder)
+			throws EXIException, IOException {
+		if (treeBuilder == null) {
+			treeBuilder = new EXITreeBuilder(factory);
+		}
+		return treeBuilder.parse(decoder).asDocument();
+	}
+
+	/**
+	 * Builds a document holding only the self-contained (SC) element
+	 * fragment starting at the given offset of the EXI file, e.g., taken from
+	 * a <code>SelfContainedIndex</code>. The stream before and after the
+	 * fragment is not decoded.
+	 * 
+	 * <p>
+	 * Note: The EXI factory needs to match the options the stream was
+	 * encoded with (options in the EXI header are not read).
+	 * </p>
+	 * 
+	 * @param exiFile
+	 *            EXI file
+	 * @param offset
+	 *            stream offset of the SC fragment
+	 * @return document
+	 * @throws EXIException
+	 *             decoding failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public Document parseSelfContained(Path exiFile, long offset)
+			throws EXIException, IOException {
+		InputStream is = new MappedFileInputStream(exiFile);
+		try {
+			if (is.skip(offset) != offset) {
+				throw new EOFException("Self-contained fragment offset "
+						+ offset + " exceeds " + exiFile);
+			}
+			return parseSelfContained(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Builds a document holding only the self-contained (SC) element
+	 * fragment starting at the given offset, relative to the buffer
+	 * position, see {@link #parseSelfContained(Path, long)}. The buffer
+	 * position is advanced by the number of bytes read.
+	 * 
+	 * @param buffer
+	 *            EXI stream
+	 * @param offset
+	 *            stream offset of the SC fragment
+	 * @return document
+	 * @throws EXIException
+	 *             decoding failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public Document parseSelfContained(ByteBuffer buffer, long offset)
+			throws EXIException, IOException {
+		if (offset < 0 || offset > buffer.remaining()) {
+			throw new EOFException("Self-contained fragment offset " + offset
+					+ " exceeds buffer");
+		}
+		buffer.position(buffer.position() + (int) offset);
+		return parseSelfContained(new ByteBufferInputStream(buffer));
+	}
+
+	protected Document parseSelfContained(InputStream is)
+			throws EXIException, IOException {
+		if (scStream == null) {
+			// SC fragment is EXI body only and starts with fragment grammar
+			EXIFactory scFactory = factory.clone();
+			scFactory.setFragment(true);
+			scStream = scFactory.createEXIStreamDecoder();
+		}
+		EXIBodyDecoder decoder = scStream.getBodyOnlyDecoder(is);
+		try {
+			if (deferNodeExpansion) {
+				return parseDeferred(decoder);
+			}
+			build(decoder);
+			checkDocument(null);
+			return document;
+		} finally {
+			clear();
+		}
+	}
+
+	protected void clear() {
+		document = null;
+		currentNode = null;
+		deferredStartElement = null;
+		for (int i = 0; i < atCount; i++) {
+			atQNames[i] = null;
+			atValues[i] = null;
+		}
+		atCount = 0;
+		qualifiedNames.clear();
+	}
+
+	/* document is created with the first node, DOCTYPE comes first */
+	protected void checkDocument(DocumentType dt) {
+		if (document == null) {
+			document = domImplementation.createDocument(null, null, dt);
+			currentNode = document;
+		}
+	}
+
+	protected void build(EXIBodyDecoder decoder) throws EXIException,
+			IOException {
+		EventType eventType;
+
+		while ((eventType = decoder.next()) != null) {
+			switch (eventType) {
+			/* DOCUMENT */
+			case START_DOCUMENT:
+				decoder.decodeStartDocument();
+				break;
+			case END_DOCUMENT:
+				decoder.decodeEndDocument();
+				break;
+			/* ATTRIBUTES */
+			case ATTRIBUTE_XSI_NIL:
+				addAttribute(decoder, decoder.decodeAttributeXsiNil());
+				break;
+			case ATTRIBUTE_XSI_TYPE:
+				addAttribute(decoder, decoder.decodeAttributeXsiType());
+				break;
+			case ATTRIBUTE:
+			case ATTRIBUTE_NS:
+			case ATTRIBUTE_GENERIC:
+			case ATTRIBUTE_GENERIC_UNDECLARED:
+			case ATTRIBUTE_INVALID_VALUE:
+			case ATTRIBUTE_ANY_INVALID_VALUE:
+				addAttribute(decoder, decoder.decodeAttribute());
+				break;
+			/* NAMESPACE DECLARATION */
+			case NAMESPACE_DECLARATION:
+				// Note: Prefix declaration etc. is done internally
+				decoder.decodeNamespaceDeclaration();
+				break;
+			/* SELF_CONTAINED */
+			case SELF_CONTAINED:
+				decoder.decodeStartSelfContainedFragment();
+				break;
+			/* START ELEMENT */
+			case START_ELEMENT:
+			case START_ELEMENT_NS:
+			case START_ELEMENT_GENERIC:
+			case START_ELEMENT_GENERIC_UNDECLARED:
+				handleDeferredStartElement(decoder);
+				// defer start element and keep on processing
+				deferredStartElement = decoder.decodeStartElement();
+				break;
+			/* END ELEMENT */
+			case END_ELEMENT:
+			case END_ELEMENT_UNDECLARED:
+				handleDeferredStartElement(decoder);
+				decoder.decodeEndElement();
+				currentNode = currentNode.getParentNode();
+				break;
+			/* CHARACTERS */
+			case CHARACTERS:
+			case CHARACTERS_GENERIC:
+			case CHARACTERS_GENERIC_UNDECLARED:
+				handleDeferredStartElement(decoder);
+				String text = toString(decoder.decodeCharacters());
+				if (text.length() > 0) {
+					currentNode.appendChild(document.createTextNode(text));
+				}
+				break;
+			/* MISC */
+			case DOC_TYPE:
+				DocType docType = decoder.decodeDocType();
+				checkDocument(domImplementation.createDocumentType(
+						new String(docType.name),
+						docType.publicID.length == 0 ? null : new String(
+								docType.publicID),
+						docType.systemID.length == 0 ? null : new String(
+								docType.systemID)));
+				break;
+			case ENTITY_REFERENCE:
+				handleDeferredStartElement(decoder);
+				// skipped entity, as for DOMBuilder
+				decoder.decodeEntityReference();
+				break;
+			case COMMENT:
+				handleDeferredStartElement(decoder);
+				currentNode.appendChild(document.createComment(new String(
+						decoder.decodeComment())));
+				break;
+			case PROCESSING_INSTRUCTION:
+				handleDeferredStartElement(decoder);
+				ProcessingInstruction pi = decoder
+						.decodeProcessingInstruction();
+				currentNode.appendChild(document.createProcessingInstruction(
+						pi.target, pi.data));
+				break;
+			default:
+				throw new EXIException("Unexpected EXI Event '" + eventType
+						+ "' ");
+			}
+		}
+	}
+
+	/*
+	 * Appends the deferred element, if any. Its prefix is known once the
+	 * namespace declarations are decoded.
+	 */
+	protected void handleDeferredStartElement(EXIBodyDecoder decoder) {
+		checkDocument(null);
+		if (deferredStartElement == null) {
+			return;
+		}
+		QNameContext qnc = deferredStartElement;
+		deferredStartElement = null;
+
+		Element element = document.createElementNS(qnc.getNamespaceUri(),
+				getQualifiedName(qnc, decoder.getElementPrefix()));
+
+		// namespace declarations
+		List<NamespaceDeclaration> prefixes = decoder
+				.getDeclaredPrefixDeclarations();
+		if (prefixes != null) {
+			for (int i = 0; i < prefixes.size(); i++) {
+				NamespaceDeclaration ns = prefixes.get(i);
+				element.setAttributeNS(Constants.XML_NS_ATTRIBUTE_NS_URI,
+						ns.prefix.length() == 0 ? Constants.XML_NS_ATTRIBUTE
+								: Constants.XML_NS_ATTRIBUTE + ":"
+										+ ns.prefix, ns.namespaceURI);
+			}
+		}
+
+		// attributes
+		for (int i = 0; i < atCount; i++) {
+			QNameContext at = atQNames[i];
+			element.setAttributeNS(at.getNamespaceUri(),
+					getQualifiedName(at, atPrefixes[i]), atValues[i]);
+			atQNames[i] = null;
+			atValues[i] = null;
+		}
+		atCount = 0;
+
+		currentNode.appendChild(element);
+		currentNode = element;
+	}
+
+	protected void addAttribute(EXIBodyDecoder decoder, QNameContext qnc) {
+		if (atCount == atQNames.length) {
+			int newLength = atCount << 1;
+			QNameContext[] newQNames = new QNameContext[newLength];
+			System.arraycopy(atQNames, 0, newQNames, 0, atCount);
+			atQNames = newQNames;
+			String[] newPrefixes = new String[newLength];
+			System.arraycopy(atPrefixes, 0, newPrefixes, 0, atCount);
+			atPrefixes = newPrefixes;
+			String[] newValues = new String[newLength];
+			System.arraycopy(atValues, 0, newValues, 0, atCount);
+			atValues = newValues;
+		}
+		atQNames[atCount] = qnc;
+		atPrefixes[atCount] = decoder.getAttributePrefix();
+		atValues[atCount] = toString(decoder.getAttributeValue());
+		atCount++;
+	}
+
+	/**
+	 * Returns the qualified name for the given qname and prefix. The name is
+	 * created once and re-used as long as the prefix does not change.
+	 * 
+	 * @param qnc
+	 *            qname context
+	 * @param prefix
+	 *            prefix, <code>null</code> or empty for none
+	 * @return qualified name
+	 */
+	protected String getQualifiedName(QNameContext qnc, String prefix) {
+		if (prefix == null || prefix.length() == 0) {
+			return qnc.getLocalName();
+		}
+		String[] qn = qualifiedNames.get(qnc);
+		if (qn == null || (qn[0] != prefix && !qn[0].equals(prefix))) {
+			qn = new String[] { prefix, prefix + ":" + qnc.getLocalName() };
+			qualifiedNames.put(qnc, qn);
+		}
+		return qn[1];
+	}
+
+	/* lexical value, lists as for SAXDecoder */
+	protected String toString(Value val) {
+		switch (val.getValueType()) {
+		case BOOLEAN:
+		case STRING:
+			return val.toString();
+		case LIST:
+			ListValue lv = (ListValue) val;
+			if (lv.getNumberOfValues() == 0) {
+				return Constants.EMPTY_STRING;
+			}
+			if (sbHelper == null) {
+				sbHelper = new StringBuilder();
+			} else {
+				sbHelper.setLength(0);
+			}
+			Value[] values = lv.toValues();
+			ValueType vt = values[0].getValueType();
+			for (int i = 0; i < values.length; i++) {
+				Value val2 = values[i];
+				switch (vt) {
+				case BOOLEAN:
+				case STRING:
+					sbHelper.append(val2.getCharacters());
+					break;
+				default:
+					int slen = val2.getCharactersLength();
+					ensureBufferCapacity(slen);
+					val2.getCharacters(cbuffer, 0);
+					sbHelper.append(cbuffer, 0, slen);
+					break;
+				}
+				sbHelper.append(Constants.XSD_LIST_DELIM_CHAR_ARRAY);
+			}
+			return sbHelper.toString();
+		default:
+			int slen = val.getCharactersLength();
+			ensureBufferCapacity(slen);
+			return val.toString(cbuffer, 0);
+		}
+	}
+
+	protected void ensureBufferCapacity(int reqSize) {
+		if (reqSize > cbuffer.length) {
+			int newSize = cbuffer.length;
+			do {
+				newSize = newSize << 2;
+			} while (newSize < reqSize);
+			cbuffer = new char[newSize];
+		}
+	}
+
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.dom;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.Constants;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.SelfContainedHandler;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.exceptions.UnsupportedOption;
+import com.siemens.ct.exi.core.grammars.SchemaLessGrammars;
+import com.siemens.ct.exi.core.io.channel.EncoderChannel;
+
+/**
+ * Serializes a DOM to an EXI stream and encodes the given self-contained
+ * (SC) elements in parallel.
+ * 
+ * <p>
+ * An SC element starts a nested EXI body with fresh string tables and
+ * grammars, byte-aligned at start and end, hence its bytes do not depend
+ * on the content before it. Each outermost SC subtree is encoded on the
+ * given <code>ForkJoinPool</code> into a byte buffer of its own (with a
+ * pooled writer that opens the ancestors of the element first). The
+ * calling thread then writes the stream in document order and, for each
+ * SC element, replaces the in-place encoding of the nested body with the
+ * buffered bytes. The output is identical to a sequential
+ * <code>DOMWriter</code> with the same SC elements.
+ * </p>
+ * 
+ * <p>
+ * SC elements are enabled on a copy of the factory, the given factory is
+ * not modified. Strict fidelity options and the (pre-)compression coding
+ * modes do not allow SC elements, only bit-packed and byte-packed streams
+ * can be encoded.
+ * </p>
+ * 
+ * <p>
+ * The DOM is only read while encoding. All nodes are visited once on the
+ * calling thread before any subtree is handed to the pool, so that lazily
+ * expanded (deferred) DOM implementations are fully built before other
+ * threads read them. The DOM must not be modified while encoding.
+ * </p>
+ */
+
+public class ParallelDOMWriter extends DOMWriter {
+
+	protected final QName[] scElements;
+	protected final Set<QName> scElementSet;
+	protected final ForkJoinPool pool;
+
+	// output of the calling thread, nested SC bodies are replaced
+	private final SpliceOutputStream splice;
+
+	// subtrees in document order and idle fragment writers
+	protected final ArrayDeque<Fragment> fragments;
+	protected final ConcurrentLinkedQueue<FragmentWriter> fragmentWriters;
+
+	public ParallelDOMWriter(EXIFactory factory, QName[] scElements)
+			throws EXIException {
+		this(factory, scElements, ForkJoinPool.commonPool());
+	}
+
+	public ParallelDOMWriter(EXIFactory factory, QName[] scElements,
+			ForkJoinPool pool) throws EXIException {
+		this(factory, scElements, pool, new SpliceOutputStream());
+	}
+
+	private ParallelDOMWriter(EXIFactory factory, QName[] scElements,
+			ForkJoinPool pool, SpliceOutputStream splice) throws EXIException {
+		super(createSelfContainedFactory(factory, scElements, splice));
+		this.scElements = scElements.clone();
+		this.scElementSet = new HashSet<QName>(Arrays.asList(scElements));
+		this.pool = pool;
+		this.splice = splice;
+		this.fragments = new ArrayDeque<Fragment>();
+		this.fragmentWriters = new ConcurrentLinkedQueue<FragmentWriter>();
+	}
+
+	/*
+	 * copy of the factory with SC elements enabled (fidelity options are
+	 * copied, they may be shared by factory clones)
+	 */
+	protected static EXIFactory createSelfContainedFactory(
+			EXIFactory factory, QName[] scElements, SelfContainedHandler handler)
+			throws EXIException {
+		FidelityOptions fo = factory.getFidelityOptions();
+		if (fo.isStrict()) {
+			throw new EXIException(
+					"Self-contained elements cannot be used with strict fidelity options");
+		}
+		CodingMode codingMode = factory.getCodingMode();
+		if (codingMode != CodingMode.BIT_PACKED
+				&& codingMode != CodingMode.BYTE_PACKED) {
+			throw new EXIException(
+					"Self-contained elements cannot be used with coding mode "
+							+ codingMode);
+		}
+		try {
+			FidelityOptions scFo = FidelityOptions.createDefault();
+			String[] features = { FidelityOptions.FEATURE_COMMENT,
+					FidelityOptions.FEATURE_PI, FidelityOptions.FEATURE_DTD,
+					FidelityOptions.FEATURE_PREFIX,
+					FidelityOptions.FEATURE_LEXICAL_VALUE };
+			for (String feature : features) {
+				scFo.setFidelity(feature, fo.isFidelityEnabled(feature));
+			}
+			scFo.setFidelity(FidelityOptions.FEATURE_SC, true);
+
+			EXIFactory scFactory = factory.clone();
+			scFactory.setFidelityOptions(scFo);
+			scFactory.setSelfContainedElements(scElements, handler);
+			setOwnSchemaLessGrammars(scFactory);
+			return scFactory;
+		} catch (UnsupportedOption e) {
+			throw new EXIException(e);
+		}
+	}
+
+	@Override
+	public void setOutput(OutputStream os) throws EXIException, IOException {
+		splice.setOutput(os);
+		super.setOutput(splice);
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		cancelFragments();
+		splice.setOutput(null);
+	}
+
+	@Override
+	public void encode(Document doc) throws EXIException, IOException {
+		try {
+			dispatch(doc);
+			super.encode(doc);
+		} finally {
+			cancelFragments();
+		}
+	}
+
+	@Override
+	public void encodeFragment(DocumentFragment docFragment)
+			throws EXIException, IOException {
+		try {
+			dispatch(docFragment);
+			super.encodeFragment(docFragment);
+		} finally {
+			cancelFragments();
+		}
+	}
+
+	@Override
+	public void encode(Node n) throws EXIException, IOException {
+		if (n.getNodeType() == Node.ELEMENT_NODE) {
+			try {
+				dispatch(n);
+				super.encode(n);
+			} finally {
+				cancelFragments();
+			}
+		} else {
+			// document (fragment) entry points dispatch
+			super.encode(n);
+		}
+	}
+
+	@Override
+	protected boolean encodeStartElement(Node element) throws EXIException,
+			IOException {
+		Fragment head = fragments.peekFirst();
+		if (head == null || head.element != element) {
+			return super.encodeStartElement(element);
+		}
+		fragments.pollFirst();
+
+		byte[] bytes = head.task.join();
+		if (bytes == null) {
+			// failed or not self-contained, encode in place
+			return super.encodeStartElement(element);
+		}
+
+		// SC callback starts discarding the nested body
+		splice.arm();
+		super.encodeStartElement(element);
+		if (!splice.disarm()) {
+			return true;
+		}
+		exiBody.encodeEndElement();
+		exiBody.flush();
+		splice.splice(bytes);
+
+		return false;
+	}
+
+	/*
+	 * Schema-less grammars replace their (shared) fragment grammar whenever
+	 * an SC fragment starts, concurrent writers would learn into the same
+	 * fragment grammar. Each writer gets an instance of its own.
+	 */
+	protected static void setOwnSchemaLessGrammars(EXIFactory factory) {
+		if (!factory.getGrammars().isSchemaInformed()) {
+			factory.setGrammars(new SchemaLessGrammars());
+		}
+	}
+
+	/**
+	 * Visits all nodes below (and including) the given root in document
+	 * order and submits the outermost SC subtrees to the pool.
+	 * 
+	 * @param root
+	 *            document, document fragment or element
+	 */
+	protected void dispatch(Node root) {
+		cancelFragments();
+		if (scElementSet.isEmpty()) {
+			return;
+		}
+
+		Node[] path = new Node[32];
+		int d = 0;
+		int scDepth = -1;
+		Node n = root;
+
+		for (;;) {
+			touch(n);
+			if (scDepth < 0 && n.getNodeType() == Node.ELEMENT_NODE
+					&& isSelfContained(n)) {
+				scDepth = d;
+			}
+			Node child = n.getFirstChild();
+			if (child != null) {
+				if (d == path.length) {
+					path = Arrays.copyOf(path, d << 1);
+				}
+				path[d++] = n;
+				n = child;
+				continue;
+			}
+			// leave node and completed ancestors
+			for (;;) {
+				if (scDepth == d) {
+					submit(path, d, n);
+					scDepth = -1;
+				}
+				if (d == 0) {
+					return;
+				}
+				Node next = n.getNextSibling();
+				if (next != null) {
+					n = next;
+					break;
+				}
+				n = path[--d];
+			}
+		}
+	}
+
+	/* reads node data, lazily expanded nodes are built */
+	protected void touch(Node n) {
+		n.getNodeName();
+		if (n.getNodeType() == Node.ELEMENT_NODE) {
+			n.getNamespaceURI();
+			n.getLocalName();
+			n.getPrefix();
+			NamedNodeMap attributes = n.getAttributes();
+			int length = attributes.getLength();
+			for (int i = 0; i < length; i++) {
+				Node at = attributes.item(i);
+				at.getNamespaceURI();
+				at.getLocalName();
+				at.getPrefix();
+				at.getNodeValue();
+			}
+		} else {
+			n.getNodeValue();
+		}
+	}
+
+	protected boolean isSelfContained(Node element) {
+		String namespaceURI = element.getNamespaceURI() == null ? Constants.XML_NULL_NS_URI
+				: element.getNamespaceURI();
+		String localName = element.getLocalName();
+		if (localName == null) {
+			localName = element.getNodeName();
+		}
+		return scElementSet.contains(new QName(namespaceURI, localName));
+	}
+
+	protected void submit(Node[] path, int d, final Node element) {
+		int elements = 0;
+		for (int i = 0; i < d; i++) {
+			if (path[i].getNodeType() == Node.ELEMENT_NODE) {
+				elements++;
+			}
+		}
+		final Node[] ancestors = new Node[elements];
+		for (int i = 0, k = 0; i < d; i++) {
+			if (path[i].getNodeType() == Node.ELEMENT_NODE) {
+				ancestors[k++] = path[i];
+			}
+		}
+
+		ForkJoinTask<byte[]> task = pool.submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return encodeSubtree(ancestors, element);
+			}
+		});
+		fragments.addLast(new Fragment(element, task));
+	}
+
+	/*
+	 * runs on a pool thread, null if the subtree cannot be encoded on its
+	 * own (failures are raised again by the in place encoding)
+	 */
+	protected byte[] encodeSubtree(Node[] ancestors, Node element) {
+		FragmentWriter writer = fragmentWriters.poll();
+		try {
+			if (writer == null) {
+				writer = new FragmentWriter(factory, scElements);
+			}
+			return writer.encode(ancestors, element);
+		} catch (Exception e) {
+			return null;
+		} finally {
+			if (writer != null) {
+				fragmentWriters.offer(writer);
+			}
+		}
+	}
+
+	protected void cancelFragments() {
+		Fragment f;
+		while ((f = fragments.pollFirst()) != null) {
+			f.task.cancel(false);
+		}
+	}
+
+	protected static final class Fragment {
+		final Node element;
+		final ForkJoinTask<byte[]> task;
+
+		Fragment(Node element, ForkJoinTask<byte[]> task) {
+			this.element = element;
+			this.task = task;
+		}
+	}
+
+	/**
+	 * Encodes a single SC subtree within its ancestors and keeps the bytes
+	 * of the nested EXI body.
+	 */
+	protected static final class FragmentWriter extends DOMWriter {
+
+		private final FragmentOutputStream output;
+
+		FragmentWriter(EXIFactory factory, QName[] scElements)
+				throws EXIException {
+			this(factory.clone(), scElements, new FragmentOutputStream());
+		}
+
+		private FragmentWriter(EXIFactory factory, QName[] scElements,
+				FragmentOutputStream output) throws EXIException {
+			super(setSelfContainedHandler(factory, scElements, output));
+			this.output = output;
+		}
+
+		private static EXIFactory setSelfContainedHandler(EXIFactory factory,
+				QName[] scElements, SelfContainedHandler handler) {
+			factory.setSelfContainedElements(scElements, handler);
+			setOwnSchemaLessGrammars(factory);
+			return factory;
+		}
+
+		byte[] encode(Node[] ancestors, Node element) throws EXIException,
+				IOException {
+			output.reset();
+			try {
+				setOutput(output);
+				exiBody.encodeStartDocument();
+				for (Node ancestor : ancestors) {
+					encodeStartElement(ancestor);
+				}
+				encodeNode(element);
+				// aligned after the nested body
+				exiBody.flush();
+				return output.toFragment();
+			} finally {
+				reset();
+			}
+		}
+	}
+
+	/* growable byte buffer, the first SC callback marks the nested body */
+	static final class FragmentOutputStream extends OutputStream implements
+			SelfContainedHandler {
+
+		private byte[] buf = new byte[4096];
+		private int count;
+		private int start = -1;
+
+		@Override
+		public void write(int b) {
+			if (count == buf.length) {
+				buf = Arrays.copyOf(buf, count << 1);
+			}
+			buf[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if (count + len > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + len));
+			}
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+
+		public void scElement(String uri, String localName,
+				EncoderChannel channel) throws EXIException {
+			// called once the SC fragment is byte-aligned
+			if (start < 0) {
+				start = count;
+			}
+		}
+
+		void reset() {
+			count = 0;
+			start = -1;
+		}
+
+		byte[] toFragment() {
+			return start < 0 ? null : Arrays.copyOfRange(buf, start, count);
+		}
+	}
+
+	/* passes bytes through, discards the nested body of an armed SC element */
+	static final class SpliceOutputStream extends OutputStream implements
+			SelfContainedHandler {
+
+		private OutputStream out;
+		private boolean armed;
+		private boolean discarding;
+
+		void setOutput(OutputStream out) {
+			this.out = out;
+			armed = false;
+			discarding = false;
+		}
+
+		void arm() {
+			armed = true;
+		}
+
+		/* whether the SC callback fired since arm() */
+		boolean disarm() {
+			armed = false;
+			return discarding;
+		}
+
+		void splice(byte[] bytes) throws IOException {
+			discarding = false;
+			out.write(bytes, 0, bytes.length);
+		}
+
+		public void scElement(String uri, String localName,
+				EncoderChannel channel) throws EXIException {
+			if (armed) {
+				armed = false;
+				discarding = true;
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!discarding) {
+				out.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (!discarding) {
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.flow;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.main.api.flow.EXIFlow.Subscriber;
+import com.siemens.ct.exi.main.api.flow.EXIFlow.Subscription;
+import com.siemens.ct.exi.main.api.stream.StAXDecoder;
+import com.siemens.ct.exi.main.util.EventRing;
+import com.siemens.ct.exi.main.util.FeedInputStream;
+
+/**
+ * Decodes a published EXI document, i.e., a sequence of
+ * <code>ByteBuffer</code> chunks, into a published sequence of
+ * {@link XMLEventRecord}s.
+ * 
+ * <p>
+ * Decoding is demand-driven: events are only decoded as far as the
+ * subscriber requested them, and the next chunk is only requested from
+ * upstream once the previous one has been consumed. The wrapped
+ * <code>StAXDecoder</code> runs on a decoding thread (see
+ * {@link EventRing#startProducer(Executor, Runnable)}) that waits for demand
+ * or input, neither upstream nor downstream threads are blocked.
+ * </p>
+ * 
+ * <p>
+ * Records are re-used in a round-robin fashion: a record stays valid until
+ * batch size further records have been published. Subscribers keeping
+ * events longer have to {@link XMLEventRecord#copy()} them. Chunks are not
+ * copied and must not be modified by the publisher before the next chunk is
+ * requested. The processor decodes one document and supports one
+ * subscriber.
+ * </p>
+ */
+
+public class EXIDecodingProcessor implements
+		EXIFlow.Processor<ByteBuffer, XMLEventRecord> {
+
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	protected final StAXDecoder decoder;
+	protected final Executor executor;
+
+	protected final XMLEventRecord[] records;
+	protected int nextRecord;
+
+	protected final FeedInputStream input;
+
+	protected volatile Subscription upstream;
+	protected volatile Subscriber<? super XMLEventRecord> downstream;
+	protected volatile Throwable upstreamFailure;
+
+	/* guarded by this */
+	protected long demand;
+	protected boolean cancelled;
+	protected boolean started;
+	protected Throwable requestFailure;
+
+	public EXIDecodingProcessor(EXIFactory factory) throws EXIException {
+		this(new StAXDecoder(factory), DEFAULT_BATCH_SIZE, null);
+	}
+
+	/**
+	 * @param decoder
+	 *            decoder for the document
+	 * @param batchSize
+	 *            number of records that are re-used in turn
+	 * @param executor
+	 *            executor running the decoding stage or <code>null</code> to
+	 *            start a new daemon thread
+	 */
+	public EXIDecodingProcessor(StAXDecoder decoder, int batchSize,
+			Executor executor) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.decoder = decoder;
+		this.executor = executor;
+		this.records = new XMLEventRecord[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			records[i] = new XMLEventRecord();
+		}
+		this.input = new FeedInputStream() {
+			@Override
+			protected void inputRequired() {
+				upstream.request(1);
+			}
+		};
+	}
+
+	/*
+	 * ======================================================================
+	 * Upstream (EXI chunks)
+	 * ======================================================================
+	 */
+
+	public void onSubscribe(Subscription subscription) {
+		if (upstream != null) {
+			subscription.cancel();
+			return;
+		}
+		upstream = subscription;
+		startIfReady();
+	}
+
+	public void onNext(ByteBuffer chunk) {
+		if (chunk.hasRemaining()) {
+			input.feed(chunk);
+		} else {
+			upstream.request(1);
+		}
+	}
+
+	public void onError(Throwable throwable) {
+		upstreamFailure = throwable;
+		input.endOfInput();
+	}
+
+	public void onComplete() {
+		input.endOfInput();
+	}
+
+	/*
+	 * ======================================================================
+	 * Downstream (XML events)
+	 * ======================================================================
+	 */
+
+	public void subscribe(Subscriber<? super XMLEventRecord> subscriber) {
+		boolean accepted;
+		synchronized (this) {
+			accepted = downstream == null;
+			if (accepted) {
+				downstream = subscriber;
+			}
+		}
+		subscriber.onSubscribe(new Subscription() {
+			public void request(long n) {
+				EXIDecodingProcessor.this.request(n);
+			}
+
+			public void cancel() {
+				EXIDecodingProcessor.this.cancel();
+			}
+		});
+		if (accepted) {
+			startIfReady();
+		} else {
+			subscriber.onError(new IllegalStateException(
+					"Only one subscriber is supported"));
+		}
+	}
+
+	protected synchronized void request(long n) {
+		if (n <= 0) {
+			requestFailure = new IllegalArgumentException(
+					"Non-positive request " + n);
+			cancelled = true;
+		} else {
+			demand += n;
+			if (demand < 0) {
+				// unbounded
+				demand = Long.MAX_VALUE;
+			}
+		}
+		notifyAll();
+	}
+
+	protected void cancel() {
+		synchronized (this) {
+			cancelled = true;
+			notifyAll();
+		}
+		// decoding stage waiting for input terminates
+		input.endOfInput();
+		Subscription s = upstream;
+		if (s != null) {
+			s.cancel();
+		}
+	}
+
+	protected void startIfReady() {
+		synchronized (this) {
+			if (started || upstream == null || downstream == null) {
+				return;
+			}
+			started = true;
+		}
+		EventRing.startProducer(executor, new Runnable() {
+			public void run() {
+				decode();
+			}
+		});
+	}
+
+	/*
+	 * waits until at least one more event is requested, returns false if
+	 * cancelled
+	 */
+	protected synchronized boolean awaitDemand() throws InterruptedException {
+		while (demand == 0 && !cancelled) {
+			wait();
+		}
+		return !cancelled;
+	}
+
+	protected void decode() {
+		final Subscriber<? super XMLEventRecord> s = downstream;
+		try {
+			// header is read once events are requested
+			if (awaitDemand()) {
+				decoder.setInputStream(input);
+				emit(s, decoder.getEventType());
+				while (decoder.hasNext() && awaitDemand()) {
+					emit(s, decoder.next());
+				}
+			}
+
+			Throwable failure;
+			synchronized (this) {
+				failure = requestFailure;
+			}
+			if (failure != null) {
+				upstream.cancel();
+				s.onError(failure);
+			} else if (!isCancelled()) {
+				// further input is not needed
+				upstream.cancel();
+				s.onComplete();
+			}
+		} catch (Throwable t) {
+			if (!isCancelled()) {
+				Throwable failure = upstreamFailure;
+				if (failure == null) {
+					upstream.cancel();
+					failure = t;
+				}
+				s.onError(failure);
+			}
+		}
+	}
+
+	protected synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	protected void emit(Subscriber<? super XMLEventRecord> s, int eventType) {
+		XMLEventRecord r = records[nextRecord];
+		if (!fill(r, eventType)) {
+			// e.g., self-contained fragment, nothing to publish
+			return;
+		}
+		nextRecord = (nextRecord + 1) % records.length;
+		synchronized (this) {
+			if (demand != Long.MAX_VALUE) {
+				demand--;
+			}
+		}
+		s.onNext(r);
+	}
+
+	/**
+	 * Copies the current event of the decoder into the given record.
+	 * 
+	 * @param r
+	 *            record
+	 * @param eventType
+	 *            <code>XMLStreamConstants</code> event type
+	 * @return false if the event is not published
+	 */
+	protected boolean fill(XMLEventRecord r, int eventType) {
+		r.clear(eventType);
+		switch (eventType) {
+		case XMLStreamConstants.START_DOCUMENT:
+		case XMLStreamConstants.END_DOCUMENT:
+			break;
+		case XMLStreamConstants.START_ELEMENT:
+			r.setName(decoder.getNamespaceURI(), decoder.getLocalName(),
+					decoder.getPrefix());
+			for (int i = 0, n = decoder.getNamespaceCount(); i < n; i++) {
+				r.addNamespace(decoder.getNamespacePrefix(i),
+						decoder.getNamespaceURI(i));
+			}
+			for (int i = 0, n = decoder.getAttributeCount(); i < n; i++) {
+				r.addAttribute(decoder.getAttributeNamespace(i),
+						decoder.getAttributeLocalName(i),
+						decoder.getAttributePrefix(i),
+						decoder.getAttributeValue(i));
+			}
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			r.setName(decoder.getNamespaceURI(), decoder.getLocalName(),
+					decoder.getPrefix());
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.SPACE:
+		case XMLStreamConstants.COMMENT:
+			r.setText(decoder.getTextCharacters(), decoder.getTextStart(),
+					decoder.getTextLength());
+			break;
+		case XMLStreamConstants.DTD:
+			r.setText(decoder.getText());
+			break;
+		case XMLStreamConstants.ENTITY_REFERENCE:
+			r.setName(null, decoder.getText(), null);
+			break;
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			r.setName(null, decoder.getPITarget(), null);
+			String data = decoder.getPIData();
+			if (data != null) {
+				r.setText(data);
+			}
+			break;
+		default:
+			return false;
+		}
+		return true;
+	}
+
+}
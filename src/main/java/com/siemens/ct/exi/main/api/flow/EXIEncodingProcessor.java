@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.flow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import com.siemens.ct.exi.core.Constants;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.main.api.flow.EXIFlow.Subscriber;
+import com.siemens.ct.exi.main.api.flow.EXIFlow.Subscription;
+import com.siemens.ct.exi.main.api.stream.StAXEncoder;
+import com.siemens.ct.exi.main.util.BufferListOutputStream;
+
+/**
+ * Encodes a published sequence of {@link XMLEventRecord}s, i.e., one XML
+ * document, into a published sequence of EXI <code>ByteBuffer</code>
+ * chunks.
+ * 
+ * <p>
+ * Events are encoded by the wrapped <code>StAXEncoder</code> on the thread
+ * that publishes them, the output is collected in the pooled chunks of a
+ * {@link BufferListOutputStream}. Completed chunks are published as
+ * requested. Events are requested from upstream in batches, but only while
+ * the buffered output stays below the high-water mark of the output stream
+ * (back-pressure). Neither side is blocked.
+ * </p>
+ * 
+ * <p>
+ * Records are only read while being encoded, publishers may re-use them.
+ * Published chunks are owned by the subscriber. The processor encodes one
+ * document and supports one subscriber.
+ * </p>
+ */
+
+public class EXIEncodingProcessor implements
+		EXIFlow.Processor<XMLEventRecord, ByteBuffer> {
+
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	protected final StAXEncoder encoder;
+	protected final BufferListOutputStream output;
+	protected final int batchSize;
+
+	/* all fields below are guarded by this */
+	protected final ArrayDeque<ByteBuffer> chunks;
+	protected long queuedBytes;
+
+	protected Subscription upstream;
+	protected long upstreamRequested;
+	protected boolean upstreamDone;
+	protected boolean documentEnded;
+
+	protected Subscriber<? super ByteBuffer> downstream;
+	protected long demand;
+
+	protected Throwable failure;
+	protected boolean terminated;
+
+	/* drain loop state */
+	protected boolean emitting;
+	protected boolean missed;
+
+	public EXIEncodingProcessor(EXIFactory factory) throws EXIException,
+			IOException {
+		this(new StAXEncoder(factory), new BufferListOutputStream(),
+				DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param encoder
+	 *            encoder for the document, the EXI header is written
+	 *            immediately
+	 * @param output
+	 *            output buffer, see
+	 *            {@link BufferListOutputStream#setHighWaterMark(long)}
+	 * @param batchSize
+	 *            number of events requested from upstream at once
+	 * @throws EXIException
+	 *             EXI header failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public EXIEncodingProcessor(StAXEncoder encoder,
+			BufferListOutputStream output, int batchSize) throws EXIException,
+			IOException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.encoder = encoder;
+		this.output = output;
+		this.batchSize = batchSize;
+		this.chunks = new ArrayDeque<ByteBuffer>();
+		encoder.setOutputStream(output);
+	}
+
+	/*
+	 * ======================================================================
+	 * Upstream (XML events)
+	 * ======================================================================
+	 */
+
+	public void onSubscribe(Subscription subscription) {
+		synchronized (this) {
+			if (upstream != null || terminated) {
+				subscription.cancel();
+				return;
+			}
+			upstream = subscription;
+		}
+		drain();
+	}
+
+	public void onNext(XMLEventRecord record) {
+		synchronized (this) {
+			if (terminated || failure != null) {
+				return;
+			}
+			upstreamRequested--;
+			try {
+				encode(record);
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+		drain();
+	}
+
+	public void onError(Throwable throwable) {
+		synchronized (this) {
+			upstreamDone = true;
+			if (failure == null) {
+				failure = throwable;
+			}
+		}
+		drain();
+	}
+
+	public void onComplete() {
+		synchronized (this) {
+			upstreamDone = true;
+			if (!documentEnded && failure == null) {
+				failure = new EXIException("Incomplete XML document");
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * Encodes the given event.
+	 * 
+	 * @param r
+	 *            record
+	 * @throws XMLStreamException
+	 *             encoding failure
+	 */
+	protected void encode(XMLEventRecord r) throws XMLStreamException {
+		switch (r.getEventType()) {
+		case XMLStreamConstants.START_DOCUMENT:
+			encoder.writeStartDocument();
+			break;
+		case XMLStreamConstants.END_DOCUMENT:
+			encoder.writeEndDocument();
+			encoder.flush();
+			// completes the last chunk
+			output.flush();
+			documentEnded = true;
+			break;
+		case XMLStreamConstants.START_ELEMENT:
+			encoder.writeStartElement(nonNull(r.getPrefix()),
+					r.getLocalName(), nonNull(r.getNamespaceURI()));
+			for (int i = 0, n = r.getNamespaceCount(); i < n; i++) {
+				encoder.writeNamespace(nonNull(r.getNamespacePrefix(i)),
+						r.getNamespaceURI(i));
+			}
+			for (int i = 0, n = r.getAttributeCount(); i < n; i++) {
+				encoder.writeAttribute(nonNull(r.getAttributePrefix(i)),
+						nonNull(r.getAttributeNamespace(i)),
+						r.getAttributeLocalName(i), r.getAttributeValue(i));
+			}
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			encoder.writeEndElement();
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.SPACE:
+			encoder.writeCharacters(r.getTextCharacters(), 0,
+					r.getTextLength());
+			break;
+		case XMLStreamConstants.CDATA:
+			encoder.writeCData(r.getText());
+			break;
+		case XMLStreamConstants.COMMENT:
+			encoder.writeComment(r.getText());
+			break;
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			encoder.writeProcessingInstruction(r.getPITarget(), r.getPIData());
+			break;
+		case XMLStreamConstants.DTD:
+			encoder.writeDTD(r.getText());
+			break;
+		case XMLStreamConstants.ENTITY_REFERENCE:
+			encoder.writeEntityRef(r.getLocalName());
+			break;
+		default:
+			throw new XMLStreamException("Unsupported event "
+					+ r.getEventType());
+		}
+	}
+
+	protected static String nonNull(String s) {
+		return s == null ? Constants.XML_NULL_NS_URI : s;
+	}
+
+	/*
+	 * ======================================================================
+	 * Downstream (EXI chunks)
+	 * ======================================================================
+	 */
+
+	public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+		boolean accepted;
+		synchronized (this) {
+			accepted = downstream == null;
+		}
+		subscriber.onSubscribe(new Subscription() {
+			public void request(long n) {
+				EXIEncodingProcessor.this.request(n);
+			}
+
+			public void cancel() {
+				EXIEncodingProcessor.this.cancel();
+			}
+		});
+		if (accepted) {
+			synchronized (this) {
+				downstream = subscriber;
+			}
+			drain();
+		} else {
+			subscriber.onError(new IllegalStateException(
+					"Only one subscriber is supported"));
+		}
+	}
+
+	protected void request(long n) {
+		synchronized (this) {
+			if (n <= 0) {
+				if (failure == null) {
+					failure = new IllegalArgumentException(
+							"Non-positive request " + n);
+				}
+			} else {
+				demand += n;
+				if (demand < 0) {
+					// unbounded
+					demand = Long.MAX_VALUE;
+				}
+			}
+		}
+		drain();
+	}
+
+	protected void cancel() {
+		Subscription up;
+		synchronized (this) {
+			terminated = true;
+			up = upstream;
+		}
+		if (up != null) {
+			up.cancel();
+		}
+	}
+
+	/*
+	 * Publishes chunks as requested and requests further events. Only one
+	 * thread runs the loop at a time, re-entrant calls (e.g., synchronous
+	 * publishers) are folded into the running loop.
+	 */
+	protected void drain() {
+		synchronized (this) {
+			if (emitting) {
+				missed = true;
+				return;
+			}
+			emitting = true;
+		}
+		for (;;) {
+			Subscriber<? super ByteBuffer> s;
+			Subscription up;
+			ByteBuffer chunk = null;
+			Throwable error = null;
+			boolean complete = false;
+			long more = 0;
+			synchronized (this) {
+				s = downstream;
+				up = upstream;
+				for (ByteBuffer b : output.drain()) {
+					chunks.add(b);
+					queuedBytes += b.remaining();
+				}
+				if (terminated || s == null) {
+					emitting = false;
+					return;
+				}
+				if (failure != null) {
+					terminated = true;
+					error = failure;
+				} else if (demand > 0 && !chunks.isEmpty()) {
+					chunk = chunks.poll();
+					queuedBytes -= chunk.remaining();
+					if (demand != Long.MAX_VALUE) {
+						demand--;
+					}
+				} else if (upstreamDone && chunks.isEmpty()) {
+					terminated = true;
+					complete = true;
+				} else if (up != null && !upstreamDone
+						&& upstreamRequested == 0
+						&& queuedBytes + output.size() < output
+								.getHighWaterMark()) {
+					more = batchSize;
+					upstreamRequested = more;
+				} else if (missed) {
+					missed = false;
+				} else {
+					emitting = false;
+					return;
+				}
+			}
+
+			if (error != null) {
+				if (up != null && !upstreamDone) {
+					up.cancel();
+				}
+				s.onError(error);
+				return;
+			} else if (complete) {
+				s.onComplete();
+				return;
+			} else if (chunk != null) {
+				s.onNext(chunk);
+			} else if (more > 0) {
+				up.request(more);
+			}
+		}
+	}
+
+}
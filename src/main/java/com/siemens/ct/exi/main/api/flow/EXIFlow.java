@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.flow;
+
+/**
+ * Interfaces for demand-driven (back-pressured) publish-subscribe streams.
+ * 
+ * <p>
+ * The interfaces and their contracts are identical to
+ * <code>java.util.concurrent.Flow</code> (Java 9 and later) and to the
+ * Reactive Streams API. As this library still targets Java 8 they are
+ * declared here; adapting them to either API is a matter of delegating
+ * method by method.
+ * </p>
+ */
+
+public final class EXIFlow {
+
+	private EXIFlow() {
+	}
+
+	/**
+	 * Producer of items received by subscribers.
+	 * 
+	 * @param <T>
+	 *            published item type
+	 */
+	public static interface Publisher<T> {
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * Receiver of items. <code>onNext</code> is only called for items
+	 * requested via {@link Subscription#request(long)}. Publishers signal
+	 * serially, i.e., never from two threads at once and in item order.
+	 * 
+	 * @param <T>
+	 *            subscribed item type
+	 */
+	public static interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	/**
+	 * Link between a publisher and one subscriber.
+	 */
+	public static interface Subscription {
+		/**
+		 * Adds the given number of items to the unfulfilled demand.
+		 * 
+		 * @param n
+		 *            positive number of items
+		 */
+		void request(long n);
+
+		void cancel();
+	}
+
+	/**
+	 * Subscriber that publishes the items it transforms.
+	 * 
+	 * @param <T>
+	 *            subscribed item type
+	 * @param <R>
+	 *            published item type
+	 */
+	public static interface Processor<T, R> extends Subscriber<T>,
+			Publisher<R> {
+	}
+
+}
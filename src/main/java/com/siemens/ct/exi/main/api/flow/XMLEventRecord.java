@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.flow;
+
+import java.util.Arrays;
+
+/**
+ * Lightweight, mutable XML event, e.g., as published by
+ * {@link EXIDecodingProcessor} and consumed by {@link EXIEncodingProcessor}.
+ * 
+ * <p>
+ * The event type is one of the <code>XMLStreamConstants</code>. Depending
+ * on the type the record holds
+ * </p>
+ * <ul>
+ * <li>START_ELEMENT: name, namespace declarations and attributes</li>
+ * <li>END_ELEMENT: name</li>
+ * <li>CHARACTERS, SPACE, CDATA, COMMENT, DTD: text</li>
+ * <li>ENTITY_REFERENCE: local name</li>
+ * <li>PROCESSING_INSTRUCTION: target (local name) and data (text)</li>
+ * </ul>
+ * 
+ * <p>
+ * Records are re-used, see {@link #copy()} to keep an event.
+ * </p>
+ */
+
+public class XMLEventRecord {
+
+	protected static final int DEFAULT_TEXT_SIZE = 64;
+
+	protected int eventType;
+	protected String namespaceURI;
+	protected String localName;
+	protected String prefix;
+
+	protected char[] text = new char[DEFAULT_TEXT_SIZE];
+	protected int textLength;
+
+	/* namespace URI, local name, prefix and value per attribute */
+	protected String[] attributes = new String[4 * 4];
+	protected int attributeCount;
+
+	/* prefix and URI per namespace declaration */
+	protected String[] namespaces = new String[2 * 2];
+	protected int namespaceCount;
+
+	public XMLEventRecord() {
+	}
+
+	public XMLEventRecord(int eventType) {
+		this.eventType = eventType;
+	}
+
+	/**
+	 * Resets the record to the given event type without name, text,
+	 * attributes and namespace declarations.
+	 * 
+	 * @param eventType
+	 *            <code>XMLStreamConstants</code> event type
+	 * @return this record
+	 */
+	public XMLEventRecord clear(int eventType) {
+		this.eventType = eventType;
+		namespaceURI = null;
+		localName = null;
+		prefix = null;
+		textLength = 0;
+		Arrays.fill(attributes, 0, attributeCount * 4, null);
+		attributeCount = 0;
+		Arrays.fill(namespaces, 0, namespaceCount * 2, null);
+		namespaceCount = 0;
+		return this;
+	}
+
+	public int getEventType() {
+		return eventType;
+	}
+
+	public XMLEventRecord setName(String namespaceURI, String localName,
+			String prefix) {
+		this.namespaceURI = namespaceURI;
+		this.localName = localName;
+		this.prefix = prefix;
+		return this;
+	}
+
+	public String getNamespaceURI() {
+		return namespaceURI;
+	}
+
+	public String getLocalName() {
+		return localName;
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public XMLEventRecord setText(char[] ch, int start, int length) {
+		if (text.length < length) {
+			text = new char[Math.max(length, text.length << 1)];
+		}
+		System.arraycopy(ch, start, text, 0, length);
+		textLength = length;
+		return this;
+	}
+
+	public XMLEventRecord setText(String s) {
+		int length = s.length();
+		if (text.length < length) {
+			text = new char[Math.max(length, text.length << 1)];
+		}
+		s.getChars(0, length, text, 0);
+		textLength = length;
+		return this;
+	}
+
+	/**
+	 * @return text buffer, valid from index 0 to {@link #getTextLength()}
+	 */
+	public char[] getTextCharacters() {
+		return text;
+	}
+
+	public int getTextLength() {
+		return textLength;
+	}
+
+	public String getText() {
+		return new String(text, 0, textLength);
+	}
+
+	public String getPITarget() {
+		return localName;
+	}
+
+	public String getPIData() {
+		return getText();
+	}
+
+	public XMLEventRecord addAttribute(String namespaceURI, String localName,
+			String prefix, String value) {
+		int i = attributeCount * 4;
+		if (i == attributes.length) {
+			attributes = Arrays.copyOf(attributes, i << 1);
+		}
+		attributes[i] = namespaceURI;
+		attributes[i + 1] = localName;
+		attributes[i + 2] = prefix;
+		attributes[i + 3] = value;
+		attributeCount++;
+		return this;
+	}
+
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+
+	public String getAttributeNamespace(int index) {
+		return attributes[index * 4];
+	}
+
+	public String getAttributeLocalName(int index) {
+		return attributes[index * 4 + 1];
+	}
+
+	public String getAttributePrefix(int index) {
+		return attributes[index * 4 + 2];
+	}
+
+	public String getAttributeValue(int index) {
+		return attributes[index * 4 + 3];
+	}
+
+	public XMLEventRecord addNamespace(String prefix, String namespaceURI) {
+		int i = namespaceCount * 2;
+		if (i == namespaces.length) {
+			namespaces = Arrays.copyOf(namespaces, i << 1);
+		}
+		namespaces[i] = prefix;
+		namespaces[i + 1] = namespaceURI;
+		namespaceCount++;
+		return this;
+	}
+
+	public int getNamespaceCount() {
+		return namespaceCount;
+	}
+
+	public String getNamespacePrefix(int index) {
+		return namespaces[index * 2];
+	}
+
+	public String getNamespaceURI(int index) {
+		return namespaces[index * 2 + 1];
+	}
+
+	/**
+	 * @return independent copy of this record
+	 */
+	public XMLEventRecord copy() {
+		XMLEventRecord r = new XMLEventRecord(eventType);
+		r.setName(namespaceURI, localName, prefix);
+		r.setText(text, 0, textLength);
+		for (int i = 0; i < attributeCount; i++) {
+			r.addAttribute(getAttributeNamespace(i), getAttributeLocalName(i),
+					getAttributePrefix(i), getAttributeValue(i));
+		}
+		for (int i = 0; i < namespaceCount; i++) {
+			r.addNamespace(getNamespacePrefix(i), getNamespaceURI(i));
+		}
+		return r;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(eventType);
+		if (localName != null) {
+			sb.append(" {").append(namespaceURI).append('}').append(localName);
+		}
+		for (int i = 0; i < namespaceCount; i++) {
+			sb.append(" xmlns:").append(getNamespacePrefix(i)).append('=')
+					.append(getNamespaceURI(i));
+		}
+		for (int i = 0; i < attributeCount; i++) {
+			sb.append(" {").append(getAttributeNamespace(i)).append('}')
+					.append(getAttributeLocalName(i)).append('=')
+					.append(getAttributeValue(i));
+		}
+		if (textLength > 0) {
+			sb.append(" '").append(text, 0, textLength).append('\'');
+		}
+		return sb.toString();
+	}
+
+}
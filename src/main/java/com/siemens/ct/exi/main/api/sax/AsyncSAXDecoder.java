@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.sax;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DeclHandler;
+import org.xml.sax.ext.LexicalHandler;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.main.util.EventRing;
+import com.siemens.ct.exi.main.util.FeedInputStream;
+
+/**
+ * Push-style, incremental EXI decoder.
+ * 
+ * <p>
+ * Instead of reading from a (blocking) stream the application feeds the EXI
+ * message chunk by chunk as it arrives, e.g., on the I/O thread of an event
+ * loop. Each call reports the SAX events of everything that can be decoded
+ * so far to the registered handlers and returns
+ * {@link Status#NEEDS_MORE_INPUT} instead of blocking on missing input.
+ * </p>
+ * 
+ * <code>
+ * AsyncSAXDecoder exiReader = new AsyncSAXDecoder(new SAXDecoder(exiFactory), executor);
+ * exiReader.setContentHandler(handler);
+ * while (exiReader.feed(nextChunk()) == Status.NEEDS_MORE_INPUT) { ... }
+ * </code>
+ * 
+ * <p>
+ * The wrapped <code>SAXDecoder</code> keeps its bit position and grammar
+ * state between two chunks on a decoding thread that waits for input (see
+ * {@link EventRing#startProducer(Executor, Runnable)}); the feeding thread
+ * only waits while fed bytes are being decoded. Decoded events pass a
+ * bounded ring of re-used records, chunks are not copied. Handlers are
+ * always called by the feeding thread. The instance is not thread-safe and
+ * can be re-used after {@link #reset()}.
+ * </p>
+ * 
+ * <p>
+ * Cost: every message in flight occupies one thread of the given executor
+ * from its first chunk until it is decoded completely (or reset), parked
+ * while it waits for input. The executor therefore bounds the number of
+ * concurrently decoded messages and needs a thread for each of them. Use a
+ * bounded pool that rejects surplus tasks (e.g., a
+ * <code>ThreadPoolExecutor</code> with a <code>SynchronousQueue</code>)
+ * rather than one that queues them, a queued decoding stage does not run
+ * before another message completes. A rejected message fails on its first
+ * chunk with a <code>RejectedExecutionException</code>.
+ * </p>
+ */
+
+public class AsyncSAXDecoder extends SAXEventPipeline {
+
+	public enum Status {
+		/** all bytes fed so far are decoded, the document is incomplete */
+		NEEDS_MORE_INPUT,
+		/** the document is decoded completely */
+		END_OF_DOCUMENT
+	}
+
+	protected final SAXDecoder decoder;
+	protected final Executor executor;
+	protected final int spinCount;
+	protected final FeedInputStream input;
+
+	protected ContentHandler contentHandler;
+	protected LexicalHandler lexicalHandler;
+	protected DeclHandler declHandler;
+
+	protected CountDownLatch decoderDone;
+	protected boolean documentDone;
+	protected boolean failed;
+
+	/**
+	 * @param decoder
+	 *            decoder with features set
+	 * @param executor
+	 *            executor running the decoding stages, one thread per
+	 *            message in flight
+	 */
+	public AsyncSAXDecoder(SAXDecoder decoder, Executor executor) {
+		this(decoder, EventRing.DEFAULT_RING_SIZE,
+				EventRing.DEFAULT_SPIN_COUNT, executor);
+	}
+
+	/**
+	 * @param decoder
+	 *            decoder with features set
+	 * @param ringSize
+	 *            number of events that can be decoded ahead of the handlers
+	 * @param spinCount
+	 *            number of busy-wait rounds before a waiting thread parks
+	 * @param executor
+	 *            executor running the decoding stages, one thread per
+	 *            message in flight
+	 */
+	public AsyncSAXDecoder(SAXDecoder decoder, int ringSize, int spinCount,
+			Executor executor) {
+		super(ringSize, spinCount);
+		if (executor == null) {
+			throw new IllegalArgumentException(
+					"No executor for the decoding stage");
+		}
+		this.decoder = decoder;
+		this.spinCount = Math.max(spinCount, 0);
+		this.executor = executor;
+		this.input = new FeedInputStream();
+	}
+
+	public void setContentHandler(ContentHandler handler) {
+		this.contentHandler = handler;
+	}
+
+	public ContentHandler getContentHandler() {
+		return contentHandler;
+	}
+
+	public void setLexicalHandler(LexicalHandler handler) {
+		this.lexicalHandler = handler;
+	}
+
+	public LexicalHandler getLexicalHandler() {
+		return lexicalHandler;
+	}
+
+	public void setDeclHandler(DeclHandler handler) {
+		this.declHandler = handler;
+	}
+
+	public DeclHandler getDeclHandler() {
+		return declHandler;
+	}
+
+	/**
+	 * @return whether the current document is decoded completely
+	 */
+	public boolean isDocumentDone() {
+		return documentDone;
+	}
+
+	public Status feed(byte[] b) throws IOException, SAXException {
+		return feed(b, 0, b.length);
+	}
+
+	/**
+	 * Decodes the next chunk of the EXI message. The array must not be
+	 * modified until the call returns.
+	 * 
+	 * @param b
+	 *            bytes
+	 * @param off
+	 *            offset
+	 * @param len
+	 *            number of bytes
+	 * @return {@link Status#NEEDS_MORE_INPUT} if the document is not complete
+	 *         yet, {@link Status#END_OF_DOCUMENT} otherwise
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding or handler failure
+	 */
+	public Status feed(byte[] b, int off, int len) throws IOException,
+			SAXException {
+		return feed(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * Decodes the remaining bytes of the given (heap or direct) buffer as
+	 * next chunk of the EXI message. The buffer position is advanced by the
+	 * number of bytes read, all remaining bytes are read unless the document
+	 * ends within the chunk.
+	 * 
+	 * @param buffer
+	 *            EXI input
+	 * @return {@link Status#NEEDS_MORE_INPUT} if the document is not complete
+	 *         yet, {@link Status#END_OF_DOCUMENT} otherwise
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding or handler failure
+	 */
+	public Status feed(ByteBuffer buffer) throws IOException, SAXException {
+		checkState();
+		if (documentDone) {
+			return Status.END_OF_DOCUMENT;
+		}
+		start();
+		input.feed(buffer);
+		return process();
+	}
+
+	/**
+	 * Signals that the EXI message is complete and decodes what is left.
+	 * 
+	 * @return {@link Status#END_OF_DOCUMENT}
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding or handler failure, e.g., a truncated message
+	 */
+	public Status endOfInput() throws IOException, SAXException {
+		checkState();
+		if (documentDone) {
+			return Status.END_OF_DOCUMENT;
+		}
+		start();
+		input.endOfInput();
+		return process();
+	}
+
+	/**
+	 * Terminates the current document, if any, so that the instance can
+	 * decode another EXI message. Handlers stay registered.
+	 */
+	public void reset() {
+		abort();
+		decoderDone = null;
+		ring.reset();
+		cancelCause = null;
+		input.reset();
+		documentDone = false;
+		failed = false;
+	}
+
+	protected void checkState() {
+		if (failed) {
+			throw new IllegalStateException(
+					"Decoding failed, reset() is required");
+		}
+	}
+
+	protected DeclHandler getDispatchDeclHandler() {
+		if (declHandler != null) {
+			return declHandler;
+		}
+		return lexicalHandler instanceof DeclHandler ? (DeclHandler) lexicalHandler
+				: null;
+	}
+
+	protected void start() throws SAXException {
+		if (decoderDone != null) {
+			return;
+		}
+		if (contentHandler == null) {
+			throw new SAXException("No content handler set!");
+		}
+
+		// decoding stage reports to the pipeline
+		decoder.setContentHandler(this);
+		decoder.setProperty("http://xml.org/sax/properties/lexical-handler",
+				lexicalHandler == null ? null : this);
+		decoder.setProperty(
+				"http://xml.org/sax/properties/declaration-handler",
+				getDispatchDeclHandler() == null ? null : this);
+
+		final CountDownLatch done = new CountDownLatch(1);
+		decoderDone = done;
+		try {
+			EventRing.startProducer(executor, new Runnable() {
+				public void run() {
+					try {
+						decoder.parse(new InputSource(input));
+						ring.finish(null);
+					} catch (Throwable t) {
+						ring.finish(t);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// e.g., rejected by executor
+			decoderDone = null;
+			throw e;
+		}
+	}
+
+	protected Status process() throws IOException, SAXException {
+		boolean success = false;
+		try {
+			Status status = dispatchAvailable();
+			success = true;
+			return status;
+		} catch (EXIException e) {
+			throw new SAXException("EXI " + e.getLocalizedMessage(), e);
+		} finally {
+			if (!success) {
+				failed = true;
+				abort();
+			}
+		}
+	}
+
+	/*
+	 * Dispatches decoded events until the decoder either finished or waits
+	 * for input that has not been fed yet.
+	 */
+	protected Status dispatchAvailable() throws IOException, SAXException,
+			EXIException {
+		final DeclHandler dh = getDispatchDeclHandler();
+		input.setWaiter(Thread.currentThread());
+		try {
+			int spins = 0;
+			for (;;) {
+				Record r = ring.poll();
+				if (r != null) {
+					dispatch(r, contentHandler, lexicalHandler, dh);
+					ring.release();
+					spins = 0;
+				} else if (ring.isFinished()) {
+					// re-check, records published before finishing
+					if (ring.poll() == null) {
+						awaitDecoder();
+						documentDone = true;
+						checkFailure();
+						return Status.END_OF_DOCUMENT;
+					}
+				} else if (input.isStarved()) {
+					// re-check, records published before starving
+					if (ring.poll() == null) {
+						return Status.NEEDS_MORE_INPUT;
+					}
+				} else if (spins++ >= spinCount) {
+					ring.awaitPublished();
+				}
+			}
+		} finally {
+			input.setWaiter(null);
+		}
+	}
+
+	/*
+	 * stops the decoding stage of an incomplete document
+	 */
+	protected void abort() {
+		if (decoderDone != null) {
+			// next event or read fails
+			cancel(null);
+			input.endOfInput();
+			awaitDecoder();
+		}
+	}
+
+	protected void awaitDecoder() {
+		boolean interrupted = false;
+		while (decoderDone.getCount() > 0) {
+			try {
+				decoderDone.await();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
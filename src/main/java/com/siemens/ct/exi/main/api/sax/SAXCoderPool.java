@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.sax;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * Thread-safe pool of re-usable <code>SAXEncoder</code> and
+ * <code>SAXDecoder</code> instances for one EXI configuration.
+ * 
+ * <p>
+ * Creating coders is costly compared to encoding/decoding small messages
+ * (EXI stream coders, attribute lists, character buffers). A pool hands out
+ * warmed instances and takes them back once a stream has been processed.
+ * Instances are reset when returned.
+ * </p>
+ * 
+ * <code>
+ * SAXCoderPool pool = new SAXCoderPool(exiFactory);
+ * SAXEncoder writer = pool.borrowEXIWriter();
+ * try {
+ *   writer.setOutputStream(os);
+ *   xmlReader.setContentHandler(writer);
+ *   xmlReader.parse(...);
+ * } finally {
+ *   pool.returnEXIWriter(writer);
+ * }
+ * </code>
+ * 
+ * <p>
+ * Note: Use one pool per <code>EXIFactory</code> configuration. The factory
+ * must not be modified while the pool is in use.
+ * </p>
+ */
+
+public class SAXCoderPool {
+
+	public static final int DEFAULT_MAX_IDLE = 64;
+
+	protected final SAXFactory saxFactory;
+	protected final int maxIdle;
+
+	protected final Queue<SAXEncoder> writers;
+	protected final AtomicInteger idleWriters;
+
+	protected final Queue<SAXDecoder> readers;
+	protected final AtomicInteger idleReaders;
+
+	public SAXCoderPool(EXIFactory exiFactory) {
+		this(exiFactory, DEFAULT_MAX_IDLE);
+	}
+
+	/**
+	 * @param exiFactory
+	 *            EXI configuration used by all pooled instances
+	 * @param maxIdle
+	 *            maximum number of idle writers and readers (each) kept by
+	 *            the pool, surplus instances are dropped when returned
+	 */
+	public SAXCoderPool(EXIFactory exiFactory, int maxIdle) {
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException("maxIdle must not be negative: "
+					+ maxIdle);
+		}
+		this.saxFactory = new SAXFactory(exiFactory);
+		this.maxIdle = maxIdle;
+
+		this.writers = new ConcurrentLinkedQueue<SAXEncoder>();
+		this.idleWriters = new AtomicInteger();
+		this.readers = new ConcurrentLinkedQueue<SAXDecoder>();
+		this.idleReaders = new AtomicInteger();
+	}
+
+	/**
+	 * Pre-creates instances so that first requests do not pay setup costs.
+	 * 
+	 * @param writers
+	 *            number of writers
+	 * @param readers
+	 *            number of readers
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	public void warmUp(int writers, int readers) throws EXIException {
+		for (int i = 0; i < writers; i++) {
+			returnEXIWriter(saxFactory.createEXIWriter());
+		}
+		for (int i = 0; i < readers; i++) {
+			returnEXIReader((SAXDecoder) saxFactory.createEXIReader());
+		}
+	}
+
+	/**
+	 * Returns an idle writer or creates a new one.
+	 * 
+	 * <p>
+	 * Note that the output stream MUST be set.
+	 * </p>
+	 * 
+	 * @return writer using the pool coding options
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	public SAXEncoder borrowEXIWriter() throws EXIException {
+		SAXEncoder writer = writers.poll();
+		if (writer == null) {
+			writer = saxFactory.createEXIWriter();
+		} else {
+			idleWriters.decrementAndGet();
+		}
+		return writer;
+	}
+
+	/**
+	 * Hands back a writer obtained by {@link #borrowEXIWriter()}. The writer
+	 * must not be used by the caller afterwards.
+	 * 
+	 * @param writer
+	 *            writer to be re-used
+	 */
+	public void returnEXIWriter(SAXEncoder writer) {
+		if (writer != null) {
+			writer.reset();
+			if (idleWriters.incrementAndGet() <= maxIdle) {
+				writers.offer(writer);
+			} else {
+				idleWriters.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns an idle reader or creates a new one.
+	 * 
+	 * @return reader using the pool coding options
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	public SAXDecoder borrowEXIReader() throws EXIException {
+		SAXDecoder reader = readers.poll();
+		if (reader == null) {
+			reader = (SAXDecoder) saxFactory.createEXIReader();
+		} else {
+			idleReaders.decrementAndGet();
+		}
+		return reader;
+	}
+
+	/**
+	 * Hands back a reader obtained by {@link #borrowEXIReader()}. The reader
+	 * must not be used by the caller afterwards.
+	 * 
+	 * @param reader
+	 *            reader to be re-used
+	 */
+	public void returnEXIReader(SAXDecoder reader) {
+		if (reader != null) {
+			reader.reset();
+			if (idleReaders.incrementAndGet() <= maxIdle) {
+				readers.offer(reader);
+			} else {
+				idleReaders.decrementAndGet();
+			}
+		}
+	}
+
+	public int getNumberOfIdleWriters() {
+		return idleWriters.get();
+	}
+
+	public int getNumberOfIdleReaders() {
+		return idleReaders.get();
+	}
+
+}
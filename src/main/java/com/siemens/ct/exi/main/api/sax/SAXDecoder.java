@@ -23,12 +23,19 @@
 
 package com.siemens.ct.exi.main.api.sax;
 
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 import org.xml.sax.ContentHandler;
 import org.xml.sax.DTDHandler;
@@ -59,6 +66,10 @@ import com.siemens.ct.exi.core.values.ListValue;
 import com.siemens.ct.exi.core.values.Value;
 import com.siemens.ct.exi.core.values.ValueType;
 import com.siemens.ct.exi.main.helpers.DefaultSchemaIdResolver;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+import com.siemens.ct.exi.main.util.ChannelInputStream;
+import com.siemens.ct.exi.main.util.EventRing;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
 import com.siemens.ct.exi.main.util.NoEntityResolver;
 
 /**
@@ -73,6 +84,8 @@ public class SAXDecoder implements XMLReader {
 
 	protected EXIFactory noOptionsFactory;
 	protected EXIStreamDecoder exiStream;
+	/* SC fragments, created on demand */
+	protected EXIStreamDecoder scStream;
 
 	protected ContentHandler contentHandler;
 	protected DTDHandler dtdHandler;
@@ -92,6 +105,11 @@ public class SAXDecoder implements XMLReader {
 	/* Helper for building strings */
 	protected StringBuilder sbHelper;
 
+	/* pipelined decoding, disabled for ring size 0 */
+	protected int pipelineRingSize = 0;
+	protected int pipelineSpinCount = EventRing.DEFAULT_SPIN_COUNT;
+	protected Executor pipelineExecutor;
+
 	protected SAXDecoder(EXIFactory noOptionsFactory, char[] cbuffer) throws EXIException {
 		this.noOptionsFactory = noOptionsFactory;
 		if (noOptionsFactory.getSchemaIdResolver() == null) {
@@ -106,18 +124,89 @@ public class SAXDecoder implements XMLReader {
 		 * http://
 		 * sourceforge.net/projects/exificient/forums/forum/856596/topic/5839494
 		 */
+		initFeatures();
+		this.cbuffer = cbuffer;
+	}
+
+	protected void initFeatures() {
+		namespaces = true;
 		// switch namespace prefixes to TRUE if the stream preserves prefixes
-		if (noOptionsFactory.getFidelityOptions().isFidelityEnabled(
-				FidelityOptions.FEATURE_PREFIX)) {
-			namespacePrefixes = true;
+		namespacePrefixes = noOptionsFactory.getFidelityOptions()
+				.isFidelityEnabled(FidelityOptions.FEATURE_PREFIX);
+		exiBodyOnly = false;
+	}
+
+	/**
+	 * Resets the reader to its initial state so that the instance (and its
+	 * internal buffers) can be re-used for another EXI stream. Registered
+	 * handlers are released and features are set back to their defaults.
+	 */
+	public void reset() {
+		contentHandler = null;
+		dtdHandler = null;
+		lexicalHandler = null;
+		declHandler = null;
+		errorHandler = null;
+		initFeatures();
+		if (sbHelper != null) {
+			sbHelper.setLength(0);
 		}
-		this.cbuffer = cbuffer;
 	}
 
 	public SAXDecoder(EXIFactory noOptionsFactory) throws EXIException {
 		this(noOptionsFactory, new char[DEFAULT_CHAR_BUFFER_SIZE]);
 	}
 
+	/**
+	 * Enables pipelined decoding. A producer thread reads and decodes the EXI
+	 * stream (including inflating compressed blocks) ahead into a bounded ring
+	 * of event records while the parsing thread dispatches the events in
+	 * order to the registered handlers.
+	 * 
+	 * <p>
+	 * Handlers are always called by the thread that invoked
+	 * <code>parse</code>. Note that a <code>Locator</code> is not provided in
+	 * pipelined mode.
+	 * </p>
+	 * 
+	 * @param ringSize
+	 *            number of events that can be decoded ahead, 0 disables
+	 *            pipelining (default)
+	 */
+	public void setPipelineRingSize(int ringSize) {
+		if (ringSize < 0) {
+			throw new IllegalArgumentException("Negative ring size "
+					+ ringSize);
+		}
+		this.pipelineRingSize = ringSize;
+	}
+
+	public int getPipelineRingSize() {
+		return pipelineRingSize;
+	}
+
+	/**
+	 * Sets the number of busy-wait rounds before a pipeline stage waiting on
+	 * a full (back-pressure) or empty ring parks its thread.
+	 * 
+	 * @param spinCount
+	 *            number of spins
+	 */
+	public void setPipelineSpinCount(int spinCount) {
+		this.pipelineSpinCount = spinCount;
+	}
+
+	/**
+	 * Sets the executor running the decoding stage of the pipeline. By
+	 * default a new daemon thread is started per stream.
+	 * 
+	 * @param executor
+	 *            executor or <code>null</code>
+	 */
+	public void setPipelineExecutor(Executor executor) {
+		this.pipelineExecutor = executor;
+	}
+
 	/*
 	 * XML READER INTERFACE
 	 */
@@ -210,9 +299,146 @@ public class SAXDecoder implements XMLReader {
 	}
 
 	public void parse(String systemId) throws IOException, SAXException {
-		FileInputStream fis = new FileInputStream(systemId);
-		InputSource is = new InputSource(fis);
-		this.parse(is);
+		this.parse(Paths.get(systemId));
+	}
+
+	/**
+	 * Decodes the given EXI file, which is read through memory-mapped
+	 * windows.
+	 * 
+	 * @param exiFile
+	 *            EXI file
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding failure
+	 */
+	public void parse(Path exiFile) throws IOException, SAXException {
+		InputStream is = new MappedFileInputStream(exiFile);
+		try {
+			this.parse(new InputSource(is));
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Decodes the remaining bytes of the given (heap or direct) buffer. The
+	 * position is advanced by the number of bytes read.
+	 * 
+	 * @param buffer
+	 *            EXI input
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding failure
+	 */
+	public void parse(ByteBuffer buffer) throws IOException,
+			SAXException {
+		this.parse(new InputSource(new ByteBufferInputStream(buffer)));
+	}
+
+	/**
+	 * Decodes the given (blocking) channel. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            EXI input
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding failure
+	 */
+	public void parse(ReadableByteChannel channel) throws IOException,
+			SAXException {
+		this.parse(new InputSource(new ChannelInputStream(channel)));
+	}
+
+	/**
+	 * Decodes only the self-contained (SC) element fragment starting at the
+	 * given offset of the EXI file, e.g., taken from a
+	 * <code>SelfContainedIndex</code>. The stream before the fragment is
+	 * skipped without decoding.
+	 * 
+	 * <p>
+	 * The fragment is reported as document holding the SC element. Note:
+	 * The EXI factory needs to match the options the stream was encoded
+	 * with (options in the EXI header are not read).
+	 * </p>
+	 * 
+	 * @param exiFile
+	 *            EXI file
+	 * @param offset
+	 *            stream offset of the SC fragment
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding failure
+	 */
+	public void parseSelfContained(Path exiFile, long offset)
+			throws IOException, SAXException {
+		InputStream is = new MappedFileInputStream(exiFile);
+		try {
+			if (is.skip(offset) != offset) {
+				throw new EOFException("Self-contained fragment offset "
+						+ offset + " exceeds " + exiFile);
+			}
+			this.parseSelfContained(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Decodes only the self-contained (SC) element fragment starting at the
+	 * given offset, relative to the buffer position, see
+	 * {@link #parseSelfContained(Path, long)}. The buffer position is
+	 * advanced by the number of bytes read.
+	 * 
+	 * @param buffer
+	 *            EXI stream
+	 * @param offset
+	 *            stream offset of the SC fragment
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             decoding failure
+	 */
+	public void parseSelfContained(ByteBuffer buffer, long offset)
+			throws IOException, SAXException {
+		if (offset < 0 || offset > buffer.remaining()) {
+			throw new EOFException("Self-contained fragment offset " + offset
+					+ " exceeds buffer");
+		}
+		buffer.position(buffer.position() + (int) offset);
+		this.parseSelfContained(new ByteBufferInputStream(buffer));
+	}
+
+	protected void parseSelfContained(InputStream is) throws IOException,
+			SAXException {
+		if (contentHandler == null) {
+			throw new SAXException("No content handler set!");
+		}
+
+		try {
+			if (scStream == null) {
+				// SC fragment is EXI body only and starts with fragment
+				// grammar
+				EXIFactory scFactory = noOptionsFactory.clone();
+				scFactory.setFragment(true);
+				scStream = scFactory.createEXIStreamDecoder();
+			}
+			EXIBodyDecoder decoder = scStream.getBodyOnlyDecoder(is);
+			if (pipelineRingSize > 0) {
+				parseEXIEventsPipelined(decoder);
+			} else {
+				parseEXIEvents(decoder);
+			}
+		} catch (EXIException e) {
+			throw new SAXException("EXI " + e.getLocalizedMessage(), e);
+		} catch (IllegalArgumentException i) {
+			throw new SAXException("Error decoding EXI file: "
+					+ i.getLocalizedMessage());
+		}
 	}
 
 	public void parse(InputSource inputSource) throws IOException, SAXException {
@@ -247,7 +473,11 @@ public class SAXDecoder implements XMLReader {
 			}
 
 			// process EXI events
-			parseEXIEvents(decoder);
+			if (pipelineRingSize > 0) {
+				parseEXIEventsPipelined(decoder);
+			} else {
+				parseEXIEvents(decoder);
+			}
 
 		} catch (EXIException e) {
 			throw new SAXException("EXI " + e.getLocalizedMessage(), e);
@@ -258,6 +488,66 @@ public class SAXDecoder implements XMLReader {
 		}
 	}
 
+	protected void parseEXIEventsPipelined(final EXIBodyDecoder decoder)
+			throws IOException, EXIException, SAXException {
+		final SAXEventPipeline pipeline = new SAXEventPipeline(
+				pipelineRingSize, pipelineSpinCount);
+
+		final ContentHandler ch = this.contentHandler;
+		final LexicalHandler lh = this.lexicalHandler;
+		final DeclHandler declHandler = this.declHandler;
+		final DeclHandler dh = declHandler != null ? declHandler
+				: (lh instanceof DeclHandler ? (DeclHandler) lh : null);
+
+		// decoding stage reports to the pipeline
+		this.contentHandler = pipeline;
+		this.lexicalHandler = lh == null ? null : pipeline;
+		this.declHandler = dh == null ? null : pipeline;
+
+		final CountDownLatch producerDone = new CountDownLatch(1);
+		try {
+			try {
+				EventRing.startProducer(pipelineExecutor, new Runnable() {
+					public void run() {
+						try {
+							parseEXIEvents(decoder);
+							pipeline.getRing().finish(null);
+						} catch (Throwable t) {
+							pipeline.getRing().finish(t);
+						} finally {
+							producerDone.countDown();
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				// e.g., rejected by executor
+				producerDone.countDown();
+				throw e;
+			}
+
+			pipeline.dispatch(ch, lh, dh);
+		} finally {
+			// stop the decoding stage (e.g., handler failure) before the
+			// decoder is used again
+			pipeline.getRing().cancel();
+			boolean interrupted = false;
+			while (producerDone.getCount() > 0) {
+				try {
+					producerDone.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+			this.contentHandler = ch;
+			this.lexicalHandler = lh;
+			this.declHandler = declHandler;
+		}
+	}
+
 	protected void parseEXIEvents(EXIBodyDecoder decoder) throws IOException, EXIException,
 			SAXException {
 
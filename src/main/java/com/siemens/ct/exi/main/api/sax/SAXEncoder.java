@@ -28,11 +28,20 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.ext.DefaultHandler2;
 
+import com.siemens.ct.exi.core.CodingMode;
 import com.siemens.ct.exi.core.Constants;
 import com.siemens.ct.exi.core.EXIBodyEncoder;
 import com.siemens.ct.exi.core.EXIFactory;
@@ -41,6 +50,12 @@ import com.siemens.ct.exi.core.attributes.AttributeFactory;
 import com.siemens.ct.exi.core.attributes.AttributeList;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.main.util.BufferListOutputStream;
+import com.siemens.ct.exi.main.util.ByteBufferOutputStream;
+import com.siemens.ct.exi.main.util.ChannelOutputStream;
+import com.siemens.ct.exi.main.util.CharArrayStringValue;
+import com.siemens.ct.exi.main.util.FileChannelOutputStream;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
 
 /**
  * Serializes SAX events to EXI stream.
@@ -59,6 +74,16 @@ public class SAXEncoder extends DefaultHandler2 {
 	// attributes
 	protected AttributeList exiAttributes;
 
+	// reusable characters value (in-order coding modes only), passed once
+	// per text node right before the structural event that flushes it
+	protected final boolean reuseCharactersValue;
+	protected final CharArrayStringValue charactersValue;
+
+	// pending characters (SAX may report one text node in several chunks)
+	protected static final int DEFAULT_PENDING_CHARS_SIZE = 256;
+	protected char[] pendingChars;
+	protected int pendingCharsLength;
+
 	public SAXEncoder(EXIFactory factory) throws EXIException {
 		this.factory = factory;
 
@@ -68,6 +93,14 @@ public class SAXEncoder extends DefaultHandler2 {
 		// attribute list
 		AttributeFactory attFactory = AttributeFactory.newInstance();
 		exiAttributes = attFactory.createAttributeListInstance(factory);
+
+		// re-channeling encoders keep values until the block is written
+		CodingMode codingMode = factory.getCodingMode();
+		reuseCharactersValue = !(codingMode == CodingMode.PRE_COMPRESSION
+				|| codingMode == CodingMode.COMPRESSION);
+		charactersValue = new CharArrayStringValue();
+
+		pendingChars = new char[DEFAULT_PENDING_CHARS_SIZE];
 	}
 
 	public void setOutputStream(OutputStream os) throws EXIException,
@@ -75,7 +108,11 @@ public class SAXEncoder extends DefaultHandler2 {
 		// buffer stream if not already
 		// TODO is there a *nice* way to detect whether a stream is buffered
 		if (!(os instanceof BufferedOutputStream
-				|| os instanceof ByteArrayOutputStream || os instanceof DataOutputStream)) {
+				|| os instanceof ByteArrayOutputStream
+				|| os instanceof DataOutputStream
+				|| os instanceof ChannelOutputStream
+				|| os instanceof BufferListOutputStream
+				|| os instanceof ByteBufferOutputStream)) {
 			os = new BufferedOutputStream(os);
 		}
 
@@ -83,6 +120,96 @@ public class SAXEncoder extends DefaultHandler2 {
 		this.encoder = exiStream.encodeHeader(os);
 	}
 
+	/**
+	 * Encodes into the given (heap or direct) buffer, starting at its
+	 * position. The position is advanced by the number of bytes written.
+	 * 
+	 * @param buffer
+	 *            target buffer, an <code>IOException</code> is raised if its
+	 *            capacity is exceeded
+	 * @throws EXIException
+	 *             EXI header failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void setOutput(ByteBuffer buffer) throws EXIException,
+			IOException {
+		setOutputStream(new ByteBufferOutputStream(buffer));
+	}
+
+	/**
+	 * Encodes to the given (blocking) channel. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            target channel
+	 * @throws EXIException
+	 *             EXI header failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void setOutput(WritableByteChannel channel) throws EXIException,
+			IOException {
+		setOutputStream(new ChannelOutputStream(channel));
+	}
+
+	/**
+	 * Encodes the given XML file to the given EXI file. The XML file is read
+	 * through memory-mapped windows and the EXI file is written through a
+	 * file channel.
+	 * 
+	 * @param xmlFile
+	 *            XML input
+	 * @param exiFile
+	 *            EXI output, created or truncated
+	 * @throws EXIException
+	 *             encoding failure
+	 * @throws IOException
+	 *             IO failure
+	 * @throws SAXException
+	 *             parsing failure
+	 */
+	public void encode(Path xmlFile, Path exiFile) throws EXIException,
+			IOException, SAXException {
+		XMLReader xmlReader;
+		try {
+			SAXParserFactory spf = SAXParserFactory.newInstance();
+			spf.setNamespaceAware(true);
+			xmlReader = spf.newSAXParser().getXMLReader();
+		} catch (ParserConfigurationException e) {
+			throw new EXIException(e);
+		}
+		xmlReader.setContentHandler(this);
+		xmlReader.setProperty("http://xml.org/sax/properties/lexical-handler",
+				this);
+
+		OutputStream os = new FileChannelOutputStream(exiFile);
+		try {
+			MappedFileInputStream is = new MappedFileInputStream(xmlFile);
+			try {
+				this.setOutputStream(os);
+				InputSource input = new InputSource(is);
+				input.setSystemId(xmlFile.toUri().toString());
+				xmlReader.parse(input);
+			} finally {
+				is.close();
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Resets the encoder to its initial state so that the instance (and its
+	 * internal buffers) can be re-used for another EXI stream. A new output
+	 * stream needs to be set before encoding.
+	 */
+	public void reset() {
+		encoder = null;
+		exiAttributes.clear();
+		pendingCharsLength = 0;
+		charactersValue.setCharacters(pendingChars, 0, 0);
+	}
+
 	/*
 	 * ======================================================================
 	 * Interface ContentHandler
@@ -111,7 +238,10 @@ public class SAXEncoder extends DefaultHandler2 {
 	}
 
 	protected void startElementPfx(String uri, String local, String prefix,
-			Attributes attributes) throws EXIException, IOException {
+			Attributes attributes) throws EXIException, IOException,
+			SAXException {
+		checkPendingChars();
+
 		// start element
 		encoder.encodeStartElement(uri, local, prefix);
 
@@ -139,6 +269,7 @@ public class SAXEncoder extends DefaultHandler2 {
 	}
 
 	public void startDocument() throws SAXException {
+		pendingCharsLength = 0;
 		try {
 			encoder.encodeStartDocument();
 		} catch (Exception e) {
@@ -148,6 +279,7 @@ public class SAXEncoder extends DefaultHandler2 {
 
 	public void endDocument() throws SAXException {
 		try {
+			checkPendingChars();
 			encoder.encodeEndDocument();
 			encoder.flush();
 		} catch (Exception e) {
@@ -158,6 +290,7 @@ public class SAXEncoder extends DefaultHandler2 {
 	public void endElement(String uri, String local, String raw)
 			throws SAXException {
 		try {
+			checkPendingChars();
 			encoder.encodeEndElement();
 		} catch (Exception e) {
 			throw new SAXException("endElement=" + raw, e);
@@ -167,12 +300,52 @@ public class SAXEncoder extends DefaultHandler2 {
 	@Override
 	public void characters(char[] ch, int start, int length)
 			throws SAXException {
-		try {
-			encoder.encodeCharacters(new StringValue(new String(ch, start,
-					length)));
-		} catch (Exception e) {
-			throw new SAXException("characters="
-					+ new String(ch, start, length), e);
+		// collect characters, the text node is encoded as a whole once the
+		// next structural event (SE, EE, CM, PI, ..) shows up
+		ensurePendingCharsCapacity(pendingCharsLength + length);
+		System.arraycopy(ch, start, pendingChars, pendingCharsLength, length);
+		pendingCharsLength += length;
+	}
+
+	protected void ensurePendingCharsCapacity(int reqSize) {
+		if (reqSize > pendingChars.length) {
+			int newSize = pendingChars.length;
+
+			do {
+				newSize = newSize << 1;
+			} while (newSize < reqSize);
+
+			char[] newPendingChars = new char[newSize];
+			System.arraycopy(pendingChars, 0, newPendingChars, 0,
+					pendingCharsLength);
+			pendingChars = newPendingChars;
+		}
+	}
+
+	/**
+	 * Encodes collected characters (if any) as one CH event.
+	 * 
+	 * @throws SAXException
+	 *             SAX exception
+	 */
+	protected void checkPendingChars() throws SAXException {
+		if (pendingCharsLength > 0) {
+			try {
+				if (reuseCharactersValue) {
+					// no String and no value object per text node
+					charactersValue.setCharacters(pendingChars, 0,
+							pendingCharsLength);
+					encoder.encodeCharacters(charactersValue);
+				} else {
+					encoder.encodeCharacters(new StringValue(new String(
+							pendingChars, 0, pendingCharsLength)));
+				}
+			} catch (Exception e) {
+				throw new SAXException("characters="
+						+ new String(pendingChars, 0, pendingCharsLength), e);
+			} finally {
+				pendingCharsLength = 0;
+			}
 		}
 	}
 
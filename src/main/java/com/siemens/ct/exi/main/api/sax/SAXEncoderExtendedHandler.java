@@ -45,6 +45,7 @@ public class SAXEncoderExtendedHandler extends SAXEncoder {
 	// preserve options
 	protected final boolean preserveDTD;
 	protected final boolean preserveComment;
+	protected final boolean preservePI;
 	protected final boolean preservePrefix;
 
 	// DOC_TYPE
@@ -67,12 +68,24 @@ public class SAXEncoderExtendedHandler extends SAXEncoder {
 		FidelityOptions fo = factory.getFidelityOptions();
 		preserveDTD = fo.isFidelityEnabled(FidelityOptions.FEATURE_DTD);
 		preserveComment = fo.isFidelityEnabled(FidelityOptions.FEATURE_COMMENT);
+		preservePI = fo.isFidelityEnabled(FidelityOptions.FEATURE_PI);
 		preservePrefix = fo.isFidelityEnabled(FidelityOptions.FEATURE_PREFIX);
 
 		retainEntityReference = factory.getEncodingOptions().isOptionEnabled(
 				EncodingOptions.RETAIN_ENTITY_REFERENCE);
 	}
 
+	@Override
+	public void reset() {
+		super.reset();
+		docTypeName = null;
+		docTypePublicID = null;
+		docTypeSystemID = null;
+		docTypeText = null;
+		entityReferenceRange = false;
+		dtdRange = false;
+	}
+
 	@Override
 	public void startDocument() throws SAXException {
 		// init
@@ -127,6 +140,7 @@ public class SAXEncoderExtendedHandler extends SAXEncoder {
 		} else {
 			if (preserveComment) {
 				try {
+					checkPendingChars();
 					encoder.encodeComment(ch, start, length);
 				} catch (Exception e) {
 					throw new SAXException("comment", e);
@@ -144,6 +158,9 @@ public class SAXEncoderExtendedHandler extends SAXEncoder {
 					this.docTypeText += "<?" + target + " " + data + "?>";
 				}
 			} else {
+				if (preservePI) {
+					checkPendingChars();
+				}
 				encoder.encodeProcessingInstruction(target, data);
 			}
 		} catch (Exception e) {
@@ -197,7 +214,7 @@ public class SAXEncoderExtendedHandler extends SAXEncoder {
 			if (retainEntityReference) {
 				try {
 					// &amp; --> name="amp"
-					// checkPendingChars();
+					checkPendingChars();
 				} catch (Exception e) {
 					throw new SAXException("startEntity", e);
 				}
@@ -219,6 +236,7 @@ public class SAXEncoderExtendedHandler extends SAXEncoder {
 					if (name.startsWith("%") || name.equals("[dtd]")) {
 						// do nothing
 					} else {
+						checkPendingChars();
 						encoder.encodeEntityReference(name);
 					}
 				}
@@ -233,6 +251,7 @@ public class SAXEncoderExtendedHandler extends SAXEncoder {
 	public void skippedEntity(String name) throws SAXException {
 		try {
 			if (preserveDTD) {
+				checkPendingChars();
 				encoder.encodeEntityReference(name);
 			}
 		} catch (Exception e) {
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.sax;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DeclHandler;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.main.util.EventRing;
+
+/**
+ * Decouples SAX event production (EXI decoding) from event dispatching.
+ * 
+ * <p>
+ * The decoding thread reports events to this handler, which copies them into
+ * the records of a bounded {@link EventRing}. The dispatching thread replays
+ * them in order to the actual handlers. Character arrays and attributes are
+ * copied into per-record buffers that are re-used.
+ * </p>
+ */
+
+public class SAXEventPipeline implements ContentHandler, LexicalHandler,
+		DeclHandler {
+
+	/* ContentHandler */
+	static final int START_DOCUMENT = 0;
+	static final int END_DOCUMENT = 1;
+	static final int START_PREFIX_MAPPING = 2;
+	static final int END_PREFIX_MAPPING = 3;
+	static final int START_ELEMENT = 4;
+	static final int END_ELEMENT = 5;
+	static final int CHARACTERS = 6;
+	static final int IGNORABLE_WHITESPACE = 7;
+	static final int PROCESSING_INSTRUCTION = 8;
+	static final int SKIPPED_ENTITY = 9;
+	/* LexicalHandler */
+	static final int START_DTD = 10;
+	static final int END_DTD = 11;
+	static final int START_ENTITY = 12;
+	static final int END_ENTITY = 13;
+	static final int START_CDATA = 14;
+	static final int END_CDATA = 15;
+	static final int COMMENT = 16;
+	/* DeclHandler */
+	static final int ELEMENT_DECL = 17;
+	static final int ATTRIBUTE_DECL = 18;
+	static final int INTERNAL_ENTITY_DECL = 19;
+	static final int EXTERNAL_ENTITY_DECL = 20;
+
+	static final char[] EMPTY_CHARS = new char[0];
+
+	static class Record {
+		int type;
+		String s1, s2, s3, s4, s5;
+		char[] ch = EMPTY_CHARS;
+		int length;
+		final AttributesImpl attributes = new AttributesImpl();
+
+		void setCharacters(char[] src, int start, int length) {
+			if (ch.length < length) {
+				ch = new char[Math.max(length, ch.length << 1)];
+			}
+			System.arraycopy(src, start, ch, 0, length);
+			this.length = length;
+		}
+	}
+
+	protected final EventRing<Record> ring;
+
+	/* reason the consumer stopped the pipeline */
+	protected volatile Throwable cancelCause;
+
+	public SAXEventPipeline(int ringSize, int spinCount) {
+		Record[] records = new Record[ringSize];
+		for (int i = 0; i < ringSize; i++) {
+			records[i] = new Record();
+		}
+		ring = new EventRing<Record>(records, spinCount);
+	}
+
+	public EventRing<Record> getRing() {
+		return ring;
+	}
+
+	/**
+	 * Stops the producer, its next event fails with a
+	 * <code>SAXException</code> carrying the given cause.
+	 * 
+	 * @param cause
+	 *            reason or <code>null</code>
+	 */
+	public void cancel(Throwable cause) {
+		this.cancelCause = cause;
+		ring.cancel();
+	}
+
+	/*
+	 * ======================================================================
+	 * Producer side
+	 * ======================================================================
+	 */
+
+	protected Record claim() throws SAXException {
+		try {
+			return ring.claim();
+		} catch (CancellationException e) {
+			Throwable cause = cancelCause;
+			if (cause instanceof SAXException) {
+				throw (SAXException) cause;
+			} else if (cause instanceof Exception) {
+				throw new SAXException(cause.getMessage(), (Exception) cause);
+			} else {
+				throw new SAXException("Event pipeline cancelled", e);
+			}
+		}
+	}
+
+	protected void add(int type, String s1, String s2, String s3)
+			throws SAXException {
+		Record r = claim();
+		r.type = type;
+		r.s1 = s1;
+		r.s2 = s2;
+		r.s3 = s3;
+		ring.publish();
+	}
+
+	protected void add(int type, char[] ch, int start, int length)
+			throws SAXException {
+		Record r = claim();
+		r.type = type;
+		r.setCharacters(ch, start, length);
+		ring.publish();
+	}
+
+	public void setDocumentLocator(Locator locator) {
+		// locators cannot be queried from another thread
+	}
+
+	public void startDocument() throws SAXException {
+		add(START_DOCUMENT, null, null, null);
+	}
+
+	public void endDocument() throws SAXException {
+		add(END_DOCUMENT, null, null, null);
+	}
+
+	public void startPrefixMapping(String prefix, String uri)
+			throws SAXException {
+		add(START_PREFIX_MAPPING, prefix, uri, null);
+	}
+
+	public void endPrefixMapping(String prefix) throws SAXException {
+		add(END_PREFIX_MAPPING, prefix, null, null);
+	}
+
+	public void startElement(String uri, String localName, String qName,
+			Attributes atts) throws SAXException {
+		Record r = claim();
+		r.type = START_ELEMENT;
+		r.s1 = uri;
+		r.s2 = localName;
+		r.s3 = qName;
+		r.attributes.setAttributes(atts);
+		ring.publish();
+	}
+
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		add(END_ELEMENT, uri, localName, qName);
+	}
+
+	public void characters(char[] ch, int start, int length)
+			throws SAXException {
+		add(CHARACTERS, ch, start, length);
+	}
+
+	public void ignorableWhitespace(char[] ch, int start, int length)
+			throws SAXException {
+		add(IGNORABLE_WHITESPACE, ch, start, length);
+	}
+
+	public void processingInstruction(String target, String data)
+			throws SAXException {
+		add(PROCESSING_INSTRUCTION, target, data, null);
+	}
+
+	public void skippedEntity(String name) throws SAXException {
+		add(SKIPPED_ENTITY, name, null, null);
+	}
+
+	public void startDTD(String name, String publicId, String systemId)
+			throws SAXException {
+		add(START_DTD, name, publicId, systemId);
+	}
+
+	public void endDTD() throws SAXException {
+		add(END_DTD, null, null, null);
+	}
+
+	public void startEntity(String name) throws SAXException {
+		add(START_ENTITY, name, null, null);
+	}
+
+	public void endEntity(String name) throws SAXException {
+		add(END_ENTITY, name, null, null);
+	}
+
+	public void startCDATA() throws SAXException {
+		add(START_CDATA, null, null, null);
+	}
+
+	public void endCDATA() throws SAXException {
+		add(END_CDATA, null, null, null);
+	}
+
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		add(COMMENT, ch, start, length);
+	}
+
+	public void elementDecl(String name, String model) throws SAXException {
+		add(ELEMENT_DECL, name, model, null);
+	}
+
+	public void attributeDecl(String eName, String aName, String type,
+			String mode, String value) throws SAXException {
+		Record r = claim();
+		r.type = ATTRIBUTE_DECL;
+		r.s1 = eName;
+		r.s2 = aName;
+		r.s3 = type;
+		r.s4 = mode;
+		r.s5 = value;
+		ring.publish();
+	}
+
+	public void internalEntityDecl(String name, String value)
+			throws SAXException {
+		add(INTERNAL_ENTITY_DECL, name, value, null);
+	}
+
+	public void externalEntityDecl(String name, String publicId,
+			String systemId) throws SAXException {
+		add(EXTERNAL_ENTITY_DECL, name, publicId, systemId);
+	}
+
+	/*
+	 * ======================================================================
+	 * Consumer side
+	 * ======================================================================
+	 */
+
+	/**
+	 * Replays all events until the producer finished. Producer failures are
+	 * re-thrown.
+	 * 
+	 * @param ch
+	 *            content handler
+	 * @param lh
+	 *            lexical handler or <code>null</code>
+	 * @param dh
+	 *            declaration handler or <code>null</code>
+	 * @throws SAXException
+	 *             handler or producer failure
+	 * @throws IOException
+	 *             producer failure
+	 * @throws EXIException
+	 *             producer failure
+	 */
+	public void dispatch(ContentHandler ch, LexicalHandler lh, DeclHandler dh)
+			throws SAXException, IOException, EXIException {
+		Record r;
+		while ((r = ring.take()) != null) {
+			dispatch(r, ch, lh, dh);
+			ring.release();
+		}
+
+		checkFailure();
+	}
+
+	/**
+	 * Replays a single event record.
+	 * 
+	 * @param r
+	 *            record obtained from the ring
+	 * @param ch
+	 *            content handler
+	 * @param lh
+	 *            lexical handler or <code>null</code>
+	 * @param dh
+	 *            declaration handler or <code>null</code>
+	 * @throws SAXException
+	 *             handler failure
+	 */
+	protected void dispatch(Record r, ContentHandler ch, LexicalHandler lh,
+			DeclHandler dh) throws SAXException {
+		switch (r.type) {
+		case START_DOCUMENT:
+			ch.startDocument();
+			break;
+		case END_DOCUMENT:
+			ch.endDocument();
+			break;
+		case START_PREFIX_MAPPING:
+			ch.startPrefixMapping(r.s1, r.s2);
+			break;
+		case END_PREFIX_MAPPING:
+			ch.endPrefixMapping(r.s1);
+			break;
+		case START_ELEMENT:
+			ch.startElement(r.s1, r.s2, r.s3, r.attributes);
+			break;
+		case END_ELEMENT:
+			ch.endElement(r.s1, r.s2, r.s3);
+			break;
+		case CHARACTERS:
+			ch.characters(r.ch, 0, r.length);
+			break;
+		case IGNORABLE_WHITESPACE:
+			ch.ignorableWhitespace(r.ch, 0, r.length);
+			break;
+		case PROCESSING_INSTRUCTION:
+			ch.processingInstruction(r.s1, r.s2);
+			break;
+		case SKIPPED_ENTITY:
+			ch.skippedEntity(r.s1);
+			break;
+		case START_DTD:
+			if (lh != null) {
+				lh.startDTD(r.s1, r.s2, r.s3);
+			}
+			break;
+		case END_DTD:
+			if (lh != null) {
+				lh.endDTD();
+			}
+			break;
+		case START_ENTITY:
+			if (lh != null) {
+				lh.startEntity(r.s1);
+			}
+			break;
+		case END_ENTITY:
+			if (lh != null) {
+				lh.endEntity(r.s1);
+			}
+			break;
+		case START_CDATA:
+			if (lh != null) {
+				lh.startCDATA();
+			}
+			break;
+		case END_CDATA:
+			if (lh != null) {
+				lh.endCDATA();
+			}
+			break;
+		case COMMENT:
+			if (lh != null) {
+				lh.comment(r.ch, 0, r.length);
+			}
+			break;
+		case ELEMENT_DECL:
+			if (dh != null) {
+				dh.elementDecl(r.s1, r.s2);
+			}
+			break;
+		case ATTRIBUTE_DECL:
+			if (dh != null) {
+				dh.attributeDecl(r.s1, r.s2, r.s3, r.s4, r.s5);
+			}
+			break;
+		case INTERNAL_ENTITY_DECL:
+			if (dh != null) {
+				dh.internalEntityDecl(r.s1, r.s2);
+			}
+			break;
+		case EXTERNAL_ENTITY_DECL:
+			if (dh != null) {
+				dh.externalEntityDecl(r.s1, r.s2, r.s3);
+			}
+			break;
+		default:
+			throw new SAXException("Unexpected pipelined event " + r.type);
+		}
+	}
+
+	/**
+	 * Re-throws the failure the producer finished with, if any.
+	 * 
+	 * @throws SAXException
+	 *             producer failure
+	 * @throws IOException
+	 *             producer failure
+	 * @throws EXIException
+	 *             producer failure
+	 */
+	protected void checkFailure() throws SAXException, IOException,
+			EXIException {
+		Throwable failure = ring.getFailure();
+		if (failure != null) {
+			if (failure instanceof SAXException) {
+				throw (SAXException) failure;
+			} else if (failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if (failure instanceof EXIException) {
+				throw (EXIException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else {
+				throw new SAXException("Pipelined decoding failed",
+						(Exception) failure);
+			}
+		}
+	}
+
+}
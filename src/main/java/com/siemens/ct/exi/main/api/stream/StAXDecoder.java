@@ -23,12 +23,18 @@
 
 package com.siemens.ct.exi.main.api.stream;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
@@ -41,14 +47,21 @@ import com.siemens.ct.exi.core.EXIBodyDecoder;
 import com.siemens.ct.exi.core.EXIFactory;
 import com.siemens.ct.exi.core.EXIStreamDecoder;
 import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.coder.AbstractEXIBodyCoder;
 import com.siemens.ct.exi.core.container.DocType;
 import com.siemens.ct.exi.core.container.NamespaceDeclaration;
 import com.siemens.ct.exi.core.container.ProcessingInstruction;
+import com.siemens.ct.exi.core.context.GrammarContext;
 import com.siemens.ct.exi.core.context.QNameContext;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.grammars.event.EventType;
 import com.siemens.ct.exi.core.values.Value;
 import com.siemens.ct.exi.main.helpers.DefaultSchemaIdResolver;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+import com.siemens.ct.exi.main.util.ChannelInputStream;
+import com.siemens.ct.exi.main.util.DecodedAttributes;
+import com.siemens.ct.exi.main.util.EventRing;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
 
 /**
  * De-Serializes EXI to StAX
@@ -64,6 +77,8 @@ public class StAXDecoder implements XMLStreamReader
 
 	protected EXIFactory noOptionsFactory;
 	protected EXIStreamDecoder exiStream;
+	/* SC fragments, created on demand */
+	protected EXIStreamDecoder scStream;
 	protected EXIBodyDecoder decoder;
 
 	// protected XMLStreamReader xmlStream;
@@ -71,8 +86,13 @@ public class StAXDecoder implements XMLStreamReader
 	protected boolean exiBodyOnly = false;
 
 	protected QNameContext element;
-	protected List<AttributeContainer> attributes;
+	protected DecodedAttributes attributes;
+	/* grammar context of the current decoder, speeds up attribute lookups */
+	protected GrammarContext grammarContext;
 	protected Value characters;
+	/* decoder-owned text buffer, filled once per characters event */
+	protected char[] textBuffer;
+	protected boolean textBuffered;
 	protected DocType docType;
 	protected char[] entityReference;
 	protected char[] comment;
@@ -88,15 +108,74 @@ public class StAXDecoder implements XMLStreamReader
 	/* namespace context */
 	protected EXINamespaceContext nsContext;
 
-	static class AttributeContainer {
-		final QNameContext qname;
-		final Value value;
-		final String prefix;
-
-		public AttributeContainer(QNameContext qname, Value value, String prefix) {
-			this.qname = qname;
-			this.value = value;
-			this.prefix = prefix;
+	/* file input opened by the decoder, closed with the decoder */
+	protected InputStream fileInput;
+
+	public static final int DEFAULT_TEXT_BUFFER_SIZE = 256;
+
+	/* pipelined decoding, disabled for ring size 0 */
+	protected int pipelineRingSize = 0;
+	protected int pipelineSpinCount = EventRing.DEFAULT_SPIN_COUNT;
+	protected Executor pipelineExecutor;
+	/* decoding stage, reads ahead */
+	protected StAXDecoder pipelineSource;
+	protected PipelinedEvent[] pipelineRecords;
+	protected EventRing<PipelinedEvent> pipeline;
+	protected CountDownLatch pipelineDone;
+	/* state of the current pipelined event */
+	protected String pipelinePrefix;
+	protected List<NamespaceDeclaration> pipelineNsDecls;
+
+	/**
+	 * Snapshot of the decoder state for one event, filled by the decoding
+	 * stage of the pipeline.
+	 */
+	protected static class PipelinedEvent {
+		EventType eventType;
+		QNameContext element;
+		DecodedAttributes attributes = new DecodedAttributes();
+		String prefix;
+		List<NamespaceDeclaration> nsDecls;
+		Value characters;
+		DocType docType;
+		char[] entityReference;
+		char[] comment;
+		ProcessingInstruction processingInstruction;
+
+		void capture(StAXDecoder source) {
+			eventType = source.eventType;
+			switch (getEventType(eventType)) {
+			case XMLStreamConstants.START_ELEMENT:
+				// hand over attributes, source gets a cleared list back
+				DecodedAttributes atts = attributes;
+				attributes = source.attributes;
+				source.attributes = atts;
+				// fall through
+			case XMLStreamConstants.END_ELEMENT:
+				element = source.element;
+				prefix = source.getPrefix();
+				List<NamespaceDeclaration> decls = source
+						.getNamespaceDeclarations();
+				nsDecls = decls.isEmpty() ? Collections
+						.<NamespaceDeclaration> emptyList()
+						: new ArrayList<NamespaceDeclaration>(decls);
+				break;
+			case XMLStreamConstants.CHARACTERS:
+				characters = source.characters;
+				break;
+			case XMLStreamConstants.DTD:
+				docType = source.docType;
+				break;
+			case XMLStreamConstants.ENTITY_REFERENCE:
+				entityReference = source.entityReference;
+				break;
+			case XMLStreamConstants.COMMENT:
+				comment = source.comment;
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				processingInstruction = source.processingInstruction;
+				break;
+			}
 		}
 	}
 
@@ -107,20 +186,371 @@ public class StAXDecoder implements XMLStreamReader
 			noOptionsFactory.setSchemaIdResolver(new DefaultSchemaIdResolver());
 		}
 		this.exiStream = noOptionsFactory.createEXIStreamDecoder();
-		this.attributes = new ArrayList<AttributeContainer>();
+		this.attributes = new DecodedAttributes();
 		this.nsContext = new EXINamespaceContext();
-
+		this.textBuffer = new char[DEFAULT_TEXT_BUFFER_SIZE];
 	}
 
 	public void setInputStream(InputStream is) throws EXIException,
 			IOException, XMLStreamException {
-		parseHeader(is);
+		stopPipeline();
+		closeFileInput();
+		if (pipelineRingSize > 0) {
+			parseHeaderPipelined(is);
+		} else {
+			parseHeader(is);
+		}
+	}
+
+	/**
+	 * Sets the given EXI file as input, which is read through memory-mapped
+	 * windows. The file is closed by <code>close()</code>,
+	 * <code>reset()</code> or when another input is set.
+	 * 
+	 * @param exiFile
+	 *            EXI file
+	 * @throws EXIException
+	 *             invalid EXI header
+	 * @throws IOException
+	 *             IO failure
+	 * @throws XMLStreamException
+	 *             decoding failure
+	 */
+	public void setInput(Path exiFile) throws EXIException, IOException,
+			XMLStreamException {
+		InputStream is = new MappedFileInputStream(exiFile);
+		boolean ok = false;
+		try {
+			setInputStream(is);
+			ok = true;
+		} finally {
+			if (ok) {
+				fileInput = is;
+			} else {
+				is.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the remaining bytes of the given (heap or direct) buffer. The
+	 * position is advanced by the number of bytes read.
+	 * 
+	 * @param buffer
+	 *            EXI input
+	 * @throws EXIException
+	 *             invalid EXI header
+	 * @throws IOException
+	 *             IO failure
+	 * @throws XMLStreamException
+	 *             decoding failure
+	 */
+	public void setInput(ByteBuffer buffer) throws EXIException,
+			IOException, XMLStreamException {
+		setInputStream(new ByteBufferInputStream(buffer));
+	}
+
+	/**
+	 * Reads the given (blocking) channel. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            EXI input
+	 * @throws EXIException
+	 *             invalid EXI header
+	 * @throws IOException
+	 *             IO failure
+	 * @throws XMLStreamException
+	 *             decoding failure
+	 */
+	public void setInput(ReadableByteChannel channel) throws EXIException,
+			IOException, XMLStreamException {
+		setInputStream(new ChannelInputStream(channel));
+	}
+
+	/**
+	 * Sets the self-contained (SC) element fragment starting at the given
+	 * offset of the EXI file as input, e.g., taken from a
+	 * <code>SelfContainedIndex</code>. The stream before the fragment is
+	 * skipped without decoding, the reader delivers a document holding the
+	 * SC element only.
+	 * 
+	 * <p>
+	 * Note: The EXI factory needs to match the options the stream was
+	 * encoded with (options in the EXI header are not read). SC fragments are
+	 * not decoded pipelined.
+	 * </p>
+	 * 
+	 * @param exiFile
+	 *            EXI file
+	 * @param offset
+	 *            stream offset of the SC fragment
+	 * @throws EXIException
+	 *             EXI failure
+	 * @throws IOException
+	 *             IO failure
+	 * @throws XMLStreamException
+	 *             decoding failure
+	 */
+	public void setInputSelfContained(Path exiFile, long offset)
+			throws EXIException, IOException, XMLStreamException {
+		InputStream is = new MappedFileInputStream(exiFile);
+		boolean ok = false;
+		try {
+			if (is.skip(offset) != offset) {
+				throw new EOFException("Self-contained fragment offset "
+						+ offset + " exceeds " + exiFile);
+			}
+			setInputSelfContained(is);
+			ok = true;
+		} finally {
+			if (ok) {
+				fileInput = is;
+			} else {
+				is.close();
+			}
+		}
+	}
+
+	/**
+	 * Sets the self-contained (SC) element fragment starting at the given
+	 * offset, relative to the buffer position, as input, see
+	 * {@link #setInputSelfContained(Path, long)}.
+	 * 
+	 * @param buffer
+	 *            EXI stream
+	 * @param offset
+	 *            stream offset of the SC fragment
+	 * @throws EXIException
+	 *             EXI failure
+	 * @throws IOException
+	 *             IO failure
+	 * @throws XMLStreamException
+	 *             decoding failure
+	 */
+	public void setInputSelfContained(ByteBuffer buffer, long offset)
+			throws EXIException, IOException, XMLStreamException {
+		if (offset < 0 || offset > buffer.remaining()) {
+			throw new EOFException("Self-contained fragment offset " + offset
+					+ " exceeds buffer");
+		}
+		buffer.position(buffer.position() + (int) offset);
+		setInputSelfContained(new ByteBufferInputStream(buffer));
+	}
+
+	protected void setInputSelfContained(InputStream is) throws EXIException,
+			IOException, XMLStreamException {
+		stopPipeline();
+		closeFileInput();
+		if (scStream == null) {
+			// SC fragment is EXI body only and starts with fragment grammar
+			EXIFactory scFactory = noOptionsFactory.clone();
+			scFactory.setFragment(true);
+			scStream = scFactory.createEXIStreamDecoder();
+		}
+		decoder = scStream.getBodyOnlyDecoder(is);
+
+		// init
+		initForEachRun();
+		// ready to process EXI events
+		eventType = decoder.next();
+		assert (eventType == EventType.START_DOCUMENT);
+		decoder.decodeStartDocument();
+	}
+
+	protected void closeFileInput() throws IOException {
+		if (fileInput != null) {
+			InputStream is = fileInput;
+			fileInput = null;
+			is.close();
+		}
+	}
+
+	/**
+	 * Enables pipelined decoding. A producer thread reads and decodes the EXI
+	 * stream (including inflating compressed blocks) ahead into a bounded ring
+	 * of event records while the reading thread consumes the events in order
+	 * via <code>next()</code>.
+	 * 
+	 * <p>
+	 * Takes effect for the next input stream set.
+	 * </p>
+	 * 
+	 * @param ringSize
+	 *            number of events that can be decoded ahead, 0 disables
+	 *            pipelining (default)
+	 */
+	public void setPipelineRingSize(int ringSize) {
+		if (ringSize < 0) {
+			throw new IllegalArgumentException("Negative ring size "
+					+ ringSize);
+		}
+		this.pipelineRingSize = ringSize;
+	}
+
+	public int getPipelineRingSize() {
+		return pipelineRingSize;
+	}
+
+	/**
+	 * Sets the number of busy-wait rounds before a pipeline stage waiting on
+	 * a full (back-pressure) or empty ring parks its thread.
+	 * 
+	 * @param spinCount
+	 *            number of spins
+	 */
+	public void setPipelineSpinCount(int spinCount) {
+		this.pipelineSpinCount = spinCount;
+	}
+
+	/**
+	 * Sets the executor running the decoding stage of the pipeline. By
+	 * default a new daemon thread is started per stream.
+	 * 
+	 * @param executor
+	 *            executor or <code>null</code>
+	 */
+	public void setPipelineExecutor(Executor executor) {
+		this.pipelineExecutor = executor;
+	}
+
+	protected void parseHeaderPipelined(InputStream is) throws EXIException,
+			IOException, XMLStreamException {
+		if (pipelineSource == null) {
+			pipelineSource = new StAXDecoder(noOptionsFactory);
+		}
+		pipelineSource.exiBodyOnly = this.exiBodyOnly;
+		// header and start document are read by the calling thread
+		pipelineSource.parseHeader(is);
+
+		initForEachRun();
+		this.eventType = EventType.START_DOCUMENT;
+
+		if (pipelineRecords == null
+				|| pipelineRecords.length != pipelineRingSize) {
+			pipelineRecords = new PipelinedEvent[pipelineRingSize];
+			for (int i = 0; i < pipelineRingSize; i++) {
+				pipelineRecords[i] = new PipelinedEvent();
+			}
+		}
+
+		final StAXDecoder source = pipelineSource;
+		final EventRing<PipelinedEvent> ring = new EventRing<PipelinedEvent>(
+				pipelineRecords, pipelineSpinCount);
+		final CountDownLatch done = new CountDownLatch(1);
+		this.pipeline = ring;
+		this.pipelineDone = done;
+
+		try {
+			EventRing.startProducer(pipelineExecutor, new Runnable() {
+				public void run() {
+					try {
+						while (source.hasNext()) {
+							source.next();
+							PipelinedEvent pe = ring.claim();
+							pe.capture(source);
+							ring.publish();
+						}
+						ring.finish(null);
+					} catch (Throwable t) {
+						ring.finish(t);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// e.g., rejected by executor
+			done.countDown();
+			this.pipeline = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops a running decoding stage and waits for its termination.
+	 */
+	protected void stopPipeline() {
+		if (pipeline != null) {
+			pipeline.cancel();
+			boolean interrupted = false;
+			while (pipelineDone.getCount() > 0) {
+				try {
+					pipelineDone.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			pipeline = null;
+			pipelineDone = null;
+			pipelinePrefix = null;
+			pipelineNsDecls = null;
+		}
+	}
+
+	protected int nextPipelined() throws XMLStreamException {
+		// if last eventType was EndElement remove NS Stack
+		if (this.eventType == EventType.END_ELEMENT
+				|| this.eventType == EventType.END_ELEMENT_UNDECLARED) {
+			this.nsContext.popNamespaceDeclarations();
+		}
+
+		PipelinedEvent pe = pipeline.take();
+		if (pe == null) {
+			Throwable failure = pipeline.getFailure();
+			if (failure instanceof XMLStreamException) {
+				throw (XMLStreamException) failure;
+			}
+			throw new XMLStreamException(failure == null ? "No more events"
+					: failure.getMessage(), failure);
+		}
+
+		this.eventType = pe.eventType;
+		int ev = getEventType();
+		switch (ev) {
+		case XMLStreamConstants.START_ELEMENT:
+			DecodedAttributes atts = attributes;
+			attributes = pe.attributes;
+			pe.attributes = atts;
+			// fall through
+		case XMLStreamConstants.END_ELEMENT:
+			element = pe.element;
+			pipelinePrefix = pe.prefix;
+			pipelineNsDecls = pe.nsDecls;
+			if (ev == XMLStreamConstants.START_ELEMENT) {
+				this.nsContext.pushNamespaceDeclarations(pipelineNsDecls);
+			}
+			break;
+		case XMLStreamConstants.CHARACTERS:
+			characters = pe.characters;
+			textBuffered = false;
+			break;
+		case XMLStreamConstants.DTD:
+			docType = pe.docType;
+			break;
+		case XMLStreamConstants.ENTITY_REFERENCE:
+			entityReference = pe.entityReference;
+			break;
+		case XMLStreamConstants.COMMENT:
+			comment = pe.comment;
+			break;
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			processingInstruction = pe.processingInstruction;
+			break;
+		}
+		pipeline.release();
+
+		return ev;
 	}
 
 	protected void initForEachRun() {
 		eventType = null;
 		preReadEventType = null;
 		attributes.clear();
+		nsContext.clear();
+		grammarContext = getGrammarContext(decoder);
 
 		if (noOptionsFactory.getFidelityOptions().isFidelityEnabled(
 				FidelityOptions.FEATURE_PREFIX)) {
@@ -128,6 +558,39 @@ public class StAXDecoder implements XMLStreamReader
 		}
 	}
 
+	protected static GrammarContext getGrammarContext(EXIBodyDecoder decoder) {
+		if (decoder instanceof AbstractEXIBodyCoder) {
+			return ((AbstractEXIBodyCoder) decoder).exiFactory.getGrammars()
+					.getGrammarContext();
+		}
+		return null;
+	}
+
+	/**
+	 * Resets the reader to its initial state so that the instance can be
+	 * re-used for another EXI stream. A new input stream needs to be set
+	 * before reading.
+	 */
+	public void reset() {
+		stopPipeline();
+		try {
+			closeFileInput();
+		} catch (IOException e) {
+			// read-only input, nothing to lose
+		}
+		initForEachRun();
+		decoder = null;
+		element = null;
+		characters = null;
+		textBuffered = false;
+		docType = null;
+		entityReference = null;
+		comment = null;
+		processingInstruction = null;
+		endElementPrefix = null;
+		eePrefixes = null;
+	}
+
 	protected void parseHeader(InputStream is) throws EXIException,
 			IOException, XMLStreamException {
 		assert (is != null);
@@ -205,6 +668,9 @@ public class StAXDecoder implements XMLStreamReader
 	}
 
 	public int next() throws XMLStreamException {
+		if (pipeline != null) {
+			return nextPipelined();
+		}
 		try {
 			// if last eventType was EndElement remove NS Stack
 			if (this.eventType == EventType.END_ELEMENT
@@ -251,14 +717,12 @@ public class StAXDecoder implements XMLStreamReader
 			break;
 		/* ATTRIBUTES */
 		case ATTRIBUTE_XSI_NIL:
-			attributes.add(new AttributeContainer(decoder
-					.decodeAttributeXsiNil(), decoder.getAttributeValue(),
-					decoder.getAttributePrefix()));
+			attributes.add(decoder.decodeAttributeXsiNil(),
+					decoder.getAttributeValue(), decoder.getAttributePrefix());
 			break;
 		case ATTRIBUTE_XSI_TYPE:
-			attributes.add(new AttributeContainer(decoder
-					.decodeAttributeXsiType(), decoder.getAttributeValue(),
-					decoder.getAttributePrefix()));
+			attributes.add(decoder.decodeAttributeXsiType(),
+					decoder.getAttributeValue(), decoder.getAttributePrefix());
 			break;
 		case ATTRIBUTE:
 		case ATTRIBUTE_NS:
@@ -266,8 +730,8 @@ public class StAXDecoder implements XMLStreamReader
 		case ATTRIBUTE_GENERIC_UNDECLARED:
 		case ATTRIBUTE_INVALID_VALUE:
 		case ATTRIBUTE_ANY_INVALID_VALUE:
-			attributes.add(new AttributeContainer(decoder.decodeAttribute(),
-					decoder.getAttributeValue(), decoder.getAttributePrefix()));
+			attributes.add(decoder.decodeAttribute(),
+					decoder.getAttributeValue(), decoder.getAttributePrefix());
 			break;
 		/* NAMESPACE DECLARATION */
 		case NAMESPACE_DECLARATION:
@@ -305,6 +769,7 @@ public class StAXDecoder implements XMLStreamReader
 		case CHARACTERS_GENERIC:
 		case CHARACTERS_GENERIC_UNDECLARED:
 			characters = decoder.decodeCharacters();
+			textBuffered = false;
 			break;
 		/* MISC */
 		case DOC_TYPE:
@@ -328,11 +793,18 @@ public class StAXDecoder implements XMLStreamReader
 	}
 
 	public void close() throws XMLStreamException {
+		stopPipeline();
+		try {
+			closeFileInput();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
 	}
 
 	protected void handleAttributes() throws EXIException, IOException {
 		assert (getEventType() == XMLStreamConstants.START_ELEMENT);
 		attributes.clear();
+		attributes.setGrammarContext(grammarContext);
 		int ev;
 		EventType et;
 		do {
@@ -358,19 +830,19 @@ public class StAXDecoder implements XMLStreamReader
 	}
 
 	public String getAttributeLocalName(int index) {
-		return attributes.get(index).qname.getLocalName();
+		return attributes.getQNameContext(index).getLocalName();
 	}
 
 	public QName getAttributeName(int index) {
-		return attributes.get(index).qname.getQName();
+		return attributes.getQNameContext(index).getQName();
 	}
 
 	public String getAttributeNamespace(int index) {
-		return attributes.get(index).qname.getNamespaceUri();
+		return attributes.getQNameContext(index).getNamespaceUri();
 	}
 
 	public String getAttributePrefix(int index) {
-		return attributes.get(index).prefix;
+		return attributes.getPrefix(index);
 	}
 
 	public String getAttributeType(int index) {
@@ -380,23 +852,62 @@ public class StAXDecoder implements XMLStreamReader
 	}
 
 	public String getAttributeValue(int index) {
-		return attributes.get(index).value.toString();
+		return attributes.getValueAsString(index);
+	}
+
+	/**
+	 * Returns the decoded attribute value without converting it to a string
+	 * first, e.g., an integer, boolean or date-time value for
+	 * schema-informed streams.
+	 * 
+	 * @param index
+	 *            attribute index
+	 * @return typed attribute value
+	 */
+	public Value getAttributeTypedValue(int index) {
+		return attributes.getValue(index);
 	}
 
 	public String getAttributeValue(String namespaceURI, String localName) {
 		// Returns the normalized attribute value of the attribute with the
 		// namespace and localName
 		// If the namespaceURI is null the namespace is not checked for equality
-		for (AttributeContainer ac : attributes) {
-			if (ac.qname.getLocalName().equals(localName)) {
-				if (namespaceURI == null) {
-					return ac.value.toString();
-				} else if (ac.qname.getNamespaceUri().equals(namespaceURI)) {
-					return ac.value.toString();
-				}
-			}
-		}
-		return null;
+		int index = attributes.indexOf(namespaceURI, localName);
+		return index < 0 ? null : attributes.getValueAsString(index);
+	}
+
+	/**
+	 * Returns the index of the attribute with the given qname context (e.g.,
+	 * obtained once from the grammars). Namespace URI and local-name ids are
+	 * compared instead of strings.
+	 * 
+	 * @param qnc
+	 *            attribute qname context
+	 * @return attribute index or -1 if there is no such attribute
+	 */
+	public int getAttributeIndex(QNameContext qnc) {
+		return attributes.indexOf(qnc);
+	}
+
+	/**
+	 * Returns the index of the attribute with the given qualified name.
+	 * 
+	 * @param qname
+	 *            attribute name
+	 * @return attribute index or -1 if there is no such attribute
+	 */
+	public int getAttributeIndex(QName qname) {
+		return attributes.indexOf(qname);
+	}
+
+	public String getAttributeValue(QNameContext qnc) {
+		int index = attributes.indexOf(qnc);
+		return index < 0 ? null : attributes.getValueAsString(index);
+	}
+
+	public String getAttributeValue(QName qname) {
+		int index = attributes.indexOf(qname);
+		return index < 0 ? null : attributes.getValueAsString(index);
 	}
 
 	public String getCharacterEncodingScheme() {
@@ -468,7 +979,9 @@ public class StAXDecoder implements XMLStreamReader
 
 	List<NamespaceDeclaration> getNamespaceDeclarations() {
 		List<NamespaceDeclaration> result;
-		if (eventType == EventType.END_ELEMENT
+		if (pipeline != null) {
+			result = this.pipelineNsDecls;
+		} else if (eventType == EventType.END_ELEMENT
 				|| eventType == EventType.END_ELEMENT_UNDECLARED) {
 			result = this.eePrefixes;
 		} else {
@@ -567,6 +1080,9 @@ public class StAXDecoder implements XMLStreamReader
 	}
 
 	public String getPrefix() {
+		if (pipeline != null) {
+			return pipelinePrefix;
+		}
 		if (this.endElementPrefix != null) {
 			return endElementPrefix;
 		}
@@ -642,12 +1158,42 @@ public class StAXDecoder implements XMLStreamReader
 		return sb.toString();
 	}
 
+	/**
+	 * Copies the current characters value into the re-usable text buffer. The
+	 * buffer is filled at most once per event.
+	 * 
+	 * @return text buffer holding the characters (starting at index 0)
+	 */
+	protected char[] getTextBuffer() {
+		if (!textBuffered) {
+			int len = characters.getCharactersLength();
+			if (len > textBuffer.length) {
+				textBuffer = new char[Math.max(len, textBuffer.length << 1)];
+			}
+			characters.getCharacters(textBuffer, 0);
+			textBuffered = true;
+		}
+		return textBuffer;
+	}
+
+	/**
+	 * Returns an array which contains the characters from this event.
+	 * 
+	 * <p>
+	 * Note: For CHARACTERS the decoder-owned buffer is returned. Only the
+	 * range described by getTextStart() and getTextLength() is valid and its
+	 * content is overwritten by subsequent events. Unlike in earlier
+	 * versions the array is usually longer than the text, callers must not
+	 * use its full length (e.g., <code>new String(char[])</code>).
+	 * </p>
+	 * 
+	 * @see javax.xml.stream.XMLStreamReader#getTextCharacters()
+	 */
 	public char[] getTextCharacters() {
-		// Returns an array which contains the characters from this event.
 		switch (getEventType()) {
 		case XMLStreamConstants.CHARACTERS:
 		case XMLStreamConstants.SPACE:
-			return characters.toString().toCharArray();
+			return getTextBuffer();
 		case XMLStreamConstants.COMMENT:
 			return comment;
 		case XMLStreamConstants.ENTITY_REFERENCE:
@@ -681,40 +1227,27 @@ public class StAXDecoder implements XMLStreamReader
 		 * "targetStart + length" must be less than or equal to length of
 		 * "target".
 		 */
-		// arraycopy(Object source, int sourcePosition, Object destination, int
-		// destinationPosition, int numberOfElements)
-		if (this.getTextLength() > (target.length - targetStart)) {
-			throw new RuntimeException("Buffer too small!");
+		if (sourceStart < 0) {
+			throw new IndexOutOfBoundsException("sourceStart < 0: "
+					+ sourceStart);
+		}
+		if (targetStart < 0 || length < 0
+				|| targetStart + length > target.length) {
+			throw new IndexOutOfBoundsException("targetStart=" + targetStart
+					+ ", length=" + length + ", target.length="
+					+ target.length);
 		}
 
-		switch (getEventType()) {
-		case XMLStreamConstants.CHARACTERS:
-		case XMLStreamConstants.SPACE:
-			this.characters.getCharacters(target, targetStart);
-
-			// //System.arraycopy(this.characters, sourceStart, target,
-			// targetStart, length);
-			// char[] ch = this.characters.getCharacters(target, targetStart);
-			// if (ch != target) {
-			// System.arraycopy(ch, sourceStart, target, targetStart, length);
-			// }
-			return length;
-		case XMLStreamConstants.COMMENT:
-			System.arraycopy(this.comment, sourceStart, target, targetStart,
-					length);
-			return length;
-		case XMLStreamConstants.ENTITY_REFERENCE:
-			System.arraycopy(this.entityReference, sourceStart, target,
-					targetStart, length);
-			return length;
-		case XMLStreamConstants.DTD:
-			char[] dt = getDocTypeString().toCharArray();
-			System.arraycopy(dt, sourceStart, target, targetStart, length);
-			return length;
-		default:
-			throw new RuntimeException("Unexpected event, id=" + getEventType());
+		char[] text = getTextCharacters();
+		int textLength = getTextLength();
+		if (sourceStart > textLength) {
+			throw new IndexOutOfBoundsException("sourceStart > text length: "
+					+ sourceStart);
 		}
 
+		int n = Math.min(length, textLength - sourceStart);
+		System.arraycopy(text, sourceStart, target, targetStart, n);
+		return n;
 	}
 
 	public int getTextLength() {
@@ -728,6 +1261,8 @@ public class StAXDecoder implements XMLStreamReader
 			return comment.length;
 		case XMLStreamConstants.ENTITY_REFERENCE:
 			return this.entityReference.length;
+		case XMLStreamConstants.DTD:
+			return getDocTypeString().length();
 		default:
 			throw new RuntimeException("Unexpected event, id=" + getEventType());
 		}
@@ -817,7 +1352,14 @@ public class StAXDecoder implements XMLStreamReader
 	public boolean isWhiteSpace() {
 		switch (getEventType()) {
 		case XMLStreamConstants.CHARACTERS:
-			return this.characters.toString().trim().length() == 0;
+			char[] text = getTextBuffer();
+			int len = characters.getCharactersLength();
+			for (int i = 0; i < len; i++) {
+				if (text[i] > ' ') {
+					return false;
+				}
+			}
+			return true;
 		case XMLStreamConstants.CDATA:
 			return false;
 		case XMLStreamConstants.COMMENT:
@@ -929,6 +1471,10 @@ public class StAXDecoder implements XMLStreamReader
 		// nsDecls.add(nsDecl);
 		// }
 
+		protected void clear() {
+			this._nsDecls.clear();
+		}
+
 		protected void pushNamespaceDeclarations(
 				List<NamespaceDeclaration> nsDecls) {
 			this._nsDecls.add(nsDecls);
@@ -24,7 +24,11 @@
 package com.siemens.ct.exi.main.api.stream;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -32,6 +36,7 @@ import java.util.List;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -60,6 +65,10 @@ import com.siemens.ct.exi.core.attributes.AttributeList;
 import com.siemens.ct.exi.core.container.NamespaceDeclaration;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.main.util.ByteBufferOutputStream;
+import com.siemens.ct.exi.main.util.ChannelOutputStream;
+import com.siemens.ct.exi.main.util.FileChannelOutputStream;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
 import com.siemens.ct.exi.main.util.SimpleDocTypeParser;
 
 /**
@@ -117,6 +126,38 @@ public class StAXEncoder implements XMLStreamWriter {
 		this.encoder = exiStream.encodeHeader(os);
 	}
 
+	/**
+	 * Encodes into the given (heap or direct) buffer, starting at its
+	 * position. The position is advanced by the number of bytes written.
+	 * 
+	 * @param buffer
+	 *            target buffer, an <code>IOException</code> is raised if its
+	 *            capacity is exceeded
+	 * @throws EXIException
+	 *             EXI header failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void setOutput(ByteBuffer buffer) throws EXIException,
+			IOException {
+		setOutputStream(new ByteBufferOutputStream(buffer));
+	}
+
+	/**
+	 * Encodes to the given (blocking) channel. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            target channel
+	 * @throws EXIException
+	 *             EXI header failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void setOutput(WritableByteChannel channel) throws EXIException,
+			IOException {
+		setOutputStream(new ChannelOutputStream(channel));
+	}
+
 	protected void init() {
 		emptyElement = false;
 		pendingATs = false;
@@ -124,6 +165,16 @@ public class StAXEncoder implements XMLStreamWriter {
 		nsContext.reset();
 	}
 
+	/**
+	 * Resets the writer to its initial state so that the instance can be
+	 * re-used for another EXI stream. A new output stream needs to be set
+	 * before writing.
+	 */
+	public void reset() {
+		init();
+		encoder = null;
+	}
+
 	protected SimpleDocTypeParser getDtdParser() throws SAXException {
 		if (dtdParser == null) {
 			dtdParser = new SimpleDocTypeParser();
@@ -131,6 +182,41 @@ public class StAXEncoder implements XMLStreamWriter {
 		return dtdParser;
 	}
 
+	/**
+	 * Encodes the given XML file to the given EXI file. The XML file is read
+	 * through memory-mapped windows and the EXI file is written through a
+	 * file channel.
+	 * 
+	 * @param xmlFile
+	 *            XML input
+	 * @param exiFile
+	 *            EXI output, created or truncated
+	 * @throws XMLStreamException
+	 *             parsing or encoding failure
+	 * @throws EXIException
+	 *             encoding failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void encode(Path xmlFile, Path exiFile) throws XMLStreamException,
+			EXIException, IOException {
+		OutputStream os = new FileChannelOutputStream(exiFile);
+		try {
+			InputStream is = new MappedFileInputStream(xmlFile);
+			try {
+				XMLStreamReader xmlStream = XMLInputFactory.newInstance()
+						.createXMLStreamReader(xmlFile.toUri().toString(), is);
+				this.setOutputStream(os);
+				this.encode(xmlStream);
+				xmlStream.close();
+			} finally {
+				is.close();
+			}
+		} finally {
+			os.close();
+		}
+	}
+
 	public void encode(XMLEventReader xmlEvent) throws XMLStreamException,
 			EXIException, IOException {
 
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.tree;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.siemens.ct.exi.core.Constants;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.values.ListValue;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.core.values.ValueType;
+
+/**
+ * Compact, immutable tree of a decoded EXI document.
+ * 
+ * <p>
+ * Nodes are indices into parallel primitive arrays (kind, parent, first
+ * child, next sibling, name and value). Node 0 is the document node and all
+ * nodes are stored in document order. The attributes and namespace
+ * declarations of an element directly follow the element and are not part
+ * of its children. Qualified names are shared <code>QNameContext</code>
+ * instances and values are kept as decoded (typed) <code>Value</code>s.
+ * </p>
+ * 
+ * <p>
+ * A tree can be shared between threads. {@link #asDocument()} offers a
+ * read-only <code>org.w3c.dom</code> view.
+ * </p>
+ * 
+ * @see EXITreeBuilder
+ */
+
+public final class EXITree {
+
+	/** no node */
+	public static final int NONE = -1;
+
+	/* node kinds, same numbers as org.w3c.dom.Node types */
+	public static final byte ELEMENT = Node.ELEMENT_NODE;
+	public static final byte ATTRIBUTE = Node.ATTRIBUTE_NODE;
+	public static final byte TEXT = Node.TEXT_NODE;
+	public static final byte PROCESSING_INSTRUCTION = Node.PROCESSING_INSTRUCTION_NODE;
+	public static final byte COMMENT = Node.COMMENT_NODE;
+	public static final byte DOCUMENT = Node.DOCUMENT_NODE;
+	public static final byte DOCUMENT_TYPE = Node.DOCUMENT_TYPE_NODE;
+	/** namespace declaration (preserved prefixes), a xmlns attribute in DOM */
+	public static final byte NAMESPACE = 13;
+
+	/* nodes */
+	final int size;
+	final byte[] kinds;
+	final int[] parents;
+	final int[] firstChildren;
+	final int[] nextSiblings;
+	/*
+	 * ELEMENT, ATTRIBUTE: index in qnames, NAMESPACE: index in strings (URI),
+	 * PROCESSING_INSTRUCTION: index in strings (target)
+	 */
+	final int[] names;
+	/* ELEMENT, ATTRIBUTE, NAMESPACE: index in strings (prefix) */
+	final int[] prefixes;
+	/* ATTRIBUTE, TEXT, COMMENT, PROCESSING_INSTRUCTION: index in values */
+	final int[] valueIds;
+
+	/* shared tables */
+	final QNameContext[] qnames;
+	final String[] strings;
+	final Value[] values;
+
+	/* DOCTYPE */
+	final String docTypeName;
+	final String docTypePublicID;
+	final String docTypeSystemID;
+	final String docTypeText;
+
+	EXITree(int size, byte[] kinds, int[] parents, int[] firstChildren,
+			int[] nextSiblings, int[] names, int[] prefixes, int[] valueIds,
+			QNameContext[] qnames, String[] strings, Value[] values,
+			String[] docType) {
+		this.size = size;
+		this.kinds = kinds;
+		this.parents = parents;
+		this.firstChildren = firstChildren;
+		this.nextSiblings = nextSiblings;
+		this.names = names;
+		this.prefixes = prefixes;
+		this.valueIds = valueIds;
+		this.qnames = qnames;
+		this.strings = strings;
+		this.values = values;
+		if (docType == null) {
+			docTypeName = docTypePublicID = docTypeSystemID = docTypeText = null;
+		} else {
+			docTypeName = docType[0];
+			docTypePublicID = docType[1];
+			docTypeSystemID = docType[2];
+			docTypeText = docType[3];
+		}
+	}
+
+	/**
+	 * Returns the number of nodes including the document node, attributes and
+	 * namespace declarations.
+	 * 
+	 * @return number of nodes
+	 */
+	public int getNumberOfNodes() {
+		return size;
+	}
+
+	public int getKind(int node) {
+		return kinds[node];
+	}
+
+	/**
+	 * Returns the parent of the given node. The parent of an attribute or
+	 * namespace declaration is its element.
+	 * 
+	 * @param node
+	 *            node
+	 * @return parent node or {@link #NONE}
+	 */
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	public int getFirstChild(int node) {
+		return firstChildren[node];
+	}
+
+	public int getNextSibling(int node) {
+		return nextSiblings[node];
+	}
+
+	public int getDocumentElement() {
+		int n = firstChildren[0];
+		while (n != NONE && kinds[n] != ELEMENT) {
+			n = nextSiblings[n];
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of attributes of an element, namespace declarations
+	 * included.
+	 * 
+	 * @param element
+	 *            element node
+	 * @return number of attributes
+	 */
+	public int getNumberOfAttributes(int element) {
+		int n = element + 1;
+		while (n < size && isAttribute(n) && parents[n] == element) {
+			n++;
+		}
+		return n - element - 1;
+	}
+
+	/**
+	 * Returns the n-th attribute (or namespace declaration) of an element.
+	 * Namespace declarations come first.
+	 * 
+	 * @param element
+	 *            element node
+	 * @param index
+	 *            attribute index
+	 * @return attribute node
+	 */
+	public int getAttribute(int element, int index) {
+		return element + 1 + index;
+	}
+
+	/**
+	 * Returns the attribute with the given qname.
+	 * 
+	 * @param element
+	 *            element node
+	 * @param qnc
+	 *            attribute qname
+	 * @return attribute node or {@link #NONE}
+	 */
+	public int getAttribute(int element, QNameContext qnc) {
+		for (int n = element + 1; n < size && isAttribute(n)
+				&& parents[n] == element; n++) {
+			if (kinds[n] == ATTRIBUTE && qnames[names[n]] == qnc) {
+				return n;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Returns the attribute with the given name.
+	 * 
+	 * @param element
+	 *            element node
+	 * @param namespaceURI
+	 *            namespace URI, <code>null</code> or empty for none
+	 * @param localName
+	 *            local name
+	 * @return attribute node or {@link #NONE}
+	 */
+	public int getAttribute(int element, String namespaceURI,
+			String localName) {
+		if (namespaceURI == null) {
+			namespaceURI = Constants.XML_NULL_NS_URI;
+		}
+		for (int n = element + 1; n < size && isAttribute(n)
+				&& parents[n] == element; n++) {
+			if (kinds[n] == ATTRIBUTE) {
+				QNameContext qnc = qnames[names[n]];
+				if (localName.equals(qnc.getLocalName())
+						&& namespaceURI.equals(qnc.getNamespaceUri())) {
+					return n;
+				}
+			}
+		}
+		return NONE;
+	}
+
+	boolean isAttribute(int node) {
+		return kinds[node] == ATTRIBUTE || kinds[node] == NAMESPACE;
+	}
+
+	/**
+	 * Returns the qname of an element or attribute.
+	 * 
+	 * @param node
+	 *            node
+	 * @return qname context or <code>null</code>
+	 */
+	public QNameContext getQNameContext(int node) {
+		switch (kinds[node]) {
+		case ELEMENT:
+		case ATTRIBUTE:
+			return qnames[names[node]];
+		default:
+			return null;
+		}
+	}
+
+	public QName getQName(int node) {
+		QNameContext qnc = getQNameContext(node);
+		return qnc == null ? null : qnc.getQName();
+	}
+
+	/**
+	 * Returns the namespace URI of an element or attribute, or the declared
+	 * namespace URI of a namespace declaration.
+	 * 
+	 * @param node
+	 *            node
+	 * @return namespace URI or <code>null</code>
+	 */
+	public String getNamespaceURI(int node) {
+		switch (kinds[node]) {
+		case ELEMENT:
+		case ATTRIBUTE:
+			return qnames[names[node]].getNamespaceUri();
+		case NAMESPACE:
+			return strings[names[node]];
+		default:
+			return null;
+		}
+	}
+
+	public String getLocalName(int node) {
+		QNameContext qnc = getQNameContext(node);
+		return qnc == null ? null : qnc.getLocalName();
+	}
+
+	/**
+	 * Returns the prefix of an element or attribute, or the declared prefix
+	 * of a namespace declaration.
+	 * 
+	 * @param node
+	 *            node
+	 * @return prefix (empty for the default namespace) or <code>null</code>
+	 */
+	public String getPrefix(int node) {
+		int p = prefixes[node];
+		return p == NONE ? null : strings[p];
+	}
+
+	/**
+	 * Returns the processing instruction target.
+	 * 
+	 * @param node
+	 *            processing instruction
+	 * @return target or <code>null</code>
+	 */
+	public String getTarget(int node) {
+		return kinds[node] == PROCESSING_INSTRUCTION ? strings[names[node]]
+				: null;
+	}
+
+	/**
+	 * Returns the decoded value of an attribute, text, comment or processing
+	 * instruction (data). Schema-informed values are typed, e.g. an
+	 * <code>IntegerValue</code> for xs:int content.
+	 * 
+	 * @param node
+	 *            node
+	 * @return value or <code>null</code>
+	 */
+	public Value getValue(int node) {
+		int v = valueIds[node];
+		return v == NONE ? null : values[v];
+	}
+
+	/**
+	 * Returns the lexical value of a node. Elements and the document return
+	 * their text content, namespace declarations the namespace URI.
+	 * 
+	 * @param node
+	 *            node
+	 * @return text
+	 */
+	public String getText(int node) {
+		switch (kinds[node]) {
+		case ELEMENT:
+		case DOCUMENT:
+			StringBuilder sb = new StringBuilder();
+			int end = getSubtreeEnd(node);
+			for (int n = node + 1; n < end; n++) {
+				if (kinds[n] == TEXT) {
+					appendValue(sb, values[valueIds[n]]);
+				}
+			}
+			return sb.toString();
+		case NAMESPACE:
+			return strings[names[node]];
+		case DOCUMENT_TYPE:
+			return null;
+		default:
+			int v = valueIds[node];
+			return v == NONE ? Constants.EMPTY_STRING : toString(values[v]);
+		}
+	}
+
+	/* lexical value, lists as for SAXDecoder */
+	static String toString(Value val) {
+		if (val.getValueType() == ValueType.LIST) {
+			StringBuilder sb = new StringBuilder();
+			appendValue(sb, val);
+			return sb.toString();
+		}
+		return val.toString();
+	}
+
+	static void appendValue(StringBuilder sb, Value val) {
+		if (val.getValueType() == ValueType.LIST) {
+			Value[] values = ((ListValue) val).toValues();
+			for (int i = 0; i < values.length; i++) {
+				sb.append(values[i].getCharacters());
+				sb.append(Constants.XSD_LIST_DELIM_CHAR_ARRAY);
+			}
+		} else {
+			sb.append(val.getCharacters());
+		}
+	}
+
+	/**
+	 * Returns the index after the last descendant of a node.
+	 * 
+	 * @param node
+	 *            node
+	 * @return end of subtree (exclusive)
+	 */
+	public int getSubtreeEnd(int node) {
+		int n = node;
+		while (n != NONE && nextSiblings[n] == NONE) {
+			n = parents[n];
+		}
+		return n == NONE ? size : nextSiblings[n];
+	}
+
+	public String getDocTypeName() {
+		return docTypeName;
+	}
+
+	public String getDocTypePublicID() {
+		return docTypePublicID;
+	}
+
+	public String getDocTypeSystemID() {
+		return docTypeSystemID;
+	}
+
+	public String getDocTypeText() {
+		return docTypeText;
+	}
+
+	/**
+	 * Iterates over the children of a node.
+	 * 
+	 * @param node
+	 *            parent node
+	 * @return child iterator
+	 */
+	public PrimitiveIterator.OfInt children(final int node) {
+		return new PrimitiveIterator.OfInt() {
+			int next = firstChildren[node];
+
+			public boolean hasNext() {
+				return next != NONE;
+			}
+
+			public int nextInt() {
+				if (next == NONE) {
+					throw new NoSuchElementException();
+				}
+				int n = next;
+				next = nextSiblings[n];
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Iterates over the descendants of a node in document order, attributes
+	 * and namespace declarations excluded.
+	 * 
+	 * @param node
+	 *            node
+	 * @return descendant iterator
+	 */
+	public PrimitiveIterator.OfInt descendants(final int node) {
+		return new PrimitiveIterator.OfInt() {
+			final int end = getSubtreeEnd(node);
+			int next = skipAttributes(node + 1, end);
+
+			public boolean hasNext() {
+				return next < end;
+			}
+
+			public int nextInt() {
+				if (next >= end) {
+					throw new NoSuchElementException();
+				}
+				int n = next;
+				next = skipAttributes(n + 1, end);
+				return n;
+			}
+		};
+	}
+
+	int skipAttributes(int n, int end) {
+		while (n < end && isAttribute(n)) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Iterates over the descendant elements with the given qname in document
+	 * order.
+	 * 
+	 * @param node
+	 *            node
+	 * @param qnc
+	 *            element qname
+	 * @return element iterator
+	 */
+	public PrimitiveIterator.OfInt elements(final int node,
+			final QNameContext qnc) {
+		return new PrimitiveIterator.OfInt() {
+			final int end = getSubtreeEnd(node);
+			int next = find(node + 1);
+
+			int find(int n) {
+				while (n < end
+						&& (kinds[n] != ELEMENT || qnames[names[n]] != qnc)) {
+					n++;
+				}
+				return n;
+			}
+
+			public boolean hasNext() {
+				return next < end;
+			}
+
+			public int nextInt() {
+				if (next >= end) {
+					throw new NoSuchElementException();
+				}
+				int n = next;
+				next = find(n + 1);
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Returns a read-only DOM view of this tree. DOM nodes are created on
+	 * first access and re-used by the returned document.
+	 * 
+	 * @return document
+	 */
+	public Document asDocument() {
+		return new TreeDOMView.DocumentImpl(this);
+	}
+
+}
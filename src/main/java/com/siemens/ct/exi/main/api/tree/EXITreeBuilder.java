@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.tree;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.siemens.ct.exi.core.EXIBodyDecoder;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.EXIStreamDecoder;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.container.DocType;
+import com.siemens.ct.exi.core.container.NamespaceDeclaration;
+import com.siemens.ct.exi.core.container.ProcessingInstruction;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.event.EventType;
+import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.main.helpers.DefaultSchemaIdResolver;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
+
+/**
+ * Builds an {@link EXITree} directly from the events of an
+ * <code>EXIBodyDecoder</code>.
+ * 
+ * <p>
+ * A builder can be re-used for many documents but is not thread-safe.
+ * </p>
+ */
+
+public class EXITreeBuilder {
+
+	protected static final int INITIAL_NODES = 64;
+
+	protected final EXIFactory factory;
+	protected EXIStreamDecoder exiStream;
+	/* namespace nodes only for preserved prefixes, as SAXDecoder */
+	protected boolean preservePrefix;
+
+	/* nodes of the tree being built */
+	protected int size;
+	protected byte[] kinds;
+	protected int[] parents;
+	protected int[] firstChildren;
+	protected int[] nextSiblings;
+	protected int[] names;
+	protected int[] prefixes;
+	protected int[] valueIds;
+	/* last child per node, while building */
+	protected int[] lastChildren;
+	protected int currentNode;
+
+	/* tables */
+	protected final Map<QNameContext, Integer> qnameIds;
+	protected QNameContext[] qnames;
+	protected int qnamesSize;
+	protected final Map<String, Integer> stringIds;
+	protected String[] strings;
+	protected int stringsSize;
+	protected Value[] values;
+	protected int valuesSize;
+	protected String[] docType;
+
+	/* deferred element and its attributes */
+	protected QNameContext deferredStartElement;
+	protected QNameContext[] atQNames;
+	protected String[] atPrefixes;
+	protected Value[] atValues;
+	protected int atCount;
+
+	public EXITreeBuilder(EXIFactory factory) {
+		this.factory = factory;
+		qnameIds = new IdentityHashMap<QNameContext, Integer>();
+		stringIds = new HashMap<String, Integer>();
+		atQNames = new QNameContext[8];
+		atPrefixes = new String[8];
+		atValues = new Value[8];
+	}
+
+	public EXITree parse(InputStream is) throws EXIException, IOException {
+		return parse(is, false);
+	}
+
+	/**
+	 * Builds a tree for the given EXI file, which is read through
+	 * memory-mapped windows.
+	 * 
+	 * @param exiFile
+	 *            EXI file
+	 * @return tree
+	 * @throws EXIException
+	 *             decoding failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public EXITree parse(Path exiFile) throws EXIException, IOException {
+		InputStream is = new MappedFileInputStream(exiFile);
+		try {
+			return parse(is, false);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Builds a tree for the remaining bytes of the given (heap or direct)
+	 * buffer. The position is advanced by the number of bytes read.
+	 * 
+	 * @param buffer
+	 *            EXI input
+	 * @return tree
+	 * @throws EXIException
+	 *             decoding failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public EXITree parse(ByteBuffer buffer) throws EXIException, IOException {
+		return parse(new ByteBufferInputStream(buffer), false);
+	}
+
+	public EXITree parse(InputStream is, boolean exiBodyOnly)
+			throws EXIException, IOException {
+		if (exiStream == null) {
+			if (factory.getSchemaIdResolver() == null) {
+				// set default schemaId resolver
+				factory.setSchemaIdResolver(new DefaultSchemaIdResolver());
+			}
+			exiStream = factory.createEXIStreamDecoder();
+		}
+		return parse(exiBodyOnly ? exiStream.getBodyOnlyDecoder(is)
+				: exiStream.decodeHeader(is));
+	}
+
+	/**
+	 * Builds a tree for the (remaining) events of the given decoder, e.g., a
+	 * decoder of a self-contained fragment.
+	 * 
+	 * @param decoder
+	 *            EXI body decoder
+	 * @return tree
+	 * @throws EXIException
+	 *             decoding failure
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public EXITree parse(EXIBodyDecoder decoder) throws EXIException,
+			IOException {
+		try {
+			init();
+			build(decoder);
+			return new EXITree(size, Arrays.copyOf(kinds, size),
+					Arrays.copyOf(parents, size), Arrays.copyOf(
+							firstChildren, size), Arrays.copyOf(
+							nextSiblings, size), Arrays.copyOf(names, size),
+					Arrays.copyOf(prefixes, size), Arrays.copyOf(valueIds,
+							size), Arrays.copyOf(qnames, qnamesSize),
+					Arrays.copyOf(strings, stringsSize), Arrays.copyOf(
+							values, valuesSize), docType);
+		} finally {
+			clear();
+		}
+	}
+
+	protected void init() {
+		if (kinds == null) {
+			kinds = new byte[INITIAL_NODES];
+			parents = new int[INITIAL_NODES];
+			firstChildren = new int[INITIAL_NODES];
+			nextSiblings = new int[INITIAL_NODES];
+			names = new int[INITIAL_NODES];
+			prefixes = new int[INITIAL_NODES];
+			valueIds = new int[INITIAL_NODES];
+			lastChildren = new int[INITIAL_NODES];
+			qnames = new QNameContext[16];
+			strings = new String[16];
+			values = new Value[INITIAL_NODES];
+		}
+		preservePrefix = factory.getFidelityOptions().isFidelityEnabled(
+				FidelityOptions.FEATURE_PREFIX);
+		size = 0;
+		currentNode = EXITree.NONE;
+		appendNode(EXITree.DOCUMENT);
+		currentNode = 0;
+	}
+
+	/* releases references to decoded data, arrays are re-used */
+	protected void clear() {
+		Arrays.fill(qnames, 0, qnamesSize, null);
+		Arrays.fill(strings, 0, stringsSize, null);
+		Arrays.fill(values, 0, valuesSize, null);
+		qnamesSize = stringsSize = valuesSize = 0;
+		qnameIds.clear();
+		stringIds.clear();
+		docType = null;
+		deferredStartElement = null;
+		for (int i = 0; i < atCount; i++) {
+			atQNames[i] = null;
+			atValues[i] = null;
+		}
+		atCount = 0;
+	}
+
+	protected void build(EXIBodyDecoder decoder) throws EXIException,
+			IOException {
+		EventType eventType;
+
+		while ((eventType = decoder.next()) != null) {
+			switch (eventType) {
+			/* DOCUMENT */
+			case START_DOCUMENT:
+				decoder.decodeStartDocument();
+				break;
+			case END_DOCUMENT:
+				decoder.decodeEndDocument();
+				break;
+			/* ATTRIBUTES */
+			case ATTRIBUTE_XSI_NIL:
+				addAttribute(decoder, decoder.decodeAttributeXsiNil());
+				break;
+			case ATTRIBUTE_XSI_TYPE:
+				addAttribute(decoder, decoder.decodeAttributeXsiType());
+				break;
+			case ATTRIBUTE:
+			case ATTRIBUTE_NS:
+			case ATTRIBUTE_GENERIC:
+			case ATTRIBUTE_GENERIC_UNDECLARED:
+			case ATTRIBUTE_INVALID_VALUE:
+			case ATTRIBUTE_ANY_INVALID_VALUE:
+				addAttribute(decoder, decoder.decodeAttribute());
+				break;
+			/* NAMESPACE DECLARATION */
+			case NAMESPACE_DECLARATION:
+				// Note: Prefix declaration etc. is done internally
+				decoder.decodeNamespaceDeclaration();
+				break;
+			/* SELF_CONTAINED */
+			case SELF_CONTAINED:
+				decoder.decodeStartSelfContainedFragment();
+				break;
+			/* START ELEMENT */
+			case START_ELEMENT:
+			case START_ELEMENT_NS:
+			case START_ELEMENT_GENERIC:
+			case START_ELEMENT_GENERIC_UNDECLARED:
+				handleDeferredStartElement(decoder);
+				// defer start element and keep on processing
+				deferredStartElement = decoder.decodeStartElement();
+				break;
+			/* END ELEMENT */
+			case END_ELEMENT:
+			case END_ELEMENT_UNDECLARED:
+				handleDeferredStartElement(decoder);
+				decoder.decodeEndElement();
+				currentNode = parents[currentNode];
+				break;
+			/* CHARACTERS */
+			case CHARACTERS:
+			case CHARACTERS_GENERIC:
+			case CHARACTERS_GENERIC_UNDECLARED:
+				handleDeferredStartElement(decoder);
+				Value val = decoder.decodeCharacters();
+				if (val.getCharactersLength() > 0) {
+					int n = appendNode(EXITree.TEXT);
+					valueIds[n] = addValue(val);
+				}
+				break;
+			/* MISC */
+			case DOC_TYPE:
+				DocType dt = decoder.decodeDocType();
+				docType = new String[] { new String(dt.name),
+						dt.publicID.length == 0 ? null : new String(dt.publicID),
+						dt.systemID.length == 0 ? null : new String(dt.systemID),
+						dt.text.length == 0 ? null : new String(dt.text) };
+				appendNode(EXITree.DOCUMENT_TYPE);
+				break;
+			case ENTITY_REFERENCE:
+				handleDeferredStartElement(decoder);
+				// skipped entity, as for DOMBuilder
+				decoder.decodeEntityReference();
+				break;
+			case COMMENT:
+				handleDeferredStartElement(decoder);
+				int c = appendNode(EXITree.COMMENT);
+				valueIds[c] = addValue(new StringValue(decoder.decodeComment()));
+				break;
+			case PROCESSING_INSTRUCTION:
+				handleDeferredStartElement(decoder);
+				ProcessingInstruction pi = decoder
+						.decodeProcessingInstruction();
+				int p = appendNode(EXITree.PROCESSING_INSTRUCTION);
+				names[p] = addString(pi.target);
+				valueIds[p] = addValue(new StringValue(pi.data));
+				break;
+			default:
+				throw new EXIException("Unexpected EXI Event '" + eventType
+						+ "' ");
+			}
+		}
+	}
+
+	/*
+	 * Appends the deferred element, its namespace declarations and
+	 * attributes. The prefix is known once the declarations are decoded.
+	 */
+	protected void handleDeferredStartElement(EXIBodyDecoder decoder) {
+		if (deferredStartElement == null) {
+			return;
+		}
+		int element = appendNode(EXITree.ELEMENT);
+		names[element] = addQName(deferredStartElement);
+		prefixes[element] = addString(decoder.getElementPrefix());
+		deferredStartElement = null;
+		currentNode = element;
+
+		// namespace declarations
+		List<NamespaceDeclaration> nsDecls = decoder
+				.getDeclaredPrefixDeclarations();
+		if (preservePrefix && nsDecls != null) {
+			for (int i = 0; i < nsDecls.size(); i++) {
+				NamespaceDeclaration ns = nsDecls.get(i);
+				int n = appendAttributeNode(EXITree.NAMESPACE, element);
+				names[n] = addString(ns.namespaceURI);
+				prefixes[n] = addString(ns.prefix);
+			}
+		}
+
+		// attributes
+		for (int i = 0; i < atCount; i++) {
+			int n = appendAttributeNode(EXITree.ATTRIBUTE, element);
+			names[n] = addQName(atQNames[i]);
+			prefixes[n] = addString(atPrefixes[i]);
+			valueIds[n] = addValue(atValues[i]);
+			atQNames[i] = null;
+			atValues[i] = null;
+		}
+		atCount = 0;
+	}
+
+	protected void addAttribute(EXIBodyDecoder decoder, QNameContext qnc) {
+		if (atCount == atQNames.length) {
+			int newLength = atCount << 1;
+			atQNames = Arrays.copyOf(atQNames, newLength);
+			atPrefixes = Arrays.copyOf(atPrefixes, newLength);
+			atValues = Arrays.copyOf(atValues, newLength);
+		}
+		atQNames[atCount] = qnc;
+		atPrefixes[atCount] = decoder.getAttributePrefix();
+		atValues[atCount] = decoder.getAttributeValue();
+		atCount++;
+	}
+
+	/* appends a child of the current node */
+	protected int appendNode(byte kind) {
+		int n = newNode(kind, currentNode);
+		if (currentNode != EXITree.NONE) {
+			int last = lastChildren[currentNode];
+			if (last == EXITree.NONE) {
+				firstChildren[currentNode] = n;
+			} else {
+				nextSiblings[last] = n;
+			}
+			lastChildren[currentNode] = n;
+		}
+		return n;
+	}
+
+	/* attributes are no children */
+	protected int appendAttributeNode(byte kind, int element) {
+		return newNode(kind, element);
+	}
+
+	protected int newNode(byte kind, int parent) {
+		if (size == kinds.length) {
+			int newLength = size << 1;
+			kinds = Arrays.copyOf(kinds, newLength);
+			parents = Arrays.copyOf(parents, newLength);
+			firstChildren = Arrays.copyOf(firstChildren, newLength);
+			nextSiblings = Arrays.copyOf(nextSiblings, newLength);
+			names = Arrays.copyOf(names, newLength);
+			prefixes = Arrays.copyOf(prefixes, newLength);
+			valueIds = Arrays.copyOf(valueIds, newLength);
+			lastChildren = Arrays.copyOf(lastChildren, newLength);
+		}
+		int n = size++;
+		kinds[n] = kind;
+		parents[n] = parent;
+		firstChildren[n] = EXITree.NONE;
+		nextSiblings[n] = EXITree.NONE;
+		names[n] = EXITree.NONE;
+		prefixes[n] = EXITree.NONE;
+		valueIds[n] = EXITree.NONE;
+		lastChildren[n] = EXITree.NONE;
+		return n;
+	}
+
+	protected int addQName(QNameContext qnc) {
+		Integer id = qnameIds.get(qnc);
+		if (id == null) {
+			if (qnamesSize == qnames.length) {
+				qnames = Arrays.copyOf(qnames, qnamesSize << 1);
+			}
+			id = qnamesSize;
+			qnames[qnamesSize++] = qnc;
+			qnameIds.put(qnc, id);
+		}
+		return id;
+	}
+
+	protected int addString(String s) {
+		if (s == null) {
+			return EXITree.NONE;
+		}
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			if (stringsSize == strings.length) {
+				strings = Arrays.copyOf(strings, stringsSize << 1);
+			}
+			id = stringsSize;
+			strings[stringsSize++] = s;
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	protected int addValue(Value val) {
+		if (valuesSize == values.length) {
+			values = Arrays.copyOf(values, valuesSize << 1);
+		}
+		values[valuesSize] = val;
+		return valuesSize++;
+	}
+
+}
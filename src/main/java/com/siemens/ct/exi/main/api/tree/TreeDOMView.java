@@ -0,0 +1,1257 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.tree;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+import com.siemens.ct.exi.core.Constants;
+
+/**
+ * Read-only <code>org.w3c.dom</code> view of an {@link EXITree}. Node objects
+ * are light-weight handles (tree and node index), created on first access
+ * and kept by the document (deferred node expansion). Modifications raise
+ * <code>NO_MODIFICATION_ALLOWED_ERR</code>.
+ */
+
+final class TreeDOMView {
+
+	private TreeDOMView() {
+	}
+
+	static DOMException readOnly() {
+		return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR,
+				"EXI tree is read-only");
+	}
+
+	/* node object for the given index, created once */
+	static NodeImpl createNode(DocumentImpl doc, int n) {
+		if (n == EXITree.NONE) {
+			return null;
+		}
+		NodeImpl node = doc.nodes[n];
+		if (node == null) {
+			switch (doc.tree.kinds[n]) {
+			case EXITree.ELEMENT:
+				node = new ElementImpl(doc, n);
+				break;
+			case EXITree.ATTRIBUTE:
+			case EXITree.NAMESPACE:
+				node = new AttrImpl(doc, n);
+				break;
+			case EXITree.TEXT:
+				node = new TextImpl(doc, n);
+				break;
+			case EXITree.COMMENT:
+				node = new CommentImpl(doc, n);
+				break;
+			case EXITree.PROCESSING_INSTRUCTION:
+				node = new PIImpl(doc, n);
+				break;
+			case EXITree.DOCUMENT_TYPE:
+				node = new DocumentTypeImpl(doc, n);
+				break;
+			default:
+				node = doc;
+			}
+			doc.nodes[n] = node;
+		}
+		return node;
+	}
+
+	static final NodeList EMPTY_LIST = new NodeList() {
+		public Node item(int index) {
+			return null;
+		}
+
+		public int getLength() {
+			return 0;
+		}
+	};
+
+	/*
+	 * Children of a node, sequential access (item(i) after item(i-1)) does
+	 * not walk the sibling chain again.
+	 */
+	static final class ChildList implements NodeList {
+		final DocumentImpl doc;
+		final int parent;
+		int length = -1;
+		int lastIndex = -1;
+		int lastNode = EXITree.NONE;
+
+		ChildList(DocumentImpl doc, int parent) {
+			this.doc = doc;
+			this.parent = parent;
+		}
+
+		public Node item(int index) {
+			if (index < 0) {
+				return null;
+			}
+			EXITree tree = doc.tree;
+			int i, n;
+			if (lastNode != EXITree.NONE && index >= lastIndex) {
+				i = lastIndex;
+				n = lastNode;
+			} else {
+				i = 0;
+				n = tree.firstChildren[parent];
+			}
+			while (n != EXITree.NONE && i < index) {
+				n = tree.nextSiblings[n];
+				i++;
+			}
+			if (n == EXITree.NONE) {
+				return null;
+			}
+			lastIndex = i;
+			lastNode = n;
+			return createNode(doc, n);
+		}
+
+		public int getLength() {
+			if (length < 0) {
+				int l = 0;
+				for (int n = doc.tree.firstChildren[parent]; n != EXITree.NONE; n = doc.tree.nextSiblings[n]) {
+					l++;
+				}
+				length = l;
+			}
+			return length;
+		}
+	}
+
+	/* matching descendant elements, collected on creation */
+	static final class ElementList implements NodeList {
+		final DocumentImpl doc;
+		int[] nodes = new int[8];
+		int length;
+
+		ElementList(DocumentImpl doc, int root, String namespaceURI,
+				String name, boolean ns) {
+			this.doc = doc;
+			EXITree tree = doc.tree;
+			boolean anyName = "*".equals(name);
+			boolean anyNS = "*".equals(namespaceURI);
+			if (ns && namespaceURI == null) {
+				namespaceURI = Constants.XML_NULL_NS_URI;
+			}
+			int end = tree.getSubtreeEnd(root);
+			for (int n = root + 1; n < end; n++) {
+				if (tree.kinds[n] != EXITree.ELEMENT) {
+					continue;
+				}
+				boolean match;
+				if (ns) {
+					match = (anyName || name.equals(tree.getLocalName(n)))
+							&& (anyNS || namespaceURI.equals(tree
+									.getNamespaceURI(n)));
+				} else {
+					match = anyName
+							|| name.equals(getQualifiedName(tree, n));
+				}
+				if (match) {
+					if (length == nodes.length) {
+						int[] newNodes = new int[length << 1];
+						System.arraycopy(nodes, 0, newNodes, 0, length);
+						nodes = newNodes;
+					}
+					nodes[length++] = n;
+				}
+			}
+		}
+
+		public Node item(int index) {
+			return index < 0 || index >= length ? null : createNode(doc,
+					nodes[index]);
+		}
+
+		public int getLength() {
+			return length;
+		}
+	}
+
+	static String getQualifiedName(EXITree tree, int n) {
+		if (tree.kinds[n] == EXITree.NAMESPACE) {
+			String pfx = tree.getPrefix(n);
+			return pfx == null || pfx.length() == 0 ? Constants.XML_NS_ATTRIBUTE
+					: Constants.XML_NS_ATTRIBUTE + ":" + pfx;
+		}
+		String pfx = tree.getPrefix(n);
+		String localName = tree.getLocalName(n);
+		return pfx == null || pfx.length() == 0 ? localName : pfx + ":"
+				+ localName;
+	}
+
+	/* attributes of an element */
+	static final class AttributeMap implements NamedNodeMap {
+		final DocumentImpl doc;
+		final int element;
+		final int length;
+
+		AttributeMap(DocumentImpl doc, int element) {
+			this.doc = doc;
+			this.element = element;
+			this.length = doc.tree.getNumberOfAttributes(element);
+		}
+
+		public Node getNamedItem(String name) {
+			for (int i = 0; i < length; i++) {
+				int n = element + 1 + i;
+				if (name.equals(getQualifiedName(doc.tree, n))) {
+					return createNode(doc, n);
+				}
+			}
+			return null;
+		}
+
+		public Node getNamedItemNS(String namespaceURI, String localName)
+				throws DOMException {
+			for (int i = 0; i < length; i++) {
+				Node at = item(i);
+				if (localName.equals(at.getLocalName())
+						&& equals(namespaceURI, at.getNamespaceURI())) {
+					return at;
+				}
+			}
+			return null;
+		}
+
+		static boolean equals(String uri1, String uri2) {
+			if (uri1 == null || uri1.length() == 0) {
+				return uri2 == null || uri2.length() == 0;
+			}
+			return uri1.equals(uri2);
+		}
+
+		public Node item(int index) {
+			return index < 0 || index >= length ? null : createNode(doc,
+					element + 1 + index);
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		public Node setNamedItem(Node arg) throws DOMException {
+			throw readOnly();
+		}
+
+		public Node removeNamedItem(String name) throws DOMException {
+			throw readOnly();
+		}
+
+		public Node setNamedItemNS(Node arg) throws DOMException {
+			throw readOnly();
+		}
+
+		public Node removeNamedItemNS(String namespaceURI, String localName)
+				throws DOMException {
+			throw readOnly();
+		}
+	}
+
+	static final NamedNodeMap EMPTY_MAP = new NamedNodeMap() {
+		public Node getNamedItem(String name) {
+			return null;
+		}
+
+		public Node getNamedItemNS(String namespaceURI, String localName) {
+			return null;
+		}
+
+		public Node item(int index) {
+			return null;
+		}
+
+		public int getLength() {
+			return 0;
+		}
+
+		public Node setNamedItem(Node arg) throws DOMException {
+			throw readOnly();
+		}
+
+		public Node removeNamedItem(String name) throws DOMException {
+			throw readOnly();
+		}
+
+		public Node setNamedItemNS(Node arg) throws DOMException {
+			throw readOnly();
+		}
+
+		public Node removeNamedItemNS(String namespaceURI, String localName)
+				throws DOMException {
+			throw readOnly();
+		}
+	};
+
+	/* common node behavior */
+	abstract static class NodeImpl implements Node {
+		/* owner, the document itself for the document node */
+		DocumentImpl doc;
+		final int node;
+
+		NodeImpl(DocumentImpl doc, int node) {
+			this.doc = doc;
+			this.node = node;
+		}
+
+		EXITree tree() {
+			return doc.tree;
+		}
+
+		public String getNodeName() {
+			return getQualifiedName(tree(), node);
+		}
+
+		public String getNodeValue() throws DOMException {
+			return null;
+		}
+
+		public void setNodeValue(String nodeValue) throws DOMException {
+			throw readOnly();
+		}
+
+		public short getNodeType() {
+			return tree().kinds[node];
+		}
+
+		public Node getParentNode() {
+			return createNode(doc, tree().parents[node]);
+		}
+
+		public NodeList getChildNodes() {
+			return new ChildList(doc, node);
+		}
+
+		public Node getFirstChild() {
+			return createNode(doc, tree().firstChildren[node]);
+		}
+
+		public Node getLastChild() {
+			EXITree tree = tree();
+			int n = tree.firstChildren[node];
+			if (n != EXITree.NONE) {
+				while (tree.nextSiblings[n] != EXITree.NONE) {
+					n = tree.nextSiblings[n];
+				}
+			}
+			return createNode(doc, n);
+		}
+
+		public Node getPreviousSibling() {
+			EXITree tree = tree();
+			int parent = tree.parents[node];
+			if (parent == EXITree.NONE) {
+				return null;
+			}
+			int prev = EXITree.NONE;
+			for (int n = tree.firstChildren[parent]; n != node
+					&& n != EXITree.NONE; n = tree.nextSiblings[n]) {
+				prev = n;
+			}
+			return createNode(doc, prev);
+		}
+
+		public Node getNextSibling() {
+			return createNode(doc, tree().nextSiblings[node]);
+		}
+
+		public NamedNodeMap getAttributes() {
+			return null;
+		}
+
+		public Document getOwnerDocument() {
+			return doc;
+		}
+
+		public Node insertBefore(Node newChild, Node refChild)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public Node replaceChild(Node newChild, Node oldChild)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public Node removeChild(Node oldChild) throws DOMException {
+			throw readOnly();
+		}
+
+		public Node appendChild(Node newChild) throws DOMException {
+			throw readOnly();
+		}
+
+		public boolean hasChildNodes() {
+			return tree().firstChildren[node] != EXITree.NONE;
+		}
+
+		public Node cloneNode(boolean deep) {
+			// immutable
+			return this;
+		}
+
+		public void normalize() {
+			// adjacent characters are merged by the encoder
+		}
+
+		public boolean isSupported(String feature, String version) {
+			return false;
+		}
+
+		public String getNamespaceURI() {
+			return null;
+		}
+
+		public String getPrefix() {
+			return null;
+		}
+
+		public void setPrefix(String prefix) throws DOMException {
+			throw readOnly();
+		}
+
+		public String getLocalName() {
+			return null;
+		}
+
+		public boolean hasAttributes() {
+			return false;
+		}
+
+		public String getBaseURI() {
+			return null;
+		}
+
+		public short compareDocumentPosition(Node other) throws DOMException {
+			if (!(other instanceof NodeImpl)
+					|| ((NodeImpl) other).doc.tree != tree()) {
+				return DOCUMENT_POSITION_DISCONNECTED
+						| DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC
+						| DOCUMENT_POSITION_FOLLOWING;
+			}
+			int o = ((NodeImpl) other).node;
+			if (o == node) {
+				return 0;
+			}
+			EXITree tree = tree();
+			if (o > node) {
+				return o < tree.getSubtreeEnd(node) ? (short) (DOCUMENT_POSITION_CONTAINED_BY | DOCUMENT_POSITION_FOLLOWING)
+						: DOCUMENT_POSITION_FOLLOWING;
+			} else {
+				return node < tree.getSubtreeEnd(o) ? (short) (DOCUMENT_POSITION_CONTAINS | DOCUMENT_POSITION_PRECEDING)
+						: DOCUMENT_POSITION_PRECEDING;
+			}
+		}
+
+		public String getTextContent() throws DOMException {
+			return getNodeValue();
+		}
+
+		public void setTextContent(String textContent) throws DOMException {
+			throw readOnly();
+		}
+
+		public boolean isSameNode(Node other) {
+			return equals(other);
+		}
+
+		public String lookupPrefix(String namespaceURI) {
+			if (namespaceURI == null) {
+				return null;
+			}
+			EXITree tree = tree();
+			for (int e = scopeElement(); e != EXITree.NONE; e = tree.parents[e]) {
+				int atts = tree.getNumberOfAttributes(e);
+				for (int i = 0; i < atts; i++) {
+					int n = e + 1 + i;
+					if (tree.kinds[n] == EXITree.NAMESPACE
+							&& namespaceURI.equals(tree.getNamespaceURI(n))) {
+						String pfx = tree.getPrefix(n);
+						if (pfx != null && pfx.length() > 0) {
+							return pfx;
+						}
+					}
+				}
+			}
+			return null;
+		}
+
+		public boolean isDefaultNamespace(String namespaceURI) {
+			String uri = lookupNamespaceURI(null);
+			return uri == null ? namespaceURI == null : uri
+					.equals(namespaceURI);
+		}
+
+		public String lookupNamespaceURI(String prefix) {
+			if (prefix == null) {
+				prefix = Constants.XML_DEFAULT_NS_PREFIX;
+			}
+			EXITree tree = tree();
+			for (int e = scopeElement(); e != EXITree.NONE; e = tree.parents[e]) {
+				int atts = tree.getNumberOfAttributes(e);
+				for (int i = 0; i < atts; i++) {
+					int n = e + 1 + i;
+					if (tree.kinds[n] == EXITree.NAMESPACE
+							&& prefix.equals(tree.getPrefix(n))) {
+						String uri = tree.getNamespaceURI(n);
+						return uri.length() == 0 ? null : uri;
+					}
+				}
+			}
+			return null;
+		}
+
+		/* element whose namespace declarations are in scope */
+		int scopeElement() {
+			EXITree tree = tree();
+			int e = node;
+			while (e != EXITree.NONE && tree.kinds[e] != EXITree.ELEMENT) {
+				e = tree.parents[e];
+			}
+			return e;
+		}
+
+		public boolean isEqualNode(Node arg) {
+			if (arg == this) {
+				return true;
+			}
+			if (arg == null || arg.getNodeType() != getNodeType()
+					|| !equals(getNodeName(), arg.getNodeName())
+					|| !equals(getLocalName(), arg.getLocalName())
+					|| !equals(getNamespaceURI(), arg.getNamespaceURI())
+					|| !equals(getPrefix(), arg.getPrefix())
+					|| !equals(getNodeValue(), arg.getNodeValue())) {
+				return false;
+			}
+			NamedNodeMap atts = getAttributes();
+			NamedNodeMap atts2 = arg.getAttributes();
+			if (atts != null) {
+				if (atts2 == null || atts.getLength() != atts2.getLength()) {
+					return false;
+				}
+				for (int i = 0; i < atts.getLength(); i++) {
+					Node at = atts.item(i);
+					Node at2 = at.getLocalName() == null ? atts2
+							.getNamedItem(at.getNodeName()) : atts2
+							.getNamedItemNS(at.getNamespaceURI(),
+									at.getLocalName());
+					if (!at.isEqualNode(at2)) {
+						return false;
+					}
+				}
+			} else if (atts2 != null && atts2.getLength() > 0) {
+				return false;
+			}
+			if (getNodeType() == ATTRIBUTE_NODE) {
+				// value compared, no text children in this view
+				return true;
+			}
+			Node c = getFirstChild();
+			Node c2 = arg.getFirstChild();
+			while (c != null && c2 != null) {
+				if (!c.isEqualNode(c2)) {
+					return false;
+				}
+				c = c.getNextSibling();
+				c2 = c2.getNextSibling();
+			}
+			return c == null && c2 == null;
+		}
+
+		static boolean equals(String s1, String s2) {
+			return s1 == null ? s2 == null : s1.equals(s2);
+		}
+
+		public Object getFeature(String feature, String version) {
+			return null;
+		}
+
+		public Object setUserData(String key, Object data,
+				UserDataHandler handler) {
+			throw readOnly();
+		}
+
+		public Object getUserData(String key) {
+			return null;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof NodeImpl) {
+				NodeImpl other = (NodeImpl) obj;
+				return other.node == node && other.doc.tree == doc.tree;
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(doc.tree) + node;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + getNodeName() + ": " + getNodeValue() + "]";
+		}
+	}
+
+	static final class DocumentImpl extends NodeImpl implements Document {
+		final EXITree tree;
+		/* expanded nodes */
+		final NodeImpl[] nodes;
+		DOMImplementation domImplementation;
+
+		DocumentImpl(EXITree tree) {
+			super(null, 0);
+			this.doc = this;
+			this.tree = tree;
+			this.nodes = new NodeImpl[tree.size];
+			this.nodes[0] = this;
+		}
+
+		@Override
+		public String getNodeName() {
+			return "#document";
+		}
+
+		@Override
+		public short getNodeType() {
+			return DOCUMENT_NODE;
+		}
+
+		@Override
+		public Document getOwnerDocument() {
+			return null;
+		}
+
+		@Override
+		public String getTextContent() {
+			return null;
+		}
+
+		public DocumentType getDoctype() {
+			for (int n = tree.firstChildren[0]; n != EXITree.NONE; n = tree.nextSiblings[n]) {
+				if (tree.kinds[n] == EXITree.DOCUMENT_TYPE) {
+					return (DocumentType) createNode(this, n);
+				}
+			}
+			return null;
+		}
+
+		public DOMImplementation getImplementation() {
+			if (domImplementation == null) {
+				try {
+					domImplementation = DocumentBuilderFactory.newInstance()
+							.newDocumentBuilder().getDOMImplementation();
+				} catch (ParserConfigurationException e) {
+					throw new DOMException(DOMException.NOT_SUPPORTED_ERR,
+							e.getMessage());
+				}
+			}
+			return domImplementation;
+		}
+
+		public Element getDocumentElement() {
+			int n = tree.getDocumentElement();
+			return (Element) createNode(this, n);
+		}
+
+		public NodeList getElementsByTagName(String tagname) {
+			return new ElementList(this, 0, null, tagname, false);
+		}
+
+		public NodeList getElementsByTagNameNS(String namespaceURI,
+				String localName) {
+			return new ElementList(this, 0, namespaceURI, localName, true);
+		}
+
+		public Element getElementById(String elementId) {
+			return null;
+		}
+
+		public Node importNode(Node importedNode, boolean deep)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public Node adoptNode(Node source) throws DOMException {
+			throw readOnly();
+		}
+
+		public Node renameNode(Node n, String namespaceURI,
+				String qualifiedName) throws DOMException {
+			throw readOnly();
+		}
+
+		public Element createElement(String tagName) throws DOMException {
+			throw readOnly();
+		}
+
+		public DocumentFragment createDocumentFragment() {
+			throw readOnly();
+		}
+
+		public Text createTextNode(String data) {
+			throw readOnly();
+		}
+
+		public Comment createComment(String data) {
+			throw readOnly();
+		}
+
+		public CDATASection createCDATASection(String data)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public ProcessingInstruction createProcessingInstruction(
+				String target, String data) throws DOMException {
+			throw readOnly();
+		}
+
+		public Attr createAttribute(String name) throws DOMException {
+			throw readOnly();
+		}
+
+		public EntityReference createEntityReference(String name)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public Element createElementNS(String namespaceURI,
+				String qualifiedName) throws DOMException {
+			throw readOnly();
+		}
+
+		public Attr createAttributeNS(String namespaceURI,
+				String qualifiedName) throws DOMException {
+			throw readOnly();
+		}
+
+		public String getInputEncoding() {
+			return null;
+		}
+
+		public String getXmlEncoding() {
+			return null;
+		}
+
+		public boolean getXmlStandalone() {
+			return false;
+		}
+
+		public void setXmlStandalone(boolean xmlStandalone)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public String getXmlVersion() {
+			return "1.0";
+		}
+
+		public void setXmlVersion(String xmlVersion) throws DOMException {
+			throw readOnly();
+		}
+
+		public boolean getStrictErrorChecking() {
+			return true;
+		}
+
+		public void setStrictErrorChecking(boolean strictErrorChecking) {
+			throw readOnly();
+		}
+
+		public String getDocumentURI() {
+			return null;
+		}
+
+		public void setDocumentURI(String documentURI) {
+			throw readOnly();
+		}
+
+		public DOMConfiguration getDomConfig() {
+			return null;
+		}
+
+		public void normalizeDocument() {
+		}
+	}
+
+	static final class DocumentTypeImpl extends NodeImpl implements
+			DocumentType {
+
+		DocumentTypeImpl(DocumentImpl doc, int node) {
+			super(doc, node);
+		}
+
+		@Override
+		public String getNodeName() {
+			return getName();
+		}
+
+		public String getName() {
+			return tree().getDocTypeName();
+		}
+
+		public NamedNodeMap getEntities() {
+			return EMPTY_MAP;
+		}
+
+		public NamedNodeMap getNotations() {
+			return EMPTY_MAP;
+		}
+
+		public String getPublicId() {
+			return tree().getDocTypePublicID();
+		}
+
+		public String getSystemId() {
+			return tree().getDocTypeSystemID();
+		}
+
+		public String getInternalSubset() {
+			return tree().getDocTypeText();
+		}
+	}
+
+	static final class ElementImpl extends NodeImpl implements Element {
+
+		ElementImpl(DocumentImpl doc, int node) {
+			super(doc, node);
+		}
+
+		@Override
+		public NamedNodeMap getAttributes() {
+			return new AttributeMap(doc, node);
+		}
+
+		@Override
+		public boolean hasAttributes() {
+			return tree().getNumberOfAttributes(node) > 0;
+		}
+
+		@Override
+		public String getNamespaceURI() {
+			String uri = tree().getNamespaceURI(node);
+			return uri == null || uri.length() == 0 ? null : uri;
+		}
+
+		@Override
+		public String getPrefix() {
+			String pfx = tree().getPrefix(node);
+			return pfx == null || pfx.length() == 0 ? null : pfx;
+		}
+
+		@Override
+		public String getLocalName() {
+			return tree().getLocalName(node);
+		}
+
+		@Override
+		public String getTextContent() {
+			return tree().getText(node);
+		}
+
+		public String getTagName() {
+			return getNodeName();
+		}
+
+		public String getAttribute(String name) {
+			Node at = getAttributes().getNamedItem(name);
+			return at == null ? Constants.EMPTY_STRING : at.getNodeValue();
+		}
+
+		public Attr getAttributeNode(String name) {
+			return (Attr) getAttributes().getNamedItem(name);
+		}
+
+		public boolean hasAttribute(String name) {
+			return getAttributes().getNamedItem(name) != null;
+		}
+
+		public String getAttributeNS(String namespaceURI, String localName)
+				throws DOMException {
+			Node at = getAttributeNodeNS(namespaceURI, localName);
+			return at == null ? Constants.EMPTY_STRING : at.getNodeValue();
+		}
+
+		public Attr getAttributeNodeNS(String namespaceURI, String localName)
+				throws DOMException {
+			if (Constants.XML_NS_ATTRIBUTE_NS_URI.equals(namespaceURI)) {
+				return (Attr) getAttributes().getNamedItemNS(namespaceURI,
+						localName);
+			}
+			int at = tree().getAttribute(node, namespaceURI, localName);
+			return (Attr) createNode(doc, at);
+		}
+
+		public boolean hasAttributeNS(String namespaceURI, String localName)
+				throws DOMException {
+			return getAttributeNodeNS(namespaceURI, localName) != null;
+		}
+
+		public NodeList getElementsByTagName(String name) {
+			return new ElementList(doc, node, null, name, false);
+		}
+
+		public NodeList getElementsByTagNameNS(String namespaceURI,
+				String localName) throws DOMException {
+			return new ElementList(doc, node, namespaceURI, localName, true);
+		}
+
+		public TypeInfo getSchemaTypeInfo() {
+			return null;
+		}
+
+		public void setAttribute(String name, String value)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public void removeAttribute(String name) throws DOMException {
+			throw readOnly();
+		}
+
+		public Attr setAttributeNode(Attr newAttr) throws DOMException {
+			throw readOnly();
+		}
+
+		public Attr removeAttributeNode(Attr oldAttr) throws DOMException {
+			throw readOnly();
+		}
+
+		public void setAttributeNS(String namespaceURI, String qualifiedName,
+				String value) throws DOMException {
+			throw readOnly();
+		}
+
+		public void removeAttributeNS(String namespaceURI, String localName)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public Attr setAttributeNodeNS(Attr newAttr) throws DOMException {
+			throw readOnly();
+		}
+
+		public void setIdAttribute(String name, boolean isId)
+				throws DOMException {
+			throw readOnly();
+		}
+
+		public void setIdAttributeNS(String namespaceURI, String localName,
+				boolean isId) throws DOMException {
+			throw readOnly();
+		}
+
+		public void setIdAttributeNode(Attr idAttr, boolean isId)
+				throws DOMException {
+			throw readOnly();
+		}
+	}
+
+	/* attribute or namespace declaration (xmlns attribute) */
+	static final class AttrImpl extends NodeImpl implements Attr {
+
+		AttrImpl(DocumentImpl doc, int node) {
+			super(doc, node);
+		}
+
+		boolean isNamespaceDeclaration() {
+			return tree().kinds[node] == EXITree.NAMESPACE;
+		}
+
+		@Override
+		public short getNodeType() {
+			return ATTRIBUTE_NODE;
+		}
+
+		@Override
+		public String getNodeValue() {
+			return tree().getText(node);
+		}
+
+		@Override
+		public Node getParentNode() {
+			return null;
+		}
+
+		@Override
+		public NodeList getChildNodes() {
+			return EMPTY_LIST;
+		}
+
+		@Override
+		public Node getFirstChild() {
+			return null;
+		}
+
+		@Override
+		public Node getLastChild() {
+			return null;
+		}
+
+		@Override
+		public Node getPreviousSibling() {
+			return null;
+		}
+
+		@Override
+		public Node getNextSibling() {
+			return null;
+		}
+
+		@Override
+		public boolean hasChildNodes() {
+			return false;
+		}
+
+		@Override
+		public String getNamespaceURI() {
+			if (isNamespaceDeclaration()) {
+				return Constants.XML_NS_ATTRIBUTE_NS_URI;
+			}
+			String uri = tree().getNamespaceURI(node);
+			return uri == null || uri.length() == 0 ? null : uri;
+		}
+
+		@Override
+		public String getPrefix() {
+			String pfx = tree().getPrefix(node);
+			if (isNamespaceDeclaration()) {
+				return pfx == null || pfx.length() == 0 ? null
+						: Constants.XML_NS_ATTRIBUTE;
+			}
+			return pfx == null || pfx.length() == 0 ? null : pfx;
+		}
+
+		@Override
+		public String getLocalName() {
+			if (isNamespaceDeclaration()) {
+				String pfx = tree().getPrefix(node);
+				return pfx == null || pfx.length() == 0 ? Constants.XML_NS_ATTRIBUTE
+						: pfx;
+			}
+			return tree().getLocalName(node);
+		}
+
+		public String getName() {
+			return getNodeName();
+		}
+
+		public boolean getSpecified() {
+			return true;
+		}
+
+		public String getValue() {
+			return getNodeValue();
+		}
+
+		public void setValue(String value) throws DOMException {
+			throw readOnly();
+		}
+
+		public Element getOwnerElement() {
+			return (Element) createNode(doc, tree().parents[node]);
+		}
+
+		public TypeInfo getSchemaTypeInfo() {
+			return null;
+		}
+
+		public boolean isId() {
+			return false;
+		}
+	}
+
+	abstract static class CharacterDataImpl extends NodeImpl {
+
+		CharacterDataImpl(DocumentImpl doc, int node) {
+			super(doc, node);
+		}
+
+		@Override
+		public String getNodeValue() {
+			return tree().getText(node);
+		}
+
+		@Override
+		public NodeList getChildNodes() {
+			return EMPTY_LIST;
+		}
+
+		public String getData() throws DOMException {
+			return getNodeValue();
+		}
+
+		public void setData(String data) throws DOMException {
+			throw readOnly();
+		}
+
+		public int getLength() {
+			return getNodeValue().length();
+		}
+
+		public String substringData(int offset, int count)
+				throws DOMException {
+			String data = getNodeValue();
+			if (offset < 0 || offset > data.length() || count < 0) {
+				throw new DOMException(DOMException.INDEX_SIZE_ERR,
+						"Invalid offset " + offset + " or count " + count);
+			}
+			return data.substring(offset,
+					Math.min(data.length(), offset + count));
+		}
+
+		public void appendData(String arg) throws DOMException {
+			throw readOnly();
+		}
+
+		public void insertData(int offset, String arg) throws DOMException {
+			throw readOnly();
+		}
+
+		public void deleteData(int offset, int count) throws DOMException {
+			throw readOnly();
+		}
+
+		public void replaceData(int offset, int count, String arg)
+				throws DOMException {
+			throw readOnly();
+		}
+	}
+
+	static final class TextImpl extends CharacterDataImpl implements Text {
+
+		TextImpl(DocumentImpl doc, int node) {
+			super(doc, node);
+		}
+
+		@Override
+		public String getNodeName() {
+			return "#text";
+		}
+
+		public Text splitText(int offset) throws DOMException {
+			throw readOnly();
+		}
+
+		public boolean isElementContentWhitespace() {
+			return false;
+		}
+
+		public String getWholeText() {
+			EXITree tree = tree();
+			int parent = tree.parents[node];
+			StringBuilder sb = new StringBuilder();
+			// logically-adjacent text nodes
+			int first = node;
+			for (int n = tree.firstChildren[parent]; n != node; n = tree.nextSiblings[n]) {
+				if (tree.kinds[n] != EXITree.TEXT) {
+					first = tree.nextSiblings[n];
+				}
+			}
+			for (int n = first; n != EXITree.NONE
+					&& tree.kinds[n] == EXITree.TEXT; n = tree.nextSiblings[n]) {
+				sb.append(tree.getText(n));
+			}
+			return sb.toString();
+		}
+
+		public Text replaceWholeText(String content) throws DOMException {
+			throw readOnly();
+		}
+	}
+
+	static final class CommentImpl extends CharacterDataImpl implements
+			Comment {
+
+		CommentImpl(DocumentImpl doc, int node) {
+			super(doc, node);
+		}
+
+		@Override
+		public String getNodeName() {
+			return "#comment";
+		}
+	}
+
+	static final class PIImpl extends NodeImpl implements
+			ProcessingInstruction {
+
+		PIImpl(DocumentImpl doc, int node) {
+			super(doc, node);
+		}
+
+		@Override
+		public String getNodeName() {
+			return getTarget();
+		}
+
+		@Override
+		public String getNodeValue() {
+			return getData();
+		}
+
+		@Override
+		public NodeList getChildNodes() {
+			return EMPTY_LIST;
+		}
+
+		public String getTarget() {
+			return tree().getTarget(node);
+		}
+
+		public String getData() {
+			return tree().getText(node);
+		}
+
+		public void setData(String data) throws DOMException {
+			throw readOnly();
+		}
+	}
+
+}
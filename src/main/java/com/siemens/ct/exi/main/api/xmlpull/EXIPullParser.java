@@ -34,22 +34,30 @@ package com.siemens.ct.exi.main.api.xmlpull;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 
+import javax.xml.namespace.QName;
+
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import com.siemens.ct.exi.core.EXIBodyDecoder;
 import com.siemens.ct.exi.core.EXIFactory;
 import com.siemens.ct.exi.core.EXIStreamDecoder;
+import com.siemens.ct.exi.core.coder.AbstractEXIBodyCoder;
 import com.siemens.ct.exi.core.container.DocType;
 import com.siemens.ct.exi.core.container.NamespaceDeclaration;
 import com.siemens.ct.exi.core.container.ProcessingInstruction;
+import com.siemens.ct.exi.core.context.GrammarContext;
 import com.siemens.ct.exi.core.context.QNameContext;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.grammars.event.EventType;
 import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+import com.siemens.ct.exi.main.util.ChannelInputStream;
+import com.siemens.ct.exi.main.util.DecodedAttributes;
 
 public class EXIPullParser implements XmlPullParser {
 
@@ -65,30 +73,20 @@ public class EXIPullParser implements XmlPullParser {
 	protected EventType preReadEventType;
 
 	protected QNameContext element;
-	protected List<AttributeContainer> attributes;
+	protected DecodedAttributes attributes;
+	/* grammar context of the current decoder, speeds up attribute lookups */
+	protected GrammarContext grammarContext;
 	protected Value characters;
 	protected DocType docType;
 	protected char[] entityReference;
 	protected char[] comment;
 	protected ProcessingInstruction processingInstruction;
 
-	static class AttributeContainer {
-		final QNameContext qname;
-		final Value value;
-		final String prefix;
-
-		public AttributeContainer(QNameContext qname, Value value, String prefix) {
-			this.qname = qname;
-			this.value = value;
-			this.prefix = prefix;
-		}
-	}
-
 	public EXIPullParser(EXIFactory factory) throws EXIException {
 		this.factory = factory;
 
 		exiStream = factory.createEXIStreamDecoder();
-		this.attributes = new ArrayList<AttributeContainer>();
+		this.attributes = new DecodedAttributes();
 		// this.nsContext = new EXINamespaceContext();
 	}
 
@@ -131,6 +129,32 @@ public class EXIPullParser implements XmlPullParser {
 		}
 	}
 
+	/**
+	 * Reads the remaining bytes of the given (heap or direct) buffer. The
+	 * position is advanced by the number of bytes read.
+	 * 
+	 * @param buffer
+	 *            EXI input
+	 * @throws XmlPullParserException
+	 *             invalid EXI header
+	 */
+	public void setInput(ByteBuffer buffer) throws XmlPullParserException {
+		setInput(new ByteBufferInputStream(buffer), null);
+	}
+
+	/**
+	 * Reads the given (blocking) channel. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            EXI input
+	 * @throws XmlPullParserException
+	 *             invalid EXI header
+	 */
+	public void setInput(ReadableByteChannel channel)
+			throws XmlPullParserException {
+		setInput(new ChannelInputStream(channel), null);
+	}
+
 	protected void parseHeader(InputStream is) throws EXIException, IOException {
 		assert (is != null);
 		assert (exiStream != null);
@@ -152,6 +176,15 @@ public class EXIPullParser implements XmlPullParser {
 
 		preReadEventType = null;
 		attributes.clear();
+		grammarContext = getGrammarContext(decoder);
+	}
+
+	protected static GrammarContext getGrammarContext(EXIBodyDecoder decoder) {
+		if (decoder instanceof AbstractEXIBodyCoder) {
+			return ((AbstractEXIBodyCoder) decoder).exiFactory.getGrammars()
+					.getGrammarContext();
+		}
+		return null;
 	}
 
 	public String getInputEncoding() {
@@ -343,7 +376,7 @@ public class EXIPullParser implements XmlPullParser {
 
 	public String getAttributeNamespace(int index) {
 		if (index >= 0 && index < attributes.size()) {
-			return attributes.get(index).qname.getNamespaceUri();
+			return attributes.getQNameContext(index).getNamespaceUri();
 		} else {
 			return null;
 		}
@@ -351,7 +384,7 @@ public class EXIPullParser implements XmlPullParser {
 
 	public String getAttributeName(int index) {
 		if (index >= 0 && index < attributes.size()) {
-			return attributes.get(index).qname.getLocalName();
+			return attributes.getQNameContext(index).getLocalName();
 		} else {
 			return null;
 		}
@@ -359,7 +392,7 @@ public class EXIPullParser implements XmlPullParser {
 
 	public String getAttributePrefix(int index) {
 		if (index >= 0 && index < attributes.size()) {
-			return attributes.get(index).prefix;
+			return attributes.getPrefix(index);
 		} else {
 			return null;
 		}
@@ -375,7 +408,24 @@ public class EXIPullParser implements XmlPullParser {
 
 	public String getAttributeValue(int index) {
 		if (index >= 0 && index < attributes.size()) {
-			return attributes.get(index).value.toString();
+			return attributes.getValueAsString(index);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the decoded attribute value without converting it to a string
+	 * first, e.g., an integer, boolean or date-time value for
+	 * schema-informed streams.
+	 * 
+	 * @param index
+	 *            attribute index
+	 * @return typed attribute value or null if the index is out of range
+	 */
+	public Value getAttributeTypedValue(int index) {
+		if (index >= 0 && index < attributes.size()) {
+			return attributes.getValue(index);
 		} else {
 			return null;
 		}
@@ -389,14 +439,42 @@ public class EXIPullParser implements XmlPullParser {
 			namespace = "";
 		}
 
-		for (int i = 0; i < attributes.size(); i++) {
-			if (attributes.get(i).qname.getNamespaceUri().equals(namespace)
-					&& attributes.get(i).qname.getLocalName().equals(name)) {
-				return attributes.get(i).value.toString();
-			}
-		}
+		int index = attributes.indexOf(namespace, name);
+		return index < 0 ? null : attributes.getValueAsString(index);
+	}
 
-		return null;
+	/**
+	 * Returns the index of the attribute with the given qname context (e.g.,
+	 * obtained once from the grammars). Namespace URI and local-name ids are
+	 * compared instead of strings.
+	 * 
+	 * @param qnc
+	 *            attribute qname context
+	 * @return attribute index or -1 if there is no such attribute
+	 */
+	public int getAttributeIndex(QNameContext qnc) {
+		return attributes.indexOf(qnc);
+	}
+
+	/**
+	 * Returns the index of the attribute with the given qualified name.
+	 * 
+	 * @param qname
+	 *            attribute name
+	 * @return attribute index or -1 if there is no such attribute
+	 */
+	public int getAttributeIndex(QName qname) {
+		return attributes.indexOf(qname);
+	}
+
+	public String getAttributeValue(QNameContext qnc) {
+		int index = attributes.indexOf(qnc);
+		return index < 0 ? null : attributes.getValueAsString(index);
+	}
+
+	public String getAttributeValue(QName qname) {
+		int index = attributes.indexOf(qname);
+		return index < 0 ? null : attributes.getValueAsString(index);
 	}
 
 	public int getEventType() throws XmlPullParserException {
@@ -472,14 +550,12 @@ public class EXIPullParser implements XmlPullParser {
 			break;
 		/* ATTRIBUTES */
 		case ATTRIBUTE_XSI_NIL:
-			attributes.add(new AttributeContainer(decoder
-					.decodeAttributeXsiNil(), decoder.getAttributeValue(),
-					decoder.getAttributePrefix()));
+			attributes.add(decoder.decodeAttributeXsiNil(),
+					decoder.getAttributeValue(), decoder.getAttributePrefix());
 			break;
 		case ATTRIBUTE_XSI_TYPE:
-			attributes.add(new AttributeContainer(decoder
-					.decodeAttributeXsiType(), decoder.getAttributeValue(),
-					decoder.getAttributePrefix()));
+			attributes.add(decoder.decodeAttributeXsiType(),
+					decoder.getAttributeValue(), decoder.getAttributePrefix());
 			break;
 		case ATTRIBUTE:
 		case ATTRIBUTE_NS:
@@ -487,8 +563,8 @@ public class EXIPullParser implements XmlPullParser {
 		case ATTRIBUTE_GENERIC_UNDECLARED:
 		case ATTRIBUTE_INVALID_VALUE:
 		case ATTRIBUTE_ANY_INVALID_VALUE:
-			attributes.add(new AttributeContainer(decoder.decodeAttribute(),
-					decoder.getAttributeValue(), decoder.getAttributePrefix()));
+			attributes.add(decoder.decodeAttribute(),
+					decoder.getAttributeValue(), decoder.getAttributePrefix());
 			break;
 		/* NAMESPACE DECLARATION */
 		case NAMESPACE_DECLARATION:
@@ -550,6 +626,7 @@ public class EXIPullParser implements XmlPullParser {
 			XmlPullParserException {
 		assert (getEventType() == XmlPullParser.START_TAG);
 		attributes.clear();
+		attributes.setGrammarContext(grammarContext);
 		EventType et;
 		do {
 			et = decoder.next();
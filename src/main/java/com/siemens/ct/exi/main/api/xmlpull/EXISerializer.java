@@ -34,6 +34,8 @@ package com.siemens.ct.exi.main.api.xmlpull;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,6 +49,8 @@ import com.siemens.ct.exi.core.attributes.AttributeList;
 import com.siemens.ct.exi.core.container.NamespaceDeclaration;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.main.util.ByteBufferOutputStream;
+import com.siemens.ct.exi.main.util.ChannelOutputStream;
 
 public class EXISerializer implements XmlSerializer {
 
@@ -119,6 +123,32 @@ public class EXISerializer implements XmlSerializer {
 				"EXI requires byte-based stream. Consider using OutputStream");
 	}
 
+	/**
+	 * Encodes into the given (heap or direct) buffer, starting at its
+	 * position. The position is advanced by the number of bytes written.
+	 * 
+	 * @param buffer
+	 *            target buffer, an <code>IOException</code> is raised if its
+	 *            capacity is exceeded
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void setOutput(ByteBuffer buffer) throws IOException {
+		setOutput(new ByteBufferOutputStream(buffer), null);
+	}
+
+	/**
+	 * Encodes to the given (blocking) channel. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            target channel
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void setOutput(WritableByteChannel channel) throws IOException {
+		setOutput(new ChannelOutputStream(channel), null);
+	}
+
 	protected void init() {
 		pendingATs = false;
 		exiAttributes.clear();
@@ -31,5 +31,5 @@ package com.siemens.ct.exi.main.cmd;
  */
 
 public enum CmdOption {
-	encode, decode;
+	encode, decode, precompile;
 }
@@ -24,11 +24,11 @@
 package com.siemens.ct.exi.main.cmd;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.StringTokenizer;
 
 import javax.xml.namespace.QName;
@@ -54,7 +54,10 @@ import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
 import com.siemens.ct.exi.grammars.GrammarFactory;
 import com.siemens.ct.exi.main.api.sax.EXIResult;
 import com.siemens.ct.exi.main.api.sax.SAXFactory;
+import com.siemens.ct.exi.main.helpers.PrecompiledGrammars;
+import com.siemens.ct.exi.main.util.FileChannelOutputStream;
 import com.siemens.ct.exi.main.util.FragmentUtilities;
+import com.siemens.ct.exi.main.util.MappedFileInputStream;
 import com.siemens.ct.exi.main.util.NoEntityResolver;
 import com.siemens.ct.exi.main.util.SkipRootElementXMLReader;
 
@@ -94,6 +97,7 @@ public class EXIficientCMD {
 
 	public static final String ENCODE = "-" + CmdOption.encode;
 	public static final String DECODE = "-" + CmdOption.decode;
+	public static final String PRECOMPILE = "-" + CmdOption.precompile;
 
 	public static final String INPUT = "-i";
 	public static final String OUTPUT = "-o";
@@ -160,11 +164,14 @@ public class EXIficientCMD {
 		ps.println();
 		ps.println(" " + ENCODE);
 		ps.println(" " + DECODE);
+		ps.println(" " + PRECOMPILE
+				+ "                      /* XSD to precompiled grammars */");
 		ps.println();
 		ps.println(" " + INPUT + " <input-file>");
 		ps.println(" " + OUTPUT + " <output-file>");
 		ps.println();
-		ps.println(" " + SCHEMA + " <schema-input-file>");
+		ps.println(" " + SCHEMA + " <schema-input-file>"
+				+ "      /* XSD or precompiled grammars */");
 		ps.println(" " + XSD_SCHEMA
 				+ "                       /* XML schema datatypes only */");
 		ps.println(" " + NO_SCHEMA + "                        /* default */");
@@ -211,6 +218,8 @@ public class EXIficientCMD {
 				+ " notebook.xml");
 		ps.println(" " + DECODE + " " + SCHEMA + " notebook.xsd " + INPUT
 				+ " notebook.xml.exi " + OUTPUT + " notebookDec.xml");
+		ps.println(" " + PRECOMPILE + " " + INPUT + " notebook.xsd " + OUTPUT
+				+ " notebook" + PrecompiledGrammars.FILE_EXTENSION);
 	}
 
 	protected static void printError(String msg) {
@@ -256,6 +265,8 @@ public class EXIficientCMD {
 				cmdOption = CmdOption.encode;
 			} else if (DECODE.equalsIgnoreCase(argument)) {
 				cmdOption = CmdOption.decode;
+			} else if (PRECOMPILE.equalsIgnoreCase(argument)) {
+				cmdOption = CmdOption.precompile;
 			}
 			// ### IO_OPTIONS
 			else if (INPUT.equalsIgnoreCase(argument)) {
@@ -496,8 +507,8 @@ public class EXIficientCMD {
 
 		if (cmdOption == null) {
 			inputParametersOK = false;
-			printError("Missing coding option such as " + ENCODE + " and "
-					+ DECODE);
+			printError("Missing coding option such as " + ENCODE + ", "
+					+ DECODE + " and " + PRECOMPILE);
 		}
 
 		if (input == null) {
@@ -514,6 +525,8 @@ public class EXIficientCMD {
 			// default output
 			if (CmdOption.encode == cmdOption) {
 				output = input + DEFAULT_EXI_FILE_EXTENSION;
+			} else if (CmdOption.precompile == cmdOption) {
+				output = input + PrecompiledGrammars.FILE_EXTENSION;
 			} else {
 				output = input + DEFAULT_XML_FILE_EXTENSION;
 			}
@@ -560,6 +573,13 @@ public class EXIficientCMD {
 			} else if (SchemaOption.xsdSchema == schemaOption) {
 				GrammarFactory gf = GrammarFactory.newInstance();
 				exiFactory.setGrammars(gf.createXSDTypesOnlyGrammars());
+			} else if (PrecompiledGrammars.isPrecompiled(schemaLocation)) {
+				try {
+					exiFactory.setGrammars(PrecompiledGrammars
+							.loadMapped(new File(schemaLocation)));
+				} catch (IOException e) {
+					throw new EXIException(e);
+				}
 			} else {
 				GrammarFactory gf = GrammarFactory.newInstance();
 				exiFactory.setGrammars(gf.createGrammars(schemaLocation));
@@ -578,6 +598,9 @@ public class EXIficientCMD {
 			case encode:
 				encode(input, exiFactory, output);
 				break;
+			case precompile:
+				precompile(input, output);
+				break;
 			default:
 				printError("Unexptected command option " + cmdOption);
 				break;
@@ -608,12 +631,12 @@ public class EXIficientCMD {
 
 	protected void decode(String input, EXIFactory exiFactory, String output)
 			throws EXIException, TransformerException, IOException {
-		OutputStream xmlOutput = new FileOutputStream(output);
+		OutputStream xmlOutput = new FileChannelOutputStream(Paths.get(output));
+		InputStream exiInput = new MappedFileInputStream(Paths.get(input));
 
 		TransformerFactory tf = TransformerFactory.newInstance();
 		Transformer transformer = tf.newTransformer();
-		SAXSource exiSource = new SAXSource(new InputSource(
-				new FileInputStream(input)));
+		SAXSource exiSource = new SAXSource(new InputSource(exiInput));
 		exiSource.setXMLReader(new SAXFactory(exiFactory).createEXIReader());
 
 		if (exiFactory.isFragment()) {
@@ -623,10 +646,16 @@ public class EXIficientCMD {
 
 		transformer.transform(exiSource, new StreamResult(xmlOutput));
 
+		exiInput.close();
 		xmlOutput.flush();
 		xmlOutput.close();
 	}
 
+	protected void precompile(String input, String output)
+			throws EXIException, IOException {
+		PrecompileGrammars.precompile(input, output);
+	}
+
 	protected XMLReader getXMLReader() throws SAXException {
 		// create xml reader
 		XMLReader xmlReader;
@@ -653,7 +682,8 @@ public class EXIficientCMD {
 
 	protected void encode(String input, EXIFactory exiFactory, String output)
 			throws SAXException, EXIException, IOException {
-		OutputStream os = new FileOutputStream(output);
+		OutputStream os = new FileChannelOutputStream(Paths.get(output));
+		InputStream xmlInput = new MappedFileInputStream(Paths.get(input));
 
 		XMLReader xmlReader = getXMLReader();
 
@@ -680,16 +710,18 @@ public class EXIficientCMD {
 			// be well-formed")
 			is = new InputSource(
 					FragmentUtilities
-							.getSurroundingRootInputStream(new FileInputStream(
-									input)));
+							.getSurroundingRootInputStream(xmlInput));
 			// skip root element when passing infoset to EXI encoder
 			xmlReader = new SkipRootElementXMLReader(xmlReader);
 		} else {
-			is = new InputSource(input);
+			is = new InputSource(xmlInput);
 		}
+		// base for relative references (e.g., DTDs)
+		is.setSystemId(new File(input).toURI().toString());
 
 		xmlReader.parse(is);
 
+		xmlInput.close();
 		os.flush();
 		os.close();
 	}
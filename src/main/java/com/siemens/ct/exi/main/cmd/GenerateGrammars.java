@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.cmd;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.grammars.SchemaInformedGrammars;
+import com.siemens.ct.exi.grammars.persistency.Grammars2JavaSourceCode;
+
+/**
+ * Generates the Java source code of a <code>Grammars</code> class for an XML
+ * Schema as part of a build (profile precompile-grammars). The generated
+ * class hard-codes grammar context, datatypes and productions, creating an
+ * instance does not parse the schema.
+ * 
+ * <p>
+ * Like {@link PrecompileGrammars} failures are propagated so that the build
+ * fails.
+ * </p>
+ * 
+ * <code>
+ * GenerateGrammars schema.xsd target/generated-sources/grammars com.example.SchemaGrammars
+ * EXIFactory.setGrammars(new com.example.SchemaGrammars());
+ * </code>
+ * 
+ * @see Grammars2JavaSourceCode
+ */
+
+public class GenerateGrammars {
+
+	public static void main(String[] args) throws EXIException, IOException {
+		if (args == null || args.length != 3) {
+			throw new IllegalArgumentException("Usage: "
+					+ GenerateGrammars.class.getName()
+					+ " <schema.xsd> <source directory> <class name>");
+		}
+		generate(args[0], args[1], args[2]);
+	}
+
+	/**
+	 * Compiles the given schema and writes the source code of the grammars
+	 * class.
+	 * 
+	 * @param xsd
+	 *            XML Schema location
+	 * @param sourceDirectory
+	 *            source root, package directories are created
+	 * @param className
+	 *            fully qualified name of the generated class (not in the
+	 *            default package)
+	 * @return generated source file
+	 * @throws EXIException
+	 *             schema cannot be compiled
+	 * @throws IOException
+	 *             no such schema file or IO failure
+	 */
+	public static File generate(String xsd, String sourceDirectory,
+			String className) throws EXIException, IOException {
+		if (className == null || className.indexOf('.') < 0
+				|| !isQualifiedName(className)) {
+			throw new IllegalArgumentException("Invalid class name "
+					+ className + ", a package is required");
+		}
+		Grammars grammars = PrecompileGrammars.createGrammars(xsd);
+		if (!(grammars instanceof SchemaInformedGrammars)) {
+			throw new EXIException("No schema-informed grammars for " + xsd);
+		}
+
+		int dot = className.lastIndexOf('.');
+		String packageName = className.substring(0, dot);
+		String simpleName = className.substring(dot + 1);
+
+		Grammars2JavaSourceCode g2j = new Grammars2JavaSourceCode(
+				(SchemaInformedGrammars) grammars);
+		g2j.setSchemaId(grammars.getSchemaId());
+		g2j.generateCode();
+		String source = g2j.getGrammars(packageName, simpleName);
+
+		File out = new File(sourceDirectory, className.replace('.',
+				File.separatorChar) + ".java");
+		PrecompileGrammars.createParentDirectory(out);
+		OutputStream os = new FileOutputStream(out);
+		try {
+			Writer w = new OutputStreamWriter(os, "UTF-8");
+			w.write(source);
+			w.flush();
+		} finally {
+			os.close();
+		}
+		return out;
+	}
+
+	static boolean isQualifiedName(String className) {
+		for (String part : className.split("\\.", -1)) {
+			if (part.length() == 0
+					|| !Character.isJavaIdentifierStart(part.charAt(0))) {
+				return false;
+			}
+			for (int i = 1; i < part.length(); i++) {
+				if (!Character.isJavaIdentifierPart(part.charAt(i))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+}
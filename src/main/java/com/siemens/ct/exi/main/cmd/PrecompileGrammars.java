@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.cmd;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+import com.siemens.ct.exi.main.helpers.PrecompiledGrammars;
+
+/**
+ * Precompiles an XML Schema into EXI grammars (see EXIficientCMD -precompile).
+ * The build profile precompile-grammars generates a grammars class instead,
+ * see {@link GenerateGrammars}.
+ * 
+ * <p>
+ * Unlike {@link EXIficientCMD}, which reports errors and returns, failures
+ * are propagated so that callers do not silently go on without grammars
+ * artifact.
+ * </p>
+ * 
+ * <code>
+ * PrecompileGrammars schema.xsd schema.exig
+ * </code>
+ */
+
+public class PrecompileGrammars {
+
+	public static void main(String[] args) throws EXIException, IOException {
+		if (args == null || args.length != 2) {
+			throw new IllegalArgumentException("Usage: "
+					+ PrecompileGrammars.class.getName()
+					+ " <schema.xsd> <grammars"
+					+ PrecompiledGrammars.FILE_EXTENSION + ">");
+		}
+		precompile(args[0], args[1]);
+	}
+
+	/**
+	 * Compiles the given schema and writes the precompiled grammars.
+	 * 
+	 * @param xsd
+	 *            XML Schema location
+	 * @param output
+	 *            precompiled grammars file, parent directories are created
+	 * @throws EXIException
+	 *             schema cannot be compiled or grammars cannot be saved
+	 * @throws IOException
+	 *             no such schema file or IO failure
+	 */
+	public static void precompile(String xsd, String output)
+			throws EXIException, IOException {
+		Grammars grammars = createGrammars(xsd);
+
+		File out = new File(output);
+		createParentDirectory(out);
+		OutputStream os = new FileOutputStream(out);
+		try {
+			PrecompiledGrammars.save(grammars, os);
+		} finally {
+			os.close();
+		}
+	}
+
+	/* compiles the schema, missing schema files fail upfront */
+	static Grammars createGrammars(String xsd) throws EXIException,
+			IOException {
+		if (xsd == null || xsd.trim().length() == 0) {
+			throw new IllegalArgumentException("No XML Schema given");
+		}
+		if (!xsd.contains(":") && !new File(xsd).isFile()) {
+			// not an URL
+			throw new FileNotFoundException("XML Schema " + xsd
+					+ " not found");
+		}
+		return GrammarFactory.newInstance().createGrammars(xsd);
+	}
+
+	static void createParentDirectory(File out) throws IOException {
+		File parentDir = out.getAbsoluteFile().getParentFile();
+		if (parentDir != null && !parentDir.isDirectory()
+				&& !parentDir.mkdirs()) {
+			throw new IOException("Output directory " + parentDir
+					+ " could not be created");
+		}
+	}
+
+}
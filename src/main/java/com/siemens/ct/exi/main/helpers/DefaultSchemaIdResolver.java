@@ -23,6 +23,9 @@
 
 package com.siemens.ct.exi.main.helpers;
 
+import java.io.File;
+import java.io.IOException;
+
 import com.siemens.ct.exi.core.EXIFactory;
 import com.siemens.ct.exi.core.SchemaIdResolver;
 import com.siemens.ct.exi.core.exceptions.EXIException;
@@ -34,7 +37,20 @@ import com.siemens.ct.exi.grammars.GrammarFactory;
  * This is the default implementation of an <code>SchemaIdResolver</code> class.
  * 
  * <p>
- * SchemaId is interpreted as file location
+ * SchemaId is interpreted as file location. Compiled grammars are kept in a
+ * {@link GrammarCache}. Resolvers of this very class share one cache by
+ * default, subclasses (which may load differently) get a cache of their
+ * own. Grammars of a schema file are reloaded once the file (not its
+ * includes or imports) is modified.
+ * </p>
+ * 
+ * <p>
+ * Locations ending with {@link PrecompiledGrammars#FILE_EXTENSION} are loaded
+ * as precompiled grammars (file or classpath resource) only if enabled with
+ * {@link #setLoadPrecompiledGrammars(boolean)}. The schemaId is taken from
+ * the header of the decoded stream and names a file or resource that is
+ * read without further checks, precompiled grammars are therefore not loaded
+ * by default.
  * </p>
  * 
  * @see EXIFactory
@@ -46,25 +62,128 @@ import com.siemens.ct.exi.grammars.GrammarFactory;
 
 public class DefaultSchemaIdResolver implements SchemaIdResolver {
 
-	// protected GrammarFactory gf;
+	/* compiled grammars shared by all unmodified default resolvers */
+	protected static final GrammarCache SHARED_GRAMMAR_CACHE = new GrammarCache();
+
+	protected final GrammarCache grammarCache;
+
+	/* whether schemaIds may name precompiled grammars */
+	protected volatile boolean loadPrecompiledGrammars;
+
+	protected final GrammarCache.GrammarsLoader loader = new GrammarCache.ModificationAwareGrammarsLoader() {
+		public Grammars load(String schemaId) throws EXIException {
+			return loadGrammars(schemaId);
+		}
+
+		public long lastModified(String schemaId) {
+			return getLastModified(schemaId);
+		}
+	};
 
+	/**
+	 * Creates a resolver using the grammar cache shared across all default
+	 * resolvers. Instances of subclasses use a cache of their own since
+	 * they may load other grammars for the same schemaId.
+	 */
 	public DefaultSchemaIdResolver() {
+		if (getClass() == DefaultSchemaIdResolver.class) {
+			this.grammarCache = SHARED_GRAMMAR_CACHE;
+		} else {
+			this.grammarCache = new GrammarCache();
+		}
+	}
+
+	/**
+	 * @param grammarCache
+	 *            cache for compiled grammars or <code>null</code> to compile
+	 *            grammars for each stream
+	 */
+	public DefaultSchemaIdResolver(GrammarCache grammarCache) {
+		this.grammarCache = grammarCache;
+	}
+
+	/**
+	 * @return the cache shared by resolvers created with the default
+	 *         constructor
+	 */
+	public static GrammarCache getSharedGrammarCache() {
+		return SHARED_GRAMMAR_CACHE;
+	}
+
+	public GrammarCache getGrammarCache() {
+		return grammarCache;
+	}
+
+	/**
+	 * Enables loading of precompiled grammars for schemaIds ending with
+	 * {@link PrecompiledGrammars#FILE_EXTENSION}. Only enable it if the
+	 * decoded streams (their schemaIds) are trusted or the named artifacts
+	 * cannot be controlled by the sender.
+	 * 
+	 * @param loadPrecompiledGrammars
+	 *            whether precompiled grammars are loaded, disabled by default
+	 */
+	public void setLoadPrecompiledGrammars(boolean loadPrecompiledGrammars) {
+		this.loadPrecompiledGrammars = loadPrecompiledGrammars;
+	}
 
+	public boolean isLoadPrecompiledGrammars() {
+		return loadPrecompiledGrammars;
 	}
 
 	protected GrammarFactory getGrammarFactory() {
+		// GrammarFactory is not thread-safe, compiled grammars are cached
 		return GrammarFactory.newInstance();
-		// if (gf == null) {
-		// gf = GrammarFactory.newInstance();
-		// }
-		// return gf;
 	}
 
 	public Grammars resolveSchemaId(String schemaId) throws EXIException {
 		if (schemaId == null) {
 			return getGrammarFactory().createSchemaLessGrammars();
-		} else if ("".equals(schemaId)) {
+		} else if (!loadPrecompiledGrammars
+				&& PrecompiledGrammars.isPrecompiled(schemaId)) {
+			// checked before the (shared) cache is consulted, resolvers
+			// not loading precompiled grammars never see cached ones
+			throw new EXIException(this.getClass().getName()
+					+ " does not load precompiled grammars, schemaId == "
+					+ schemaId);
+		} else if (grammarCache == null) {
+			return loadGrammars(schemaId);
+		} else {
+			return grammarCache.get(schemaId, loader);
+		}
+	}
+
+	/**
+	 * Returns the modification time of the schema, cached grammars are
+	 * reloaded once it changes.
+	 * 
+	 * @param schemaId
+	 *            schema identifier
+	 * @return modification time of a schema file, 0 otherwise
+	 */
+	protected long getLastModified(String schemaId) {
+		if ("".equals(schemaId)) {
+			return 0L;
+		}
+		File f = new File(schemaId);
+		return f.isFile() ? f.lastModified() : 0L;
+	}
+
+	protected Grammars loadGrammars(String schemaId) throws EXIException {
+		if ("".equals(schemaId)) {
 			return getGrammarFactory().createXSDTypesOnlyGrammars();
+		} else if (PrecompiledGrammars.isPrecompiled(schemaId)) {
+			try {
+				File f = new File(schemaId);
+				if (f.isFile()) {
+					return PrecompiledGrammars.loadMapped(f);
+				} else {
+					return PrecompiledGrammars.loadResource(schemaId);
+				}
+			} catch (IOException e) {
+				throw new EXIException(this.getClass().getName()
+						+ " failed to retrieve schemaId == " + schemaId, e);
+			}
 		} else {
 			// interpret schemaId as location
 			try {
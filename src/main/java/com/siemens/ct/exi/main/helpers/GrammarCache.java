@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.helpers;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+
+/**
+ * Thread-safe cache of compiled <code>Grammars</code> keyed by schemaId.
+ * 
+ * <p>
+ * Concurrent requests for an identifier that is not cached yet are
+ * single-flight: one caller loads the grammars while all others wait for
+ * its result. Failed loads are not cached. Entries are evicted when the
+ * cache exceeds its maximum size (least recently used first), when they
+ * are older than the configured time to live or, for a
+ * {@link ModificationAwareGrammarsLoader}, when the schema was modified
+ * since loading.
+ * </p>
+ */
+
+public class GrammarCache {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 64;
+
+	/**
+	 * Compiles grammars for a schemaId on a cache miss.
+	 */
+	public interface GrammarsLoader {
+		Grammars load(String schemaId) throws EXIException;
+	}
+
+	/**
+	 * Loader that reports modifications of the schema behind a schemaId.
+	 * Cached grammars are reloaded once the modification time differs from
+	 * the one seen when loading.
+	 */
+	public interface ModificationAwareGrammarsLoader extends GrammarsLoader {
+		/**
+		 * @param schemaId
+		 *            schema identifier
+		 * @return modification time of the schema, 0 if unknown
+		 */
+		long lastModified(String schemaId);
+	}
+
+	static final class Entry {
+		final CountDownLatch loaded = new CountDownLatch(1);
+		Grammars grammars;
+		EXIException failure;
+		/* schema modification time seen before loading */
+		long lastModified;
+		/* set once loaded */
+		volatile long loadedAt;
+		volatile long lastAccess;
+
+		boolean isLoaded() {
+			return loaded.getCount() == 0;
+		}
+
+		Grammars get() throws EXIException {
+			boolean interrupted = false;
+			while (loaded.getCount() > 0) {
+				try {
+					loaded.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return grammars;
+		}
+	}
+
+	protected final ConcurrentMap<String, Entry> entries;
+
+	protected volatile int maximumSize;
+	protected volatile long timeToLiveNanos;
+
+	/* statistics */
+	protected final AtomicLong hitCount = new AtomicLong();
+	protected final AtomicLong missCount = new AtomicLong();
+	protected final AtomicLong loadFailureCount = new AtomicLong();
+	protected final AtomicLong totalLoadTime = new AtomicLong();
+	protected final AtomicLong evictionCount = new AtomicLong();
+
+	public GrammarCache() {
+		this(DEFAULT_MAXIMUM_SIZE, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param maximumSize
+	 *            maximum number of cached grammars
+	 * @param timeToLive
+	 *            time after loading an entry is evicted, 0 for no limit
+	 * @param unit
+	 *            time unit of <code>timeToLive</code>
+	 */
+	public GrammarCache(int maximumSize, long timeToLive, TimeUnit unit) {
+		this.entries = new ConcurrentHashMap<String, Entry>();
+		setMaximumSize(maximumSize);
+		setTimeToLive(timeToLive, unit);
+	}
+
+	public void setMaximumSize(int maximumSize) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException(
+					"Maximum size must be positive");
+		}
+		this.maximumSize = maximumSize;
+		evict(currentTimeNanos());
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Sets the time after loading an entry is evicted.
+	 * 
+	 * @param timeToLive
+	 *            duration, 0 for no limit
+	 * @param unit
+	 *            time unit
+	 */
+	public void setTimeToLive(long timeToLive, TimeUnit unit) {
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException("Negative time to live");
+		}
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+	}
+
+	public long getTimeToLive(TimeUnit unit) {
+		return unit.convert(timeToLiveNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the cached grammars for the given schemaId or loads them.
+	 * 
+	 * @param schemaId
+	 *            schema identifier
+	 * @param loader
+	 *            used on cache miss
+	 * @return grammars
+	 * @throws EXIException
+	 *             loading failed
+	 */
+	public Grammars get(String schemaId, GrammarsLoader loader)
+			throws EXIException {
+		long now = currentTimeNanos();
+		for (;;) {
+			Entry e = entries.get(schemaId);
+			if (e == null) {
+				Entry ne = new Entry();
+				e = entries.putIfAbsent(schemaId, ne);
+				if (e == null) {
+					missCount.incrementAndGet();
+					load(schemaId, ne, loader);
+					evict(now);
+					return ne.get();
+				}
+			}
+			if (isExpired(e, now) || isModified(schemaId, e, loader)) {
+				if (entries.remove(schemaId, e)) {
+					evictionCount.incrementAndGet();
+				}
+				continue;
+			}
+
+			e.lastAccess = now;
+			Grammars g;
+			try {
+				g = e.get();
+			} catch (EXIException ex) {
+				// waited for a concurrent load that failed
+				loadFailureCount.incrementAndGet();
+				throw ex;
+			}
+			hitCount.incrementAndGet();
+			return g;
+		}
+	}
+
+	protected void load(String schemaId, Entry e, GrammarsLoader loader)
+			throws EXIException {
+		long start = System.nanoTime();
+		try {
+			// before loading, a modification while loading causes a reload
+			e.lastModified = lastModified(schemaId, loader);
+			e.grammars = loader.load(schemaId);
+		} catch (EXIException ex) {
+			e.failure = ex;
+		} catch (RuntimeException ex) {
+			e.failure = new EXIException(
+					"Failed to load grammars for schemaId == " + schemaId, ex);
+		} catch (Error err) {
+			e.failure = new EXIException(
+					"Failed to load grammars for schemaId == " + schemaId);
+			throw err;
+		} finally {
+			totalLoadTime.addAndGet(System.nanoTime() - start);
+			if (e.failure != null) {
+				loadFailureCount.incrementAndGet();
+				entries.remove(schemaId, e);
+			}
+			long now = currentTimeNanos();
+			e.loadedAt = now;
+			e.lastAccess = now;
+			e.loaded.countDown();
+		}
+	}
+
+	protected boolean isExpired(Entry e, long now) {
+		long ttl = timeToLiveNanos;
+		return ttl > 0 && e.isLoaded() && now - e.loadedAt >= ttl;
+	}
+
+	protected boolean isModified(String schemaId, Entry e,
+			GrammarsLoader loader) {
+		return loader instanceof ModificationAwareGrammarsLoader
+				&& e.isLoaded()
+				&& e.lastModified != lastModified(schemaId, loader);
+	}
+
+	protected static long lastModified(String schemaId, GrammarsLoader loader) {
+		if (loader instanceof ModificationAwareGrammarsLoader) {
+			return ((ModificationAwareGrammarsLoader) loader)
+					.lastModified(schemaId);
+		}
+		return 0L;
+	}
+
+	/*
+	 * Removes expired entries and, while the cache is too large, the least
+	 * recently used loaded entry.
+	 */
+	protected void evict(long now) {
+		Iterator<Map.Entry<String, Entry>> iter = entries.entrySet()
+				.iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, Entry> me = iter.next();
+			if (isExpired(me.getValue(), now)
+					&& entries.remove(me.getKey(), me.getValue())) {
+				evictionCount.incrementAndGet();
+			}
+		}
+
+		while (entries.size() > maximumSize) {
+			Map.Entry<String, Entry> lru = null;
+			for (Map.Entry<String, Entry> me : entries.entrySet()) {
+				Entry e = me.getValue();
+				if (e.isLoaded()
+						&& (lru == null || e.lastAccess < lru.getValue()
+								.lastAccess)) {
+					lru = me;
+				}
+			}
+			if (lru == null) {
+				// all entries are still loading
+				return;
+			}
+			if (entries.remove(lru.getKey(), lru.getValue())) {
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Removes the grammars for the given schemaId, if cached.
+	 * 
+	 * @param schemaId
+	 *            schema identifier
+	 */
+	public void invalidate(String schemaId) {
+		entries.remove(schemaId);
+	}
+
+	public void invalidateAll() {
+		entries.clear();
+	}
+
+	/**
+	 * @return number of cached (or loading) entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of requests served without loading, including requests
+	 *         that waited for a successful concurrent load of the same
+	 *         schemaId
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return number of requests that loaded grammars
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return number of requests that failed because loading failed,
+	 *         including requests that waited for the failed load
+	 */
+	public long getLoadFailureCount() {
+		return loadFailureCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @param unit
+	 *            time unit
+	 * @return accumulated time spent loading grammars
+	 */
+	public long getTotalLoadTime(TimeUnit unit) {
+		return unit.convert(totalLoadTime.get(), TimeUnit.NANOSECONDS);
+	}
+
+	public void resetStatistics() {
+		hitCount.set(0);
+		missCount.set(0);
+		loadFailureCount.set(0);
+		totalLoadTime.set(0);
+		evictionCount.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "GrammarCache[size=" + size() + ", hits=" + getHitCount()
+				+ ", misses=" + getMissCount() + ", loadFailures="
+				+ getLoadFailureCount() + ", evictions=" + getEvictionCount()
+				+ ", loadTimeMs=" + getTotalLoadTime(TimeUnit.MILLISECONDS)
+				+ "]";
+	}
+
+	/*
+	 * Time source, may be overridden (e.g., for testing)
+	 */
+	protected long currentTimeNanos() {
+		return System.nanoTime();
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.grammars.SchemaInformedGrammars;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+
+/**
+ * Saves and loads compiled <code>Grammars</code> (grammar graph,
+ * <code>QNameContext</code> tables and datatypes) so that schemas do not
+ * need to be compiled from XSD at every start.
+ * 
+ * <p>
+ * The artifact consists of a short header (magic bytes and format version)
+ * followed by an explicit binary encoding of the grammar context, the
+ * datatypes, the events and the productions of schema-informed grammars.
+ * Loading does not use Java deserialization, only grammar, event and
+ * datatype classes of EXIficient are created.
+ * </p>
+ * 
+ * <code>
+ * PrecompiledGrammars.save(GrammarFactory.newInstance().createGrammars("schema.xsd"), os);
+ * Grammars g = PrecompiledGrammars.load(is);
+ * </code>
+ */
+
+public class PrecompiledGrammars {
+
+	public static final String FILE_EXTENSION = ".exig";
+
+	public static final int FORMAT_VERSION = 2;
+
+	static final byte[] MAGIC = { 'E', 'X', 'I', 'G' };
+
+	/**
+	 * Writes the given grammars to the output stream. The stream is flushed
+	 * but not closed.
+	 * 
+	 * @param grammars
+	 *            compiled grammars
+	 * @param os
+	 *            output stream
+	 * @throws IOException
+	 *             IO failure
+	 * @throws EXIException
+	 *             grammars are not schema-informed or contain unsupported
+	 *             grammars, events or datatypes
+	 */
+	public static void save(Grammars grammars, OutputStream os)
+			throws IOException, EXIException {
+		if (!(grammars instanceof SchemaInformedGrammars)) {
+			throw new EXIException(
+					"Only schema-informed grammars can be precompiled");
+		}
+
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+				os));
+		dos.write(MAGIC);
+		dos.writeInt(FORMAT_VERSION);
+		new PrecompiledGrammarsWriter((SchemaInformedGrammars) grammars, dos)
+				.write();
+		dos.flush();
+	}
+
+	/**
+	 * Reads grammars written by {@link #save(Grammars, OutputStream)}.
+	 * 
+	 * @param is
+	 *            input stream
+	 * @return grammars
+	 * @throws IOException
+	 *             IO failure
+	 * @throws EXIException
+	 *             no (compatible) precompiled grammars
+	 */
+	public static Grammars load(InputStream is) throws IOException,
+			EXIException {
+		if (!(is instanceof BufferedInputStream)
+				&& !(is instanceof ByteBufferInputStream)) {
+			is = new BufferedInputStream(is);
+		}
+		DataInputStream dis = new DataInputStream(is);
+
+		byte[] magic = new byte[MAGIC.length];
+		dis.readFully(magic);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (magic[i] != MAGIC[i]) {
+				throw new EXIException("No precompiled grammars");
+			}
+		}
+		int version = dis.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new EXIException("Unsupported precompiled grammars version "
+					+ version);
+		}
+
+		return new PrecompiledGrammarsReader(dis).read();
+	}
+
+	/**
+	 * Loads precompiled grammars from a memory-mapped file. Compared to
+	 * stream based loading the file content is read through the page cache
+	 * without intermediate copies.
+	 * 
+	 * @param file
+	 *            precompiled grammars file
+	 * @return grammars
+	 * @throws IOException
+	 *             IO failure
+	 * @throws EXIException
+	 *             no (compatible) precompiled grammars
+	 */
+	public static Grammars loadMapped(File file) throws IOException,
+			EXIException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0,
+					fc.size());
+			return load(new ByteBufferInputStream(mbb));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Loads precompiled grammars from the classpath, e.g., an artifact
+	 * created at build time.
+	 * 
+	 * @param name
+	 *            resource name
+	 * @return grammars
+	 * @throws IOException
+	 *             IO failure
+	 * @throws EXIException
+	 *             no such resource or no (compatible) precompiled grammars
+	 */
+	public static Grammars loadResource(String name) throws IOException,
+			EXIException {
+		ClassLoader cl = Thread.currentThread().getContextClassLoader();
+		if (cl == null) {
+			cl = PrecompiledGrammars.class.getClassLoader();
+		}
+		InputStream is = cl.getResourceAsStream(name);
+		if (is == null) {
+			throw new EXIException("No precompiled grammars resource "
+					+ name);
+		}
+		try {
+			return load(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * @param location
+	 *            schema location
+	 * @return whether the location names precompiled grammars
+	 */
+	public static boolean isPrecompiled(String location) {
+		return location != null && location.endsWith(FILE_EXTENSION);
+	}
+
+}
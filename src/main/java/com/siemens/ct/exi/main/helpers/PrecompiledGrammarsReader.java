@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.helpers;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import com.siemens.ct.exi.core.context.GrammarContext;
+import com.siemens.ct.exi.core.context.GrammarUriContext;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.datatype.BinaryBase64Datatype;
+import com.siemens.ct.exi.core.datatype.BinaryHexDatatype;
+import com.siemens.ct.exi.core.datatype.BooleanDatatype;
+import com.siemens.ct.exi.core.datatype.BooleanFacetDatatype;
+import com.siemens.ct.exi.core.datatype.Datatype;
+import com.siemens.ct.exi.core.datatype.DatetimeDatatype;
+import com.siemens.ct.exi.core.datatype.DecimalDatatype;
+import com.siemens.ct.exi.core.datatype.EnumDatatype;
+import com.siemens.ct.exi.core.datatype.EnumerationDatatype;
+import com.siemens.ct.exi.core.datatype.ExtendedStringDatatype;
+import com.siemens.ct.exi.core.datatype.FloatDatatype;
+import com.siemens.ct.exi.core.datatype.IntegerDatatype;
+import com.siemens.ct.exi.core.datatype.ListDatatype;
+import com.siemens.ct.exi.core.datatype.NBitUnsignedIntegerDatatype;
+import com.siemens.ct.exi.core.datatype.RestrictedCharacterSetDatatype;
+import com.siemens.ct.exi.core.datatype.StringDatatype;
+import com.siemens.ct.exi.core.datatype.UnsignedIntegerDatatype;
+import com.siemens.ct.exi.core.datatype.WhiteSpace;
+import com.siemens.ct.exi.core.datatype.charset.CodePointCharacterSet;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.SchemaInformedGrammars;
+import com.siemens.ct.exi.core.grammars.event.Attribute;
+import com.siemens.ct.exi.core.grammars.event.AttributeGeneric;
+import com.siemens.ct.exi.core.grammars.event.AttributeNS;
+import com.siemens.ct.exi.core.grammars.event.Characters;
+import com.siemens.ct.exi.core.grammars.event.CharactersGeneric;
+import com.siemens.ct.exi.core.grammars.event.EndDocument;
+import com.siemens.ct.exi.core.grammars.event.EndElement;
+import com.siemens.ct.exi.core.grammars.event.Event;
+import com.siemens.ct.exi.core.grammars.event.EventType;
+import com.siemens.ct.exi.core.grammars.event.StartDocument;
+import com.siemens.ct.exi.core.grammars.event.StartElement;
+import com.siemens.ct.exi.core.grammars.event.StartElementGeneric;
+import com.siemens.ct.exi.core.grammars.event.StartElementNS;
+import com.siemens.ct.exi.core.grammars.grammar.DocEnd;
+import com.siemens.ct.exi.core.grammars.grammar.Document;
+import com.siemens.ct.exi.core.grammars.grammar.Fragment;
+import com.siemens.ct.exi.core.grammars.grammar.Grammar;
+import com.siemens.ct.exi.core.grammars.grammar.GrammarType;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedDocContent;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedElement;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedFirstStartTag;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedFirstStartTagGrammar;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedFragmentContent;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedGrammar;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedStartTag;
+import com.siemens.ct.exi.core.types.BuiltIn;
+import com.siemens.ct.exi.core.types.BuiltInType;
+import com.siemens.ct.exi.core.types.DateTimeType;
+import com.siemens.ct.exi.core.values.BinaryBase64Value;
+import com.siemens.ct.exi.core.values.BinaryHexValue;
+import com.siemens.ct.exi.core.values.BooleanValue;
+import com.siemens.ct.exi.core.values.DateTimeValue;
+import com.siemens.ct.exi.core.values.DecimalValue;
+import com.siemens.ct.exi.core.values.FloatValue;
+import com.siemens.ct.exi.core.values.IntegerValue;
+import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.core.values.ValueType;
+
+/**
+ * Reads schema-informed grammars written by
+ * {@link PrecompiledGrammarsWriter}. Only EXIficient grammar, event and
+ * datatype classes are instantiated, unknown types and dangling references
+ * fail with an <code>EXIException</code>.
+ */
+
+class PrecompiledGrammarsReader {
+
+	protected final DataInputStream dis;
+
+	protected GrammarContext gc;
+	protected Grammar[] grammars;
+	protected Datatype[] datatypes;
+	protected Event[] events;
+
+	PrecompiledGrammarsReader(DataInputStream dis) {
+		this.dis = dis;
+	}
+
+	SchemaInformedGrammars read() throws IOException, EXIException {
+		boolean builtInXMLSchemaTypesOnly = dis.readBoolean();
+		String schemaId = readString();
+
+		// qname contexts
+		GrammarUriContext[] gucs = new GrammarUriContext[readSize()];
+		int numberOfQNames = 0;
+		for (int i = 0; i < gucs.length; i++) {
+			String namespaceUri = readString();
+			String[] prefixes = new String[readSize()];
+			for (int k = 0; k < prefixes.length; k++) {
+				prefixes[k] = readString();
+			}
+			QNameContext[] qncs = new QNameContext[readSize()];
+			for (int k = 0; k < qncs.length; k++) {
+				qncs[k] = new QNameContext(i, k, new QName(namespaceUri,
+						readString()));
+			}
+			numberOfQNames += qncs.length;
+			gucs[i] = new GrammarUriContext(i, namespaceUri, qncs, prefixes);
+		}
+		gc = new GrammarContext(gucs, numberOfQNames);
+
+		// grammars
+		grammars = new Grammar[readSize()];
+		for (int i = 0; i < grammars.length; i++) {
+			grammars[i] = readGrammar();
+		}
+
+		// datatypes
+		datatypes = new Datatype[readSize()];
+		for (int i = 0; i < datatypes.length; i++) {
+			datatypes[i] = readDatatype(i);
+		}
+		for (int i = 0; i < datatypes.length; i++) {
+			datatypes[i].setBaseDatatype(getDatatype(dis.readInt(),
+					datatypes.length));
+			Datatype enumDT = getDatatype(dis.readInt(), datatypes.length);
+			if (enumDT != null && !(enumDT instanceof EnumDatatype)) {
+				throw new EXIException("Unexpected grammar enumeration "
+						+ enumDT);
+			}
+			datatypes[i].setGrammarEnumeration((EnumDatatype) enumDT);
+		}
+
+		// events
+		events = new Event[readSize()];
+		for (int i = 0; i < events.length; i++) {
+			events[i] = readEvent();
+		}
+
+		// productions
+		for (Grammar g : grammars) {
+			if (g instanceof SchemaInformedStartTag) {
+				((SchemaInformedStartTag) g)
+						.setElementContentGrammar(getGrammar(dis.readInt()));
+			}
+			int n = readSize();
+			for (int k = 0; k < n; k++) {
+				Event ev = getEvent(dis.readInt());
+				if (ev == null) {
+					throw new EXIException("Production without event");
+				}
+				int next = dis.readInt();
+				if (next == PrecompiledGrammarsWriter.END_GRAMMAR) {
+					if (!(g instanceof SchemaInformedGrammar)
+							|| !(ev.isEventType(EventType.END_ELEMENT) || ev
+									.isEventType(EventType.END_DOCUMENT))) {
+						throw new EXIException("Unexpected terminal "
+								+ "production " + ev);
+					}
+					((SchemaInformedGrammar) g).addTerminalProduction(ev);
+				} else {
+					g.addProduction(ev, getGrammar(next));
+				}
+			}
+		}
+
+		// global elements, attributes and types
+		for (GrammarUriContext guc : gucs) {
+			for (int k = 0; k < guc.getNumberOfQNames(); k++) {
+				QNameContext qnc = guc.getQNameContext(k);
+				Event se = getEvent(dis.readInt());
+				if (se != null) {
+					qnc.setGlobalStartElement(cast(se, StartElement.class));
+				}
+				Event at = getEvent(dis.readInt());
+				if (at != null) {
+					qnc.setGlobalAttribute(cast(at, Attribute.class));
+				}
+				Grammar type = getGrammar(dis.readInt());
+				if (type != null) {
+					qnc.setTypeGrammar(cast(type,
+							SchemaInformedFirstStartTagGrammar.class));
+				}
+			}
+		}
+
+		Document document = cast(getGrammar(dis.readInt()), Document.class);
+		Fragment fragment = cast(getGrammar(dis.readInt()), Fragment.class);
+		SchemaInformedGrammar elementFragment = cast(
+				getGrammar(dis.readInt()), SchemaInformedGrammar.class);
+
+		SchemaInformedGrammars sig = new SchemaInformedGrammars(gc, document,
+				fragment, elementFragment);
+		// setting the types-only flag resets the schemaId to ""
+		if (builtInXMLSchemaTypesOnly || "".equals(schemaId)) {
+			sig.setBuiltInXMLSchemaTypesOnly(builtInXMLSchemaTypesOnly);
+		} else if (schemaId != null) {
+			sig.setSchemaId(schemaId);
+		}
+		return sig;
+	}
+
+	protected Grammar readGrammar() throws IOException, EXIException {
+		GrammarType type = readEnum(GrammarType.values());
+		switch (type) {
+		case DOCUMENT:
+			return new Document();
+		case SCHEMA_INFORMED_DOC_CONTENT:
+			return new SchemaInformedDocContent();
+		case DOC_END:
+			return new DocEnd();
+		case FRAGMENT:
+			return new Fragment();
+		case SCHEMA_INFORMED_FRAGMENT_CONTENT:
+			return new SchemaInformedFragmentContent();
+		case SCHEMA_INFORMED_FIRST_START_TAG_CONTENT:
+			SchemaInformedFirstStartTag fst = new SchemaInformedFirstStartTag();
+			fst.setTypeCastable(dis.readBoolean());
+			fst.setNillable(dis.readBoolean());
+			return fst;
+		case SCHEMA_INFORMED_START_TAG_CONTENT:
+			return new SchemaInformedStartTag();
+		case SCHEMA_INFORMED_ELEMENT_CONTENT:
+			return new SchemaInformedElement();
+		default:
+			throw new EXIException("Unsupported grammar type " + type);
+		}
+	}
+
+	/* constructor datatypes precede the datatype at index i */
+	protected Datatype readDatatype(int i) throws IOException, EXIException {
+		BuiltInType type = readEnum(BuiltInType.values());
+		QNameContext schemaType = readQNameContext();
+		WhiteSpace whiteSpace = readEnum(WhiteSpace.values());
+		switch (type) {
+		case BINARY_BASE64:
+			return new BinaryBase64Datatype(schemaType);
+		case BINARY_HEX:
+			return new BinaryHexDatatype(schemaType);
+		case BOOLEAN:
+			return new BooleanDatatype(schemaType);
+		case BOOLEAN_FACET:
+			return new BooleanFacetDatatype(schemaType);
+		case DECIMAL:
+			return new DecimalDatatype(schemaType);
+		case FLOAT:
+			return new FloatDatatype(schemaType);
+		case UNSIGNED_INTEGER:
+			return new UnsignedIntegerDatatype(schemaType);
+		case INTEGER:
+			return new IntegerDatatype(schemaType);
+		case NBIT_UNSIGNED_INTEGER:
+			IntegerValue lowerBound = readInteger();
+			IntegerValue upperBound = readInteger();
+			return new NBitUnsignedIntegerDatatype(lowerBound, upperBound,
+					schemaType);
+		case DATETIME:
+			return new DatetimeDatatype(readEnum(DateTimeType.values()),
+					schemaType);
+		case STRING:
+			if (dis.readBoolean()) {
+				return new StringDatatype(schemaType, true);
+			} else {
+				return new StringDatatype(schemaType, whiteSpace);
+			}
+		case EXTENDED_STRING:
+			return new ExtendedStringDatatype(schemaType, whiteSpace);
+		case RCS_STRING:
+			int size = readSize();
+			Set<Integer> codePoints = new HashSet<Integer>();
+			for (int k = 0; k < size; k++) {
+				codePoints.add(dis.readInt());
+			}
+			return new RestrictedCharacterSetDatatype(
+					new CodePointCharacterSet(codePoints), schemaType,
+					whiteSpace);
+		case ENUMERATION:
+			Datatype dtEnumValues = getDatatype(dis.readInt(), i);
+			Value[] enumValues = new Value[readSize()];
+			for (int k = 0; k < enumValues.length; k++) {
+				enumValues[k] = readValue();
+			}
+			return new EnumerationDatatype(enumValues, dtEnumValues,
+					schemaType);
+		case LIST:
+			return new ListDatatype(getDatatype(dis.readInt(), i), schemaType);
+		default:
+			throw new EXIException("Unsupported datatype " + type);
+		}
+	}
+
+	protected Value readValue() throws IOException, EXIException {
+		ValueType type = readEnum(ValueType.values());
+		switch (type) {
+		case BINARY_BASE64:
+			return new BinaryBase64Value(readBytes());
+		case BINARY_HEX:
+			return new BinaryHexValue(readBytes());
+		case BOOLEAN:
+			return dis.readBoolean() ? BooleanValue.BOOLEAN_VALUE_TRUE
+					: BooleanValue.BOOLEAN_VALUE_FALSE;
+		case DECIMAL:
+			boolean negative = dis.readBoolean();
+			IntegerValue integral = readInteger();
+			IntegerValue revFractional = readInteger();
+			return new DecimalValue(negative, integral, revFractional);
+		case FLOAT:
+			IntegerValue mantissa = readInteger();
+			IntegerValue exponent = readInteger();
+			return new FloatValue(mantissa, exponent);
+		case INTEGER:
+			return readInteger();
+		case DATETIME:
+			DateTimeType dateType = readEnum(DateTimeType.values());
+			int year = dis.readInt();
+			int monthDay = dis.readInt();
+			int time = dis.readInt();
+			int fractionalSecs = dis.readInt();
+			boolean presenceTimezone = dis.readBoolean();
+			int timezone = dis.readInt();
+			return new DateTimeValue(dateType, year, monthDay, time,
+					fractionalSecs, presenceTimezone, timezone);
+		case STRING:
+			return new StringValue(readString());
+		default:
+			throw new EXIException("Unsupported enumeration value " + type);
+		}
+	}
+
+	protected Event readEvent() throws IOException, EXIException {
+		EventType type = readEnum(EventType.values());
+		switch (type) {
+		case START_DOCUMENT:
+			return new StartDocument();
+		case END_DOCUMENT:
+			return new EndDocument();
+		case START_ELEMENT:
+			QNameContext qncSE = readQNameContext();
+			return new StartElement(qncSE, getGrammar(dis.readInt()));
+		case START_ELEMENT_NS:
+			int seUriID = dis.readInt();
+			return new StartElementNS(seUriID, readString());
+		case START_ELEMENT_GENERIC:
+			return new StartElementGeneric();
+		case END_ELEMENT:
+			return new EndElement();
+		case ATTRIBUTE:
+			QNameContext qncAT = readQNameContext();
+			return new Attribute(qncAT, getDatatype(dis.readInt(),
+					datatypes.length));
+		case ATTRIBUTE_NS:
+			int atUriID = dis.readInt();
+			return new AttributeNS(atUriID, readString());
+		case ATTRIBUTE_GENERIC:
+			return new AttributeGeneric();
+		case CHARACTERS:
+			return new Characters(getDatatype(dis.readInt(), datatypes.length));
+		case CHARACTERS_GENERIC:
+			return new CharactersGeneric();
+		default:
+			throw new EXIException("Unsupported event " + type);
+		}
+	}
+
+	protected QNameContext readQNameContext() throws IOException,
+			EXIException {
+		int kind = dis.readUnsignedByte();
+		if (kind == PrecompiledGrammarsWriter.QNAME_NONE) {
+			return null;
+		}
+		int uriID = dis.readInt();
+		int localNameID = dis.readInt();
+		if (kind == PrecompiledGrammarsWriter.QNAME_BY_ID) {
+			if (uriID < 0 || uriID >= gc.getNumberOfGrammarUriContexts()
+					|| localNameID < 0) {
+				throw new EXIException("Unknown qname " + uriID + ":"
+						+ localNameID);
+			}
+			QNameContext qnc = gc.getGrammarUriContext(uriID).getQNameContext(
+					localNameID);
+			if (qnc == null) {
+				throw new EXIException("Unknown qname " + uriID + ":"
+						+ localNameID);
+			}
+			return qnc;
+		} else if (kind == PrecompiledGrammarsWriter.QNAME_BY_NAME) {
+			String namespaceUri = readString();
+			String localName = readString();
+			return new QNameContext(uriID, localNameID, new QName(
+					namespaceUri, localName));
+		} else {
+			throw new EXIException("Unknown qname kind " + kind);
+		}
+	}
+
+	protected Grammar getGrammar(int id) throws EXIException {
+		if (id == PrecompiledGrammarsWriter.NONE) {
+			return null;
+		}
+		if (id < 0 || id >= grammars.length) {
+			throw new EXIException("Unknown grammar " + id);
+		}
+		return grammars[id];
+	}
+
+	protected Event getEvent(int id) throws EXIException {
+		if (id == PrecompiledGrammarsWriter.NONE) {
+			return null;
+		}
+		if (id < 0 || id >= events.length) {
+			throw new EXIException("Unknown event " + id);
+		}
+		return events[id];
+	}
+
+	/* only datatypes below the given limit are known */
+	protected Datatype getDatatype(int id, int limit) throws EXIException {
+		if (id == PrecompiledGrammarsWriter.NONE) {
+			return null;
+		} else if (id == PrecompiledGrammarsWriter.DEFAULT_DATATYPE) {
+			return BuiltIn.getDefaultDatatype();
+		}
+		if (id < 0 || id >= limit || datatypes[id] == null) {
+			throw new EXIException("Unknown datatype " + id);
+		}
+		return datatypes[id];
+	}
+
+	protected static <T> T cast(Object o, Class<T> c) throws EXIException {
+		if (o != null && !c.isInstance(o)) {
+			throw new EXIException("Unexpected " + o + ", expected "
+					+ c.getSimpleName());
+		}
+		return c.cast(o);
+	}
+
+	protected <E extends Enum<E>> E readEnum(E[] values) throws IOException,
+			EXIException {
+		int ordinal = dis.readUnsignedByte();
+		if (ordinal >= values.length) {
+			throw new EXIException("Unknown "
+					+ values.getClass().getComponentType().getSimpleName()
+					+ " " + ordinal);
+		}
+		return values[ordinal];
+	}
+
+	protected IntegerValue readInteger() throws IOException, EXIException {
+		String s = readString();
+		try {
+			return IntegerValue.valueOf(new BigInteger(s));
+		} catch (NumberFormatException e) {
+			throw new EXIException("Malformed integer " + s, e);
+		}
+	}
+
+	protected int readSize() throws IOException, EXIException {
+		int size = dis.readInt();
+		if (size < 0) {
+			throw new EXIException("Malformed size " + size);
+		}
+		return size;
+	}
+
+	protected byte[] readBytes() throws IOException, EXIException {
+		byte[] bytes = new byte[readSize()];
+		dis.readFully(bytes);
+		return bytes;
+	}
+
+	protected String readString() throws IOException, EXIException {
+		int len = dis.readInt();
+		if (len == PrecompiledGrammarsWriter.NONE) {
+			return null;
+		} else if (len < 0) {
+			throw new EXIException("Malformed string length " + len);
+		}
+		byte[] bytes = new byte[len];
+		dis.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+}
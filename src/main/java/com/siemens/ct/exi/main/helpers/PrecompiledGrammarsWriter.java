@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.helpers;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.siemens.ct.exi.core.context.GrammarContext;
+import com.siemens.ct.exi.core.context.GrammarUriContext;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.datatype.Datatype;
+import com.siemens.ct.exi.core.datatype.DatetimeDatatype;
+import com.siemens.ct.exi.core.datatype.EnumerationDatatype;
+import com.siemens.ct.exi.core.datatype.ListDatatype;
+import com.siemens.ct.exi.core.datatype.NBitUnsignedIntegerDatatype;
+import com.siemens.ct.exi.core.datatype.RestrictedCharacterSetDatatype;
+import com.siemens.ct.exi.core.datatype.StringDatatype;
+import com.siemens.ct.exi.core.datatype.charset.RestrictedCharacterSet;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.SchemaInformedGrammars;
+import com.siemens.ct.exi.core.grammars.event.Attribute;
+import com.siemens.ct.exi.core.grammars.event.AttributeNS;
+import com.siemens.ct.exi.core.grammars.event.DatatypeEvent;
+import com.siemens.ct.exi.core.grammars.event.EndElement;
+import com.siemens.ct.exi.core.grammars.event.Event;
+import com.siemens.ct.exi.core.grammars.event.StartElement;
+import com.siemens.ct.exi.core.grammars.event.StartElementNS;
+import com.siemens.ct.exi.core.grammars.grammar.Grammar;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedElement;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedFirstStartTagGrammar;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedStartTag;
+import com.siemens.ct.exi.core.grammars.production.Production;
+import com.siemens.ct.exi.core.types.BuiltIn;
+import com.siemens.ct.exi.core.values.AbstractBinaryValue;
+import com.siemens.ct.exi.core.values.BooleanValue;
+import com.siemens.ct.exi.core.values.DateTimeValue;
+import com.siemens.ct.exi.core.values.DecimalValue;
+import com.siemens.ct.exi.core.values.FloatValue;
+import com.siemens.ct.exi.core.values.IntegerValue;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Writes schema-informed grammars in the precompiled grammars format, see
+ * {@link PrecompiledGrammarsReader} for the counterpart.
+ *
+ * <p>
+ * Grammars, events and datatypes are numbered in the order they are reached
+ * and referenced by number, so shared instances (e.g., global elements that
+ * are used in many productions) stay shared after loading.
+ * </p>
+ */
+
+class PrecompiledGrammarsWriter {
+
+	/* no grammar, event or datatype */
+	static final int NONE = -1;
+	/* terminal grammar of EE and ED productions */
+	static final int END_GRAMMAR = -2;
+	/* built-in default datatype */
+	static final int DEFAULT_DATATYPE = -2;
+
+	/* kinds of qname references */
+	static final int QNAME_NONE = 0;
+	static final int QNAME_BY_ID = 1;
+	static final int QNAME_BY_NAME = 2;
+
+	protected final SchemaInformedGrammars grammars;
+	protected final DataOutputStream dos;
+
+	protected final Grammar endGrammar;
+
+	protected final List<Grammar> grammarList = new ArrayList<Grammar>();
+	protected final Map<Grammar, Integer> grammarIDs = new IdentityHashMap<Grammar, Integer>();
+
+	protected final List<Event> eventList = new ArrayList<Event>();
+	protected final Map<Event, Integer> eventIDs = new IdentityHashMap<Event, Integer>();
+
+	protected final List<Datatype> datatypeList = new ArrayList<Datatype>();
+	protected final Map<Datatype, Integer> datatypeIDs = new IdentityHashMap<Datatype, Integer>();
+
+	PrecompiledGrammarsWriter(SchemaInformedGrammars grammars,
+			DataOutputStream dos) {
+		this.grammars = grammars;
+		this.dos = dos;
+		this.endGrammar = getEndGrammar();
+	}
+
+	/*
+	 * The shared terminal grammar is not accessible, an EE production reveals
+	 * it.
+	 */
+	static Grammar getEndGrammar() {
+		SchemaInformedElement g = new SchemaInformedElement();
+		g.addTerminalProduction(new EndElement());
+		return g.getProduction(0).getNextGrammar();
+	}
+
+	void write() throws IOException, EXIException {
+		GrammarContext gc = grammars.getGrammarContext();
+		collect(gc);
+
+		dos.writeBoolean(grammars.isBuiltInXMLSchemaTypesOnly());
+		writeString(grammars.getSchemaId());
+
+		// qname contexts
+		dos.writeInt(gc.getNumberOfGrammarUriContexts());
+		for (int i = 0; i < gc.getNumberOfGrammarUriContexts(); i++) {
+			GrammarUriContext guc = gc.getGrammarUriContext(i);
+			writeString(guc.getNamespaceUri());
+			dos.writeInt(guc.getNumberOfPrefixes());
+			for (int k = 0; k < guc.getNumberOfPrefixes(); k++) {
+				writeString(guc.getPrefix(k));
+			}
+			dos.writeInt(guc.getNumberOfQNames());
+			for (int k = 0; k < guc.getNumberOfQNames(); k++) {
+				writeString(guc.getQNameContext(k).getLocalName());
+			}
+		}
+
+		// grammars
+		dos.writeInt(grammarList.size());
+		for (Grammar g : grammarList) {
+			dos.writeByte(g.getGrammarType().ordinal());
+			if (g instanceof SchemaInformedFirstStartTagGrammar) {
+				SchemaInformedFirstStartTagGrammar fst = (SchemaInformedFirstStartTagGrammar) g;
+				dos.writeBoolean(fst.isTypeCastable());
+				dos.writeBoolean(fst.isNillable());
+			}
+		}
+
+		// datatypes, referenced datatypes first
+		dos.writeInt(datatypeList.size());
+		for (Datatype dt : datatypeList) {
+			writeDatatype(dt);
+		}
+		for (Datatype dt : datatypeList) {
+			dos.writeInt(getDatatypeID(dt.getBaseDatatype()));
+			dos.writeInt(getDatatypeID(dt.getGrammarEnumeration()));
+		}
+
+		// events
+		dos.writeInt(eventList.size());
+		for (Event ev : eventList) {
+			writeEvent(ev);
+		}
+
+		// productions
+		for (Grammar g : grammarList) {
+			if (g instanceof SchemaInformedStartTag) {
+				dos.writeInt(getGrammarID(((SchemaInformedStartTag) g)
+						.getElementContentGrammar()));
+			}
+			dos.writeInt(g.getNumberOfEvents());
+			for (int i = 0; i < g.getNumberOfEvents(); i++) {
+				Production p = g.getProduction(i);
+				dos.writeInt(eventIDs.get(p.getEvent()));
+				dos.writeInt(getGrammarID(p.getNextGrammar()));
+			}
+		}
+
+		// global elements, attributes and types
+		for (int i = 0; i < gc.getNumberOfGrammarUriContexts(); i++) {
+			GrammarUriContext guc = gc.getGrammarUriContext(i);
+			for (int k = 0; k < guc.getNumberOfQNames(); k++) {
+				QNameContext qnc = guc.getQNameContext(k);
+				dos.writeInt(getEventID(qnc.getGlobalStartElement()));
+				dos.writeInt(getEventID(qnc.getGlobalAttribute()));
+				dos.writeInt(getGrammarID(qnc.getTypeGrammar()));
+			}
+		}
+
+		dos.writeInt(getGrammarID(grammars.getDocumentGrammar()));
+		dos.writeInt(getGrammarID(grammars.getFragmentGrammar()));
+		dos.writeInt(getGrammarID(grammars
+				.getSchemaInformedElementFragmentGrammar()));
+	}
+
+	protected void collect(GrammarContext gc) throws EXIException {
+		addGrammar(grammars.getDocumentGrammar());
+		addGrammar(grammars.getFragmentGrammar());
+		addGrammar(grammars.getSchemaInformedElementFragmentGrammar());
+		for (int i = 0; i < gc.getNumberOfGrammarUriContexts(); i++) {
+			GrammarUriContext guc = gc.getGrammarUriContext(i);
+			for (int k = 0; k < guc.getNumberOfQNames(); k++) {
+				QNameContext qnc = guc.getQNameContext(k);
+				if (qnc.getGlobalStartElement() != null) {
+					addEvent(qnc.getGlobalStartElement());
+				}
+				if (qnc.getGlobalAttribute() != null) {
+					addEvent(qnc.getGlobalAttribute());
+				}
+				addGrammar(qnc.getTypeGrammar());
+			}
+		}
+
+		// grammar list grows while walking the productions
+		for (int i = 0; i < grammarList.size(); i++) {
+			Grammar g = grammarList.get(i);
+			if (!g.isSchemaInformed()) {
+				throw new EXIException("Unsupported grammar " + g);
+			}
+			if (g instanceof SchemaInformedStartTag) {
+				addGrammar(((SchemaInformedStartTag) g)
+						.getElementContentGrammar());
+			}
+			for (int k = 0; k < g.getNumberOfEvents(); k++) {
+				Production p = g.getProduction(k);
+				addEvent(p.getEvent());
+				addGrammar(p.getNextGrammar());
+			}
+		}
+
+		// datatypes referenced by events, base datatypes etc.
+		List<Datatype> reachable = new ArrayList<Datatype>();
+		Map<Datatype, Datatype> seen = new IdentityHashMap<Datatype, Datatype>();
+		for (Event ev : eventList) {
+			if (ev instanceof DatatypeEvent) {
+				collectDatatype(((DatatypeEvent) ev).getDatatype(), reachable,
+						seen);
+			}
+		}
+		for (Datatype dt : reachable) {
+			addDatatype(dt);
+		}
+	}
+
+	protected void addGrammar(Grammar g) {
+		if (g != null && g != endGrammar && !grammarIDs.containsKey(g)) {
+			grammarIDs.put(g, grammarList.size());
+			grammarList.add(g);
+		}
+	}
+
+	protected void addEvent(Event ev) {
+		if (!eventIDs.containsKey(ev)) {
+			eventIDs.put(ev, eventList.size());
+			eventList.add(ev);
+			if (ev instanceof StartElement) {
+				addGrammar(((StartElement) ev).getGrammar());
+			}
+		}
+	}
+
+	protected void collectDatatype(Datatype dt, List<Datatype> reachable,
+			Map<Datatype, Datatype> seen) {
+		if (dt != null && dt != BuiltIn.getDefaultDatatype()
+				&& !seen.containsKey(dt)) {
+			seen.put(dt, dt);
+			reachable.add(dt);
+			collectDatatype(getConstructorDatatype(dt), reachable, seen);
+			collectDatatype(dt.getBaseDatatype(), reachable, seen);
+			collectDatatype(dt.getGrammarEnumeration(), reachable, seen);
+		}
+	}
+
+	/* datatypes are written after the datatype they are constructed with */
+	protected void addDatatype(Datatype dt) {
+		if (!datatypeIDs.containsKey(dt)) {
+			Datatype cdt = getConstructorDatatype(dt);
+			if (cdt != null && cdt != BuiltIn.getDefaultDatatype()) {
+				addDatatype(cdt);
+			}
+			datatypeIDs.put(dt, datatypeList.size());
+			datatypeList.add(dt);
+		}
+	}
+
+	protected static Datatype getConstructorDatatype(Datatype dt) {
+		if (dt instanceof ListDatatype) {
+			return ((ListDatatype) dt).getListDatatype();
+		} else if (dt instanceof EnumerationDatatype) {
+			return ((EnumerationDatatype) dt).getEnumValueDatatype();
+		} else {
+			return null;
+		}
+	}
+
+	protected int getGrammarID(Grammar g) {
+		if (g == null) {
+			return NONE;
+		} else if (g == endGrammar) {
+			return END_GRAMMAR;
+		} else {
+			return grammarIDs.get(g);
+		}
+	}
+
+	protected int getEventID(Event ev) {
+		return ev == null ? NONE : eventIDs.get(ev);
+	}
+
+	protected int getDatatypeID(Datatype dt) {
+		if (dt == null) {
+			return NONE;
+		} else if (dt == BuiltIn.getDefaultDatatype()) {
+			return DEFAULT_DATATYPE;
+		} else {
+			return datatypeIDs.get(dt);
+		}
+	}
+
+	protected void writeEvent(Event ev) throws IOException, EXIException {
+		dos.writeByte(ev.getEventType().ordinal());
+		switch (ev.getEventType()) {
+		case START_DOCUMENT:
+		case END_DOCUMENT:
+		case START_ELEMENT_GENERIC:
+		case END_ELEMENT:
+		case ATTRIBUTE_GENERIC:
+		case CHARACTERS_GENERIC:
+			break;
+		case START_ELEMENT:
+			StartElement se = (StartElement) ev;
+			writeQNameContext(se.getQNameContext());
+			dos.writeInt(getGrammarID(se.getGrammar()));
+			break;
+		case START_ELEMENT_NS:
+			StartElementNS seNS = (StartElementNS) ev;
+			dos.writeInt(seNS.getNamespaceUriID());
+			writeString(seNS.getNamespaceURI());
+			break;
+		case ATTRIBUTE:
+			Attribute at = (Attribute) ev;
+			writeQNameContext(at.getQNameContext());
+			dos.writeInt(getDatatypeID(at.getDatatype()));
+			break;
+		case ATTRIBUTE_NS:
+			AttributeNS atNS = (AttributeNS) ev;
+			dos.writeInt(atNS.getNamespaceUriID());
+			writeString(atNS.getNamespaceURI());
+			break;
+		case CHARACTERS:
+			dos.writeInt(getDatatypeID(((DatatypeEvent) ev).getDatatype()));
+			break;
+		default:
+			throw new EXIException("Unsupported event " + ev);
+		}
+	}
+
+	protected void writeDatatype(Datatype dt) throws IOException, EXIException {
+		dos.writeByte(dt.getBuiltInType().ordinal());
+		writeQNameContext(dt.getSchemaType());
+		dos.writeByte(dt.getWhiteSpace().ordinal());
+		switch (dt.getBuiltInType()) {
+		case BINARY_BASE64:
+		case BINARY_HEX:
+		case BOOLEAN:
+		case BOOLEAN_FACET:
+		case DECIMAL:
+		case FLOAT:
+		case UNSIGNED_INTEGER:
+		case INTEGER:
+		case EXTENDED_STRING:
+			break;
+		case NBIT_UNSIGNED_INTEGER:
+			NBitUnsignedIntegerDatatype nbit = (NBitUnsignedIntegerDatatype) dt;
+			writeInteger(nbit.getLowerBound());
+			writeInteger(nbit.getUpperBound());
+			break;
+		case DATETIME:
+			dos.writeByte(((DatetimeDatatype) dt).getDatetimeType().ordinal());
+			break;
+		case STRING:
+			dos.writeBoolean(((StringDatatype) dt).isDerivedByUnion());
+			break;
+		case RCS_STRING:
+			RestrictedCharacterSet rcs = ((RestrictedCharacterSetDatatype) dt)
+					.getRestrictedCharacterSet();
+			dos.writeInt(rcs.size());
+			for (int i = 0; i < rcs.size(); i++) {
+				dos.writeInt(rcs.getCodePoint(i));
+			}
+			break;
+		case ENUMERATION:
+			EnumerationDatatype enumDT = (EnumerationDatatype) dt;
+			dos.writeInt(getDatatypeID(enumDT.getEnumValueDatatype()));
+			dos.writeInt(enumDT.getEnumerationSize());
+			for (int i = 0; i < enumDT.getEnumerationSize(); i++) {
+				writeValue(enumDT.getEnumValue(i));
+			}
+			break;
+		case LIST:
+			dos.writeInt(getDatatypeID(((ListDatatype) dt).getListDatatype()));
+			break;
+		default:
+			throw new EXIException("Unsupported datatype " + dt);
+		}
+	}
+
+	protected void writeValue(Value value) throws IOException, EXIException {
+		dos.writeByte(value.getValueType().ordinal());
+		switch (value.getValueType()) {
+		case BINARY_BASE64:
+		case BINARY_HEX:
+			byte[] bytes = ((AbstractBinaryValue) value).toBytes();
+			dos.writeInt(bytes.length);
+			dos.write(bytes);
+			break;
+		case BOOLEAN:
+			dos.writeBoolean(((BooleanValue) value).toBoolean());
+			break;
+		case DECIMAL:
+			DecimalValue dv = (DecimalValue) value;
+			dos.writeBoolean(dv.isNegative());
+			writeInteger(dv.getIntegral());
+			writeInteger(dv.getRevFractional());
+			break;
+		case FLOAT:
+			FloatValue fv = (FloatValue) value;
+			writeInteger(fv.getMantissa());
+			writeInteger(fv.getExponent());
+			break;
+		case INTEGER:
+			writeInteger((IntegerValue) value);
+			break;
+		case DATETIME:
+			DateTimeValue dtv = (DateTimeValue) value;
+			dos.writeByte(dtv.type.ordinal());
+			dos.writeInt(dtv.year);
+			dos.writeInt(dtv.monthDay);
+			dos.writeInt(dtv.time);
+			dos.writeInt(dtv.fractionalSecs);
+			dos.writeBoolean(dtv.presenceTimezone);
+			dos.writeInt(dtv.timezone);
+			break;
+		case STRING:
+			writeString(value.toString());
+			break;
+		default:
+			throw new EXIException("Unsupported enumeration value " + value);
+		}
+	}
+
+	protected void writeInteger(IntegerValue iv) throws IOException {
+		writeString(iv.bigIntegerValue().toString());
+	}
+
+	/*
+	 * qnames of the grammar context are written by id, any other (e.g., the
+	 * schema type of the default datatype) by name
+	 */
+	protected void writeQNameContext(QNameContext qnc) throws IOException {
+		GrammarContext gc = grammars.getGrammarContext();
+		if (qnc == null) {
+			dos.writeByte(QNAME_NONE);
+			return;
+		}
+		int uriID = qnc.getNamespaceUriID();
+		if (uriID >= 0 && uriID < gc.getNumberOfGrammarUriContexts()
+				&& gc.getGrammarUriContext(uriID).getQNameContext(
+						qnc.getLocalNameID()) == qnc) {
+			dos.writeByte(QNAME_BY_ID);
+			dos.writeInt(uriID);
+			dos.writeInt(qnc.getLocalNameID());
+		} else {
+			dos.writeByte(QNAME_BY_NAME);
+			dos.writeInt(uriID);
+			dos.writeInt(qnc.getLocalNameID());
+			writeString(qnc.getNamespaceUri());
+			writeString(qnc.getLocalName());
+		}
+	}
+
+	/* null aware, not limited to 64k like writeUTF */
+	protected void writeString(String s) throws IOException {
+		if (s == null) {
+			dos.writeInt(NONE);
+		} else {
+			byte[] bytes = s.getBytes("UTF-8");
+			dos.writeInt(bytes.length);
+			dos.write(bytes);
+		}
+	}
+
+}
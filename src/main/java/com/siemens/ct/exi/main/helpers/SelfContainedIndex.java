@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.helpers;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.SelfContainedHandler;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.exceptions.UnsupportedOption;
+import com.siemens.ct.exi.core.io.channel.EncoderChannel;
+import com.siemens.ct.exi.main.util.ByteBufferInputStream;
+import com.siemens.ct.exi.main.util.CountingOutputStream;
+
+/**
+ * Byte offsets of self-contained (SC) element fragments in an EXI stream,
+ * keyed by element qname and occurrence.
+ * 
+ * <p>
+ * The index is recorded while encoding and allows decoders to decode a
+ * single SC element without processing the stream before it (see
+ * <code>SAXDecoder.parseSelfContained</code> and
+ * <code>StAXDecoder.setInputSelfContained</code>). Offsets are stream
+ * positions including the EXI header.
+ * </p>
+ * 
+ * <code>
+ * SelfContainedIndex index = new SelfContainedIndex();
+ * index.register(exiFactory, new QName[] { record });
+ * SAXEncoder encoder = new SAXEncoder(exiFactory);
+ * encoder.setOutputStream(index.track(os));
+ * ...
+ * index.writeTo(os); // trailer, or sidecar file
+ * 
+ * SAXDecoder decoder = new SAXDecoder(exiFactory);
+ * decoder.parseSelfContained(exiFile, index.getOffset(record, 50000));
+ * </code>
+ * 
+ * <p>
+ * Note: The index is not thread-safe, one index records one EXI stream at
+ * a time.
+ * </p>
+ */
+
+public class SelfContainedIndex implements SelfContainedHandler {
+
+	/* "EXIS" */
+	public static final int INDEX_MAGIC = 0x45584953;
+
+	/* index length, magic */
+	public static final int TRAILER_SIZE = 8 + 4;
+
+	protected static final int INITIAL_CAPACITY = 16;
+
+	/* offsets of one SC element qname in document order */
+	static final class Occurrences {
+		long[] offsets = new long[INITIAL_CAPACITY];
+		int size;
+
+		void add(long offset) {
+			if (size == offsets.length) {
+				long[] newOffsets = new long[size << 1];
+				System.arraycopy(offsets, 0, newOffsets, 0, size);
+				offsets = newOffsets;
+			}
+			offsets[size++] = offset;
+		}
+	}
+
+	protected final Map<QName, Occurrences> occurrences;
+	/* SC element qnames in order of first occurrence */
+	protected final List<QName> qnames;
+
+	/* output of the EXI stream being encoded */
+	protected CountingOutputStream output;
+
+	public SelfContainedIndex() {
+		occurrences = new HashMap<QName, Occurrences>();
+		qnames = new ArrayList<QName>();
+	}
+
+	/**
+	 * Enables self-contained elements for the given factory and records
+	 * their offsets in this index. Needs to be called before coders are
+	 * created from the factory.
+	 * 
+	 * @param exiFactory
+	 *            EXI factory used for encoding
+	 * @param scElements
+	 *            self-contained element qnames
+	 * @throws UnsupportedOption
+	 *             SC cannot be enabled, e.g., for strict fidelity
+	 */
+	public void register(EXIFactory exiFactory, QName[] scElements)
+			throws UnsupportedOption {
+		exiFactory.getFidelityOptions().setFidelity(
+				FidelityOptions.FEATURE_SC, true);
+		exiFactory.setSelfContainedElements(scElements, this);
+	}
+
+	/**
+	 * Starts recording a new EXI stream. The returned (buffered) stream
+	 * needs to be set as encoder output, offsets are taken from the number
+	 * of bytes written to it.
+	 * 
+	 * @param os
+	 *            EXI output
+	 * @return stream the encoder writes to
+	 */
+	public OutputStream track(OutputStream os) {
+		clear();
+		output = new CountingOutputStream(os);
+		return output;
+	}
+
+	public void scElement(String uri, String localName,
+			EncoderChannel channel) throws EXIException {
+		if (output == null) {
+			throw new EXIException(
+					"No tracked output stream for self-contained index");
+		}
+		// called once the SC fragment is byte-aligned
+		add(new QName(uri, localName), output.getCount());
+	}
+
+	protected void add(QName qname, long offset) {
+		Occurrences occ = occurrences.get(qname);
+		if (occ == null) {
+			occ = new Occurrences();
+			occurrences.put(qname, occ);
+			qnames.add(qname);
+		}
+		occ.add(offset);
+	}
+
+	/**
+	 * Removes all offsets.
+	 */
+	public void clear() {
+		occurrences.clear();
+		qnames.clear();
+	}
+
+	/**
+	 * @return SC element qnames in order of first occurrence
+	 */
+	public List<QName> getQNames() {
+		return Collections.unmodifiableList(qnames);
+	}
+
+	/**
+	 * @param qname
+	 *            SC element qname
+	 * @return number of occurrences of the given SC element
+	 */
+	public int getNumberOfOccurrences(QName qname) {
+		Occurrences occ = occurrences.get(qname);
+		return occ == null ? 0 : occ.size;
+	}
+
+	/**
+	 * @param qname
+	 *            SC element qname
+	 * @param n
+	 *            occurrence, 0 for the first element
+	 * @return stream offset of the SC fragment
+	 * @throws IndexOutOfBoundsException
+	 *             no such occurrence
+	 */
+	public long getOffset(QName qname, int n) {
+		Occurrences occ = occurrences.get(qname);
+		if (occ == null || n < 0 || n >= occ.size) {
+			throw new IndexOutOfBoundsException("No self-contained element "
+					+ qname + " #" + n);
+		}
+		return occ.offsets[n];
+	}
+
+	/**
+	 * Writes the index followed by its length and magic. The index can be
+	 * stored in a sidecar file or appended to the EXI stream as trailer,
+	 * decoders ignore bytes after the end of the EXI document.
+	 * 
+	 * @param os
+	 *            output, not closed
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public void writeTo(OutputStream os) throws IOException {
+		DataOutputStream dos = new DataOutputStream(os);
+		dos.writeInt(qnames.size());
+		for (QName qname : qnames) {
+			Occurrences occ = occurrences.get(qname);
+			dos.writeUTF(qname.getNamespaceURI());
+			dos.writeUTF(qname.getLocalPart());
+			dos.writeInt(occ.size);
+			for (int i = 0; i < occ.size; i++) {
+				dos.writeLong(occ.offsets[i]);
+			}
+		}
+		dos.writeLong(dos.size());
+		dos.writeInt(INDEX_MAGIC);
+		dos.flush();
+	}
+
+	/**
+	 * Reads an index from the end of the given file, which is either a
+	 * sidecar file or an EXI stream with index trailer.
+	 * 
+	 * @param file
+	 *            sidecar or EXI file
+	 * @return index
+	 * @throws IOException
+	 *             IO failure or no index found
+	 */
+	public static SelfContainedIndex load(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer trailer = read(channel, size - TRAILER_SIZE,
+					TRAILER_SIZE);
+			long length = trailer.getLong();
+			if (trailer.getInt() != INDEX_MAGIC || length < 4
+					|| length > size - TRAILER_SIZE) {
+				throw new IOException("No self-contained index in " + file);
+			}
+			return readFrom(new ByteBufferInputStream(read(channel, size
+					- TRAILER_SIZE - length, (int) length)));
+		} finally {
+			channel.close();
+		}
+	}
+
+	protected static ByteBuffer read(FileChannel channel, long position,
+			int length) throws IOException {
+		if (position < 0) {
+			throw new IOException("No self-contained index");
+		}
+		ByteBuffer bb = ByteBuffer.allocate(length);
+		while (bb.hasRemaining()) {
+			if (channel.read(bb, position + bb.position()) < 0) {
+				throw new IOException("Unexpected end of self-contained index");
+			}
+		}
+		bb.flip();
+		return bb;
+	}
+
+	/**
+	 * Reads an index written by {@link #writeTo(OutputStream)} (without
+	 * trailing length and magic).
+	 * 
+	 * @param is
+	 *            input, positioned at the start of the index
+	 * @return index
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public static SelfContainedIndex readFrom(InputStream is)
+			throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		SelfContainedIndex index = new SelfContainedIndex();
+		int nQNames = dis.readInt();
+		for (int i = 0; i < nQNames; i++) {
+			QName qname = new QName(dis.readUTF(), dis.readUTF());
+			int n = dis.readInt();
+			for (int k = 0; k < n; k++) {
+				index.add(qname, dis.readLong());
+			}
+		}
+		return index;
+	}
+
+}
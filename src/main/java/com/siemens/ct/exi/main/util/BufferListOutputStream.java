@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>OutputStream</code> collecting the output in a list of fixed-size
+ * (heap or direct) buffers that can be handed to a
+ * <code>GatheringByteChannel</code> without merging them.
+ * 
+ * <p>
+ * After <code>reset()</code> the allocated buffers are re-used.
+ * </p>
+ * 
+ * <p>
+ * The stream can also be used as a non-blocking output queue, e.g., for a
+ * reactive producer. {@link #drain()} hands out the completed chunks while
+ * encoding is still in progress and {@link #recycle(ByteBuffer)} returns
+ * them to the pool once they have been sent. Producers check
+ * {@link #isHighWaterMarkReached()} to stop emitting events until the
+ * buffered output has been drained (back-pressure).
+ * </p>
+ */
+
+public class BufferListOutputStream extends OutputStream {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+	public static final long DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+	/* maximum number of spare buffers kept by recycle() */
+	protected static final int MAXIMUM_POOL_SIZE = 16;
+
+	protected final int chunkSize;
+	protected final boolean direct;
+	protected final List<ByteBuffer> buffers;
+	/* index of the buffer currently written */
+	protected int current;
+	/* number of leading buffers completed by flush() */
+	protected int sealed;
+	protected long highWaterMark = DEFAULT_HIGH_WATER_MARK;
+
+	public BufferListOutputStream() {
+		this(DEFAULT_CHUNK_SIZE, false);
+	}
+
+	/**
+	 * @param chunkSize
+	 *            size of each buffer
+	 * @param direct
+	 *            whether direct buffers are allocated
+	 */
+	public BufferListOutputStream(int chunkSize, boolean direct) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.chunkSize = chunkSize;
+		this.direct = direct;
+		this.buffers = new ArrayList<ByteBuffer>();
+		this.current = -1;
+	}
+
+	protected ByteBuffer writable() {
+		if (current >= sealed && buffers.get(current).hasRemaining()) {
+			return buffers.get(current);
+		}
+		current++;
+		if (current == buffers.size()) {
+			buffers.add(direct ? ByteBuffer.allocateDirect(chunkSize)
+					: ByteBuffer.allocate(chunkSize));
+		}
+		return buffers.get(current);
+	}
+
+	@Override
+	public void write(int b) {
+		writable().put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			ByteBuffer bb = writable();
+			int n = Math.min(len, bb.remaining());
+			bb.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * @return number of bytes written
+	 */
+	public long size() {
+		long size = 0;
+		for (int i = 0; i <= current; i++) {
+			size += buffers.get(i).position();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns read views of the written bytes. The views share content with
+	 * the internal buffers and are invalid after <code>reset()</code>.
+	 * 
+	 * @return buffers ready for reading
+	 */
+	public ByteBuffer[] getBuffers() {
+		ByteBuffer[] views = new ByteBuffer[current + 1];
+		for (int i = 0; i <= current; i++) {
+			ByteBuffer view = buffers.get(i).duplicate();
+			view.flip();
+			views[i] = view;
+		}
+		return views;
+	}
+
+	/**
+	 * Writes all bytes to the given channel with gathering writes.
+	 * 
+	 * @param channel
+	 *            target channel
+	 * @return number of bytes written
+	 * @throws IOException
+	 *             IO failure
+	 */
+	public long writeTo(GatheringByteChannel channel) throws IOException {
+		ByteBuffer[] views = getBuffers();
+		long total = 0;
+		long remaining = size();
+		while (total < remaining) {
+			total += channel.write(views);
+		}
+		return total;
+	}
+
+	/**
+	 * Completes the chunk currently written, so that {@link #drain()} hands
+	 * it out although it is not full. Subsequent bytes go to a new chunk.
+	 */
+	@Override
+	public void flush() {
+		if (current >= 0 && buffers.get(current).position() > 0) {
+			sealed = current + 1;
+		}
+	}
+
+	/**
+	 * Sets the number of buffered bytes from which on
+	 * {@link #isHighWaterMarkReached()} reports that the output should be
+	 * drained before more is written.
+	 * 
+	 * @param highWaterMark
+	 *            number of bytes
+	 */
+	public void setHighWaterMark(long highWaterMark) {
+		if (highWaterMark < 1) {
+			throw new IllegalArgumentException("High-water mark "
+					+ highWaterMark);
+		}
+		this.highWaterMark = highWaterMark;
+	}
+
+	public long getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * @return whether the bytes not drained yet reach the high-water mark
+	 */
+	public boolean isHighWaterMarkReached() {
+		return size() >= highWaterMark;
+	}
+
+	/**
+	 * @return number of completed chunks {@link #drain()} would hand out
+	 */
+	protected int completed() {
+		if (current < 0) {
+			return 0;
+		}
+		boolean complete = current < sealed
+				|| !buffers.get(current).hasRemaining();
+		return complete ? current + 1 : current;
+	}
+
+	/**
+	 * @return number of bytes in completed chunks, i.e., bytes available for
+	 *         {@link #drain()}
+	 */
+	public long available() {
+		long available = 0;
+		for (int i = 0, n = completed(); i < n; i++) {
+			available += buffers.get(i).position();
+		}
+		return available;
+	}
+
+	/**
+	 * Removes the completed chunks, i.e., full chunks and chunks completed
+	 * by {@link #flush()}, and hands them out ready for reading. The caller
+	 * owns the returned buffers and may pass them to
+	 * {@link #recycle(ByteBuffer)} once they are no longer needed.
+	 * 
+	 * @return completed chunks, possibly none
+	 */
+	public ByteBuffer[] drain() {
+		int n = completed();
+		ByteBuffer[] chunks = new ByteBuffer[n];
+		for (int i = 0; i < n; i++) {
+			ByteBuffer chunk = buffers.get(i);
+			chunk.flip();
+			chunks[i] = chunk;
+		}
+		buffers.subList(0, n).clear();
+		current -= n;
+		sealed = Math.max(sealed - n, 0);
+		return chunks;
+	}
+
+	/**
+	 * Returns a drained chunk to the pool of spare buffers. Buffers not
+	 * matching the chunk size and type are dropped, as are buffers exceeding
+	 * the pool size.
+	 * 
+	 * @param chunk
+	 *            buffer obtained from {@link #drain()}
+	 */
+	public void recycle(ByteBuffer chunk) {
+		if (chunk.capacity() == chunkSize && chunk.isDirect() == direct
+				&& buffers.size() - current - 1 < MAXIMUM_POOL_SIZE) {
+			chunk.clear();
+			buffers.add(chunk);
+		}
+	}
+
+	/**
+	 * Discards the written bytes and keeps the buffers for re-use.
+	 */
+	public void reset() {
+		for (int i = 0; i <= current; i++) {
+			buffers.get(i).clear();
+		}
+		current = -1;
+		sealed = 0;
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * <code>InputStream</code> reading from a (blocking)
+ * <code>ReadableByteChannel</code> through a heap or direct buffer.
+ * 
+ * <p>
+ * Reads larger than the buffer are filled by the channel without copying.
+ * Closing the stream closes the channel.
+ * </p>
+ */
+
+public class ChannelInputStream extends InputStream {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	protected final ReadableByteChannel channel;
+	protected final ByteBuffer buffer;
+
+	public ChannelInputStream(ReadableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * @param channel
+	 *            source channel
+	 * @param bufferSize
+	 *            size of the buffer
+	 * @param direct
+	 *            whether a direct buffer is used
+	 */
+	public ChannelInputStream(ReadableByteChannel channel, int bufferSize,
+			boolean direct) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		this.channel = channel;
+		this.buffer = direct ? ByteBuffer.allocateDirect(bufferSize)
+				: ByteBuffer.allocate(bufferSize);
+		// empty
+		buffer.flip();
+	}
+
+	/*
+	 * Refills the empty buffer, returns false at the end of the channel.
+	 */
+	protected boolean fill() throws IOException {
+		buffer.clear();
+		int n;
+		do {
+			n = channel.read(buffer);
+		} while (n == 0);
+		buffer.flip();
+		return n > 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!buffer.hasRemaining() && !fill()) {
+			return -1;
+		}
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining()) {
+			if (len >= buffer.capacity()) {
+				// large reads bypass the buffer
+				ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+				int n;
+				do {
+					n = channel.read(bb);
+				} while (n == 0);
+				return n;
+			}
+			if (!fill()) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
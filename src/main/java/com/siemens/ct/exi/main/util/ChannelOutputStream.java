@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <code>OutputStream</code> writing to a (blocking)
+ * <code>WritableByteChannel</code> through a heap or direct buffer.
+ * 
+ * <p>
+ * Writes larger than the buffer are passed to the channel without copying.
+ * Closing the stream closes the channel.
+ * </p>
+ */
+
+public class ChannelOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	protected final WritableByteChannel channel;
+	protected final ByteBuffer buffer;
+
+	public ChannelOutputStream(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * @param channel
+	 *            target channel
+	 * @param bufferSize
+	 *            size of the buffer
+	 * @param direct
+	 *            whether a direct buffer is used
+	 */
+	public ChannelOutputStream(WritableByteChannel channel, int bufferSize,
+			boolean direct) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		this.channel = channel;
+		this.buffer = direct ? ByteBuffer.allocateDirect(bufferSize)
+				: ByteBuffer.allocate(bufferSize);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flushBuffer();
+		}
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len >= buffer.capacity()) {
+			// large writes bypass the buffer
+			flushBuffer();
+			writeFully(ByteBuffer.wrap(b, off, len));
+		} else {
+			while (len > 0) {
+				if (!buffer.hasRemaining()) {
+					flushBuffer();
+				}
+				int n = Math.min(len, buffer.remaining());
+				buffer.put(b, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+	}
+
+	protected void flushBuffer() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	protected void writeFully(ByteBuffer bb) throws IOException {
+		while (bb.hasRemaining()) {
+			channel.write(bb);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel.isOpen()) {
+			try {
+				flushBuffer();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+}
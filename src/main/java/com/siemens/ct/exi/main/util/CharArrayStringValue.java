@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import com.siemens.ct.exi.core.Constants;
+import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.core.values.ValueType;
+
+/**
+ * Reusable string value that is backed by a window of an external character
+ * array (e.g., the buffer handed over by SAX <code>characters()</code>).
+ * 
+ * <p>
+ * No <code>String</code> is created unless the encoder explicitly asks for
+ * one (e.g., for string table lookups). The textual representation is cached
+ * until the next call to {@link #setCharacters(char[], int, int)}.
+ * </p>
+ * 
+ * <p>
+ * Note: instances are mutable. Body encoders do not write characters right
+ * away but buffer the value until the next structural event (SE, EE, ED, CM,
+ * PI, DT or ER). An instance may therefore be passed to
+ * <code>encodeCharacters</code> exactly once per run of characters, and
+ * neither the instance nor its character window may change before that
+ * structural event has been encoded (see SAXEncoder, which coalesces
+ * fragmented SAX <code>characters()</code> callbacks). Encoders re-channeling
+ * values (pre-compression and compression) keep a reference until the block
+ * is flushed and require an immutable value instead.
+ * </p>
+ */
+
+public class CharArrayStringValue extends StringValue {
+
+	private static final long serialVersionUID = 3437164532781096466L;
+
+	protected static final char[] EMPTY_CHARS = new char[0];
+
+	protected char[] ch;
+	protected int start;
+	protected int length;
+
+	/* lazily created string representation */
+	protected String string;
+
+	public CharArrayStringValue() {
+		super(Constants.EMPTY_STRING);
+		this.ch = EMPTY_CHARS;
+	}
+
+	/**
+	 * Points this value to the given character window. The array is NOT
+	 * copied and must not be modified while the value is in use.
+	 * 
+	 * @param ch
+	 *            characters
+	 * @param start
+	 *            start offset
+	 * @param length
+	 *            number of characters
+	 */
+	public void setCharacters(char[] ch, int start, int length) {
+		this.ch = ch;
+		this.start = start;
+		this.length = length;
+		this.string = null;
+	}
+
+	@Override
+	public int getCharactersLength() {
+		return length;
+	}
+
+	@Override
+	public char[] getCharacters() {
+		if (start == 0 && length == ch.length) {
+			return ch;
+		}
+		char[] chars = new char[length];
+		System.arraycopy(ch, start, chars, 0, length);
+		return chars;
+	}
+
+	@Override
+	public void getCharacters(char[] cbuffer, int offset) {
+		System.arraycopy(ch, start, cbuffer, offset, length);
+	}
+
+	@Override
+	public String toString() {
+		if (string == null) {
+			string = new String(ch, start, length);
+		}
+		return string;
+	}
+
+	@Override
+	public String toString(char[] cbuffer, int offset) {
+		return toString();
+	}
+
+	protected boolean equalsCharacters(char[] och, int ostart, int olength) {
+		if (length != olength) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (ch[start + i] != och[ostart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		} else if (o instanceof CharArrayStringValue) {
+			CharArrayStringValue cv = (CharArrayStringValue) o;
+			return equalsCharacters(cv.ch, cv.start, cv.length);
+		} else if (o instanceof Value) {
+			Value v = (Value) o;
+			return v.getValueType() == ValueType.STRING
+					&& toString().equals(v.toString());
+		} else if (o instanceof String) {
+			return toString().equals(o);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		// same as String.hashCode() without materializing the string
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + ch[start + i];
+		}
+		return h;
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered <code>OutputStream</code> counting the bytes written to it.
+ * 
+ * <p>
+ * Bytes are counted when handed to the stream, i.e., the count is the
+ * stream position seen by the writer even if bytes are still buffered.
+ * </p>
+ */
+
+public class CountingOutputStream extends BufferedOutputStream {
+
+	protected long count;
+
+	public CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	public CountingOutputStream(OutputStream out, int size) {
+		super(out, size);
+	}
+
+	@Override
+	public synchronized void write(int b) throws IOException {
+		super.write(b);
+		count++;
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len)
+			throws IOException {
+		super.write(b, off, len);
+		count += len;
+	}
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.util.Arrays;
+
+import javax.xml.namespace.QName;
+
+import com.siemens.ct.exi.core.context.GrammarContext;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Re-usable list of the attributes decoded for one start element, as used by
+ * pull-style decoders (StAX, XmlPull).
+ * 
+ * <p>
+ * Attributes are kept in parallel arrays that grow as needed and are re-used
+ * across elements, so no per-attribute container is allocated. The decoded
+ * <code>Value</code> is kept as is; its string representation is created
+ * only on request and cached until the list is cleared.
+ * </p>
+ * 
+ * <p>
+ * Lookups by <code>QNameContext</code> compare identity and namespace URI
+ * and local-name ids before strings. Contexts of the grammar context set by
+ * the decoder are found by ids only, others (runtime names, other grammars)
+ * are confirmed by name. For elements with many attributes a small
+ * open-addressing table keyed by these ids is built lazily on first lookup.
+ * </p>
+ */
+
+public class DecodedAttributes {
+
+	public static final int DEFAULT_INITIAL_CAPACITY = 8;
+
+	/* number of attributes from which on an id lookup table is used */
+	public static final int LOOKUP_TABLE_THRESHOLD = 8;
+
+	protected QNameContext[] qnames;
+	protected Value[] values;
+	protected String[] prefixes;
+	/* lazily created string values */
+	protected String[] strings;
+
+	protected int size;
+
+	/* open-addressing table, attribute index or -1 for empty slots */
+	protected int[] lookupTable;
+	protected boolean lookupTableValid;
+
+	/* grammar context of the decoder, may be null */
+	protected GrammarContext grammarContext;
+
+	public DecodedAttributes() {
+		this(DEFAULT_INITIAL_CAPACITY);
+	}
+
+	public DecodedAttributes(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 1);
+		qnames = new QNameContext[capacity];
+		values = new Value[capacity];
+		prefixes = new String[capacity];
+		strings = new String[capacity];
+	}
+
+	public void clear() {
+		size = 0;
+		lookupTableValid = false;
+	}
+
+	/**
+	 * Sets the grammar context of the decoder the attributes stem from. The
+	 * decoder returns the context objects of this grammar context for all
+	 * names the grammars know, a lookup by such a context needs no name
+	 * comparison.
+	 * 
+	 * @param grammarContext
+	 *            grammar context or <code>null</code> if unknown
+	 */
+	public void setGrammarContext(GrammarContext grammarContext) {
+		this.grammarContext = grammarContext;
+	}
+
+	public GrammarContext getGrammarContext() {
+		return grammarContext;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void add(QNameContext qname, Value value, String prefix) {
+		if (size == qnames.length) {
+			grow();
+		}
+		qnames[size] = qname;
+		values[size] = value;
+		prefixes[size] = prefix;
+		strings[size] = null;
+		size++;
+		lookupTableValid = false;
+	}
+
+	protected void grow() {
+		int capacity = qnames.length << 1;
+
+		QNameContext[] qnames = new QNameContext[capacity];
+		System.arraycopy(this.qnames, 0, qnames, 0, size);
+		this.qnames = qnames;
+
+		Value[] values = new Value[capacity];
+		System.arraycopy(this.values, 0, values, 0, size);
+		this.values = values;
+
+		String[] prefixes = new String[capacity];
+		System.arraycopy(this.prefixes, 0, prefixes, 0, size);
+		this.prefixes = prefixes;
+
+		String[] strings = new String[capacity];
+		System.arraycopy(this.strings, 0, strings, 0, size);
+		this.strings = strings;
+	}
+
+	public QNameContext getQNameContext(int index) {
+		checkIndex(index);
+		return qnames[index];
+	}
+
+	public String getPrefix(int index) {
+		checkIndex(index);
+		return prefixes[index];
+	}
+
+	/**
+	 * Returns the decoded (typed) value, e.g., an integer or date-time value
+	 * for schema-informed streams.
+	 * 
+	 * @param index
+	 *            attribute index
+	 * @return decoded value
+	 */
+	public Value getValue(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	/**
+	 * Returns the string representation of the value. The string is created
+	 * on first access and cached.
+	 * 
+	 * @param index
+	 *            attribute index
+	 * @return attribute value as string
+	 */
+	public String getValueAsString(int index) {
+		checkIndex(index);
+		String s = strings[index];
+		if (s == null) {
+			s = values[index].toString();
+			strings[index] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Looks up an attribute by its name.
+	 * 
+	 * @param namespaceUri
+	 *            namespace URI or <code>null</code> if the namespace is not
+	 *            checked
+	 * @param localName
+	 *            local name
+	 * @return index of the first matching attribute or -1
+	 */
+	public int indexOf(String namespaceUri, String localName) {
+		for (int i = 0; i < size; i++) {
+			QNameContext qnc = qnames[i];
+			if (qnc.getLocalName().equals(localName)
+					&& (namespaceUri == null || qnc.getNamespaceUri().equals(
+							namespaceUri))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Looks up an attribute by its qname context (e.g., obtained once from
+	 * the grammars). Contexts are compared by identity first. Namespace URI
+	 * and local-name ids of the grammar context set for the list are unique,
+	 * for its contexts an id miss returns -1 right away. Other ids (runtime
+	 * names, other grammars) may collide, an id hit is therefore confirmed
+	 * by comparing the names and a miss falls back to the name based lookup.
+	 * 
+	 * @param qnc
+	 *            qname context
+	 * @return index of the matching attribute or -1
+	 */
+	public int indexOf(QNameContext qnc) {
+		int uriID = qnc.getNamespaceUriID();
+		int localNameID = qnc.getLocalNameID();
+		boolean unique = isGrammarQNameContext(qnc, uriID, localNameID);
+
+		if (size < LOOKUP_TABLE_THRESHOLD) {
+			for (int i = 0; i < size; i++) {
+				if (qnames[i] == qnc) {
+					return i;
+				}
+			}
+			return unique ? -1 : indexOf(qnc.getNamespaceUri(),
+					qnc.getLocalName());
+		}
+
+		if (!lookupTableValid) {
+			buildLookupTable();
+		}
+		int mask = lookupTable.length - 1;
+		int slot = hash(uriID, localNameID) & mask;
+		int index;
+		while ((index = lookupTable[slot]) >= 0) {
+			if (sameName(qnames[index], qnc, uriID, localNameID)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return unique ? -1 : indexOf(qnc.getNamespaceUri(),
+				qnc.getLocalName());
+	}
+
+	/* the decoder returns this very context for the name */
+	protected boolean isGrammarQNameContext(QNameContext qnc, int uriID,
+			int localNameID) {
+		return grammarContext != null
+				&& uriID < grammarContext.getNumberOfGrammarUriContexts()
+				&& grammarContext.getGrammarUriContext(uriID).getQNameContext(
+						localNameID) == qnc;
+	}
+
+	/* id match confirmed by name, ids of other grammars may collide */
+	protected static boolean sameName(QNameContext q, QNameContext qnc,
+			int uriID, int localNameID) {
+		return q == qnc
+				|| (q.getLocalNameID() == localNameID
+						&& q.getNamespaceUriID() == uriID
+						&& q.getLocalName().equals(qnc.getLocalName()) && q
+						.getNamespaceUri().equals(qnc.getNamespaceUri()));
+	}
+
+	/**
+	 * Looks up an attribute by its qualified name. Identical
+	 * <code>QName</code> instances (e.g., from
+	 * <code>QNameContext.getQName()</code>) are found without string
+	 * comparison.
+	 * 
+	 * @param qname
+	 *            qualified name
+	 * @return index of the matching attribute or -1
+	 */
+	public int indexOf(QName qname) {
+		for (int i = 0; i < size; i++) {
+			if (qnames[i].getQName() == qname) {
+				return i;
+			}
+		}
+		return indexOf(qname.getNamespaceURI(), qname.getLocalPart());
+	}
+
+	protected static int hash(int uriID, int localNameID) {
+		int h = uriID * 31 + localNameID;
+		return h ^ (h >>> 16);
+	}
+
+	protected void buildLookupTable() {
+		// load factor <= 0.5
+		int capacity = Integer.highestOneBit(size) << 2;
+		if (lookupTable == null || lookupTable.length < capacity) {
+			lookupTable = new int[capacity];
+		}
+		Arrays.fill(lookupTable, -1);
+		int mask = lookupTable.length - 1;
+		for (int i = 0; i < size; i++) {
+			QNameContext q = qnames[i];
+			int slot = hash(q.getNamespaceUriID(), q.getLocalNameID()) & mask;
+			while (lookupTable[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			lookupTable[slot] = i;
+		}
+		lookupTableValid = true;
+	}
+
+	protected void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", Size: " + size);
+		}
+	}
+
+}
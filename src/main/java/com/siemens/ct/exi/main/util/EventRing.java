@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of pre-allocated event records handed over from exactly one
+ * producer thread to exactly one consumer thread, e.g., an EXI decoding stage
+ * and the stage dispatching the decoded events.
+ * 
+ * <p>
+ * Records are re-used. The producer claims a free record, fills it and
+ * publishes it. The consumer takes records in strict publication order and
+ * releases them once processed. A full ring blocks the producer
+ * (back-pressure), an empty ring blocks the consumer. Waiting sides spin for
+ * a configurable number of rounds before they park.
+ * </p>
+ * 
+ * <p>
+ * The producer reports the end of the stream (or a failure) with
+ * {@link #finish(Throwable)}; the consumer can stop the producer with
+ * {@link #cancel()}.
+ * </p>
+ * 
+ * @param <E>
+ *            record type
+ */
+
+public class EventRing<E> {
+
+	public static final int DEFAULT_RING_SIZE = 1024;
+	public static final int DEFAULT_SPIN_COUNT = 100;
+
+	/* upper bound of a single park, guards against missed wake-ups */
+	protected static final long PARK_NANOS = 100000L;
+
+	protected final E[] records;
+	protected final int capacity;
+	protected final int spinCount;
+
+	/* number of published records */
+	protected final AtomicLong published = new AtomicLong();
+	/* number of released records */
+	protected final AtomicLong released = new AtomicLong();
+
+	protected volatile boolean finished;
+	protected volatile boolean cancelled;
+	protected volatile Throwable failure;
+
+	protected volatile Thread waitingProducer;
+	protected volatile Thread waitingConsumer;
+
+	/**
+	 * @param records
+	 *            pre-allocated records, the array length defines the ring size
+	 * @param spinCount
+	 *            number of busy-wait rounds before a waiting thread parks
+	 */
+	public EventRing(E[] records, int spinCount) {
+		if (records.length == 0) {
+			throw new IllegalArgumentException("Ring size must be positive");
+		}
+		this.records = records;
+		this.capacity = records.length;
+		this.spinCount = Math.max(spinCount, 0);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Prepares the ring for another stream. Must only be called while
+	 * neither producer nor consumer use the ring.
+	 */
+	public void reset() {
+		published.set(0);
+		released.set(0);
+		failure = null;
+		finished = false;
+		cancelled = false;
+	}
+
+	/*
+	 * ======================================================================
+	 * Producer
+	 * ======================================================================
+	 */
+
+	/**
+	 * Returns the next free record, waits while the ring is full.
+	 * 
+	 * @return record to be filled and published
+	 * @throws CancellationException
+	 *             if the consumer cancelled the ring
+	 */
+	public E claim() throws CancellationException {
+		final long p = published.get();
+		int spins = 0;
+		while (p - released.get() >= capacity) {
+			if (cancelled) {
+				throw new CancellationException("Event ring cancelled");
+			}
+			if (spins++ >= spinCount) {
+				waitingProducer = Thread.currentThread();
+				if (p - released.get() >= capacity && !cancelled) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				waitingProducer = null;
+			}
+		}
+		if (cancelled) {
+			throw new CancellationException("Event ring cancelled");
+		}
+		return records[(int) (p % capacity)];
+	}
+
+	/**
+	 * Makes the record obtained by {@link #claim()} visible to the consumer.
+	 */
+	public void publish() {
+		published.lazySet(published.get() + 1);
+		unpark(waitingConsumer);
+	}
+
+	/**
+	 * Signals the end of the stream.
+	 * 
+	 * @param failure
+	 *            cause if the producer failed, <code>null</code> otherwise
+	 */
+	public void finish(Throwable failure) {
+		this.failure = failure;
+		this.finished = true;
+		unpark(waitingConsumer);
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/*
+	 * ======================================================================
+	 * Consumer
+	 * ======================================================================
+	 */
+
+	/**
+	 * Returns the next published record, waits while the ring is empty.
+	 * 
+	 * @return next record or <code>null</code> if the producer finished and
+	 *         all records were taken (see {@link #getFailure()})
+	 */
+	public E take() {
+		final long c = released.get();
+		int spins = 0;
+		while (c >= published.get()) {
+			if (finished) {
+				// re-check, records published before finishing
+				if (c >= published.get()) {
+					return null;
+				}
+				break;
+			}
+			if (spins++ >= spinCount) {
+				waitingConsumer = Thread.currentThread();
+				if (c >= published.get() && !finished) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				waitingConsumer = null;
+			}
+		}
+		return records[(int) (c % capacity)];
+	}
+
+	/**
+	 * Non-blocking variant of {@link #take()}.
+	 * 
+	 * @return next published record or <code>null</code> if none is
+	 *         available at the moment
+	 */
+	public E poll() {
+		final long c = released.get();
+		if (c >= published.get()) {
+			return null;
+		}
+		return records[(int) (c % capacity)];
+	}
+
+	/**
+	 * Parks the consumer for a short time unless records are available or
+	 * the producer finished. Publishing a record wakes it up early.
+	 */
+	public void awaitPublished() {
+		waitingConsumer = Thread.currentThread();
+		if (released.get() >= published.get() && !finished) {
+			LockSupport.parkNanos(this, PARK_NANOS);
+		}
+		waitingConsumer = null;
+	}
+
+	/**
+	 * @return whether the producer signaled the end of the stream
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Hands the record obtained by {@link #take()} back to the producer.
+	 */
+	public void release() {
+		released.lazySet(released.get() + 1);
+		unpark(waitingProducer);
+	}
+
+	/**
+	 * Stops the producer, the next claim fails.
+	 */
+	public void cancel() {
+		cancelled = true;
+		unpark(waitingProducer);
+	}
+
+	/**
+	 * @return producer failure or <code>null</code>
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Runs the producer using the given executor or, if none is given, on a
+	 * new daemon thread.
+	 * 
+	 * @param executor
+	 *            executor or <code>null</code>
+	 * @param producer
+	 *            producer task
+	 */
+	public static void startProducer(Executor executor, Runnable producer) {
+		if (executor == null) {
+			Thread t = new Thread(producer, "EXI-event-producer");
+			t.setDaemon(true);
+			t.start();
+		} else {
+			executor.execute(producer);
+		}
+	}
+
+	protected static void unpark(Thread t) {
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+}
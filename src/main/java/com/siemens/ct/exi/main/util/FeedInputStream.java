@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <code>InputStream</code> whose bytes are pushed chunk by chunk by another
+ * thread, e.g., an I/O thread receiving a message in several packets.
+ * 
+ * <p>
+ * A reading thread that runs out of input blocks until the next chunk is
+ * fed or the end of input is signaled. In the meantime the stream reports
+ * itself as <em>starved</em> and wakes up a registered waiter, which can
+ * thus tell that all input fed so far has been consumed.
+ * </p>
+ * 
+ * <p>
+ * Chunks are not copied, the feeding side must not modify a chunk before it
+ * has been consumed (see {@link #isStarved()}).
+ * </p>
+ */
+
+public class FeedInputStream extends InputStream {
+
+	protected static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	/* awaitInput() results */
+	protected static final int INPUT = 0;
+	protected static final int END_OF_INPUT = 1;
+	protected static final int INPUT_REQUIRED = 2;
+
+	protected ByteBuffer chunk = EMPTY;
+	protected boolean endOfInput;
+	protected boolean starved;
+	protected boolean inputRequested;
+	protected long bytesFed;
+
+	protected volatile Thread waiter;
+
+	/**
+	 * Registers the thread that is woken up whenever the reader runs out of
+	 * input.
+	 * 
+	 * @param waiter
+	 *            thread or <code>null</code>
+	 */
+	public void setWaiter(Thread waiter) {
+		this.waiter = waiter;
+	}
+
+	/**
+	 * Feeds the next chunk. The previous chunk must have been consumed.
+	 * 
+	 * @param b
+	 *            bytes
+	 * @param off
+	 *            offset
+	 * @param len
+	 *            number of bytes
+	 */
+	public void feed(byte[] b, int off, int len) {
+		feed(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * Feeds the remaining bytes of the given buffer as next chunk. The
+	 * buffer position advances while the bytes are read. The previous chunk
+	 * must have been consumed.
+	 * 
+	 * @param buffer
+	 *            heap or direct buffer
+	 */
+	public synchronized void feed(ByteBuffer buffer) {
+		if (endOfInput) {
+			throw new IllegalStateException("End of input already signaled");
+		}
+		if (chunk.hasRemaining()) {
+			throw new IllegalStateException("Previous chunk not consumed");
+		}
+		chunk = buffer;
+		bytesFed += buffer.remaining();
+		if (buffer.hasRemaining()) {
+			starved = false;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Signals that no further chunks follow. A blocked reader sees the end of
+	 * the stream once the current chunk is consumed.
+	 */
+	public synchronized void endOfInput() {
+		endOfInput = true;
+		starved = false;
+		notifyAll();
+	}
+
+	public synchronized boolean isEndOfInput() {
+		return endOfInput;
+	}
+
+	/**
+	 * @return whether the reader consumed all bytes fed so far and waits for
+	 *         more
+	 */
+	public synchronized boolean isStarved() {
+		return starved && !endOfInput && !chunk.hasRemaining();
+	}
+
+	/**
+	 * @return total number of bytes fed
+	 */
+	public synchronized long getBytesFed() {
+		return bytesFed;
+	}
+
+	/**
+	 * Drops the current chunk and the end of input state.
+	 */
+	public synchronized void reset() {
+		chunk = EMPTY;
+		endOfInput = false;
+		starved = false;
+		inputRequested = false;
+		bytesFed = 0;
+	}
+
+	/**
+	 * Called by the reader when it runs out of input, e.g., to request the
+	 * next chunk from a source. The stream's lock is not held, so the next
+	 * chunk may be fed from within this method or by another thread before
+	 * it returns. Called once per chunk. Does nothing by default.
+	 */
+	protected void inputRequired() {
+	}
+
+	/*
+	 * waits for input (lock held), returns INPUT_REQUIRED once the reader
+	 * has to call inputRequired() before waiting
+	 */
+	protected int awaitInput() throws IOException {
+		while (!chunk.hasRemaining()) {
+			if (endOfInput) {
+				return END_OF_INPUT;
+			}
+			if (!inputRequested) {
+				inputRequested = true;
+				return INPUT_REQUIRED;
+			}
+			starved = true;
+			Thread t = waiter;
+			if (t != null) {
+				LockSupport.unpark(t);
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Waiting for input");
+			}
+		}
+		starved = false;
+		inputRequested = false;
+		return INPUT;
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (true) {
+			synchronized (this) {
+				switch (awaitInput()) {
+				case INPUT:
+					int b = chunk.get() & 0xFF;
+					release();
+					return b;
+				case END_OF_INPUT:
+					return -1;
+				}
+			}
+			// outside of the lock, the source may feed synchronously
+			inputRequired();
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+			synchronized (this) {
+				switch (awaitInput()) {
+				case INPUT:
+					int n = Math.min(len, chunk.remaining());
+					chunk.get(b, off, n);
+					release();
+					return n;
+				case END_OF_INPUT:
+					return -1;
+				}
+			}
+			inputRequired();
+		}
+	}
+
+	/*
+	 * drops a consumed chunk (lock held), the feeding side may re-use its
+	 * buffer as soon as the reader has run out of input
+	 */
+	protected void release() {
+		if (!chunk.hasRemaining()) {
+			chunk = EMPTY;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes left in the current chunk, but at least 1
+	 * until the end of input is reached. The EXI compression decoder drains
+	 * a deflate block while <code>available()</code> reports input and
+	 * would otherwise stop at a chunk boundary within the block.
+	 */
+	@Override
+	public synchronized int available() {
+		if (chunk.hasRemaining() || endOfInput) {
+			return chunk.remaining();
+		}
+		return 1;
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <code>OutputStream</code> writing a file through a <code>FileChannel</code>
+ * and a large direct buffer.
+ */
+
+public class FileChannelOutputStream extends ChannelOutputStream {
+
+	public static final int DEFAULT_FILE_BUFFER_SIZE = 1024 * 1024;
+
+	public FileChannelOutputStream(Path file) throws IOException {
+		this(file, DEFAULT_FILE_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates or truncates the given file.
+	 * 
+	 * @param file
+	 *            file to write
+	 * @param bufferSize
+	 *            size of the direct buffer
+	 * @throws IOException
+	 *             file cannot be opened
+	 */
+	public FileChannelOutputStream(Path file, int bufferSize)
+			throws IOException {
+		super(FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+				bufferSize, true);
+	}
+
+}
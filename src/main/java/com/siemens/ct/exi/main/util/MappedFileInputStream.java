@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <code>InputStream</code> reading a file through memory-mapped windows.
+ * 
+ * <p>
+ * Files larger than a single mapping (2 GB) are mapped window by window.
+ * Bulk reads copy directly from the mapped region.
+ * </p>
+ */
+
+public class MappedFileInputStream extends InputStream {
+
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	protected final FileChannel channel;
+	protected final long size;
+	protected final int windowSize;
+
+	/* file position of current window */
+	protected long windowStart;
+	protected MappedByteBuffer window;
+
+	public MappedFileInputStream(Path file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * @param file
+	 *            file to read
+	 * @param windowSize
+	 *            number of bytes mapped at once
+	 * @throws IOException
+	 *             file cannot be opened
+	 */
+	public MappedFileInputStream(Path file, int windowSize)
+			throws IOException {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	/*
+	 * Maps the next window if the current one is exhausted, returns false at
+	 * the end of the file.
+	 */
+	protected boolean ensureWindow() throws IOException {
+		if (window != null && window.hasRemaining()) {
+			return true;
+		}
+		long start = window == null ? windowStart : windowStart
+				+ window.limit();
+		if (start >= size) {
+			return false;
+		}
+		if (!channel.isOpen()) {
+			throw new IOException("Stream closed");
+		}
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				Math.min(windowSize, size - start));
+		windowStart = start;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return ensureWindow() ? window.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureWindow()) {
+			return -1;
+		}
+		int n = Math.min(len, window.remaining());
+		window.get(b, off, n);
+		return n;
+	}
+
+	/* file position of the next byte */
+	protected long position() {
+		return window == null ? windowStart : windowStart + window.position();
+	}
+
+	/**
+	 * Skips within the current window or jumps to the target position, the
+	 * windows in between are not mapped.
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		if (window != null && n <= window.remaining()) {
+			window.position(window.position() + (int) n);
+			return n;
+		}
+		long pos = position();
+		long target = Math.min(size, pos + n);
+		window = null;
+		windowStart = target;
+		return target - pos;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, size - position());
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+}
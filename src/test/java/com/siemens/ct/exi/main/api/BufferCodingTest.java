@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamConstants;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.main.api.dom.DOMBuilder;
+import com.siemens.ct.exi.main.api.dom.DOMWriter;
+import com.siemens.ct.exi.main.api.sax.SAXDecoder;
+import com.siemens.ct.exi.main.api.sax.SAXEncoder;
+import com.siemens.ct.exi.main.api.sax.SAXFactory;
+import com.siemens.ct.exi.main.api.stream.StAXDecoder;
+import com.siemens.ct.exi.main.api.stream.StAXEncoder;
+import com.siemens.ct.exi.main.api.xmlpull.EXIPullParser;
+import com.siemens.ct.exi.main.api.xmlpull.EXISerializer;
+import com.siemens.ct.exi.main.util.BufferListOutputStream;
+
+public class BufferCodingTest extends TestCase {
+
+	final String xmlNotebook = "./data/W3C/PrimerNotebook/notebook.xml";
+
+	static class ElementCounter extends DefaultHandler {
+		int elements;
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes atts) {
+			elements++;
+		}
+	}
+
+	protected EXIFactory createFactory() {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setCodingMode(CodingMode.COMPRESSION);
+		return factory;
+	}
+
+	protected XMLReader newXMLReader(SAXEncoder encoder) throws Exception {
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		XMLReader xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setContentHandler(encoder);
+		return xmlReader;
+	}
+
+	protected byte[] encodeStream(EXIFactory factory) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SAXEncoder encoder = new SAXFactory(factory).createEXIWriter();
+		encoder.setOutputStream(os);
+		newXMLReader(encoder).parse(new InputSource(xmlNotebook));
+		return os.toByteArray();
+	}
+
+	protected static byte[] toBytes(ByteBuffer bb) {
+		byte[] b = new byte[bb.remaining()];
+		bb.get(b);
+		return b;
+	}
+
+	public void testSAXByteBuffer() throws Exception {
+		EXIFactory factory = createFactory();
+		byte[] expected = encodeStream(factory);
+
+		for (ByteBuffer bb : new ByteBuffer[] { ByteBuffer.allocate(4096),
+				ByteBuffer.allocateDirect(4096) }) {
+			SAXEncoder encoder = new SAXFactory(factory).createEXIWriter();
+			encoder.setOutput(bb);
+			newXMLReader(encoder).parse(new InputSource(xmlNotebook));
+			bb.flip();
+			assertTrue(Arrays.equals(expected, toBytes(bb.duplicate())));
+
+			SAXDecoder decoder = (SAXDecoder) new SAXFactory(factory)
+					.createEXIReader();
+			ElementCounter counter = new ElementCounter();
+			decoder.setContentHandler(counter);
+			decoder.parse(bb);
+			assertEquals(7, counter.elements);
+		}
+	}
+
+	public void testSAXChannel() throws Exception {
+		EXIFactory factory = createFactory();
+		byte[] expected = encodeStream(factory);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SAXEncoder encoder = new SAXFactory(factory).createEXIWriter();
+		encoder.setOutput(Channels.newChannel(os));
+		newXMLReader(encoder).parse(new InputSource(xmlNotebook));
+		assertTrue(Arrays.equals(expected, os.toByteArray()));
+
+		SAXDecoder decoder = (SAXDecoder) new SAXFactory(factory)
+				.createEXIReader();
+		ElementCounter counter = new ElementCounter();
+		decoder.setContentHandler(counter);
+		decoder.parse(Channels.newChannel(new ByteArrayInputStream(expected)));
+		assertEquals(7, counter.elements);
+	}
+
+	public void testCapacityExceeded() throws Exception {
+		EXIFactory factory = createFactory();
+		SAXEncoder encoder = new SAXFactory(factory).createEXIWriter();
+		encoder.setOutput(ByteBuffer.allocate(8));
+		try {
+			newXMLReader(encoder).parse(new InputSource(xmlNotebook));
+			fail("ByteBuffer too small");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testDrainWhileEncoding() throws Exception {
+		for (CodingMode codingMode : new CodingMode[] { CodingMode.BIT_PACKED,
+				CodingMode.BYTE_PACKED, CodingMode.COMPRESSION }) {
+			EXIFactory factory = DefaultEXIFactory.newInstance();
+			factory.setCodingMode(codingMode);
+			factory.setBlockSize(50);
+
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			StAXEncoder encoder = new StAXEncoder(factory);
+			encoder.setOutputStream(expected);
+			writeItems(encoder, null, null);
+
+			BufferListOutputStream os = new BufferListOutputStream(32, true);
+			os.setHighWaterMark(128);
+			ByteArrayOutputStream drained = new ByteArrayOutputStream();
+			encoder = new StAXEncoder(factory);
+			encoder.setOutputStream(os);
+			int drains = writeItems(encoder, os, drained);
+			os.flush();
+			drain(os, drained);
+
+			assertTrue(codingMode.toString(), drains > 0);
+			assertTrue(codingMode.toString(), Arrays.equals(
+					expected.toByteArray(), drained.toByteArray()));
+		}
+	}
+
+	protected static int writeItems(StAXEncoder encoder,
+			BufferListOutputStream os, ByteArrayOutputStream drained)
+			throws Exception {
+		int drains = 0;
+		encoder.writeStartDocument();
+		encoder.writeStartElement("", "root", "");
+		for (int i = 0; i < 500; i++) {
+			encoder.writeStartElement("", "item", "");
+			encoder.writeAttribute("id", String.valueOf(i));
+			encoder.writeCharacters("text " + i);
+			encoder.writeEndElement();
+			// back-pressure
+			if (os != null && os.isHighWaterMarkReached()) {
+				drain(os, drained);
+				drains++;
+			}
+		}
+		encoder.writeEndElement();
+		encoder.writeEndDocument();
+		encoder.flush();
+		return drains;
+	}
+
+	protected static void drain(BufferListOutputStream os,
+			ByteArrayOutputStream drained) {
+		for (ByteBuffer chunk : os.drain()) {
+			byte[] b = toBytes(chunk);
+			drained.write(b, 0, b.length);
+			os.recycle(chunk);
+		}
+	}
+
+	public void testStAX() throws Exception {
+		EXIFactory factory = createFactory();
+		ByteBuffer bb = ByteBuffer.wrap(encodeStream(factory));
+
+		StAXDecoder decoder = new StAXDecoder(factory);
+		decoder.setInput(bb);
+		int elements = 0;
+		while (decoder.hasNext()) {
+			if (decoder.next() == XMLStreamConstants.START_ELEMENT) {
+				elements++;
+			}
+		}
+		assertEquals(7, elements);
+	}
+
+	public void testXmlPull() throws Exception {
+		EXIFactory factory = createFactory();
+		byte[] exi = encodeStream(factory);
+
+		EXIPullParser parser = new EXIPullParser(factory);
+		parser.setInput(Channels.newChannel(new ByteArrayInputStream(exi)));
+		int elements = 0;
+		int ev;
+		while ((ev = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (ev == XmlPullParser.START_TAG) {
+				elements++;
+			}
+		}
+		assertEquals(7, elements);
+
+		// serializer into direct buffer
+		ByteBuffer bb = ByteBuffer.allocateDirect(1024);
+		EXISerializer serializer = new EXISerializer(factory);
+		serializer.setOutput(bb);
+		serializer.startDocument(null, null);
+		serializer.startTag("", "root");
+		serializer.text("text");
+		serializer.endTag("", "root");
+		serializer.endDocument();
+		bb.flip();
+		assertTrue(bb.remaining() > 0);
+
+		parser = new EXIPullParser(factory);
+		parser.setInput(bb);
+		assertEquals(XmlPullParser.START_TAG, parser.nextTag());
+		assertEquals("root", parser.getName());
+	}
+
+	public void testDOM() throws Exception {
+		EXIFactory factory = createFactory();
+		Document doc = new DOMBuilder(factory).parse(ByteBuffer
+				.wrap(encodeStream(factory)));
+
+		ByteBuffer bb = ByteBuffer.allocateDirect(4096);
+		DOMWriter writer = new DOMWriter(factory);
+		writer.setOutput(bb);
+		writer.encode(doc);
+		bb.flip();
+
+		Document doc2 = new DOMBuilder(factory).parse(bb);
+		assertEquals(7, doc2.getElementsByTagNameNS("*", "*").getLength());
+
+		// channel
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer = new DOMWriter(factory);
+		writer.setOutput(Channels.newChannel(os));
+		writer.encode(doc);
+		Document doc3 = new DOMBuilder(factory).parse(Channels
+				.newChannel(new ByteArrayInputStream(os.toByteArray())));
+		assertEquals(7, doc3.getElementsByTagNameNS("*", "*").getLength());
+	}
+
+}
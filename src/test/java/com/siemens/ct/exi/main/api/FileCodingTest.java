@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamConstants;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.main.api.dom.DOMBuilder;
+import com.siemens.ct.exi.main.api.dom.DOMWriter;
+import com.siemens.ct.exi.main.api.sax.SAXDecoder;
+import com.siemens.ct.exi.main.api.sax.SAXEncoder;
+import com.siemens.ct.exi.main.api.sax.SAXFactory;
+import com.siemens.ct.exi.main.api.stream.StAXDecoder;
+import com.siemens.ct.exi.main.api.stream.StAXEncoder;
+
+public class FileCodingTest extends TestCase {
+
+	final Path xmlNotebook = Paths
+			.get("./data/W3C/PrimerNotebook/notebook.xml");
+
+	protected Path exiFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		exiFile = File.createTempFile("notebook", ".exi").toPath();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(exiFile);
+	}
+
+	protected EXIFactory createFactory(CodingMode codingMode) {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setCodingMode(codingMode);
+		return factory;
+	}
+
+	protected byte[] encodeStream(EXIFactory factory) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SAXEncoder encoder = new SAXFactory(factory).createEXIWriter();
+		encoder.setOutputStream(os);
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		XMLReader xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setContentHandler(encoder);
+		xmlReader.parse(new InputSource(xmlNotebook.toString()));
+		return os.toByteArray();
+	}
+
+	static class ElementCounter extends DefaultHandler {
+		int elements;
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes atts) {
+			elements++;
+		}
+	}
+
+	protected void _testSAX(CodingMode codingMode) throws Exception {
+		EXIFactory factory = createFactory(codingMode);
+
+		new SAXFactory(factory).createEXIWriter().encode(xmlNotebook, exiFile);
+		assertTrue(Arrays.equals(encodeStream(factory),
+				Files.readAllBytes(exiFile)));
+
+		SAXDecoder decoder = (SAXDecoder) new SAXFactory(factory)
+				.createEXIReader();
+		ElementCounter counter = new ElementCounter();
+		decoder.setContentHandler(counter);
+		decoder.parse(exiFile);
+		assertEquals(7, counter.elements);
+
+		// systemId variant
+		counter.elements = 0;
+		decoder.parse(exiFile.toString());
+		assertEquals(7, counter.elements);
+	}
+
+	public void testSAXBitPacked() throws Exception {
+		_testSAX(CodingMode.BIT_PACKED);
+	}
+
+	public void testSAXCompression() throws Exception {
+		_testSAX(CodingMode.COMPRESSION);
+	}
+
+	public void testStAX() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.BYTE_PACKED);
+
+		new StAXEncoder(factory).encode(xmlNotebook, exiFile);
+
+		StAXDecoder decoder = new StAXDecoder(factory);
+		decoder.setInput(exiFile);
+		int elements = 0;
+		while (decoder.hasNext()) {
+			if (decoder.next() == XMLStreamConstants.START_ELEMENT) {
+				elements++;
+			}
+		}
+		decoder.close();
+		assertEquals(7, elements);
+	}
+
+	public void testDOM() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.PRE_COMPRESSION);
+
+		new DOMWriter(factory).encode(xmlNotebook, exiFile);
+
+		Document doc = new DOMBuilder(factory).parse(exiFile);
+		assertEquals("notebook", doc.getDocumentElement().getLocalName());
+		assertEquals(7, doc.getElementsByTagNameNS("*", "*").getLength());
+	}
+
+}
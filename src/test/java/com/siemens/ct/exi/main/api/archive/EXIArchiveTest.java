@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.main.api.sax.SAXCoderPool;
+import com.siemens.ct.exi.main.api.sax.SAXDecoder;
+import com.siemens.ct.exi.main.api.sax.SAXEncoder;
+import com.siemens.ct.exi.main.api.sax.SAXFactory;
+import com.siemens.ct.exi.main.api.stream.StAXEncoder;
+
+public class EXIArchiveTest extends TestCase {
+
+	protected Path archiveFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		archiveFile = File.createTempFile("messages", ".exia").toPath();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(archiveFile);
+	}
+
+	protected EXIFactory createFactory(CodingMode codingMode) {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setCodingMode(codingMode);
+		return factory;
+	}
+
+	/* document n has (n % 7) notes */
+	protected static String createXml(int n) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<message id=\"" + n + "\">");
+		for (int i = 0; i < n % 7; i++) {
+			sb.append("<note>Note " + i + " of message " + n + "</note>");
+		}
+		sb.append("</message>");
+		return sb.toString();
+	}
+
+	static class MessageHandler extends DefaultHandler {
+		String id;
+		int elements;
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes atts) {
+			if (elements++ == 0) {
+				id = atts.getValue("id");
+			}
+		}
+	}
+
+	/* even documents via SAXEncoder, odd documents via StAXEncoder */
+	protected void writeArchive(EXIFactory factory, int documents)
+			throws Exception {
+		SAXEncoder saxEncoder = new SAXFactory(factory).createEXIWriter();
+		StAXEncoder staxEncoder = new StAXEncoder(factory);
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		XMLReader xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setContentHandler(saxEncoder);
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+
+		EXIArchiveWriter archive = new EXIArchiveWriter(archiveFile);
+		try {
+			for (int i = 0; i < documents; i++) {
+				archive.nextDocument();
+				if (i % 2 == 0) {
+					saxEncoder.setOutputStream(archive);
+					xmlReader.parse(new InputSource(new StringReader(
+							createXml(i))));
+				} else {
+					staxEncoder.setOutputStream(archive);
+					staxEncoder.encode(xif.createXMLStreamReader(new StringReader(
+							createXml(i))));
+				}
+			}
+			assertEquals(documents, archive.getNumberOfDocuments());
+		} finally {
+			archive.close();
+		}
+	}
+
+	protected void _testRandomAccess(CodingMode codingMode) throws Exception {
+		EXIFactory factory = createFactory(codingMode);
+		writeArchive(factory, 100);
+
+		EXIArchiveReader archive = new EXIArchiveReader(archiveFile);
+		try {
+			assertEquals(100, archive.getNumberOfDocuments());
+			assertEquals(0, archive.getDocumentOffset(0));
+
+			SAXDecoder decoder = (SAXDecoder) new SAXFactory(factory)
+					.createEXIReader();
+			for (int n : new int[] { 73, 0, 99, 42, 73 }) {
+				MessageHandler handler = new MessageHandler();
+				decoder.setContentHandler(handler);
+				archive.parse(n, decoder);
+				assertEquals(String.valueOf(n), handler.id);
+				assertEquals(1 + n % 7, handler.elements);
+				assertEquals(archive.getDocumentLength(n),
+						archive.getDocument(n).remaining());
+			}
+		} finally {
+			archive.close();
+		}
+	}
+
+	public void testRandomAccessBitPacked() throws Exception {
+		_testRandomAccess(CodingMode.BIT_PACKED);
+	}
+
+	public void testRandomAccessCompression() throws Exception {
+		_testRandomAccess(CodingMode.COMPRESSION);
+	}
+
+	public void testAppendDocument() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.BYTE_PACKED);
+		SAXEncoder encoder = new SAXFactory(factory).createEXIWriter();
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		XMLReader xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setContentHandler(encoder);
+
+		byte[][] exi = new byte[3][];
+		for (int i = 0; i < exi.length; i++) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			encoder.setOutputStream(os);
+			xmlReader.parse(new InputSource(new StringReader(createXml(i))));
+			exi[i] = os.toByteArray();
+		}
+
+		// small buffer, larger documents bypass it
+		EXIArchiveWriter archive = new EXIArchiveWriter(
+				Files.newByteChannel(archiveFile,
+						StandardOpenOption.WRITE), 20, false);
+		archive.appendDocument(exi[0]);
+		archive.appendDocument(ByteBuffer.wrap(exi[1]));
+		ByteBuffer direct = ByteBuffer.allocateDirect(exi[2].length);
+		direct.put(exi[2]).flip();
+		archive.appendDocument(direct);
+		assertFalse(direct.hasRemaining());
+		assertEquals(exi[0].length + exi[1].length + exi[2].length,
+				archive.position());
+		archive.close();
+
+		EXIArchiveReader reader = new EXIArchiveReader(archiveFile);
+		try {
+			assertEquals(3, reader.getNumberOfDocuments());
+			for (int i = 0; i < exi.length; i++) {
+				ByteBuffer doc = reader.getDocument(i);
+				assertTrue(doc.isReadOnly());
+				byte[] b = new byte[doc.remaining()];
+				doc.get(b);
+				assertTrue(Arrays.equals(exi[i], b));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testParallel() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.COMPRESSION);
+		final int documents = 500;
+		writeArchive(factory, documents);
+
+		final MessageHandler[] handlers = new MessageHandler[documents];
+		final AtomicIntegerArray calls = new AtomicIntegerArray(documents);
+		EXIArchiveReader.ContentHandlerFactory handlerFactory = new EXIArchiveReader.ContentHandlerFactory() {
+			public ContentHandler createContentHandler(int document) {
+				calls.incrementAndGet(document);
+				return handlers[document] = new MessageHandler();
+			}
+		};
+
+		SAXCoderPool pool = new SAXCoderPool(factory);
+		EXIArchiveReader archive = new EXIArchiveReader(archiveFile);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			archive.parse(pool, 0, documents, handlerFactory, executor, 4);
+			for (int n = 0; n < documents; n++) {
+				assertEquals(1, calls.get(n));
+				assertEquals(String.valueOf(n), handlers[n].id);
+				assertEquals(1 + n % 7, handlers[n].elements);
+			}
+			assertTrue(pool.getNumberOfIdleReaders() <= 4);
+
+			// common pool
+			for (int n = 0; n < documents; n++) {
+				handlers[n] = null;
+			}
+			archive.parse(pool, handlerFactory);
+			for (int n = 0; n < documents; n++) {
+				assertEquals(2, calls.get(n));
+				assertEquals(1 + n % 7, handlers[n].elements);
+			}
+		} finally {
+			executor.shutdown();
+			archive.close();
+		}
+	}
+
+	public void testParallelFailure() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.BIT_PACKED);
+		writeArchive(factory, 50);
+
+		EXIArchiveReader archive = new EXIArchiveReader(archiveFile);
+		try {
+			archive.parse(new SAXCoderPool(factory), 0, 50,
+					new EXIArchiveReader.ContentHandlerFactory() {
+						public ContentHandler createContentHandler(
+								int document) throws SAXException {
+							if (document == 17) {
+								throw new SAXException("Failure 17");
+							}
+							return new DefaultHandler();
+						}
+					}, new Executor() {
+						public void execute(Runnable command) {
+							// caller runs
+							command.run();
+						}
+					}, 2);
+			fail("Failure expected");
+		} catch (SAXException e) {
+			assertEquals("Failure 17", e.getMessage());
+		} finally {
+			archive.close();
+		}
+	}
+
+	public void testEmptyArchive() throws Exception {
+		new EXIArchiveWriter(archiveFile).close();
+		assertEquals(EXIArchiveWriter.FOOTER_SIZE, Files.size(archiveFile));
+
+		EXIArchiveReader archive = new EXIArchiveReader(archiveFile);
+		try {
+			assertEquals(0, archive.getNumberOfDocuments());
+			archive.parse(new SAXCoderPool(
+					createFactory(CodingMode.BIT_PACKED)),
+					new EXIArchiveReader.ContentHandlerFactory() {
+						public ContentHandler createContentHandler(
+								int document) {
+							throw new IllegalStateException();
+						}
+					});
+		} finally {
+			archive.close();
+		}
+	}
+
+	public void testNoArchive() throws Exception {
+		Files.write(archiveFile, createXml(10).getBytes("UTF-8"));
+		try {
+			new EXIArchiveReader(archiveFile);
+			fail("No EXI archive");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testWriteWithoutDocument() throws Exception {
+		EXIArchiveWriter archive = new EXIArchiveWriter(archiveFile);
+		try {
+			archive.write(0);
+			fail("No document started");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			archive.close();
+		}
+		try {
+			archive.nextDocument();
+			fail("Archive closed");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+}
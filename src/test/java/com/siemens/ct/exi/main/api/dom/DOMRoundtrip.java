@@ -38,9 +38,11 @@ import org.custommonkey.xmlunit.XMLTestCase;
 import org.custommonkey.xmlunit.XMLUnit;
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
+import com.siemens.ct.exi.core.CodingMode;
 import com.siemens.ct.exi.core.EXIFactory;
 import com.siemens.ct.exi.core.FidelityOptions;
 import com.siemens.ct.exi.core.exceptions.EXIException;
@@ -140,9 +142,96 @@ public class DOMRoundtrip extends XMLTestCase {
 		roundtrip("./data/fragment/fragment2.xml.frag", exiFactory);
 	}
 
+	public void testW3CNotebookPipelined() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		roundtrip("./data/W3C/PrimerNotebook/notebook.xml", exiFactory, 4);
+	}
+
+	public void testGeneralPersonPipelinedCompression() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		exiFactory.setCodingMode(CodingMode.COMPRESSION);
+		exiFactory.setBlockSize(5);
+		roundtrip("./data/general/person.xml", exiFactory, 2);
+	}
+
+	public void testSchemaVehiclePipelinedPreCompression() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		exiFactory.setCodingMode(CodingMode.PRE_COMPRESSION);
+		Grammars g = GrammarFactory.newInstance().createGrammars(
+				"./data/schema/vehicle.xsd");
+		exiFactory.setGrammars(g);
+
+		roundtrip("./data/schema/vehicle.xml", exiFactory, 1024);
+	}
+
+	public void testFragment1Pipelined() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFragment(true);
+
+		roundtrip("./data/fragment/fragment1.xml.frag", exiFactory, 8);
+	}
+
+	/* DOMWriter walks the tree without recursion */
+	public void testDeepDocument() throws Throwable {
+		final int depth = 20000;
+		final EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		DocumentBuilderFactory dfactory = DocumentBuilderFactory.newInstance();
+		dfactory.setNamespaceAware(true);
+		final Document doc = dfactory.newDocumentBuilder().newDocument();
+		Node n = doc;
+		for (int i = 0; i < depth; i++) {
+			Element e = doc.createElement("e");
+			e.setAttribute("d", "" + i);
+			n.appendChild(e);
+			n = e;
+		}
+		n.appendChild(doc.createTextNode("leaf"));
+
+		// small stack
+		final ByteArrayOutputStream osEXI = new ByteArrayOutputStream();
+		final Throwable[] failure = new Throwable[1];
+		Thread t = new Thread(null, new Runnable() {
+			public void run() {
+				try {
+					DOMWriter domEncoder = new DOMWriter(exiFactory);
+					domEncoder.setOutput(osEXI);
+					domEncoder.encode(doc);
+				} catch (Throwable e) {
+					failure[0] = e;
+				}
+			}
+		}, "deep", 256 * 1024);
+		t.start();
+		t.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+
+		Document exiDocument = createDOMBuilder(exiFactory).parse(
+				new ByteArrayInputStream(osEXI.toByteArray()));
+		int d = 0;
+		Node e = exiDocument.getDocumentElement();
+		while (e.getNodeType() == Node.ELEMENT_NODE) {
+			assertEquals("" + d, ((Element) e).getAttribute("d"));
+			d++;
+			e = e.getFirstChild();
+		}
+		assertEquals(depth, d);
+		assertEquals("leaf", e.getNodeValue());
+	}
+
 	public void roundtrip(String sXML, EXIFactory exiFactory)
 			throws ParserConfigurationException, SAXException, IOException,
 			EXIException {
+		roundtrip(sXML, exiFactory, 0);
+	}
+
+	public void roundtrip(String sXML, EXIFactory exiFactory,
+			int pipelineRingSize) throws ParserConfigurationException,
+			SAXException, IOException, EXIException {
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		factory.setNamespaceAware(true);
 		DocumentBuilder builder = factory.newDocumentBuilder();
@@ -167,7 +256,8 @@ public class DOMRoundtrip extends XMLTestCase {
 		// decode EXI to DOM
 		InputStream is = new ByteArrayInputStream(osEXI.toByteArray());
 		// InputStream is = new FileInputStream(f);
-		DOMBuilder db = new DOMBuilder(exiFactory);
+		DOMBuilder db = createDOMBuilder(exiFactory);
+		db.setPipelineRingSize(pipelineRingSize);
 
 		if (exiFactory.isFragment()) {
 			// @SuppressWarnings("unused")
@@ -180,6 +270,11 @@ public class DOMRoundtrip extends XMLTestCase {
 		}
 	}
 
+	protected DOMBuilder createDOMBuilder(EXIFactory exiFactory)
+			throws ParserConfigurationException {
+		return new DOMBuilder(exiFactory);
+	}
+
 	protected void isXMLEqual(Document control, Document test)
 			throws SAXException, IOException {
 		XMLUnit.setIgnoreWhitespace(true);
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.dom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+import javax.xml.namespace.QName;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+import com.siemens.ct.exi.main.helpers.SelfContainedIndex;
+
+/**
+ * Runs all DOM round trips with the direct builder and compares its trees
+ * with the SAX based builder.
+ */
+public class EXIDOMBuilderTest extends DOMRoundtrip {
+
+	@Override
+	protected DOMBuilder createDOMBuilder(EXIFactory exiFactory)
+			throws ParserConfigurationException {
+		return new EXIDOMBuilder(exiFactory);
+	}
+
+	protected static Document parseXML(InputSource is) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(is);
+	}
+
+	protected static byte[] encode(EXIFactory exiFactory, Document doc)
+			throws Exception {
+		ByteArrayOutputStream osEXI = new ByteArrayOutputStream();
+		DOMWriter domEncoder = new DOMWriter(exiFactory);
+		domEncoder.setOutput(osEXI);
+		domEncoder.encode(doc);
+		return osEXI.toByteArray();
+	}
+
+	/* both builders create equal trees (after merging adjacent text) */
+	protected void _testSameTree(EXIFactory exiFactory, InputSource xml)
+			throws Exception {
+		byte[] exi = encode(exiFactory, parseXML(xml));
+
+		Document expected = new DOMBuilder(exiFactory)
+				.parse(new ByteArrayInputStream(exi));
+		Document direct = new EXIDOMBuilder(exiFactory)
+				.parse(new ByteArrayInputStream(exi));
+		expected.normalize();
+		direct.normalize();
+		assertTrue(expected.isEqualNode(direct));
+
+		// buffer entry point
+		direct = new EXIDOMBuilder(exiFactory).parse(ByteBuffer.wrap(exi));
+		direct.normalize();
+		assertTrue(expected.isEqualNode(direct));
+	}
+
+	protected void _testSameTree(EXIFactory exiFactory, String sXML)
+			throws Exception {
+		_testSameTree(exiFactory, new InputSource(new File(sXML).toURI()
+				.toString()));
+	}
+
+	public void testSameTreeNotebook() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		_testSameTree(exiFactory, "./data/W3C/PrimerNotebook/notebook.xml");
+	}
+
+	public void testSameTreePerson() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		exiFactory.setCodingMode(CodingMode.COMPRESSION);
+		_testSameTree(exiFactory, "./data/general/person.xml");
+	}
+
+	public void testSameTreeDatatypes() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setGrammars(GrammarFactory.newInstance().createGrammars(
+				"./data/general/datatypes.xsd"));
+		_testSameTree(exiFactory, "./data/general/datatypes.xml");
+	}
+
+	public void testSameTreeVehicle() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		exiFactory.setGrammars(GrammarFactory.newInstance().createGrammars(
+				"./data/schema/vehicle.xsd"));
+		_testSameTree(exiFactory, "./data/schema/vehicle.xml");
+	}
+
+	public void testSameTreeList() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setGrammars(GrammarFactory.newInstance().createGrammars(
+				"./data/schema/list.xsd"));
+		_testSameTree(exiFactory, "./data/schema/list.xml");
+	}
+
+	public void testPrefixes() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		String xml = "<a:root xmlns:a='urn:a' xmlns:b='urn:a' a:at='1'>"
+				+ "<a:e b:at='2'/><b:e a:at='3'/><a:e/></a:root>";
+		_testSameTree(exiFactory, new InputSource(new StringReader(xml)));
+
+		Document doc = new EXIDOMBuilder(exiFactory)
+				.parse(new ByteArrayInputStream(encode(exiFactory,
+						parseXML(new InputSource(new StringReader(xml))))));
+		Element root = doc.getDocumentElement();
+		assertEquals("a:root", root.getNodeName());
+		assertEquals("urn:a", root.getNamespaceURI());
+		assertEquals("root", root.getLocalName());
+		assertEquals("urn:a", root.getAttribute("xmlns:b"));
+		Element e1 = (Element) root.getFirstChild();
+		Element e2 = (Element) e1.getNextSibling();
+		Element e3 = (Element) e2.getNextSibling();
+		// same qname, changing prefixes
+		assertEquals("a:e", e1.getNodeName());
+		assertEquals("b:e", e2.getNodeName());
+		assertEquals("a:e", e3.getNodeName());
+		assertEquals("b:at", e1.getAttributes().item(0).getNodeName());
+		assertEquals("3", e2.getAttributeNS("urn:a", "at"));
+	}
+
+	public void testBuilderReuse() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		byte[] exi = encode(exiFactory, parseXML(new InputSource(
+				new StringReader("<r a='x'><c>text</c></r>"))));
+
+		EXIDOMBuilder builder = new EXIDOMBuilder(exiFactory);
+		Document d1 = builder.parse(new ByteArrayInputStream(exi));
+		Document d2 = builder.parse(new ByteArrayInputStream(exi));
+		assertNotSame(d1, d2);
+		assertTrue(d1.isEqualNode(d2));
+		assertEquals("x", d2.getDocumentElement().getAttribute("a"));
+		assertEquals("text", d2.getDocumentElement().getTextContent());
+	}
+
+	public void testDeferredNodeExpansion() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		byte[] exi = encode(exiFactory, parseXML(new InputSource(new File(
+				"./data/W3C/PrimerNotebook/notebook.xml").toURI()
+				.toString())));
+
+		Document expected = new DOMBuilder(exiFactory)
+				.parse(new ByteArrayInputStream(exi));
+		expected.normalize();
+
+		EXIDOMBuilder builder = new EXIDOMBuilder(exiFactory);
+		builder.setDeferNodeExpansion(true);
+		Document deferred = builder.parse(new ByteArrayInputStream(exi));
+		assertTrue(expected.getDocumentElement().isEqualNode(
+				deferred.getDocumentElement()));
+
+		// nodes are created once
+		Element root = deferred.getDocumentElement();
+		assertSame(root, deferred.getDocumentElement());
+		assertSame(root.getFirstChild(), root.getFirstChild());
+		assertSame(root, root.getFirstChild().getParentNode());
+		assertSame(root.getLastChild(), root.getChildNodes().item(
+				root.getChildNodes().getLength() - 1));
+
+		// read-only
+		try {
+			root.appendChild(root.getFirstChild());
+			fail("deferred documents are read-only");
+		} catch (DOMException e) {
+			assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+		}
+	}
+
+	/* log with numbered records, each record self-contained */
+	protected static String createLog(int records) {
+		StringBuilder sb = new StringBuilder("<log>");
+		for (int i = 0; i < records; i++) {
+			sb.append("<record id='" + i + "'><msg>Message " + i
+					+ "</msg></record>");
+		}
+		sb.append("</log>");
+		return sb.toString();
+	}
+
+	public void testParseSelfContained() throws Exception {
+		QName record = new QName("", "record");
+		SelfContainedIndex index = new SelfContainedIndex();
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		index.register(exiFactory, new QName[] { record });
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		OutputStream tracked = index.track(os);
+		DOMWriter domEncoder = new DOMWriter(exiFactory);
+		domEncoder.setOutput(tracked);
+		domEncoder.encode(parseXML(new InputSource(new StringReader(
+				createLog(100)))));
+		tracked.flush();
+		assertEquals(100, index.getNumberOfOccurrences(record));
+		byte[] exi = os.toByteArray();
+
+		for (boolean deferred : new boolean[] { false, true }) {
+			EXIDOMBuilder builder = new EXIDOMBuilder(exiFactory);
+			builder.setDeferNodeExpansion(deferred);
+			for (int n : new int[] { 57, 0, 99 }) {
+				Document doc = builder.parseSelfContained(ByteBuffer.wrap(exi),
+						index.getOffset(record, n));
+				Element r = doc.getDocumentElement();
+				assertEquals("record", r.getLocalName());
+				assertEquals("" + n, r.getAttribute("id"));
+				Node msg = r.getFirstChild();
+				assertEquals("msg", msg.getLocalName());
+				assertEquals("Message " + n, msg.getTextContent());
+				assertNull(r.getNextSibling());
+			}
+		}
+	}
+
+}
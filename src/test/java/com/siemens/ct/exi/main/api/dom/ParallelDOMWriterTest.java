@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.dom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+/**
+ * Compares the parallel SC encoding with the sequential DOMWriter byte by
+ * byte.
+ */
+public class ParallelDOMWriterTest extends TestCase {
+
+	static final QName RECORD = new QName("", "record");
+	static final QName ENTRY = new QName("urn:log", "entry");
+
+	protected ForkJoinPool pool;
+
+	@Override
+	protected void setUp() throws Exception {
+		pool = new ForkJoinPool(4);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pool.shutdownNow();
+	}
+
+	/* log with numbered records, comments and whitespace in between */
+	protected static String createXml(int records) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<log xmlns:l='urn:log'>\n");
+		for (int i = 0; i < records; i++) {
+			sb.append("  <!-- record " + i + " -->\n");
+			sb.append("  <record id='" + i + "'><level>"
+					+ (i % 3 == 0 ? "WARN" : "INFO") + "</level><msg>Message "
+					+ i + "</msg><l:entry l:n='" + i + "'>" + (i % 7)
+					+ "</l:entry></record>\n");
+		}
+		sb.append("</log>");
+		return sb.toString();
+	}
+
+	protected static Document parseXML(String xml) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(
+				new InputSource(new StringReader(xml)));
+	}
+
+	/* factory for sequential coding and decoding, SC elements enabled */
+	protected static EXIFactory createSCFactory(EXIFactory exiFactory,
+			QName[] scElements) throws Exception {
+		EXIFactory scFactory = exiFactory.clone();
+		FidelityOptions fo = FidelityOptions.createDefault();
+		for (String feature : new String[] { FidelityOptions.FEATURE_COMMENT,
+				FidelityOptions.FEATURE_PI, FidelityOptions.FEATURE_DTD,
+				FidelityOptions.FEATURE_PREFIX,
+				FidelityOptions.FEATURE_LEXICAL_VALUE }) {
+			fo.setFidelity(feature, exiFactory.getFidelityOptions()
+					.isFidelityEnabled(feature));
+		}
+		fo.setFidelity(FidelityOptions.FEATURE_SC, true);
+		scFactory.setFidelityOptions(fo);
+		scFactory.setSelfContainedElements(scElements);
+		return scFactory;
+	}
+
+	protected static byte[] encode(DOMWriter writer, Node n) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer.setOutput(os);
+		writer.encode(n);
+		return os.toByteArray();
+	}
+
+	/* parallel output equals sequential output and decodes to the same DOM */
+	protected void _testSameBytes(EXIFactory exiFactory, QName[] scElements,
+			Node n) throws Exception {
+		EXIFactory scFactory = createSCFactory(exiFactory, scElements);
+		byte[] expected = encode(new DOMWriter(scFactory), n);
+
+		ParallelDOMWriter writer = new ParallelDOMWriter(exiFactory,
+				scElements, pool);
+		byte[] exi = encode(writer, n);
+		assertTrue(Arrays.equals(expected, exi));
+
+		// re-use
+		writer.reset();
+		exi = encode(writer, n);
+		assertTrue(Arrays.equals(expected, exi));
+
+		Document docExpected = new DOMBuilder(scFactory)
+				.parse(new ByteArrayInputStream(expected));
+		Document doc = new DOMBuilder(scFactory).parse(new ByteArrayInputStream(
+				exi));
+		assertTrue(docExpected.isEqualNode(doc));
+	}
+
+	protected void _testLog(CodingMode codingMode, FidelityOptions fo)
+			throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(fo);
+		exiFactory.setCodingMode(codingMode);
+		_testSameBytes(exiFactory, new QName[] { RECORD },
+				parseXML(createXml(500)));
+	}
+
+	public void testBitPacked() throws Exception {
+		_testLog(CodingMode.BIT_PACKED, FidelityOptions.createDefault());
+	}
+
+	public void testBytePacked() throws Exception {
+		_testLog(CodingMode.BYTE_PACKED, FidelityOptions.createDefault());
+	}
+
+	public void testBitPackedAll() throws Exception {
+		_testLog(CodingMode.BIT_PACKED, FidelityOptions.createAll());
+	}
+
+	public void testNestedSelfContained() throws Exception {
+		// outermost records are encoded in parallel, inner ones nested
+		StringBuilder sb = new StringBuilder("<log xmlns:l='urn:log'>");
+		for (int i = 0; i < 50; i++) {
+			sb.append("<record id='" + i + "'><record>" + i
+					+ "</record><l:entry>x</l:entry></record>");
+		}
+		sb.append("<l:entry><record/></l:entry></log>");
+
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		_testSameBytes(exiFactory, new QName[] { RECORD, ENTRY },
+				parseXML(sb.toString()));
+	}
+
+	public void testSelfContainedRoot() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		Document doc = parseXML(createXml(20));
+		_testSameBytes(exiFactory, new QName[] { new QName("", "log") }, doc);
+		_testSameBytes(exiFactory, new QName[] { new QName("", "log") },
+				doc.getDocumentElement());
+	}
+
+	public void testElementEntryPoint() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		_testSameBytes(exiFactory, new QName[] { RECORD },
+				parseXML(createXml(100)).getDocumentElement());
+	}
+
+	public void testNoSelfContainedElements() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		_testSameBytes(exiFactory, new QName[] { new QName("", "none") },
+				parseXML(createXml(10)));
+	}
+
+	public void testDeferredDOM() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		QName[] scElements = new QName[] { RECORD };
+		byte[] exi = encode(new DOMWriter(exiFactory),
+				parseXML(createXml(300)));
+
+		// lazily expanded nodes are read by pool threads
+		EXIDOMBuilder builder = new EXIDOMBuilder(exiFactory);
+		builder.setDeferNodeExpansion(true);
+		_testSameBytes(exiFactory, scElements,
+				builder.parse(new ByteArrayInputStream(exi)));
+	}
+
+	public void testStrict() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createStrict());
+		try {
+			new ParallelDOMWriter(exiFactory, new QName[] { RECORD }, pool);
+			fail("SC elements with strict fidelity options");
+		} catch (EXIException e) {
+			// expected
+		}
+	}
+
+	public void testCompression() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		for (CodingMode codingMode : new CodingMode[] {
+				CodingMode.COMPRESSION, CodingMode.PRE_COMPRESSION }) {
+			exiFactory.setCodingMode(codingMode);
+			try {
+				new ParallelDOMWriter(exiFactory, new QName[] { RECORD }, pool);
+				fail("SC elements with " + codingMode);
+			} catch (EXIException e) {
+				// expected
+			}
+		}
+	}
+
+	public void testFactoryUnchanged() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createDefault());
+		new ParallelDOMWriter(exiFactory, new QName[] { RECORD }, pool);
+		assertFalse(exiFactory.getFidelityOptions().isFidelityEnabled(
+				FidelityOptions.FEATURE_SC));
+	}
+}
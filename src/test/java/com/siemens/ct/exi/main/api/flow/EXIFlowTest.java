@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.flow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+
+import junit.framework.TestCase;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.main.api.flow.EXIFlow.Publisher;
+import com.siemens.ct.exi.main.api.flow.EXIFlow.Subscriber;
+import com.siemens.ct.exi.main.api.flow.EXIFlow.Subscription;
+import com.siemens.ct.exi.main.api.stream.StAXDecoder;
+import com.siemens.ct.exi.main.api.stream.StAXEncoder;
+import com.siemens.ct.exi.main.util.BufferListOutputStream;
+
+public class EXIFlowTest extends TestCase {
+
+	protected ExecutorService executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Publishes the given items from the executor as requested. Signals are
+	 * serial, one task emits while there is demand.
+	 */
+	static class ListPublisher<T> implements Publisher<T> {
+		final List<T> items;
+		final ExecutorService executor;
+
+		ListPublisher(List<T> items, ExecutorService executor) {
+			this.items = items;
+			this.executor = executor;
+		}
+
+		public void subscribe(final Subscriber<? super T> subscriber) {
+			subscriber.onSubscribe(new Subscription() {
+				int next;
+				long demand;
+				boolean emitting;
+				boolean cancelled;
+
+				public void request(long n) {
+					synchronized (this) {
+						demand += n;
+						if (emitting || cancelled) {
+							return;
+						}
+						emitting = true;
+					}
+					executor.execute(new Runnable() {
+						public void run() {
+							emit();
+						}
+					});
+				}
+
+				void emit() {
+					for (;;) {
+						T item;
+						synchronized (this) {
+							if (cancelled) {
+								return;
+							}
+							if (next == items.size()) {
+								cancelled = true;
+								item = null;
+							} else if (demand == 0) {
+								emitting = false;
+								return;
+							} else {
+								item = items.get(next++);
+								demand--;
+							}
+						}
+						if (item == null) {
+							subscriber.onComplete();
+							return;
+						}
+						subscriber.onNext(item);
+					}
+				}
+
+				public synchronized void cancel() {
+					cancelled = true;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Collects all items, requests a few at a time.
+	 */
+	static class Collector<T> implements Subscriber<T> {
+		final int requestSize;
+		final List<T> items = new ArrayList<T>();
+		final CountDownLatch done = new CountDownLatch(1);
+		Subscription subscription;
+		volatile Throwable failure;
+
+		Collector(int requestSize) {
+			this.requestSize = requestSize;
+		}
+
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(requestSize);
+		}
+
+		@SuppressWarnings("unchecked")
+		public void onNext(T item) {
+			if (item instanceof XMLEventRecord) {
+				// records are re-used
+				item = (T) ((XMLEventRecord) item).copy();
+			}
+			items.add(item);
+			if (items.size() % requestSize == 0) {
+				subscription.request(requestSize);
+			}
+		}
+
+		public void onError(Throwable throwable) {
+			failure = throwable;
+			done.countDown();
+		}
+
+		public void onComplete() {
+			done.countDown();
+		}
+
+		List<T> await() throws Exception {
+			assertTrue("Timeout", done.await(30, TimeUnit.SECONDS));
+			if (failure != null) {
+				throw new Exception(failure);
+			}
+			return items;
+		}
+	}
+
+	protected static String createXml(int n) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<root xmlns='urn:root' xmlns:p='urn:p'>");
+		for (int i = 0; i < n; i++) {
+			sb.append("<p:item id='" + i + "'>");
+			sb.append("<!-- comment " + i + " -->");
+			sb.append("<value>text " + i + "</value>");
+			sb.append("</p:item>");
+		}
+		sb.append("</root>");
+		return sb.toString();
+	}
+
+	protected EXIFactory createFactory() throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setFidelityOptions(FidelityOptions.createAll());
+		return factory;
+	}
+
+	protected static byte[] encode(EXIFactory factory, String xml)
+			throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		StAXEncoder encoder = new StAXEncoder(factory);
+		encoder.setOutputStream(os);
+		encoder.encode(XMLInputFactory.newInstance().createXMLStreamReader(
+				new StringReader(xml)));
+		return os.toByteArray();
+	}
+
+	/*
+	 * textual form of the decoded events
+	 */
+	protected List<String> decode(EXIFactory factory, byte[] exi)
+			throws Exception {
+		EXIDecodingProcessor decoder = new EXIDecodingProcessor(
+				new StAXDecoder(factory), 64, null);
+		return toStrings(decode(decoder, exi, exi.length, 1000));
+	}
+
+	protected List<XMLEventRecord> decode(EXIDecodingProcessor decoder,
+			byte[] exi, int chunkSize, int requestSize) throws Exception {
+		List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		for (int off = 0; off < exi.length; off += chunkSize) {
+			chunks.add(ByteBuffer.wrap(exi, off,
+					Math.min(chunkSize, exi.length - off)));
+		}
+		new ListPublisher<ByteBuffer>(chunks, executor).subscribe(decoder);
+		Collector<XMLEventRecord> collector = new Collector<XMLEventRecord>(
+				requestSize);
+		decoder.subscribe(collector);
+		return collector.await();
+	}
+
+	protected static List<String> toStrings(List<XMLEventRecord> records) {
+		List<String> events = new ArrayList<String>();
+		for (XMLEventRecord r : records) {
+			events.add(r.toString());
+		}
+		return events;
+	}
+
+	public void testDecode() throws Exception {
+		EXIFactory factory = createFactory();
+		byte[] exi = encode(factory, createXml(200));
+
+		List<String> expected = null;
+		for (int chunkSize : new int[] { exi.length, 100, 7, 1 }) {
+			for (int requestSize : new int[] { 1, 16, 1000 }) {
+				EXIDecodingProcessor decoder = new EXIDecodingProcessor(
+						new StAXDecoder(factory), 8, executor);
+				List<String> events = toStrings(decode(decoder, exi,
+						chunkSize, requestSize));
+				if (expected == null) {
+					expected = events;
+				}
+				assertEquals("Chunk size " + chunkSize, expected, events);
+			}
+		}
+
+		assertEquals(XMLStreamConstants.START_DOCUMENT + "", expected.get(0));
+		assertEquals(XMLStreamConstants.END_DOCUMENT + "",
+				expected.get(expected.size() - 1));
+		assertTrue(expected.get(1).contains("xmlns:p=urn:p"));
+		assertTrue(expected.contains(XMLStreamConstants.COMMENT
+				+ " ' comment 199 '"));
+	}
+
+	public void testDecodeTruncated() throws Exception {
+		EXIFactory factory = createFactory();
+		byte[] exi = encode(factory, createXml(100));
+		EXIDecodingProcessor decoder = new EXIDecodingProcessor(factory);
+		try {
+			decode(decoder, Arrays.copyOf(exi, exi.length / 2), 50, 10);
+			fail("Truncated stream must fail");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testRoundtrip() throws Exception {
+		EXIFactory factory = createFactory();
+		byte[] exi = encode(factory, createXml(500));
+		List<XMLEventRecord> records = decode(new EXIDecodingProcessor(
+				new StAXDecoder(factory), 64, executor), exi, 256, 64);
+
+		for (int requestSize : new int[] { 1, 4, 1000 }) {
+			BufferListOutputStream output = new BufferListOutputStream(128,
+					true);
+			output.setHighWaterMark(512);
+			EXIEncodingProcessor encoder = new EXIEncodingProcessor(
+					new StAXEncoder(factory), output, 16);
+			new ListPublisher<XMLEventRecord>(records, executor)
+					.subscribe(encoder);
+			Collector<ByteBuffer> collector = new Collector<ByteBuffer>(
+					requestSize);
+			encoder.subscribe(collector);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			List<ByteBuffer> chunks = collector.await();
+			assertTrue(chunks.size() > 1);
+			for (ByteBuffer chunk : chunks) {
+				byte[] b = new byte[chunk.remaining()];
+				chunk.get(b);
+				bytes.write(b);
+			}
+			// decodes the same events
+			assertEquals(toStrings(records),
+					decode(factory, bytes.toByteArray()));
+		}
+	}
+
+	public void testEncodeIncomplete() throws Exception {
+		EXIFactory factory = createFactory();
+		EXIEncodingProcessor encoder = new EXIEncodingProcessor(factory);
+		List<XMLEventRecord> records = new ArrayList<XMLEventRecord>();
+		records.add(new XMLEventRecord(XMLStreamConstants.START_DOCUMENT));
+		records.add(new XMLEventRecord(XMLStreamConstants.START_ELEMENT)
+				.setName("", "root", ""));
+		new ListPublisher<XMLEventRecord>(records, executor)
+				.subscribe(encoder);
+		Collector<ByteBuffer> collector = new Collector<ByteBuffer>(10);
+		encoder.subscribe(collector);
+		try {
+			collector.await();
+			fail("Incomplete document must fail");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	public void testSingleSubscriber() throws Exception {
+		EXIFactory factory = createFactory();
+		EXIDecodingProcessor decoder = new EXIDecodingProcessor(factory);
+		decoder.subscribe(new Collector<XMLEventRecord>(1));
+		Collector<XMLEventRecord> second = new Collector<XMLEventRecord>(1);
+		decoder.subscribe(second);
+		assertTrue(second.failure instanceof IllegalStateException);
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.sax;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.SAXException;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.main.api.sax.AsyncSAXDecoder.Status;
+import com.siemens.ct.exi.main.api.sax.PipelinedDecoderTest.EventLogger;
+import com.siemens.ct.exi.main.util.EventRing;
+
+public class AsyncSAXDecoderTest extends TestCase {
+
+	protected ExecutorService executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	protected EXIFactory createFactory(CodingMode codingMode) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setFidelityOptions(FidelityOptions.createAll());
+		factory.setCodingMode(codingMode);
+		// several compression blocks
+		factory.setBlockSize(200);
+		return factory;
+	}
+
+	protected static String decode(SAXDecoder reader, byte[] exi)
+			throws Exception {
+		return PipelinedDecoderTest.decode(reader, exi);
+	}
+
+	/*
+	 * feeds the message in chunks of the given size, returns the number of
+	 * NEEDS_MORE_INPUT results
+	 */
+	protected static int feed(AsyncSAXDecoder asyncReader, byte[] exi,
+			int chunkSize) throws Exception {
+		int needsMoreInput = 0;
+		Status status = Status.NEEDS_MORE_INPUT;
+		for (int off = 0; off < exi.length; off += chunkSize) {
+			int len = Math.min(chunkSize, exi.length - off);
+			// chunks are re-used by the caller
+			byte[] chunk = Arrays.copyOfRange(exi, off, off + len);
+			status = asyncReader.feed(chunk);
+			if (status == Status.NEEDS_MORE_INPUT) {
+				needsMoreInput++;
+			}
+			Arrays.fill(chunk, (byte) 0);
+		}
+		if (status == Status.NEEDS_MORE_INPUT) {
+			status = asyncReader.endOfInput();
+		}
+		assertEquals(Status.END_OF_DOCUMENT, status);
+		assertTrue(asyncReader.isDocumentDone());
+		return needsMoreInput;
+	}
+
+	protected void _testSameEvents(CodingMode codingMode) throws Exception {
+		EXIFactory factory = createFactory(codingMode);
+		byte[] exi = PipelinedDecoderTest.encode(factory,
+				PipelinedDecoderTest.createXml(200));
+		String expected = decode(new SAXDecoder(factory), exi);
+
+		for (int chunkSize : new int[] { 1, 7, 100, exi.length }) {
+			for (int ringSize : new int[] { 1, 64 }) {
+				AsyncSAXDecoder asyncReader = new AsyncSAXDecoder(
+						new SAXDecoder(factory), ringSize,
+						EventRing.DEFAULT_SPIN_COUNT, executor);
+				EventLogger logger = new EventLogger();
+				asyncReader.setContentHandler(logger);
+				asyncReader.setLexicalHandler(logger);
+
+				int needsMoreInput = feed(asyncReader, exi, chunkSize);
+				assertEquals("ChunkSize " + chunkSize, expected,
+						logger.log.toString());
+				if (chunkSize < exi.length) {
+					assertTrue(needsMoreInput > 0);
+				}
+
+				// re-use
+				asyncReader.reset();
+				logger.log.setLength(0);
+				feed(asyncReader, exi, chunkSize);
+				assertEquals("ChunkSize " + chunkSize, expected,
+						logger.log.toString());
+			}
+		}
+	}
+
+	public void testSameEventsBitPacked() throws Exception {
+		_testSameEvents(CodingMode.BIT_PACKED);
+	}
+
+	public void testSameEventsCompression() throws Exception {
+		_testSameEvents(CodingMode.COMPRESSION);
+	}
+
+	public void testIncremental() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.BIT_PACKED);
+		byte[] exi = PipelinedDecoderTest.encode(factory,
+				PipelinedDecoderTest.createXml(1000));
+
+		AsyncSAXDecoder asyncReader = new AsyncSAXDecoder(new SAXDecoder(
+				factory), executor);
+		EventLogger logger = new EventLogger();
+		asyncReader.setContentHandler(logger);
+
+		// first half decodes the first elements already
+		ByteBuffer bb = ByteBuffer.allocateDirect(exi.length);
+		bb.put(exi, 0, exi.length / 2).flip();
+		assertEquals(Status.NEEDS_MORE_INPUT, asyncReader.feed(bb));
+		assertFalse(bb.hasRemaining());
+		assertFalse(asyncReader.isDocumentDone());
+		assertTrue(logger.elements > 10);
+		assertFalse(logger.log.toString().endsWith("ED;"));
+
+		bb.clear();
+		bb.put(exi, exi.length / 2, exi.length - exi.length / 2).flip();
+		assertEquals(Status.END_OF_DOCUMENT, asyncReader.feed(bb));
+		assertTrue(logger.log.toString().endsWith("ED;"));
+		assertEquals(Status.END_OF_DOCUMENT, asyncReader.endOfInput());
+	}
+
+	public void testTruncated() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.COMPRESSION);
+		byte[] exi = PipelinedDecoderTest.encode(factory,
+				PipelinedDecoderTest.createXml(100));
+
+		AsyncSAXDecoder asyncReader = new AsyncSAXDecoder(new SAXDecoder(
+				factory), executor);
+		EventLogger logger = new EventLogger();
+		asyncReader.setContentHandler(logger);
+		asyncReader.setLexicalHandler(logger);
+		assertEquals(Status.NEEDS_MORE_INPUT,
+				asyncReader.feed(exi, 0, exi.length / 2));
+		try {
+			asyncReader.endOfInput();
+			fail("Truncated stream must fail");
+		} catch (Exception e) {
+			// expected
+		}
+		try {
+			asyncReader.feed(exi);
+			fail("reset() required");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// usable after reset
+		asyncReader.reset();
+		logger.log.setLength(0);
+		feed(asyncReader, exi, 50);
+		assertEquals(decode(new SAXDecoder(factory), exi),
+				logger.log.toString());
+	}
+
+	public void testHandlerFailure() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.BIT_PACKED);
+		byte[] exi = PipelinedDecoderTest.encode(factory,
+				PipelinedDecoderTest.createXml(1000));
+
+		AsyncSAXDecoder asyncReader = new AsyncSAXDecoder(new SAXDecoder(
+				factory), 4, 0, executor);
+		EventLogger logger = new EventLogger();
+		logger.failAtElement = 20;
+		asyncReader.setContentHandler(logger);
+		try {
+			feed(asyncReader, exi, 64);
+			fail("Handler failure must be reported");
+		} catch (SAXException e) {
+			assertEquals("handler failure", e.getMessage());
+		}
+		assertFalse(asyncReader.isDocumentDone());
+	}
+
+	public void testAbandonedDocument() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.BIT_PACKED);
+		byte[] exi = PipelinedDecoderTest.encode(factory,
+				PipelinedDecoderTest.createXml(100));
+
+		AsyncSAXDecoder asyncReader = new AsyncSAXDecoder(new SAXDecoder(
+				factory), executor);
+		EventLogger logger = new EventLogger();
+		asyncReader.setContentHandler(logger);
+		asyncReader.setLexicalHandler(logger);
+		asyncReader.feed(exi, 0, 20);
+
+		// connection dropped, next message
+		asyncReader.reset();
+		logger.log.setLength(0);
+		feed(asyncReader, exi, 1000);
+		assertEquals(decode(new SAXDecoder(factory), exi),
+				logger.log.toString());
+	}
+
+	public void testBoundedExecutor() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.BIT_PACKED);
+		byte[] exi = PipelinedDecoderTest.encode(factory,
+				PipelinedDecoderTest.createXml(100));
+
+		try {
+			new AsyncSAXDecoder(new SAXDecoder(factory), null);
+			fail("Executor required");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// one message in flight at most
+		ThreadPoolExecutor bounded = new ThreadPoolExecutor(1, 1, 0,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		try {
+			AsyncSAXDecoder first = new AsyncSAXDecoder(
+					new SAXDecoder(factory), bounded);
+			first.setContentHandler(new EventLogger());
+			assertEquals(Status.NEEDS_MORE_INPUT, first.feed(exi, 0, 20));
+
+			AsyncSAXDecoder second = new AsyncSAXDecoder(new SAXDecoder(
+					factory), bounded);
+			second.setContentHandler(new EventLogger());
+			try {
+				second.feed(exi, 0, 20);
+				fail("Second message rejected");
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+
+			// first message is not affected
+			feed(first, Arrays.copyOfRange(exi, 20, exi.length), 1000);
+		} finally {
+			bounded.shutdownNow();
+		}
+	}
+
+}
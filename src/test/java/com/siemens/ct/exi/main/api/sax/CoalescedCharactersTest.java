@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.sax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+
+public class CoalescedCharactersTest extends TestCase {
+
+	static class CharactersCounter extends DefaultHandler {
+		int count;
+		StringBuilder text = new StringBuilder();
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			count++;
+			text.append(ch, start, length);
+		}
+	}
+
+	protected static void characters(SAXEncoder saxEncoder, String s)
+			throws Exception {
+		// surround characters by junk to check offset handling
+		char[] ch = ("##" + s + "##").toCharArray();
+		saxEncoder.characters(ch, 2, s.length());
+	}
+
+	protected byte[] encodeFragmented(EXIFactory factory, String[] fragments)
+			throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SAXEncoder saxEncoder = new SAXFactory(factory).createEXIWriter();
+		saxEncoder.setOutputStream(os);
+
+		saxEncoder.startDocument();
+		saxEncoder.startElement("", "root", "root", new AttributesImpl());
+		for (String fragment : fragments) {
+			characters(saxEncoder, fragment);
+		}
+		saxEncoder.endElement("", "root", "root");
+		saxEncoder.endDocument();
+
+		return os.toByteArray();
+	}
+
+	protected CharactersCounter decode(EXIFactory factory, byte[] exi)
+			throws Exception {
+		CharactersCounter counter = new CharactersCounter();
+		XMLReader exiReader = new SAXFactory(factory).createEXIReader();
+		exiReader.setContentHandler(counter);
+		exiReader.parse(new InputSource(new ByteArrayInputStream(exi)));
+		return counter;
+	}
+
+	protected void _testSchemaLess(CodingMode codingMode) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setCodingMode(codingMode);
+
+		String[] fragments = { "foo", "", "bar", "baz" };
+		CharactersCounter counter = decode(factory,
+				encodeFragmented(factory, fragments));
+
+		assertEquals(1, counter.count);
+		assertEquals("foobarbaz", counter.text.toString());
+	}
+
+	public void testSchemaLessBitPacked() throws Exception {
+		_testSchemaLess(CodingMode.BIT_PACKED);
+	}
+
+	public void testSchemaLessCompression() throws Exception {
+		_testSchemaLess(CodingMode.COMPRESSION);
+	}
+
+	public void testTypedValue() throws Exception {
+		String xsd = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ "<xs:element name='root' type='xs:int'/>" + "</xs:schema>";
+
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setFidelityOptions(FidelityOptions.createStrict());
+		GrammarFactory gf = GrammarFactory.newInstance();
+		Grammars g = gf.createGrammars(new ByteArrayInputStream(xsd
+				.getBytes()));
+		factory.setGrammars(g);
+
+		// one int value split across callbacks (e.g., buffer boundary)
+		String[] fragments = { "12", "34", "5" };
+		CharactersCounter counter = decode(factory,
+				encodeFragmented(factory, fragments));
+
+		assertEquals(1, counter.count);
+		assertEquals("12345", counter.text.toString());
+	}
+
+	public void testLargeText() throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+
+		// exceeds initial pending buffer several times
+		StringBuilder sb = new StringBuilder();
+		String[] fragments = new String[100];
+		for (int i = 0; i < fragments.length; i++) {
+			fragments[i] = "fragment-" + i + ";";
+			sb.append(fragments[i]);
+		}
+		CharactersCounter counter = decode(factory,
+				encodeFragmented(factory, fragments));
+
+		assertEquals(1, counter.count);
+		assertEquals(sb.toString(), counter.text.toString());
+	}
+
+}
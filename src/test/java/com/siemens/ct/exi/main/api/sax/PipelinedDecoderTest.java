@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.sax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.LexicalHandler;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+public class PipelinedDecoderTest extends TestCase {
+
+	/**
+	 * Logs all events in a textual form.
+	 */
+	static class EventLogger extends DefaultHandler2 {
+		final StringBuilder log = new StringBuilder();
+		int elements;
+		int failAtElement = -1;
+
+		@Override
+		public void startDocument() {
+			log.append("SD;");
+		}
+
+		@Override
+		public void endDocument() {
+			log.append("ED;");
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) {
+			log.append("PFX ").append(prefix).append('=').append(uri)
+					.append(';');
+		}
+
+		@Override
+		public void endPrefixMapping(String prefix) {
+			log.append("/PFX ").append(prefix).append(';');
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes atts) throws SAXException {
+			if (elements++ == failAtElement) {
+				throw new SAXException("handler failure");
+			}
+			log.append("SE {").append(uri).append('}').append(localName);
+			for (int i = 0; i < atts.getLength(); i++) {
+				log.append(" {").append(atts.getURI(i)).append('}')
+						.append(atts.getLocalName(i)).append("=")
+						.append(atts.getValue(i));
+			}
+			log.append(';');
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			log.append("EE {").append(uri).append('}').append(localName)
+					.append(';');
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			log.append("CH ").append(ch, start, length).append(';');
+		}
+
+		@Override
+		public void comment(char[] ch, int start, int length) {
+			log.append("CM ").append(ch, start, length).append(';');
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) {
+			log.append("PI ").append(target).append(' ').append(data)
+					.append(';');
+		}
+	}
+
+	protected static String createXml(int n) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<root xmlns='urn:root' xmlns:p='urn:p'>");
+		for (int i = 0; i < n; i++) {
+			sb.append("<p:item id='" + i + "' p:type='t" + (i % 7) + "'>");
+			sb.append("<!-- comment " + i + " -->");
+			sb.append("<value>text " + i + " &amp; more</value>");
+			if (i % 10 == 0) {
+				sb.append("<?pi data" + i + "?>");
+			}
+			sb.append("</p:item>");
+		}
+		sb.append("</root>");
+		return sb.toString();
+	}
+
+	protected static byte[] encode(EXIFactory factory, String xml)
+			throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SAXEncoder writer = new SAXFactory(factory).createEXIWriter();
+		writer.setOutputStream(os);
+
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		XMLReader xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setContentHandler(writer);
+		if (writer instanceof LexicalHandler) {
+			xmlReader.setProperty(
+					"http://xml.org/sax/properties/lexical-handler", writer);
+		}
+		xmlReader.parse(new InputSource(new StringReader(xml)));
+		return os.toByteArray();
+	}
+
+	protected static String decode(SAXDecoder reader, byte[] exi)
+			throws Exception {
+		EventLogger logger = new EventLogger();
+		reader.setContentHandler(logger);
+		reader.setProperty("http://xml.org/sax/properties/lexical-handler",
+				logger);
+		reader.parse(new InputSource(new ByteArrayInputStream(exi)));
+		return logger.log.toString();
+	}
+
+	protected EXIFactory createFactory(CodingMode codingMode) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setFidelityOptions(FidelityOptions.createAll());
+		factory.setCodingMode(codingMode);
+		// several compression blocks
+		factory.setBlockSize(200);
+		return factory;
+	}
+
+	protected void _testSameEvents(CodingMode codingMode) throws Exception {
+		EXIFactory factory = createFactory(codingMode);
+		byte[] exi = encode(factory, createXml(500));
+
+		String expected = decode(new SAXDecoder(factory), exi);
+		assertTrue(expected.contains("CM  comment 499 ;"));
+
+		for (int ringSize : new int[] { 1, 2, 64, 1024 }) {
+			SAXDecoder reader = new SAXDecoder(factory);
+			reader.setPipelineRingSize(ringSize);
+			assertEquals("RingSize " + ringSize, expected, decode(reader, exi));
+			// re-use
+			assertEquals("RingSize " + ringSize, expected, decode(reader, exi));
+		}
+
+		// no spinning at all
+		SAXDecoder reader = new SAXDecoder(factory);
+		reader.setPipelineRingSize(16);
+		reader.setPipelineSpinCount(0);
+		assertEquals(expected, decode(reader, exi));
+	}
+
+	public void testSameEventsBitPacked() throws Exception {
+		_testSameEvents(CodingMode.BIT_PACKED);
+	}
+
+	public void testSameEventsCompression() throws Exception {
+		_testSameEvents(CodingMode.COMPRESSION);
+	}
+
+	public void testDecodingFailure() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.COMPRESSION);
+		byte[] exi = encode(factory, createXml(100));
+		byte[] truncated = Arrays.copyOf(exi, exi.length / 2);
+
+		SAXDecoder reader = new SAXDecoder(factory);
+		reader.setPipelineRingSize(8);
+		try {
+			decode(reader, truncated);
+			fail("Truncated stream must fail");
+		} catch (Exception e) {
+			// expected
+		}
+		// decoder is still usable
+		assertEquals(decode(new SAXDecoder(factory), exi), decode(reader, exi));
+	}
+
+	public void testHandlerFailure() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.BIT_PACKED);
+		byte[] exi = encode(factory, createXml(1000));
+
+		SAXDecoder reader = new SAXDecoder(factory);
+		reader.setPipelineRingSize(4);
+		EventLogger logger = new EventLogger();
+		logger.failAtElement = 20;
+		reader.setContentHandler(logger);
+		try {
+			reader.parse(new InputSource(new ByteArrayInputStream(exi)));
+			fail("Handler failure must be reported");
+		} catch (SAXException e) {
+			assertEquals("handler failure", e.getMessage());
+		}
+		// handlers are restored
+		assertSame(logger, reader.getContentHandler());
+	}
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.sax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+public class SAXCoderPoolTest extends TestCase {
+
+	static final String XML = "<root a='1' b='2'><x>foo</x><x>bar</x>"
+			+ "<y xmlns='urn:y'>text<!-- c --></y></root>";
+
+	static class TextCollector extends DefaultHandler {
+		StringBuilder text = new StringBuilder();
+		int elements;
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes attributes) {
+			elements++;
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			text.append(ch, start, length);
+		}
+	}
+
+	protected static XMLReader newXMLReader() throws Exception {
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		return spf.newSAXParser().getXMLReader();
+	}
+
+	protected static byte[] encode(SAXEncoder writer, String xml)
+			throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer.setOutputStream(os);
+		XMLReader xmlReader = newXMLReader();
+		xmlReader.setContentHandler(writer);
+		xmlReader.parse(new InputSource(new StringReader(xml)));
+		return os.toByteArray();
+	}
+
+	protected static TextCollector decode(SAXDecoder reader, byte[] exi)
+			throws Exception {
+		TextCollector tc = new TextCollector();
+		reader.setContentHandler(tc);
+		reader.parse(new InputSource(new ByteArrayInputStream(exi)));
+		return tc;
+	}
+
+	protected void _testReuse(CodingMode codingMode) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setCodingMode(codingMode);
+		SAXCoderPool pool = new SAXCoderPool(factory);
+
+		// reference encoding using a fresh writer
+		byte[] expected = encode(new SAXFactory(factory).createEXIWriter(),
+				XML);
+
+		SAXEncoder writer = pool.borrowEXIWriter();
+		SAXDecoder reader = pool.borrowEXIReader();
+		for (int i = 0; i < 3; i++) {
+			byte[] exi = encode(writer, XML);
+			assertTrue(Arrays.equals(expected, exi));
+			pool.returnEXIWriter(writer);
+
+			TextCollector tc = decode(reader, exi);
+			assertEquals(4, tc.elements);
+			assertEquals("foobartext", tc.text.toString());
+			pool.returnEXIReader(reader);
+
+			SAXEncoder w = pool.borrowEXIWriter();
+			SAXDecoder r = pool.borrowEXIReader();
+			// idle instances are handed out again
+			assertSame(writer, w);
+			assertSame(reader, r);
+		}
+	}
+
+	public void testReuseBitPacked() throws Exception {
+		_testReuse(CodingMode.BIT_PACKED);
+	}
+
+	public void testReuseCompression() throws Exception {
+		_testReuse(CodingMode.COMPRESSION);
+	}
+
+	public void testReuseAfterFailure() throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		SAXCoderPool pool = new SAXCoderPool(factory, 1);
+		byte[] expected = encode(pool.borrowEXIWriter(), XML);
+
+		SAXEncoder writer = pool.borrowEXIWriter();
+		try {
+			// malformed document, writer is left mid-stream
+			encode(writer, "<root><x>foo</root>");
+			fail("Malformed XML must not be accepted");
+		} catch (Exception e) {
+			// expected
+		}
+		pool.returnEXIWriter(writer);
+
+		writer = pool.borrowEXIWriter();
+		assertTrue(Arrays.equals(expected, encode(writer, XML)));
+	}
+
+	public void testMaxIdle() throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		SAXCoderPool pool = new SAXCoderPool(factory, 2);
+		pool.warmUp(3, 1);
+		assertEquals(2, pool.getNumberOfIdleWriters());
+		assertEquals(1, pool.getNumberOfIdleReaders());
+
+		pool.borrowEXIWriter();
+		assertEquals(1, pool.getNumberOfIdleWriters());
+	}
+
+	public void testConcurrentUse() throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		final SAXCoderPool pool = new SAXCoderPool(factory, 4);
+		final byte[] expected = encode(new SAXFactory(factory)
+				.createEXIWriter(), XML);
+
+		ExecutorService service = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 64; i++) {
+				results.add(service.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						SAXEncoder writer = pool.borrowEXIWriter();
+						byte[] exi;
+						try {
+							exi = encode(writer, XML);
+						} finally {
+							pool.returnEXIWriter(writer);
+						}
+						SAXDecoder reader = pool.borrowEXIReader();
+						try {
+							TextCollector tc = decode(reader, exi);
+							return Arrays.equals(expected, exi)
+									&& "foobartext".equals(tc.text.toString());
+						} finally {
+							pool.returnEXIReader(reader);
+						}
+					}
+				}));
+			}
+			for (Future<Boolean> f : results) {
+				assertTrue(f.get());
+			}
+		} finally {
+			service.shutdown();
+		}
+		assertTrue(pool.getNumberOfIdleWriters() <= 4);
+		assertTrue(pool.getNumberOfIdleReaders() <= 4);
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import junit.framework.TestCase;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+public class PipelinedStAXDecoderTest extends TestCase {
+
+	protected static byte[] encode(EXIFactory factory, int n)
+			throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		StAXEncoder encoder = new StAXEncoder(factory);
+		encoder.setOutputStream(os);
+		encoder.writeStartDocument();
+		encoder.writeStartElement("", "root", "urn:root");
+		encoder.writeDefaultNamespace("urn:root");
+		encoder.writeNamespace("p", "urn:p");
+		for (int i = 0; i < n; i++) {
+			encoder.writeStartElement("p", "item", "urn:p");
+			encoder.writeAttribute("id", "" + i);
+			encoder.writeAttribute("p", "urn:p", "type", "t" + (i % 7));
+			encoder.writeComment(" comment " + i + " ");
+			encoder.writeStartElement("", "value", "urn:root");
+			encoder.writeCharacters("text " + i);
+			encoder.writeEndElement();
+			if (i % 10 == 0) {
+				encoder.writeProcessingInstruction("pi", "data" + i);
+			}
+			encoder.writeEndElement();
+		}
+		encoder.writeEndElement();
+		encoder.writeEndDocument();
+		encoder.flush();
+		return os.toByteArray();
+	}
+
+	protected static String decode(StAXDecoder decoder, byte[] exi)
+			throws Exception {
+		StringBuilder log = new StringBuilder();
+		decoder.setInputStream(new ByteArrayInputStream(exi));
+		while (decoder.hasNext()) {
+			int ev = decoder.next();
+			switch (ev) {
+			case XMLStreamConstants.START_ELEMENT:
+				log.append("SE ").append(decoder.getName());
+				log.append(" pfx=").append(decoder.getPrefix());
+				for (int i = 0; i < decoder.getNamespaceCount(); i++) {
+					log.append(" ns ").append(decoder.getNamespacePrefix(i))
+							.append('=').append(decoder.getNamespaceURI(i));
+				}
+				for (int i = 0; i < decoder.getAttributeCount(); i++) {
+					log.append(" ").append(decoder.getAttributeName(i))
+							.append('=').append(decoder.getAttributeValue(i));
+				}
+				log.append(" ctx(p)=").append(
+						decoder.getNamespaceContext().getNamespaceURI("p"));
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				log.append("EE ").append(decoder.getName());
+				break;
+			case XMLStreamConstants.CHARACTERS:
+				log.append("CH ").append(decoder.getText());
+				break;
+			case XMLStreamConstants.COMMENT:
+				log.append("CM ").append(decoder.getText());
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				log.append("PI ").append(decoder.getPITarget()).append(' ')
+						.append(decoder.getPIData());
+				break;
+			default:
+				log.append(ev);
+			}
+			log.append(';');
+		}
+		return log.toString();
+	}
+
+	protected EXIFactory createFactory(CodingMode codingMode) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setFidelityOptions(FidelityOptions.createAll());
+		factory.setCodingMode(codingMode);
+		factory.setBlockSize(200);
+		return factory;
+	}
+
+	protected void _testSameEvents(CodingMode codingMode) throws Exception {
+		EXIFactory factory = createFactory(codingMode);
+		byte[] exi = encode(factory, 500);
+
+		String expected = decode(new StAXDecoder(factory), exi);
+
+		for (int ringSize : new int[] { 1, 3, 256 }) {
+			StAXDecoder decoder = new StAXDecoder(factory);
+			decoder.setPipelineRingSize(ringSize);
+			assertEquals("RingSize " + ringSize, expected,
+					decode(decoder, exi));
+			// re-use
+			assertEquals("RingSize " + ringSize, expected,
+					decode(decoder, exi));
+		}
+	}
+
+	public void testSameEventsBitPacked() throws Exception {
+		_testSameEvents(CodingMode.BIT_PACKED);
+	}
+
+	public void testSameEventsCompression() throws Exception {
+		_testSameEvents(CodingMode.COMPRESSION);
+	}
+
+	public void testAbandonStream() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.COMPRESSION);
+		byte[] exi = encode(factory, 1000);
+
+		StAXDecoder decoder = new StAXDecoder(factory);
+		decoder.setPipelineRingSize(4);
+		decoder.setInputStream(new ByteArrayInputStream(exi));
+		decoder.next();
+		decoder.next();
+		// stops decoding stage
+		decoder.close();
+
+		assertEquals(decode(new StAXDecoder(factory), exi),
+				decode(decoder, exi));
+	}
+
+	public void testDecodingFailure() throws Exception {
+		EXIFactory factory = createFactory(CodingMode.COMPRESSION);
+		byte[] exi = encode(factory, 100);
+		byte[] truncated = Arrays.copyOf(exi, exi.length / 2);
+
+		StAXDecoder decoder = new StAXDecoder(factory);
+		decoder.setPipelineRingSize(8);
+		try {
+			decode(decoder, truncated);
+			fail("Truncated stream must fail");
+		} catch (Exception e) {
+			// expected, header may already fail
+		}
+		// decoder is still usable
+		assertEquals(decode(new StAXDecoder(factory), exi),
+				decode(decoder, exi));
+	}
+
+}
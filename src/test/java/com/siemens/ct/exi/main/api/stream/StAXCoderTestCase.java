@@ -608,7 +608,8 @@ public class StAXCoderTestCase extends AbstractTestCase {
 
 		assertTrue(staxDecoder.hasNext());
 		assertEquals(XMLStreamConstants.CHARACTERS, staxDecoder.next());
-		assertEquals("myTitle", new String(staxDecoder.getTextCharacters()));
+		assertEquals("myTitle", new String(staxDecoder.getTextCharacters(),
+				staxDecoder.getTextStart(), staxDecoder.getTextLength()));
 
 		assertTrue(staxDecoder.hasNext());
 		assertEquals(XMLStreamConstants.END_ELEMENT, staxDecoder.next());
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import junit.framework.TestCase;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+public class StAXResetTest extends TestCase {
+
+	protected static byte[] encode(StAXEncoder encoder, boolean complete)
+			throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		encoder.setOutputStream(os);
+		encoder.writeStartDocument();
+		encoder.writeStartElement("p", "root", "urn:foo");
+		encoder.writeNamespace("p", "urn:foo");
+		encoder.writeAttribute("a", "1");
+		encoder.writeCharacters("text");
+		if (complete) {
+			encoder.writeEndElement();
+			encoder.writeEndDocument();
+			encoder.flush();
+		}
+		return os.toByteArray();
+	}
+
+	protected static String decode(StAXDecoder decoder, byte[] exi)
+			throws Exception {
+		decoder.setInputStream(new ByteArrayInputStream(exi));
+		StringBuilder sb = new StringBuilder();
+		while (decoder.hasNext()) {
+			int ev = decoder.next();
+			if (ev == XMLStreamConstants.START_ELEMENT) {
+				sb.append('<').append(decoder.getLocalName()).append(' ')
+						.append(decoder.getAttributeValue(0)).append('>');
+			} else if (ev == XMLStreamConstants.CHARACTERS) {
+				sb.append(decoder.getText());
+			}
+		}
+		return sb.toString();
+	}
+
+	public void testEncoderReset() throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		byte[] expected = encode(new StAXEncoder(factory), true);
+
+		StAXEncoder encoder = new StAXEncoder(factory);
+		// abandon a stream half-way
+		encode(encoder, false);
+		encoder.reset();
+
+		assertTrue(Arrays.equals(expected, encode(encoder, true)));
+		encoder.reset();
+		assertTrue(Arrays.equals(expected, encode(encoder, true)));
+	}
+
+	public void testDecoderReset() throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		byte[] exi = encode(new StAXEncoder(factory), true);
+
+		StAXDecoder decoder = new StAXDecoder(factory);
+		// abandon a stream half-way
+		decoder.setInputStream(new ByteArrayInputStream(exi));
+		decoder.next();
+		decoder.reset();
+
+		assertEquals("<root 1>text", decode(decoder, exi));
+		decoder.reset();
+		assertEquals("<root 1>text", decode(decoder, exi));
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import junit.framework.TestCase;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+
+public class StAXTextCharactersTest extends TestCase {
+
+	protected static String createText(int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('a' + (i % 26)));
+		}
+		return sb.toString();
+	}
+
+	protected StAXDecoder createDecoder(String[] texts) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		StAXEncoder encoder = new StAXEncoder(factory);
+		encoder.setOutputStream(os);
+		encoder.writeStartDocument();
+		encoder.writeStartElement("", "root", "");
+		for (String text : texts) {
+			encoder.writeStartElement("", "t", "");
+			encoder.writeCharacters(text);
+			encoder.writeEndElement();
+		}
+		encoder.writeEndElement();
+		encoder.writeEndDocument();
+		encoder.flush();
+
+		StAXDecoder decoder = new StAXDecoder(factory);
+		decoder.setInputStream(new ByteArrayInputStream(os.toByteArray()));
+		return decoder;
+	}
+
+	protected static void nextCharacters(StAXDecoder decoder)
+			throws Exception {
+		while (decoder.next() != XMLStreamConstants.CHARACTERS) {
+		}
+	}
+
+	public void testTextCharacters() throws Exception {
+		String[] texts = { "foo", createText(1000), "bar" };
+		StAXDecoder decoder = createDecoder(texts);
+
+		char[] previous = null;
+		for (String text : texts) {
+			nextCharacters(decoder);
+			char[] ch = decoder.getTextCharacters();
+			assertEquals(text, new String(ch, decoder.getTextStart(),
+					decoder.getTextLength()));
+			// same content when asked twice
+			assertSame(ch, decoder.getTextCharacters());
+			assertEquals(text, decoder.getText());
+			if (previous != null && text.length() <= previous.length) {
+				// buffer is re-used
+				assertSame(previous, ch);
+			}
+			previous = ch;
+		}
+	}
+
+	public void testChunkedCopy() throws Exception {
+		String text = createText(1000);
+		StAXDecoder decoder = createDecoder(new String[] { text });
+		nextCharacters(decoder);
+
+		StringBuilder sb = new StringBuilder();
+		char[] myBuffer = new char[64];
+		for (int sourceStart = 0;; sourceStart += myBuffer.length) {
+			int nCopied = decoder.getTextCharacters(sourceStart, myBuffer, 0,
+					myBuffer.length);
+			sb.append(myBuffer, 0, nCopied);
+			if (nCopied < myBuffer.length) {
+				break;
+			}
+		}
+		assertEquals(text, sb.toString());
+	}
+
+	public void testCopyOffsets() throws Exception {
+		StAXDecoder decoder = createDecoder(new String[] { "0123456789" });
+		nextCharacters(decoder);
+
+		char[] target = new char[] { '-', '-', '-', '-', '-' };
+		assertEquals(3, decoder.getTextCharacters(4, target, 1, 3));
+		assertEquals("-456-", new String(target));
+
+		// end of text
+		assertEquals(2, decoder.getTextCharacters(8, target, 0, 5));
+		assertEquals(0, decoder.getTextCharacters(10, target, 0, 5));
+
+		try {
+			decoder.getTextCharacters(0, target, 3, 5);
+			fail("target range exceeded");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	public void testWhiteSpace() throws Exception {
+		StAXDecoder decoder = createDecoder(new String[] { " \t\n ", " x " });
+		nextCharacters(decoder);
+		assertTrue(decoder.isWhiteSpace());
+		nextCharacters(decoder);
+		assertFalse(decoder.isWhiteSpace());
+	}
+
+}
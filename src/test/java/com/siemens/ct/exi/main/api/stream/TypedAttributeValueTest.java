@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.api.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+
+import junit.framework.TestCase;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.core.values.ValueType;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+import com.siemens.ct.exi.main.api.xmlpull.EXIPullParser;
+
+public class TypedAttributeValueTest extends TestCase {
+
+	static final String XSD = "<xs:schema"
+			+ " xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+			+ " <xs:element name='root'>"
+			+ "  <xs:complexType>"
+			+ "   <xs:attribute name='b' type='xs:boolean'/>"
+			+ "   <xs:attribute name='i' type='xs:int'/>"
+			+ "   <xs:attribute name='s' type='xs:string'/>"
+			+ "  </xs:complexType>"
+			+ " </xs:element>"
+			+ "</xs:schema>";
+
+	protected EXIFactory factory;
+	protected byte[] exi;
+
+	@Override
+	protected void setUp() throws Exception {
+		factory = DefaultEXIFactory.newInstance();
+		factory.setFidelityOptions(FidelityOptions.createStrict());
+		Grammars g = GrammarFactory.newInstance().createGrammars(
+				new ByteArrayInputStream(XSD.getBytes()));
+		factory.setGrammars(g);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		StAXEncoder encoder = new StAXEncoder(factory);
+		encoder.setOutputStream(os);
+		encoder.writeStartDocument();
+		encoder.writeStartElement("", "root", "");
+		encoder.writeAttribute("b", "true");
+		encoder.writeAttribute("i", "-123");
+		encoder.writeAttribute("s", "foo");
+		encoder.writeEndElement();
+		encoder.writeEndDocument();
+		encoder.flush();
+		exi = os.toByteArray();
+	}
+
+	public void testStAX() throws Exception {
+		StAXDecoder decoder = new StAXDecoder(factory);
+		decoder.setInputStream(new ByteArrayInputStream(exi));
+		while (decoder.next() != XMLStreamConstants.START_ELEMENT) {
+		}
+		assertEquals(3, decoder.getAttributeCount());
+
+		Value b = decoder.getAttributeTypedValue(0);
+		assertEquals(ValueType.BOOLEAN, b.getValueType());
+		Value i = decoder.getAttributeTypedValue(1);
+		assertEquals(ValueType.INTEGER, i.getValueType());
+		assertEquals("-123", decoder.getAttributeValue(1));
+		// string is cached
+		assertSame(decoder.getAttributeValue(1), decoder.getAttributeValue(1));
+		assertEquals("foo", decoder.getAttributeValue(null, "s"));
+		assertEquals("true", decoder.getAttributeValue("", "b"));
+		assertNull(decoder.getAttributeValue("", "x"));
+
+		// lookup by qualified name
+		assertEquals(2, decoder.getAttributeIndex(new QName("", "s")));
+		assertEquals("true", decoder.getAttributeValue(new QName("b")));
+		QName qi = decoder.getAttributeName(1);
+		assertEquals(1, decoder.getAttributeIndex(qi));
+		assertEquals(-1, decoder.getAttributeIndex(new QName("urn:x", "s")));
+	}
+
+	public void testXmlPull() throws Exception {
+		EXIPullParser parser = new EXIPullParser(factory);
+		parser.setInput(new ByteArrayInputStream(exi), null);
+		while (parser.next() != EXIPullParser.START_TAG) {
+		}
+		assertEquals(3, parser.getAttributeCount());
+
+		assertEquals(ValueType.BOOLEAN, parser.getAttributeTypedValue(0)
+				.getValueType());
+		assertEquals(ValueType.INTEGER, parser.getAttributeTypedValue(1)
+				.getValueType());
+		assertNull(parser.getAttributeTypedValue(3));
+		assertEquals("-123", parser.getAttributeValue(1));
+		assertEquals("foo", parser.getAttributeValue(null, "s"));
+	}
+
+}
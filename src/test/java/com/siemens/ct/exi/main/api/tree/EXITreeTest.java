@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.api.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import com.siemens.ct.exi.core.Constants;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.core.values.ValueType;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+import com.siemens.ct.exi.main.api.dom.DOMBuilder;
+import com.siemens.ct.exi.main.api.dom.DOMWriter;
+
+public class EXITreeTest extends TestCase {
+
+	protected static Document parseXML(InputSource is) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(is);
+	}
+
+	protected static byte[] encode(EXIFactory exiFactory, Node doc)
+			throws Exception {
+		ByteArrayOutputStream osEXI = new ByteArrayOutputStream();
+		DOMWriter domEncoder = new DOMWriter(exiFactory);
+		domEncoder.setOutput(osEXI);
+		domEncoder.encode(doc);
+		return osEXI.toByteArray();
+	}
+
+	protected static byte[] encode(EXIFactory exiFactory, String xml)
+			throws Exception {
+		return encode(exiFactory, parseXML(new InputSource(
+				new StringReader(xml))));
+	}
+
+	/* DOM view equals DOMBuilder tree and encodes to the same bytes */
+	protected void _testDOMView(EXIFactory exiFactory, String sXML)
+			throws Exception {
+		byte[] exi = encode(exiFactory, parseXML(new InputSource(new File(
+				sXML).toURI().toString())));
+
+		EXITree tree = new EXITreeBuilder(exiFactory)
+				.parse(new ByteArrayInputStream(exi));
+		Document view = tree.asDocument();
+
+		Document expected = new DOMBuilder(exiFactory)
+				.parse(new ByteArrayInputStream(exi));
+		expected.normalize();
+		boolean preservePrefix = exiFactory.getFidelityOptions()
+				.isFidelityEnabled(FidelityOptions.FEATURE_PREFIX);
+		if (!preservePrefix) {
+			// no namespace nodes without preserved prefixes
+			removeNamespaceDeclarations(expected.getDocumentElement());
+		}
+		assertTrue(expected.getDocumentElement().isEqualNode(
+				view.getDocumentElement()));
+		assertTrue(view.getDocumentElement().isEqualNode(
+				expected.getDocumentElement()));
+
+		if (preservePrefix) {
+			// otherwise xsi:type values refer to undeclared prefixes
+			assertTrue(Arrays.equals(exi, encode(exiFactory, view)));
+		}
+	}
+
+	protected static void removeNamespaceDeclarations(Element e) {
+		NamedNodeMap atts = e.getAttributes();
+		for (int i = atts.getLength() - 1; i >= 0; i--) {
+			Node at = atts.item(i);
+			if (Constants.XML_NS_ATTRIBUTE_NS_URI.equals(at
+					.getNamespaceURI())) {
+				e.removeAttributeNode((Attr) at);
+			}
+		}
+		for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n.getNodeType() == Node.ELEMENT_NODE) {
+				removeNamespaceDeclarations((Element) n);
+			}
+		}
+	}
+
+	public void testDOMViewNotebook() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		_testDOMView(exiFactory, "./data/W3C/PrimerNotebook/notebook.xml");
+	}
+
+	public void testDOMViewPerson() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		_testDOMView(exiFactory, "./data/general/person.xml");
+	}
+
+	public void testDOMViewVehicle() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setGrammars(GrammarFactory.newInstance().createGrammars(
+				"./data/schema/vehicle.xsd"));
+		_testDOMView(exiFactory, "./data/schema/vehicle.xml");
+	}
+
+	public void testNavigation() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setFidelityOptions(FidelityOptions.createAll());
+		String xml = "<p:r xmlns:p='urn:p' a='1' p:b='2'><c>x</c>"
+				+ "<!--y--><c>z</c><?t d?></p:r>";
+		EXITree tree = new EXITreeBuilder(exiFactory).parse(ByteBuffer
+				.wrap(encode(exiFactory, xml)));
+
+		assertEquals(EXITree.DOCUMENT, tree.getKind(0));
+		int r = tree.getDocumentElement();
+		assertEquals(EXITree.ELEMENT, tree.getKind(r));
+		assertEquals("urn:p", tree.getNamespaceURI(r));
+		assertEquals("r", tree.getLocalName(r));
+		assertEquals("p", tree.getPrefix(r));
+		assertEquals(0, tree.getParent(r));
+
+		// xmlns:p, a, p:b
+		assertEquals(3, tree.getNumberOfAttributes(r));
+		int ns = tree.getAttribute(r, 0);
+		assertEquals(EXITree.NAMESPACE, tree.getKind(ns));
+		assertEquals("p", tree.getPrefix(ns));
+		assertEquals("urn:p", tree.getText(ns));
+		int a = tree.getAttribute(r, "", "a");
+		assertEquals("1", tree.getText(a));
+		assertEquals(r, tree.getParent(a));
+		int b = tree.getAttribute(r, "urn:p", "b");
+		assertEquals("2", tree.getText(b));
+		assertEquals(b, tree.getAttribute(r, tree.getQNameContext(b)));
+		assertEquals(EXITree.NONE, tree.getAttribute(r, "", "b"));
+
+		// children
+		int[] kinds = { EXITree.ELEMENT, EXITree.COMMENT, EXITree.ELEMENT,
+				EXITree.PROCESSING_INSTRUCTION };
+		PrimitiveIterator.OfInt children = tree.children(r);
+		for (int i = 0; i < kinds.length; i++) {
+			assertTrue(children.hasNext());
+			assertEquals(kinds[i], tree.getKind(children.nextInt()));
+		}
+		assertFalse(children.hasNext());
+
+		int c1 = tree.getFirstChild(r);
+		int comment = tree.getNextSibling(c1);
+		assertEquals("y", tree.getText(comment));
+		int pi = tree.getNextSibling(tree.getNextSibling(comment));
+		assertEquals("t", tree.getTarget(pi));
+		assertEquals("d", tree.getText(pi));
+		assertEquals(EXITree.NONE, tree.getNextSibling(pi));
+
+		// all c elements, same qname
+		QNameContext c = tree.getQNameContext(c1);
+		PrimitiveIterator.OfInt elements = tree.elements(0, c);
+		assertEquals(c1, elements.nextInt());
+		int c2 = elements.nextInt();
+		assertEquals("z", tree.getText(c2));
+		assertSame(c, tree.getQNameContext(c2));
+		assertFalse(elements.hasNext());
+
+		// descendants without attributes
+		int count = 0;
+		PrimitiveIterator.OfInt descendants = tree.descendants(0);
+		while (descendants.hasNext()) {
+			int n = descendants.nextInt();
+			assertTrue(tree.getKind(n) != EXITree.ATTRIBUTE
+					&& tree.getKind(n) != EXITree.NAMESPACE);
+			count++;
+		}
+		// r, c, x, comment, c, z, pi
+		assertEquals(7, count);
+		assertEquals(tree.getNumberOfNodes(), tree.getSubtreeEnd(r));
+		assertEquals("xz", tree.getText(r));
+	}
+
+	public void testTypedValues() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		exiFactory.setGrammars(GrammarFactory.newInstance().createGrammars(
+				"./data/general/datatypes.xsd"));
+		byte[] exi = encode(exiFactory, parseXML(new InputSource(new File(
+				"./data/general/datatypes.xml").toURI().toString())));
+		EXITree tree = new EXITreeBuilder(exiFactory)
+				.parse(new ByteArrayInputStream(exi));
+
+		boolean found = false;
+		PrimitiveIterator.OfInt it = tree.descendants(0);
+		while (it.hasNext()) {
+			int n = it.nextInt();
+			if (tree.getKind(n) == EXITree.ELEMENT
+					&& "boolean".equals(tree.getLocalName(n))) {
+				int text = tree.getFirstChild(n);
+				assertEquals(ValueType.BOOLEAN, tree.getValue(text)
+						.getValueType());
+				found = true;
+			}
+		}
+		assertTrue(found);
+
+		// same document through the DOM view
+		assertTrue(Arrays.equals(exi, encode(exiFactory, tree.asDocument())));
+	}
+
+	public void testDOMViewReadOnly() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		EXITree tree = new EXITreeBuilder(exiFactory)
+				.parse(new ByteArrayInputStream(encode(exiFactory,
+						"<r a='1'><c>x</c><c>y</c></r>")));
+		Document doc = tree.asDocument();
+		Element r = doc.getDocumentElement();
+
+		assertEquals("r", r.getTagName());
+		assertEquals("1", r.getAttribute("a"));
+		assertEquals("xy", r.getTextContent());
+		assertEquals(2, r.getElementsByTagName("c").getLength());
+		assertEquals(2, r.getChildNodes().getLength());
+		assertEquals("y", r.getChildNodes().item(1).getTextContent());
+		assertTrue(r.getFirstChild().isSameNode(
+				r.getLastChild().getPreviousSibling()));
+		assertSame(doc, r.getOwnerDocument());
+		assertTrue(r.getParentNode().isSameNode(doc));
+		assertEquals(Node.DOCUMENT_POSITION_FOLLOWING
+				| Node.DOCUMENT_POSITION_CONTAINED_BY,
+				r.compareDocumentPosition(r.getFirstChild()));
+
+		try {
+			r.appendChild(r.getFirstChild());
+			fail("read-only");
+		} catch (DOMException e) {
+			assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+		}
+		try {
+			r.setAttribute("b", "2");
+			fail("read-only");
+		} catch (DOMException e) {
+			assertEquals(DOMException.NO_MODIFICATION_ALLOWED_ERR, e.code);
+		}
+	}
+
+	public void testBuilderReuse() throws Exception {
+		EXIFactory exiFactory = DefaultEXIFactory.newInstance();
+		EXITreeBuilder builder = new EXITreeBuilder(exiFactory);
+		StringBuilder sb = new StringBuilder("<r>");
+		for (int i = 0; i < 200; i++) {
+			sb.append("<e n='" + i + "'>" + i + "</e>");
+		}
+		sb.append("</r>");
+
+		EXITree t1 = builder.parse(new ByteArrayInputStream(encode(
+				exiFactory, sb.toString())));
+		EXITree t2 = builder.parse(new ByteArrayInputStream(encode(
+				exiFactory, "<s/>")));
+		// document, r, 200 * (e, n, text)
+		assertEquals(2 + 200 * 3, t1.getNumberOfNodes());
+		assertEquals("199", t1.getText(t1.getNumberOfNodes() - 1));
+		assertEquals(2, t2.getNumberOfNodes());
+		assertEquals("s", t2.getLocalName(t2.getDocumentElement()));
+	}
+
+}
@@ -27,19 +27,36 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
 
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 import javax.xml.namespace.QName;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
 
 import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
 import com.siemens.ct.exi.core.EncodingOptions;
 import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+import com.siemens.ct.exi.main.api.sax.SAXEncoder;
+import com.siemens.ct.exi.main.api.sax.SAXFactory;
+import com.siemens.ct.exi.main.helpers.PrecompiledGrammars;
 
 public class EXIficientCMDTest {
 
@@ -98,6 +115,138 @@ public class EXIficientCMDTest {
 		}
 	}
 
+	@Test
+	public void testPrecompile() throws Exception {
+		File fGrammars = File.createTempFile("notebook",
+				PrecompiledGrammars.FILE_EXTENSION);
+		try {
+			String[] args = { EXIficientCMD.PRECOMPILE, EXIficientCMD.INPUT,
+					xsdNotebook, EXIficientCMD.OUTPUT, fGrammars.getPath() };
+			EXIficientCMD cmd = new EXIficientCMD();
+			cmd.parseArguments(args);
+			cmd.process();
+			assertTrue(fGrammars.length() > 0);
+
+			// encode with precompiled grammars
+			String[] args2 = { EXIficientCMD.ENCODE, EXIficientCMD.SCHEMA,
+					fGrammars.getPath(), EXIficientCMD.INPUT, xmlNotebook };
+			cmd = new EXIficientCMD();
+			cmd.parseArguments(args2);
+			assertTrue(cmd.exiFactory.getGrammars().isSchemaInformed());
+			cmd.process();
+
+			File f = new File(xmlNotebook
+					+ EXIficientCMD.DEFAULT_EXI_FILE_EXTENSION);
+			if (f.exists()) {
+				// ok --> delete
+				f.delete();
+			} else {
+				fail("File " + f + " not created");
+			}
+		} finally {
+			fGrammars.delete();
+		}
+	}
+
+	@Test
+	public void testPrecompileGrammarsMain() throws Exception {
+		File fGrammars = File.createTempFile("notebook",
+				PrecompiledGrammars.FILE_EXTENSION);
+		try {
+			PrecompileGrammars.main(new String[] { xsdNotebook,
+					fGrammars.getPath() });
+			assertTrue(fGrammars.length() > 0);
+		} finally {
+			fGrammars.delete();
+		}
+
+		// failures are propagated (build fails)
+		try {
+			PrecompileGrammars.main(new String[] { "./data/no-such.xsd",
+					fGrammars.getPath() });
+			fail("No such schema");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		assertFalse(fGrammars.exists());
+		try {
+			PrecompileGrammars.main(new String[] { xsdNotebook });
+			fail("Missing output");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGenerateGrammarsMain() throws Exception {
+		File dir = File.createTempFile("grammars", "");
+		dir.delete();
+		String className = "com.example.NotebookGrammars";
+		try {
+			GenerateGrammars.main(new String[] { xsdNotebook, dir.getPath(),
+					className });
+			File src = new File(dir, "com/example/NotebookGrammars.java");
+			assertTrue(src.isFile());
+
+			// generated class compiles and plugs into the factory
+			JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+			String cp = System.getProperty("java.class.path");
+			assertTrue(javac.run(null, null, null, "-classpath", cp, "-d",
+					dir.getPath(), src.getPath()) == 0);
+			URLClassLoader cl = new URLClassLoader(new URL[] { dir.toURI()
+					.toURL() }, getClass().getClassLoader());
+			Grammars g = (Grammars) cl.loadClass(className).newInstance();
+			cl.close();
+			Grammars gXSD = GrammarFactory.newInstance().createGrammars(
+					xsdNotebook);
+			assertTrue(Arrays.equals(encode(gXSD, xmlNotebook),
+					encode(g, xmlNotebook)));
+		} finally {
+			delete(dir);
+		}
+
+		try {
+			GenerateGrammars.main(new String[] { xsdNotebook, dir.getPath(),
+					"NotebookGrammars" });
+			fail("Default package");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			GenerateGrammars.main(new String[] { "./data/no-such.xsd",
+					dir.getPath(), className });
+			fail("No such schema");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		assertFalse(dir.exists());
+	}
+
+	static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c : children) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	static byte[] encode(Grammars grammars, String xml) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setGrammars(grammars);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SAXEncoder writer = new SAXFactory(factory).createEXIWriter();
+		writer.setOutputStream(os);
+
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		XMLReader xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setContentHandler(writer);
+		xmlReader.parse(new InputSource(xml));
+		return os.toByteArray();
+	}
+
 	@Test
 	public void test3() throws Exception {
 		int blockSize = 20;
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.helpers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+
+public class GrammarCacheTest extends TestCase {
+
+	/**
+	 * Counts loads and returns a new grammars instance per load.
+	 */
+	static class CountingLoader implements GrammarCache.GrammarsLoader {
+		final AtomicInteger loads = new AtomicInteger();
+		volatile CountDownLatch block;
+		volatile boolean fail;
+
+		public Grammars load(String schemaId) throws EXIException {
+			loads.incrementAndGet();
+			if (block != null) {
+				try {
+					block.await();
+				} catch (InterruptedException e) {
+					throw new EXIException(e);
+				}
+			}
+			if (fail) {
+				throw new EXIException("Cannot load " + schemaId);
+			}
+			return GrammarFactory.newInstance().createSchemaLessGrammars();
+		}
+	}
+
+	/**
+	 * Cache with a manually advanced clock.
+	 */
+	static class ManualClockCache extends GrammarCache {
+		long now;
+
+		ManualClockCache(int maximumSize, long timeToLive, TimeUnit unit) {
+			super(maximumSize, timeToLive, unit);
+		}
+
+		@Override
+		protected long currentTimeNanos() {
+			return now;
+		}
+	}
+
+	public void testHitAndMiss() throws Exception {
+		GrammarCache cache = new GrammarCache();
+		CountingLoader loader = new CountingLoader();
+
+		Grammars g1 = cache.get("a.xsd", loader);
+		Grammars g2 = cache.get("a.xsd", loader);
+		Grammars g3 = cache.get("b.xsd", loader);
+
+		assertSame(g1, g2);
+		assertNotSame(g1, g3);
+		assertEquals(2, loader.loads.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.size());
+		assertTrue(cache.getTotalLoadTime(TimeUnit.NANOSECONDS) >= 0);
+
+		cache.invalidate("a.xsd");
+		assertNotSame(g1, cache.get("a.xsd", loader));
+		assertEquals(3, loader.loads.get());
+
+		cache.invalidateAll();
+		assertEquals(0, cache.size());
+
+		cache.resetStatistics();
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+	}
+
+	public void testSingleFlight() throws Exception {
+		final GrammarCache cache = new GrammarCache();
+		final CountingLoader loader = new CountingLoader();
+		loader.block = new CountDownLatch(1);
+
+		final int threads = 8;
+		final Grammars[] results = new Grammars[threads];
+		final CountDownLatch started = new CountDownLatch(threads);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			final int index = i;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						results[index] = cache.get("same.xsd", loader);
+					} catch (EXIException e) {
+						// results stays null
+					}
+				}
+			};
+			workers.add(t);
+			t.start();
+		}
+
+		started.await();
+		// give waiters a chance to queue on the loading entry
+		Thread.sleep(50);
+		loader.block.countDown();
+		for (Thread t : workers) {
+			t.join(10000);
+		}
+
+		assertEquals(1, loader.loads.get());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(threads - 1, cache.getHitCount());
+		for (int i = 0; i < threads; i++) {
+			assertNotNull(results[i]);
+			assertSame(results[0], results[i]);
+		}
+	}
+
+	public void testSingleFlightFailure() throws Exception {
+		final GrammarCache cache = new GrammarCache();
+		final CountingLoader loader = new CountingLoader();
+		loader.block = new CountDownLatch(1);
+		loader.fail = true;
+
+		final int threads = 4;
+		final AtomicInteger failures = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(threads);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						cache.get("broken.xsd", loader);
+					} catch (EXIException e) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+			workers.add(t);
+			t.start();
+		}
+
+		started.await();
+		Thread.sleep(50);
+		loader.block.countDown();
+		for (Thread t : workers) {
+			t.join(10000);
+		}
+
+		// waiters for the failed load are failures, not hits
+		assertEquals(threads, failures.get());
+		assertEquals(0, cache.getHitCount());
+		assertEquals(threads, cache.getLoadFailureCount());
+		assertEquals(loader.loads.get(), cache.getMissCount());
+	}
+
+	public void testFailureNotCached() throws Exception {
+		GrammarCache cache = new GrammarCache();
+		CountingLoader loader = new CountingLoader();
+		loader.fail = true;
+		try {
+			cache.get("broken.xsd", loader);
+			fail("Load failure expected");
+		} catch (EXIException e) {
+			// expected
+		}
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getLoadFailureCount());
+
+		loader.fail = false;
+		assertNotNull(cache.get("broken.xsd", loader));
+		assertEquals(2, loader.loads.get());
+	}
+
+	public void testSizeEviction() throws Exception {
+		ManualClockCache cache = new ManualClockCache(2, 0,
+				TimeUnit.NANOSECONDS);
+		CountingLoader loader = new CountingLoader();
+
+		cache.now = 1;
+		Grammars a = cache.get("a", loader);
+		cache.now = 2;
+		cache.get("b", loader);
+		cache.now = 3;
+		// a is more recently used than b
+		assertSame(a, cache.get("a", loader));
+		cache.now = 4;
+		cache.get("c", loader);
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertSame(a, cache.get("a", loader));
+		assertEquals(3, loader.loads.get());
+		cache.get("b", loader);
+		assertEquals(4, loader.loads.get());
+
+		cache.setMaximumSize(1);
+		assertEquals(1, cache.size());
+	}
+
+	public void testTimeEviction() throws Exception {
+		ManualClockCache cache = new ManualClockCache(10, 5,
+				TimeUnit.SECONDS);
+		CountingLoader loader = new CountingLoader();
+
+		cache.now = 0;
+		Grammars g1 = cache.get("a", loader);
+		cache.now = TimeUnit.SECONDS.toNanos(4);
+		assertSame(g1, cache.get("a", loader));
+		cache.now = TimeUnit.SECONDS.toNanos(5);
+		Grammars g2 = cache.get("a", loader);
+		assertNotSame(g1, g2);
+		assertEquals(2, loader.loads.get());
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(5, cache.getTimeToLive(TimeUnit.SECONDS));
+	}
+
+	public void testDefaultSchemaIdResolver() throws Exception {
+		GrammarCache cache = new GrammarCache();
+		DefaultSchemaIdResolver resolver = new DefaultSchemaIdResolver(cache);
+
+		Grammars g1 = resolver.resolveSchemaId("./data/schema/all.xsd");
+		Grammars g2 = new DefaultSchemaIdResolver(cache)
+				.resolveSchemaId("./data/schema/all.xsd");
+		assertSame(g1, g2);
+		assertTrue(g1.isSchemaInformed());
+
+		Grammars xsdTypes = resolver.resolveSchemaId("");
+		assertSame(xsdTypes, resolver.resolveSchemaId(""));
+		assertEquals(2, cache.getMissCount());
+
+		// schema-less grammars are not cached
+		assertFalse(resolver.resolveSchemaId(null).isSchemaInformed());
+		assertEquals(2, cache.size());
+
+		try {
+			resolver.resolveSchemaId("./data/schema/doesNotExist.xsd");
+			fail("Unknown schemaId");
+		} catch (EXIException e) {
+			// expected
+		}
+		assertEquals(2, cache.size());
+
+		// no caching
+		DefaultSchemaIdResolver uncached = new DefaultSchemaIdResolver(null);
+		assertNotSame(uncached.resolveSchemaId("./data/schema/all.xsd"),
+				uncached.resolveSchemaId("./data/schema/all.xsd"));
+	}
+
+	public void testModifiedSchema() throws Exception {
+		File xsd = File.createTempFile("modified", ".xsd");
+		try {
+			writeSchema(xsd, "a");
+			GrammarCache cache = new GrammarCache();
+			DefaultSchemaIdResolver resolver = new DefaultSchemaIdResolver(
+					cache);
+
+			Grammars g1 = resolver.resolveSchemaId(xsd.getPath());
+			assertSame(g1, resolver.resolveSchemaId(xsd.getPath()));
+
+			writeSchema(xsd, "b");
+			assertTrue(xsd.setLastModified(xsd.lastModified() + 2000));
+			Grammars g2 = resolver.resolveSchemaId(xsd.getPath());
+			assertNotSame(g1, g2);
+			assertNotNull(g2.getGrammarContext().getGrammarUriContext(0)
+					.getQNameContext("b"));
+			assertSame(g2, resolver.resolveSchemaId(xsd.getPath()));
+			assertEquals(2, cache.getMissCount());
+			assertEquals(1, cache.getEvictionCount());
+		} finally {
+			xsd.delete();
+		}
+	}
+
+	static void writeSchema(File f, String element) throws Exception {
+		OutputStream os = new FileOutputStream(f);
+		try {
+			os.write(("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+					+ "<xs:element name='" + element + "' type='xs:string'/>"
+					+ "</xs:schema>").getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
+	public void testSharedCache() throws Exception {
+		assertSame(DefaultSchemaIdResolver.getSharedGrammarCache(),
+				new DefaultSchemaIdResolver().getGrammarCache());
+
+		// subclasses may load differently
+		DefaultSchemaIdResolver sub = new DefaultSchemaIdResolver() {
+		};
+		assertNotNull(sub.getGrammarCache());
+		assertNotSame(DefaultSchemaIdResolver.getSharedGrammarCache(),
+				sub.getGrammarCache());
+	}
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.grammars.GrammarFactory;
+import com.siemens.ct.exi.main.api.sax.SAXEncoder;
+import com.siemens.ct.exi.main.api.sax.SAXFactory;
+
+public class PrecompiledGrammarsTest extends TestCase {
+
+	final String xsdNotebook = "./data/W3C/PrimerNotebook/notebook.xsd";
+	final String xmlNotebook = "./data/W3C/PrimerNotebook/notebook.xml";
+
+	protected byte[] encode(Grammars grammars, String xml) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setGrammars(grammars);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SAXEncoder writer = new SAXFactory(factory).createEXIWriter();
+		writer.setOutputStream(os);
+
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		XMLReader xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setContentHandler(writer);
+		xmlReader.parse(new InputSource(xml));
+		return os.toByteArray();
+	}
+
+	protected byte[] save(Grammars grammars) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		PrecompiledGrammars.save(grammars, os);
+		return os.toByteArray();
+	}
+
+	public void testStreamRoundtrip() throws Exception {
+		Grammars g = GrammarFactory.newInstance().createGrammars(xsdNotebook);
+		Grammars g2 = PrecompiledGrammars.load(new ByteArrayInputStream(
+				save(g)));
+
+		assertTrue(g2.isSchemaInformed());
+		assertTrue(Arrays.equals(encode(g, xmlNotebook),
+				encode(g2, xmlNotebook)));
+	}
+
+	public void testXSDTypesOnlyRoundtrip() throws Exception {
+		Grammars g = GrammarFactory.newInstance().createXSDTypesOnlyGrammars();
+		Grammars g2 = PrecompiledGrammars.load(new ByteArrayInputStream(
+				save(g)));
+		assertTrue(Arrays.equals(encode(g, xmlNotebook),
+				encode(g2, xmlNotebook)));
+	}
+
+	public void testMappedAndResolver() throws Exception {
+		Grammars g = GrammarFactory.newInstance().createGrammars(xsdNotebook);
+		File f = File.createTempFile("notebook",
+				PrecompiledGrammars.FILE_EXTENSION);
+		try {
+			OutputStream os = new FileOutputStream(f);
+			PrecompiledGrammars.save(g, os);
+			os.close();
+
+			Grammars g2 = PrecompiledGrammars.loadMapped(f);
+			assertTrue(Arrays.equals(encode(g, xmlNotebook),
+					encode(g2, xmlNotebook)));
+
+			assertTrue(PrecompiledGrammars.isPrecompiled(f.getPath()));
+			DefaultSchemaIdResolver resolver = new DefaultSchemaIdResolver(null);
+			try {
+				resolver.resolveSchemaId(f.getPath());
+				fail("Precompiled grammars not enabled");
+			} catch (EXIException e) {
+				// expected
+			}
+			resolver.setLoadPrecompiledGrammars(true);
+			Grammars g3 = resolver.resolveSchemaId(f.getPath());
+			assertTrue(Arrays.equals(encode(g, xmlNotebook),
+					encode(g3, xmlNotebook)));
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testResource() throws Exception {
+		Grammars g = GrammarFactory.newInstance().createGrammars(xsdNotebook);
+		File dir = File.createTempFile("grammars", "");
+		dir.delete();
+		dir.mkdir();
+		File f = new File(dir, "notebook"
+				+ PrecompiledGrammars.FILE_EXTENSION);
+
+		ClassLoader ccl = Thread.currentThread().getContextClassLoader();
+		try {
+			OutputStream os = new FileOutputStream(f);
+			PrecompiledGrammars.save(g, os);
+			os.close();
+
+			Thread.currentThread().setContextClassLoader(
+					new URLClassLoader(new URL[] { dir.toURI().toURL() }));
+			Grammars g2 = PrecompiledGrammars.loadResource(f.getName());
+			assertTrue(Arrays.equals(encode(g, xmlNotebook),
+					encode(g2, xmlNotebook)));
+
+			// resolver falls back to classpath
+			DefaultSchemaIdResolver resolver = new DefaultSchemaIdResolver(null);
+			resolver.setLoadPrecompiledGrammars(true);
+			Grammars g3 = resolver.resolveSchemaId(f.getName());
+			assertTrue(Arrays.equals(encode(g, xmlNotebook),
+					encode(g3, xmlNotebook)));
+
+			try {
+				PrecompiledGrammars.loadResource("unknown"
+						+ PrecompiledGrammars.FILE_EXTENSION);
+				fail("No such resource");
+			} catch (EXIException e) {
+				// expected
+			}
+		} finally {
+			Thread.currentThread().setContextClassLoader(ccl);
+			f.delete();
+			dir.delete();
+		}
+	}
+
+	public void testNoPrecompiledGrammars() throws Exception {
+		try {
+			PrecompiledGrammars.load(new ByteArrayInputStream(
+					"<xs:schema/>".getBytes()));
+			fail("No precompiled grammars");
+		} catch (EXIException e) {
+			// expected
+		}
+
+		byte[] bytes = save(GrammarFactory.newInstance()
+				.createXSDTypesOnlyGrammars());
+		// unknown format version
+		bytes[PrecompiledGrammars.MAGIC.length + 3]++;
+		try {
+			PrecompiledGrammars.load(new ByteArrayInputStream(bytes));
+			fail("Unsupported version");
+		} catch (EXIException e) {
+			// expected
+		}
+	}
+
+	public void testSchemasRoundtrip() throws Exception {
+		// enumerations, lists, unions, patterns, dateTimes, simple content
+		String[] names = { "datatypes", "datatypes2", "datatypeFloat",
+				"datatypeInteger", "patterns", "personal", "po",
+				"simpleContent", "unbounded" };
+		for (String name : names) {
+			String xsd = "./data/general/" + name + ".xsd";
+			String xml = "./data/general/" + name + ".xml";
+			Grammars g = GrammarFactory.newInstance().createGrammars(xsd);
+			byte[] bytes = save(g);
+			Grammars g2 = PrecompiledGrammars.load(new ByteArrayInputStream(
+					bytes));
+			assertEquals(name, g.getSchemaId(), g2.getSchemaId());
+			assertTrue(name, Arrays.equals(encode(g, xml), encode(g2, xml)));
+			// stable artifact
+			assertTrue(name, Arrays.equals(bytes, save(g2)));
+		}
+	}
+
+	public void testSchemaLessGrammars() throws Exception {
+		try {
+			save(GrammarFactory.newInstance().createSchemaLessGrammars());
+			fail("Schema-less grammars");
+		} catch (EXIException e) {
+			// expected
+		}
+	}
+
+	public void testTruncated() throws Exception {
+		byte[] bytes = save(GrammarFactory.newInstance().createGrammars(
+				xsdNotebook));
+		try {
+			PrecompiledGrammars.load(new ByteArrayInputStream(bytes, 0,
+					bytes.length / 2));
+			fail("Truncated");
+		} catch (EOFException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamConstants;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.FidelityOptions;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.main.api.sax.SAXDecoder;
+import com.siemens.ct.exi.main.api.sax.SAXEncoder;
+import com.siemens.ct.exi.main.api.stream.StAXDecoder;
+
+public class SelfContainedIndexTest extends TestCase {
+
+	static final QName RECORD = new QName("", "record");
+	static final QName ENTRY = new QName("urn:log", "entry");
+
+	protected Path exiFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		exiFile = File.createTempFile("log", ".exi").toPath();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(exiFile);
+	}
+
+	/* log with numbered records, each holding a message */
+	protected static String createXml(int records) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<log>");
+		for (int i = 0; i < records; i++) {
+			sb.append("<record id=\"" + i + "\"><level>"
+					+ (i % 3 == 0 ? "WARN" : "INFO") + "</level><msg>Message "
+					+ i + "</msg></record>");
+		}
+		sb.append("</log>");
+		return sb.toString();
+	}
+
+	static class RecordHandler extends DefaultHandler {
+		StringBuilder sb = new StringBuilder();
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes atts) {
+			sb.append("<" + localName);
+			if (atts.getValue("id") != null) {
+				sb.append(" id=" + atts.getValue("id"));
+			}
+			sb.append(">");
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			sb.append("</" + localName + ">");
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			sb.append(ch, start, length);
+		}
+	}
+
+	protected static String expectedRecord(int i) {
+		return "<record id=" + i + "><level>" + (i % 3 == 0 ? "WARN" : "INFO")
+				+ "</level><msg>Message " + i + "</msg></record>";
+	}
+
+	protected EXIFactory createFactory(CodingMode codingMode,
+			SelfContainedIndex index) throws Exception {
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setFidelityOptions(FidelityOptions.createDefault());
+		factory.setCodingMode(codingMode);
+		index.register(factory, new QName[] { RECORD });
+		return factory;
+	}
+
+	protected void encode(EXIFactory factory, OutputStream os, int records)
+			throws Exception {
+		SAXEncoder encoder = new SAXEncoder(factory);
+		encoder.setOutputStream(os);
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		XMLReader xmlReader = spf.newSAXParser().getXMLReader();
+		xmlReader.setContentHandler(encoder);
+		xmlReader.parse(new InputSource(new StringReader(createXml(records))));
+	}
+
+	protected void _testSAX(CodingMode codingMode) throws Exception {
+		SelfContainedIndex index = new SelfContainedIndex();
+		EXIFactory factory = createFactory(codingMode, index);
+
+		// index as trailer
+		OutputStream os = Files.newOutputStream(exiFile);
+		OutputStream tracked = index.track(os);
+		encode(factory, tracked, 1000);
+		tracked.flush();
+		index.writeTo(os);
+		os.close();
+
+		assertEquals(1000, index.getNumberOfOccurrences(RECORD));
+		assertEquals(1, index.getQNames().size());
+
+		SelfContainedIndex loaded = SelfContainedIndex.load(exiFile);
+		assertEquals(1000, loaded.getNumberOfOccurrences(RECORD));
+
+		SAXDecoder decoder = new SAXDecoder(factory);
+		for (int n : new int[] { 500, 0, 999, 123 }) {
+			assertEquals(index.getOffset(RECORD, n), loaded.getOffset(RECORD,
+					n));
+			RecordHandler handler = new RecordHandler();
+			decoder.setContentHandler(handler);
+			decoder.parseSelfContained(exiFile, loaded.getOffset(RECORD, n));
+			assertEquals(expectedRecord(n), handler.sb.toString());
+		}
+
+		// buffer variant
+		ByteBuffer exi = ByteBuffer.wrap(Files.readAllBytes(exiFile));
+		RecordHandler handler = new RecordHandler();
+		decoder.setContentHandler(handler);
+		decoder.parseSelfContained(exi.duplicate(),
+				index.getOffset(RECORD, 42));
+		assertEquals(expectedRecord(42), handler.sb.toString());
+
+		// whole stream still decodes, trailer is ignored
+		handler = new RecordHandler();
+		decoder.setContentHandler(handler);
+		decoder.parse(exiFile);
+		assertTrue(handler.sb.toString().endsWith(
+				expectedRecord(999) + "</log>"));
+	}
+
+	public void testSAXBitPacked() throws Exception {
+		_testSAX(CodingMode.BIT_PACKED);
+	}
+
+	public void testSAXBytePacked() throws Exception {
+		_testSAX(CodingMode.BYTE_PACKED);
+	}
+
+	public void testStAXSidecar() throws Exception {
+		SelfContainedIndex index = new SelfContainedIndex();
+		EXIFactory factory = createFactory(CodingMode.BIT_PACKED, index);
+
+		OutputStream os = Files.newOutputStream(exiFile);
+		OutputStream tracked = index.track(os);
+		encode(factory, tracked, 200);
+		tracked.close();
+
+		// sidecar
+		ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+		index.writeTo(sidecar);
+		SelfContainedIndex loaded = SelfContainedIndex
+				.readFrom(new ByteArrayInputStream(sidecar.toByteArray()));
+
+		StAXDecoder decoder = new StAXDecoder(factory);
+		for (int n : new int[] { 150, 7 }) {
+			decoder.setInputSelfContained(exiFile, loaded.getOffset(RECORD, n));
+			StringBuilder sb = new StringBuilder();
+			while (decoder.hasNext()) {
+				switch (decoder.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					sb.append("<" + decoder.getLocalName());
+					if (decoder.getAttributeValue(null, "id") != null) {
+						sb.append(" id="
+								+ decoder.getAttributeValue(null, "id"));
+					}
+					sb.append(">");
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					sb.append("</" + decoder.getLocalName() + ">");
+					break;
+				case XMLStreamConstants.CHARACTERS:
+					sb.append(decoder.getText());
+					break;
+				}
+			}
+			assertEquals(expectedRecord(n), sb.toString());
+		}
+		decoder.close();
+	}
+
+	public void testUntrackedOutput() throws Exception {
+		SelfContainedIndex index = new SelfContainedIndex();
+		EXIFactory factory = createFactory(CodingMode.BIT_PACKED, index);
+		try {
+			encode(factory, new ByteArrayOutputStream(), 3);
+			fail("Output stream not tracked");
+		} catch (SAXException e) {
+			// expected
+		}
+	}
+
+	public void testOffsets() throws Exception {
+		SelfContainedIndex index = new SelfContainedIndex();
+		OutputStream os = index.track(new ByteArrayOutputStream());
+		os.write(new byte[10]);
+		index.scElement("", "record", null);
+		os.write(new byte[5]);
+		index.scElement("urn:log", "entry", null);
+		index.scElement("", "record", null);
+		os.write(1);
+		index.scElement("", "record", null);
+
+		assertEquals(3, index.getNumberOfOccurrences(RECORD));
+		assertEquals(1, index.getNumberOfOccurrences(ENTRY));
+		assertEquals(0, index.getNumberOfOccurrences(new QName("x")));
+		assertEquals(10, index.getOffset(RECORD, 0));
+		assertEquals(15, index.getOffset(RECORD, 1));
+		assertEquals(16, index.getOffset(RECORD, 2));
+		assertEquals(15, index.getOffset(ENTRY, 0));
+		assertEquals(RECORD, index.getQNames().get(0));
+		assertEquals(ENTRY, index.getQNames().get(1));
+		try {
+			index.getOffset(RECORD, 3);
+			fail("No such occurrence");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+
+		// trailer after arbitrary stream bytes
+		Files.write(exiFile, new byte[] { 1, 2, 3 });
+		OutputStream fos = Files.newOutputStream(exiFile,
+				StandardOpenOption.APPEND);
+		index.writeTo(fos);
+		fos.close();
+		SelfContainedIndex loaded = SelfContainedIndex.load(exiFile);
+		assertEquals(index.getQNames(), loaded.getQNames());
+		assertEquals(16, loaded.getOffset(RECORD, 2));
+		assertEquals(15, loaded.getOffset(ENTRY, 0));
+
+		// new stream starts a new index
+		index.track(new ByteArrayOutputStream());
+		assertEquals(0, index.getNumberOfOccurrences(RECORD));
+	}
+
+	public void testNoIndex() throws Exception {
+		Files.write(exiFile, createXml(3).getBytes("UTF-8"));
+		try {
+			SelfContainedIndex.load(exiFile);
+			fail("No index");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+}
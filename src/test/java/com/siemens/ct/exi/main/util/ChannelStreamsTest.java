@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ChannelStreamsTest extends TestCase {
+
+	protected static byte[] createBytes(int n) {
+		byte[] bytes = new byte[n];
+		for (int i = 0; i < n; i++) {
+			bytes[i] = (byte) (i * 17 + 3);
+		}
+		return bytes;
+	}
+
+	public void testChannelInputStream() throws Exception {
+		byte[] bytes = createBytes(3000);
+		for (boolean direct : new boolean[] { false, true }) {
+			for (int chunk : new int[] { 1, 10, 100, 1000 }) {
+				InputStream is = new ChannelInputStream(
+						Channels.newChannel(new ByteArrayInputStream(bytes)),
+						64, direct);
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				byte[] b = new byte[chunk];
+				// mix single byte and bulk reads
+				baos.write(is.read());
+				int len;
+				while ((len = is.read(b, 0, chunk)) != -1) {
+					baos.write(b, 0, len);
+				}
+				assertTrue(Arrays.equals(bytes, baos.toByteArray()));
+				assertEquals(-1, is.read());
+				is.close();
+			}
+		}
+	}
+
+	public void testChannelOutputStream() throws Exception {
+		byte[] bytes = createBytes(3000);
+		for (boolean direct : new boolean[] { false, true }) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			OutputStream os = new ChannelOutputStream(
+					Channels.newChannel(baos), 64, direct);
+			os.write(bytes[0]);
+			os.write(bytes, 1, 9);
+			os.write(bytes, 10, 990);
+			for (int i = 1000; i < 3000; i += 40) {
+				os.write(bytes, i, 40);
+			}
+			os.flush();
+			assertTrue(Arrays.equals(bytes, baos.toByteArray()));
+			os.close();
+		}
+	}
+
+	public void testByteBufferOutputStream() throws Exception {
+		for (ByteBuffer bb : new ByteBuffer[] { ByteBuffer.allocate(10),
+				ByteBuffer.allocateDirect(10) }) {
+			OutputStream os = new ByteBufferOutputStream(bb);
+			os.write(1);
+			os.write(new byte[] { 2, 3, 4 }, 0, 3);
+			assertEquals(4, bb.position());
+			try {
+				os.write(new byte[7], 0, 7);
+				fail("Capacity exceeded");
+			} catch (IOException e) {
+				// expected
+			}
+			bb.flip();
+			assertEquals(4, bb.remaining());
+			assertEquals(3, bb.get(2));
+		}
+	}
+
+	public void testBufferListOutputStream() throws Exception {
+		byte[] bytes = createBytes(1000);
+		BufferListOutputStream os = new BufferListOutputStream(64, true);
+		os.write(bytes[0]);
+		os.write(bytes, 1, 999);
+		assertEquals(1000, os.size());
+
+		ByteBuffer[] buffers = os.getBuffers();
+		assertEquals(16, buffers.length);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (ByteBuffer bb : buffers) {
+			byte[] b = new byte[bb.remaining()];
+			bb.get(b);
+			baos.write(b);
+		}
+		assertTrue(Arrays.equals(bytes, baos.toByteArray()));
+
+		// gathering write
+		Path f = Files.createTempFile("gather", ".bin");
+		try {
+			FileChannel fc = FileChannel.open(f, StandardOpenOption.WRITE);
+			assertEquals(1000, os.writeTo(fc));
+			fc.close();
+			assertTrue(Arrays.equals(bytes, Files.readAllBytes(f)));
+		} finally {
+			Files.delete(f);
+		}
+
+		// re-use
+		os.reset();
+		assertEquals(0, os.size());
+		assertEquals(0, os.getBuffers().length);
+		os.write(bytes, 0, 100);
+		assertEquals(100, os.size());
+		assertEquals(2, os.getBuffers().length);
+	}
+
+	public void testBufferListDrain() throws Exception {
+		byte[] bytes = createBytes(1000);
+		BufferListOutputStream os = new BufferListOutputStream(64, false);
+		os.setHighWaterMark(256);
+		ByteArrayOutputStream drained = new ByteArrayOutputStream();
+
+		int off = 0;
+		while (off < bytes.length) {
+			int len = Math.min(40, bytes.length - off);
+			os.write(bytes, off, len);
+			off += len;
+			// only completed chunks are handed out
+			assertEquals(os.size() - os.size() % 64, os.available());
+			if (os.isHighWaterMarkReached()) {
+				for (ByteBuffer chunk : os.drain()) {
+					assertEquals(64, chunk.remaining());
+					byte[] b = new byte[chunk.remaining()];
+					chunk.get(b);
+					drained.write(b);
+					os.recycle(chunk);
+				}
+				assertFalse(os.isHighWaterMarkReached());
+				assertTrue(os.size() < 64);
+			}
+		}
+		// partial chunk after flush
+		assertTrue(os.available() < os.size());
+		os.flush();
+		assertEquals(os.size(), os.available());
+		for (ByteBuffer chunk : os.drain()) {
+			byte[] b = new byte[chunk.remaining()];
+			chunk.get(b);
+			drained.write(b);
+		}
+		assertEquals(0, os.size());
+		assertEquals(0, os.drain().length);
+		assertTrue(Arrays.equals(bytes, drained.toByteArray()));
+
+		// writing continues in a new (recycled) chunk
+		os.write(bytes, 0, 10);
+		assertEquals(10, os.size());
+		assertEquals(0, os.available());
+		assertEquals(1, os.getBuffers().length);
+
+		// foreign buffers are not pooled
+		os.recycle(ByteBuffer.allocate(63));
+		os.recycle(ByteBuffer.allocateDirect(64));
+		os.write(bytes, 0, 1000);
+		for (ByteBuffer chunk : os.drain()) {
+			assertEquals(64, chunk.capacity());
+			assertFalse(chunk.isDirect());
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+import com.siemens.ct.exi.core.CodingMode;
+import com.siemens.ct.exi.core.EXIFactory;
+import com.siemens.ct.exi.core.helpers.DefaultEXIFactory;
+import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.main.api.sax.EXIResult;
+import com.siemens.ct.exi.main.api.sax.SAXFactory;
+
+public class CharArrayStringValueTest extends TestCase {
+
+	public void testWindow() {
+		char[] ch = "xxHelloyy".toCharArray();
+		CharArrayStringValue cv = new CharArrayStringValue();
+		cv.setCharacters(ch, 2, 5);
+
+		assertEquals(5, cv.getCharactersLength());
+		assertEquals("Hello", cv.toString());
+		assertEquals("Hello".hashCode(), cv.hashCode());
+		assertTrue(cv.equals(new StringValue("Hello")));
+		assertTrue(cv.equals("Hello"));
+
+		char[] cbuffer = new char[10];
+		cv.getCharacters(cbuffer, 3);
+		assertEquals("Hello", new String(cbuffer, 3, 5));
+		assertEquals("Hello", new String(cv.getCharacters()));
+	}
+
+	public void testReuse() {
+		char[] ch = "abcdef".toCharArray();
+		CharArrayStringValue cv = new CharArrayStringValue();
+		cv.setCharacters(ch, 0, 3);
+		assertEquals("abc", cv.toString());
+		// cached string must not survive the next window
+		cv.setCharacters(ch, 3, 3);
+		assertEquals("def", cv.toString());
+		cv.setCharacters(ch, 0, 0);
+		assertEquals("", cv.toString());
+		assertEquals(0, cv.getCharacters().length);
+	}
+
+	protected void _testRoundtrip(CodingMode codingMode) throws Exception {
+		String xml = "<root><a>foo</a><b>bar</b><a>foo</a><c>42</c></root>";
+
+		EXIFactory factory = DefaultEXIFactory.newInstance();
+		factory.setCodingMode(codingMode);
+
+		// encode
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		XMLReader xmlReader = XMLReaderFactory.createXMLReader();
+		EXIResult exiResult = new EXIResult(factory);
+		exiResult.setOutputStream(os);
+		xmlReader.setContentHandler(exiResult.getHandler());
+		xmlReader.parse(new InputSource(new StringReader(xml)));
+
+		// decode
+		final StringBuilder sb = new StringBuilder();
+		XMLReader exiReader = new SAXFactory(factory).createEXIReader();
+		exiReader.setContentHandler(new DefaultHandler() {
+			@Override
+			public void characters(char[] ch, int start, int length) {
+				sb.append(ch, start, length);
+				sb.append('|');
+			}
+		});
+		exiReader.parse(new InputSource(new ByteArrayInputStream(os
+				.toByteArray())));
+
+		assertEquals(codingMode.toString(), "foo|bar|foo|42|", sb.toString());
+	}
+
+	public void testRoundtripBitPacked() throws Exception {
+		_testRoundtrip(CodingMode.BIT_PACKED);
+	}
+
+	public void testRoundtripBytePacked() throws Exception {
+		_testRoundtrip(CodingMode.BYTE_PACKED);
+	}
+
+	public void testRoundtripCompression() throws Exception {
+		_testRoundtrip(CodingMode.COMPRESSION);
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import com.siemens.ct.exi.core.context.GrammarContext;
+import com.siemens.ct.exi.core.context.GrammarUriContext;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.values.IntegerValue;
+import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.core.values.Value;
+
+public class DecodedAttributesTest extends TestCase {
+
+	protected static QNameContext qnc(int uriID, int localNameID,
+			String uri, String localName) {
+		return new QNameContext(uriID, localNameID, new QName(uri, localName));
+	}
+
+	public void testGrowAndReuse() throws Exception {
+		DecodedAttributes atts = new DecodedAttributes(2);
+
+		for (int i = 0; i < 20; i++) {
+			atts.add(qnc(0, i, "", "a" + i), new StringValue("v" + i), null);
+		}
+		assertEquals(20, atts.size());
+		for (int i = 0; i < 20; i++) {
+			assertEquals("a" + i, atts.getQNameContext(i).getLocalName());
+			assertEquals("v" + i, atts.getValueAsString(i));
+		}
+
+		atts.clear();
+		assertEquals(0, atts.size());
+		atts.add(qnc(0, 0, "", "x"), new StringValue("y"), "p");
+		assertEquals(1, atts.size());
+		assertEquals("y", atts.getValueAsString(0));
+		assertEquals("p", atts.getPrefix(0));
+
+		try {
+			atts.getValue(1);
+			fail("index out of range");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+
+	public void testLazyString() throws Exception {
+		DecodedAttributes atts = new DecodedAttributes();
+		Value v = IntegerValue.valueOf(12345);
+		atts.add(qnc(0, 0, "", "i"), v, null);
+
+		// typed value untouched
+		assertSame(v, atts.getValue(0));
+		String s = atts.getValueAsString(0);
+		assertEquals("12345", s);
+		// cached
+		assertSame(s, atts.getValueAsString(0));
+
+		// cache does not leak into re-used slot
+		atts.clear();
+		atts.add(qnc(0, 0, "", "i"), IntegerValue.valueOf(7), null);
+		assertEquals("7", atts.getValueAsString(0));
+	}
+
+	public void testIndexOf() throws Exception {
+		DecodedAttributes atts = new DecodedAttributes();
+		atts.add(qnc(0, 0, "", "a"), new StringValue("1"), null);
+		atts.add(qnc(1, 0, "urn:foo", "a"), new StringValue("2"), "f");
+		atts.add(qnc(1, 1, "urn:foo", "b"), new StringValue("3"), "f");
+
+		assertEquals(0, atts.indexOf("", "a"));
+		assertEquals(1, atts.indexOf("urn:foo", "a"));
+		assertEquals(2, atts.indexOf(null, "b"));
+		assertEquals(0, atts.indexOf(null, "a"));
+		assertEquals(-1, atts.indexOf("urn:bla", "a"));
+		assertEquals(-1, atts.indexOf(null, "c"));
+	}
+
+	protected void _testIndexOfQNameContext(int n) throws Exception {
+		DecodedAttributes atts = new DecodedAttributes();
+		QNameContext[] qncs = new QNameContext[n];
+		for (int i = 0; i < n; i++) {
+			qncs[i] = qnc(i % 3, i, "urn:" + (i % 3), "a" + i);
+			atts.add(qncs[i], new StringValue("v" + i), null);
+		}
+
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, atts.indexOf(qncs[i]));
+			// equal ids, different instance
+			assertEquals(i, atts.indexOf(qnc(i % 3, i, "urn:" + (i % 3), "a"
+					+ i)));
+			// identical QName instance and equal QName
+			assertEquals(i, atts.indexOf(qncs[i].getQName()));
+			assertEquals(i, atts.indexOf(new QName("urn:" + (i % 3), "a" + i)));
+		}
+		assertEquals(-1, atts.indexOf(qnc(0, n + 1, "", "x")));
+		assertEquals(-1, atts.indexOf(qnc(5, 0, "urn:5", "a0")));
+		assertEquals(-1, atts.indexOf(new QName("", "a0")));
+
+		// contexts of other grammars: colliding ids, other ids for the name
+		assertEquals(-1, atts.indexOf(qnc(0, 0, "urn:other", "b0")));
+		assertEquals(n - 1, atts.indexOf(qnc(7, n + 5, "urn:" + ((n - 1) % 3),
+				"a" + (n - 1))));
+
+		// table is rebuilt for the next element
+		atts.clear();
+		atts.add(qncs[n - 1], new StringValue("last"), null);
+		assertEquals(0, atts.indexOf(qncs[n - 1]));
+		assertEquals(-1, atts.indexOf(qncs[0]));
+	}
+
+	public void testIndexOfQNameContextSmall() throws Exception {
+		_testIndexOfQNameContext(3);
+	}
+
+	public void testIndexOfQNameContextLarge() throws Exception {
+		_testIndexOfQNameContext(100);
+	}
+
+	protected void _testIndexOfGrammarQNameContext(int n) throws Exception {
+		QNameContext[] qncs = new QNameContext[n];
+		for (int i = 0; i < n; i++) {
+			qncs[i] = qnc(0, i, "urn:g", "g" + i);
+		}
+		GrammarContext gc = new GrammarContext(
+				new GrammarUriContext[] { new GrammarUriContext(0, "urn:g",
+						qncs) }, n);
+
+		// decoded: every other grammar name, a runtime name, a name of
+		// other grammars
+		DecodedAttributes atts = new DecodedAttributes();
+		atts.setGrammarContext(gc);
+		for (int i = 0; i < n; i += 2) {
+			atts.add(qncs[i], new StringValue("v" + i), null);
+		}
+		int runtime = atts.size();
+		atts.add(qnc(0, n, "urn:g", "r"), new StringValue("r"), null);
+		int other = atts.size();
+		atts.add(qnc(3, 1, "urn:g", "g1"), new StringValue("o"), null);
+
+		for (int i = 0; i < n; i++) {
+			// grammar contexts are decided by ids, no name scan
+			assertEquals((i % 2) == 0 ? i / 2 : -1, atts.indexOf(qncs[i]));
+		}
+		// runtime and other contexts are still confirmed by name
+		assertEquals(runtime, atts.indexOf(qnc(0, n, "urn:g", "r")));
+		assertEquals(other, atts.indexOf(qnc(3, 1, "urn:g", "g1")));
+		assertEquals(0, atts.indexOf(qnc(5, 0, "urn:g", "g0")));
+		assertEquals(-1, atts.indexOf(qnc(0, n + 1, "urn:g", "x")));
+
+		// no grammar context, name based fallback
+		atts.setGrammarContext(null);
+		assertEquals(other, atts.indexOf(qncs[1]));
+	}
+
+	public void testIndexOfGrammarQNameContextSmall() throws Exception {
+		_testIndexOfGrammarQNameContext(6);
+	}
+
+	public void testIndexOfGrammarQNameContextLarge() throws Exception {
+		_testIndexOfGrammarQNameContext(40);
+	}
+
+}
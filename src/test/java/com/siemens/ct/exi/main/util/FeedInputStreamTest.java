@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+package com.siemens.ct.exi.main.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class FeedInputStreamTest extends TestCase {
+
+	protected ExecutorService executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	/*
+	 * feeds the chunks one by one from another thread and waits for the feed
+	 * to complete, i.e., the source takes the stream's lock
+	 */
+	protected FeedInputStream createStream(final byte[][] chunks) {
+		return new FeedInputStream() {
+			int next;
+
+			@Override
+			protected void inputRequired() {
+				final FeedInputStream in = this;
+				Future<?> f = executor.submit(new Runnable() {
+					public void run() {
+						if (next == chunks.length) {
+							in.endOfInput();
+						} else {
+							byte[] c = chunks[next++];
+							in.feed(c, 0, c.length);
+						}
+					}
+				});
+				try {
+					f.get(10, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+	}
+
+	public void testFeedFromInputRequired() throws IOException {
+		FeedInputStream in = createStream(new byte[][] { { 1, 2 }, { 3 } });
+		assertEquals(1, in.read());
+		byte[] b = new byte[4];
+		assertEquals(1, in.read(b, 0, 4));
+		assertEquals(2, b[0]);
+		assertEquals(3, in.read());
+		assertEquals(-1, in.read());
+		assertFalse(in.isStarved());
+		assertEquals(3, in.getBytesFed());
+	}
+
+	public void testInputRequiredOncePerChunk() throws IOException {
+		final int[] requests = new int[1];
+		FeedInputStream in = new FeedInputStream() {
+			@Override
+			protected void inputRequired() {
+				if (requests[0]++ == 0) {
+					feed(new byte[] { 1, 2, 3 }, 0, 3);
+				} else {
+					endOfInput();
+				}
+			}
+		};
+		byte[] b = new byte[2];
+		assertEquals(2, in.read(b, 0, 2));
+		assertEquals(1, in.read(b, 0, 2));
+		assertEquals(1, requests[0]);
+		assertEquals(-1, in.read(b, 0, 2));
+		assertEquals(2, requests[0]);
+	}
+
+	public void testReusedBuffer() throws IOException {
+		FeedInputStream in = new FeedInputStream();
+		ByteBuffer bb = ByteBuffer.allocate(2);
+		bb.put((byte) 1).put((byte) 2).flip();
+		in.feed(bb);
+		assertEquals(1, in.read());
+		assertEquals(1, in.available());
+		assertEquals(2, in.read());
+		// more input may follow
+		assertEquals(1, in.available());
+
+		// consumed chunk is not referenced any longer
+		bb.clear();
+		bb.put((byte) 3).flip();
+		in.feed(bb);
+		assertEquals(3, in.read());
+		in.endOfInput();
+		assertEquals(0, in.available());
+		assertEquals(-1, in.read());
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.main.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class FileStreamsTest extends TestCase {
+
+	protected static byte[] createBytes(int n) {
+		byte[] bytes = new byte[n];
+		for (int i = 0; i < n; i++) {
+			bytes[i] = (byte) (i * 31 + 7);
+		}
+		return bytes;
+	}
+
+	protected static byte[] readAll(InputStream is, int chunk)
+			throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] b = new byte[chunk];
+		int len;
+		while ((len = is.read(b, 0, chunk)) != -1) {
+			baos.write(b, 0, len);
+		}
+		return baos.toByteArray();
+	}
+
+	public void testMappedFileInputStream() throws Exception {
+		byte[] bytes = createBytes(1000);
+		File f = File.createTempFile("mapped", ".bin");
+		try {
+			Files.write(f.toPath(), bytes);
+
+			// window smaller than reads and not a divisor of the size
+			for (int windowSize : new int[] { 1, 7, 64, 1000, 4096 }) {
+				for (int chunk : new int[] { 1, 13, 500, 2048 }) {
+					InputStream is = new MappedFileInputStream(f.toPath(),
+							windowSize);
+					assertEquals(1000, is.available());
+					assertTrue(Arrays.equals(bytes, readAll(is, chunk)));
+					assertEquals(0, is.available());
+					assertEquals(-1, is.read());
+					is.close();
+				}
+			}
+
+			// single bytes & skip across windows
+			InputStream is = new MappedFileInputStream(f.toPath(), 10);
+			assertEquals(bytes[0] & 0xFF, is.read());
+			assertEquals(25, is.skip(25));
+			assertEquals(bytes[26] & 0xFF, is.read());
+			assertEquals(1000 - 27, is.skip(5000));
+			assertEquals(-1, is.read());
+			is.close();
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testEmptyFile() throws Exception {
+		File f = File.createTempFile("empty", ".bin");
+		try {
+			InputStream is = new MappedFileInputStream(f.toPath());
+			assertEquals(0, is.available());
+			assertEquals(-1, is.read());
+			assertEquals(-1, is.read(new byte[4], 0, 4));
+			is.close();
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testFileChannelOutputStream() throws Exception {
+		byte[] bytes = createBytes(5000);
+		File f = File.createTempFile("channel", ".bin");
+		try {
+			OutputStream os = new FileChannelOutputStream(f.toPath(), 64);
+			os.write(bytes, 0, 10);
+			// single bytes
+			for (int i = 10; i < 100; i++) {
+				os.write(bytes[i]);
+			}
+			// larger than buffer
+			os.write(bytes, 100, 1000);
+			// buffered chunks
+			for (int i = 1100; i < 5000; i += 50) {
+				os.write(bytes, i, 50);
+			}
+			os.close();
+			// idempotent
+			os.close();
+
+			assertTrue(Arrays.equals(bytes, Files.readAllBytes(f.toPath())));
+
+			// truncates existing files
+			os = new FileChannelOutputStream(f.toPath());
+			os.write(1);
+			os.close();
+			assertEquals(1, Files.size(f.toPath()));
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testByteBufferInputStream() throws Exception {
+		byte[] bytes = createBytes(100);
+		InputStream is = new ByteBufferInputStream(ByteBuffer.wrap(bytes));
+		is.mark(0);
+		assertTrue(Arrays.equals(bytes, readAll(is, 7)));
+		is.reset();
+		assertEquals(bytes[0] & 0xFF, is.read());
+		assertEquals(100, is.skip(1000) + 1);
+		assertEquals(-1, is.read());
+	}
+
+	public void testMappedFileSkipAhead() throws Exception {
+		byte[] bytes = createBytes(1000);
+		File f = File.createTempFile("mapped", ".bin");
+		try {
+			Files.write(f.toPath(), bytes);
+
+			InputStream is = new MappedFileInputStream(f.toPath(), 16);
+			// jump before any window is mapped
+			assertEquals(500, is.skip(500));
+			assertEquals(500, is.available());
+			assertEquals(bytes[500] & 0xFF, is.read());
+			// within the current window
+			assertEquals(3, is.skip(3));
+			assertEquals(bytes[504] & 0xFF, is.read());
+			assertEquals(0, is.skip(0));
+			assertEquals(0, is.skip(-5));
+			// ahead of the current window
+			assertEquals(300, is.skip(300));
+			assertEquals(195, is.available());
+			byte[] rest = readAll(is, 64);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 805, 1000),
+					rest));
+			is.close();
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testCountingOutputStream() throws Exception {
+		byte[] bytes = createBytes(100);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		CountingOutputStream os = new CountingOutputStream(baos, 16);
+		os.write(bytes[0]);
+		os.write(bytes, 1, 9);
+		// counted while still buffered
+		assertEquals(10, os.getCount());
+		assertEquals(0, baos.size());
+		os.write(bytes, 10, 90);
+		assertEquals(100, os.getCount());
+		os.flush();
+		assertTrue(Arrays.equals(bytes, baos.toByteArray()));
+	}
+
+}